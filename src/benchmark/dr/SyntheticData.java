@@ -0,0 +1,173 @@
+/*
+ * SyntheticData.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.ConvertAlignment;
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.aminoacid.EmpiricalAminoAcidModel;
+import dr.evomodel.substmodel.aminoacid.WAG;
+import dr.evomodel.substmodel.codon.GY94CodonModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+
+/**
+ * Builds the random trees, alignments and models used by the benchmarks. Everything is drawn
+ * from MathUtils after setting a fixed seed so a given size of data set is the same from one
+ * run (and one version of BEAST) to the next.
+ */
+public class SyntheticData {
+
+    public static final long SEED = 666;
+
+    public static final String NUCLEOTIDE = "nucleotide";
+    public static final String AMINO_ACID = "aminoAcid";
+    public static final String CODON = "codon";
+
+    public static void setSeed() {
+        MathUtils.setSeed(SEED);
+    }
+
+    public static Taxa createTaxa(int taxonCount) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        return taxa;
+    }
+
+    /**
+     * @return a tree simulated under a constant size coalescent with a root height of the order of 1
+     */
+    public static TreeModel createTreeModel(Taxa taxa) {
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.YEARS);
+        demographic.setN0(1.0 / taxa.getTaxonCount());
+        return new TreeModel("treeModel", new CoalescentSimulator().simulateTree(taxa, demographic));
+    }
+
+    public static DataType getDataType(String model) {
+        if (model.equals(NUCLEOTIDE)) {
+            return Nucleotides.INSTANCE;
+        } else if (model.equals(AMINO_ACID)) {
+            return AminoAcids.INSTANCE;
+        } else if (model.equals(CODON)) {
+            return Codons.UNIVERSAL;
+        }
+        throw new IllegalArgumentException("Unknown model: " + model);
+    }
+
+    /**
+     * Creates an alignment with each state drawn uniformly at random so, for anything but a few
+     * taxa, nearly every site is a unique pattern. Codon alignments have no stop codons.
+     */
+    public static Alignment createAlignment(Taxa taxa, DataType dataType, int siteCount) {
+        SimpleAlignment alignment = new SimpleAlignment();
+
+        if (dataType instanceof Codons) {
+            Codons codons = (Codons) dataType;
+            alignment.setDataType(Nucleotides.INSTANCE);
+            for (int i = 0; i < taxa.getTaxonCount(); i++) {
+                StringBuilder sequence = new StringBuilder();
+                for (int j = 0; j < siteCount; j++) {
+                    sequence.append(codons.getTriplet(MathUtils.nextInt(codons.getStateCount())));
+                }
+                alignment.addSequence(new Sequence(taxa.getTaxon(i), sequence.toString()));
+            }
+            return new ConvertAlignment(codons, alignment);
+        }
+
+        alignment.setDataType(dataType);
+        for (int i = 0; i < taxa.getTaxonCount(); i++) {
+            StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < siteCount; j++) {
+                sequence.append(dataType.getCode(MathUtils.nextInt(dataType.getStateCount())));
+            }
+            alignment.addSequence(new Sequence(taxa.getTaxon(i), sequence.toString()));
+        }
+        return alignment;
+    }
+
+    public static PatternList createPatterns(Alignment alignment) {
+        return new SitePatterns(alignment, null, 0, -1, 1, true);
+    }
+
+    /**
+     * @return HKY, WAG or GY94 depending on the data type, with equal frequencies
+     */
+    public static SubstitutionModel createSubstitutionModel(DataType dataType) {
+        int stateCount = dataType.getStateCount();
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 1.0 / stateCount;
+        }
+        FrequencyModel frequencyModel = new FrequencyModel(dataType, frequencies);
+
+        if (dataType instanceof Nucleotides) {
+            return new HKY(2.0, frequencyModel);
+        } else if (dataType instanceof AminoAcids) {
+            return new EmpiricalAminoAcidModel(WAG.INSTANCE, frequencyModel);
+        } else if (dataType instanceof Codons) {
+            return new GY94CodonModel((Codons) dataType, new Parameter.Default(0.1),
+                    new Parameter.Default(2.0), frequencyModel);
+        }
+        throw new IllegalArgumentException("No substitution model for data type: " + dataType.getDescription());
+    }
+
+    /**
+     * Moves the height of an internal node to a uniform position between its oldest child and
+     * its parent (or to within 10% of the current height for the root).
+     */
+    public static void moveNodeHeight(TreeModel treeModel, int internalNodeIndex) {
+        NodeRef node = treeModel.getInternalNode(internalNodeIndex);
+        double lower = Math.max(
+                treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        double upper;
+        if (treeModel.isRoot(node)) {
+            upper = treeModel.getNodeHeight(node) * 1.1;
+        } else {
+            upper = treeModel.getNodeHeight(treeModel.getParent(node));
+        }
+        treeModel.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+}
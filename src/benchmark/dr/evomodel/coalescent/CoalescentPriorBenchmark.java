@@ -0,0 +1,111 @@
+/*
+ * CoalescentPriorBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package benchmark.dr.evomodel.coalescent;
+
+import benchmark.dr.SyntheticData;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.coalescent.GMRFSkyrideLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the constant size coalescent and the GMRF skyride tree priors on a synthetic tree,
+ * both from scratch and after a change to a single node height.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CoalescentPriorBenchmark {
+
+    public static final String CONSTANT = "constant";
+    public static final String SKYRIDE = "skyride";
+
+    @Param({CONSTANT, SKYRIDE})
+    public String prior;
+
+    @Param({"32", "128", "512"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private AbstractModelLikelihood likelihood;
+    private int nodeIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticData.setSeed();
+
+        treeModel = SyntheticData.createTreeModel(SyntheticData.createTaxa(taxonCount));
+
+        if (prior.equals(CONSTANT)) {
+            likelihood = new CoalescentLikelihood(treeModel, null, new ArrayList<TaxonList>(),
+                    new ConstantPopulationModel(new Parameter.Default(1.0), Units.Type.YEARS));
+        } else if (prior.equals(SKYRIDE)) {
+            // the skyride has one (log) population size for each coalescent interval
+            int intervalCount = taxonCount - 1;
+            likelihood = new GMRFSkyrideLikelihood(treeModel,
+                    new Parameter.Default(intervalCount, 0.0),
+                    new Parameter.Default(intervalCount, 1.0),
+                    new Parameter.Default(1.0),
+                    new Parameter.Default(1.0),
+                    null, null, false, true);
+        } else {
+            throw new IllegalArgumentException("Unknown prior: " + prior);
+        }
+        likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightChange() {
+        treeModel.storeModelState();
+        likelihood.storeModelState();
+
+        SyntheticData.moveNodeHeight(treeModel, nodeIndex);
+        nodeIndex = (nodeIndex + 1) % treeModel.getInternalNodeCount();
+        double logL = likelihood.getLogLikelihood();
+
+        treeModel.restoreModelState();
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * TreeOperatorBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package benchmark.dr.evomodel.operators;
+
+import benchmark.dr.SyntheticData;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeLeapOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.SimpleMCMCOperator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times a proposal by one of the common tree operators, including the store and restore of
+ * the tree that surrounds it in an MCMC step, on a synthetic tree without any likelihood
+ * attached so only the cost of the move itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TreeOperatorBenchmark {
+
+    public static final String SUBTREE_LEAP = "subtreeLeap";
+    public static final String NARROW_EXCHANGE = "narrowExchange";
+    public static final String WIDE_EXCHANGE = "wideExchange";
+
+    @Param({SUBTREE_LEAP, NARROW_EXCHANGE, WIDE_EXCHANGE})
+    public String operatorType;
+
+    @Param({"32", "128", "512"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private SimpleMCMCOperator operator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.setSeed();
+
+        treeModel = SyntheticData.createTreeModel(SyntheticData.createTaxa(taxonCount));
+
+        if (operatorType.equals(SUBTREE_LEAP)) {
+            double size = treeModel.getNodeHeight(treeModel.getRoot()) / taxonCount;
+            operator = new SubtreeLeapOperator(treeModel, 1.0, size,
+                    SubtreeLeapOperator.DistanceKernelType.NORMAL, AdaptationMode.ADAPTATION_OFF, 0.234);
+        } else if (operatorType.equals(NARROW_EXCHANGE)) {
+            operator = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        } else if (operatorType.equals(WIDE_EXCHANGE)) {
+            operator = new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0);
+        } else {
+            throw new IllegalArgumentException("Unknown operator: " + operatorType);
+        }
+    }
+
+    @Benchmark
+    public double proposeAndRestore() {
+        treeModel.storeModelState();
+        double logHastingsRatio = operator.doOperation();
+        treeModel.restoreModelState();
+        return logHastingsRatio;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * TreeModelStoreRestoreBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package benchmark.dr.evomodel.tree;
+
+import benchmark.dr.SyntheticData;
+import dr.evomodel.tree.TreeModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the store, change and restore (or accept) of a TreeModel that each MCMC step makes
+ * when an operator changes a node height.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TreeModelStoreRestoreBenchmark {
+
+    @Param({"32", "128", "512"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private int nodeIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.setSeed();
+        treeModel = SyntheticData.createTreeModel(SyntheticData.createTaxa(taxonCount));
+    }
+
+    @Benchmark
+    public double storeRestore() {
+        treeModel.storeModelState();
+        SyntheticData.moveNodeHeight(treeModel, nodeIndex);
+        nodeIndex = (nodeIndex + 1) % treeModel.getInternalNodeCount();
+        treeModel.restoreModelState();
+        return treeModel.getNodeHeight(treeModel.getRoot());
+    }
+
+    @Benchmark
+    public double storeAccept() {
+        treeModel.storeModelState();
+        SyntheticData.moveNodeHeight(treeModel, nodeIndex);
+        nodeIndex = (nodeIndex + 1) % treeModel.getInternalNodeCount();
+        treeModel.acceptModelState();
+        return treeModel.getNodeHeight(treeModel.getRoot());
+    }
+}
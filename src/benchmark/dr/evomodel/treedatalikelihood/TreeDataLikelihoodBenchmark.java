@@ -0,0 +1,111 @@
+/*
+ * TreeDataLikelihoodBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package benchmark.dr.evomodel.treedatalikelihood;
+
+import benchmark.dr.SyntheticData;
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.util.Taxa;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the calculation of a TreeDataLikelihood (using the Java delegate) on synthetic data,
+ * both from scratch and for the partial update that follows a change to a single node height
+ * as it would be in an MCMC step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TreeDataLikelihoodBenchmark {
+
+    @Param({SyntheticData.NUCLEOTIDE, SyntheticData.AMINO_ACID, SyntheticData.CODON})
+    public String model;
+
+    @Param({"32", "128"})
+    public int taxonCount;
+
+    @Param({"1000"})
+    public int siteCount;
+
+    @Param({"1"})
+    public int threadCount;
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+    private int nodeIndex = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticData.setSeed();
+
+        Taxa taxa = SyntheticData.createTaxa(taxonCount);
+        treeModel = SyntheticData.createTreeModel(taxa);
+
+        DataType dataType = SyntheticData.getDataType(model);
+        PatternList patterns = SyntheticData.createPatterns(SyntheticData.createAlignment(taxa, dataType, siteCount));
+
+        JavaDataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                new HomogeneousBranchModel(SyntheticData.createSubstitutionModel(dataType)),
+                new GammaSiteRateModel("siteRateModel", 0.5, 4),
+                false, PartialsRescalingScheme.DEFAULT, threadCount);
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+        likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightChange() {
+        treeModel.storeModelState();
+        likelihood.storeModelState();
+
+        SyntheticData.moveNodeHeight(treeModel, nodeIndex);
+        nodeIndex = (nodeIndex + 1) % treeModel.getInternalNodeCount();
+        double logL = likelihood.getLogLikelihood();
+
+        treeModel.restoreModelState();
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * ParameterStoreRestoreBenchmark.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package benchmark.dr.inference.model;
+
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the store, change and restore (or accept) of a Parameter.Default that each MCMC step
+ * makes for the parameters touched by the operator.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ParameterStoreRestoreBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int dimension;
+
+    private Parameter parameter;
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MathUtils.setSeed(666);
+        parameter = new Parameter.Default(dimension, 1.0);
+    }
+
+    @Benchmark
+    public double storeRestore() {
+        parameter.storeParameterValues();
+        parameter.setParameterValue(index, MathUtils.nextDouble());
+        index = (index + 1) % dimension;
+        parameter.restoreParameterValues();
+        return parameter.getParameterValue(0);
+    }
+
+    @Benchmark
+    public double storeAccept() {
+        parameter.storeParameterValues();
+        parameter.setParameterValue(index, MathUtils.nextDouble());
+        index = (index + 1) % dimension;
+        parameter.acceptParameterValues();
+        return parameter.getParameterValue(0);
+    }
+}
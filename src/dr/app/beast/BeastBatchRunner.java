@@ -0,0 +1,373 @@
+/*
+ * BeastBatchRunner.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beast;
+
+import dr.inference.model.AnalysisContext;
+import dr.util.ErrorLogHandler;
+import dr.util.Version;
+import dr.xml.XMLParser;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Runs a batch of BEAST XML files in this JVM, several at a time, so the start up of the JVM,
+ * the loading of the parsers and the compilation of the code are only paid for once.
+ *
+ * The batch is either a directory, in which case all the .xml files in it are run, or a file
+ * listing the XML files one per line, each optionally followed by the seed for that run. Each
+ * run has its own AnalysisContext with its own random number seed (if not given, the seed of
+ * the batch plus the number of the run) and writes its log files, and everything it prints,
+ * to a directory of its own named after the XML file. Each run also has its own count of the
+ * numerical errors it tolerates. A summary of the time taken by each run and whether it failed
+ * is written at the end.
+ */
+public class BeastBatchRunner {
+
+    public static final String SUMMARY_FILE_NAME = "batch_summary.txt";
+    public static final String OUTPUT_FILE_SUFFIX = ".out";
+
+    private static final String XML_SUFFIX = ".xml";
+
+    private final static Version version = new BeastVersion();
+
+    public BeastBatchRunner(File batchFile, long seed, boolean verbose, boolean parserWarnings,
+                            boolean strictXML, List<String> additionalParsers) throws IOException {
+        this.verbose = verbose;
+        this.parserWarnings = parserWarnings;
+        this.strictXML = strictXML;
+        this.additionalParsers = additionalParsers;
+
+        readJobs(batchFile, seed);
+    }
+
+    /**
+     * Runs all the XML files and writes the summary.
+     *
+     * @param threadCount the number of files to run at the same time
+     * @param maxErrorCount the number of numerical errors each run tolerates
+     * @param summaryFile the file to write the summary to
+     * @return true if all the runs completed
+     */
+    public boolean run(int threadCount, final int maxErrorCount, File summaryFile) throws IOException {
+        final PrintStream console = System.out;
+        final PrintStream error = System.err;
+        final Thread.UncaughtExceptionHandler uncaughtExceptionHandler = Thread.getDefaultUncaughtExceptionHandler();
+
+        // everything printed by the threads of a run goes to its own output file
+        System.setOut(new PrintStream(new JobOutputStream(System.out), true));
+        System.setErr(new PrintStream(new JobOutputStream(System.err), true));
+
+        // the errors logged by the threads of a run count towards that run's maximum
+        Handler errorLogHandler = new JobErrorLogHandler(maxErrorCount);
+        try {
+            BeastMain.installLogHandlers(verbose, errorLogHandler);
+
+            // an exception on a thread started by a run (such as the one running the chain)
+            // fails that run
+            Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                public void uncaughtException(Thread thread, Throwable throwable) {
+                    Job job = currentJob.get();
+                    if (job != null && job.failure == null) {
+                        job.failure = throwable;
+                    }
+                    System.err.println("Exception in thread \"" + thread.getName() + "\"");
+                    throwable.printStackTrace(System.err);
+                }
+            });
+
+            console.println("Running " + jobs.size() + " BEAST XML files on " + threadCount + " threads");
+
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            for (final Job job : jobs) {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        runJob(job, maxErrorCount);
+                        synchronized (console) {
+                            console.println(job.name + ": " + (job.failure == null ? "completed" : "FAILED") +
+                                    " in " + (job.time / 1000.0) + " seconds");
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            try {
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return writeSummary(summaryFile, console);
+        } finally {
+            Logger.getLogger("error").removeHandler(errorLogHandler);
+            Thread.setDefaultUncaughtExceptionHandler(uncaughtExceptionHandler);
+            System.setOut(console);
+            System.setErr(error);
+        }
+    }
+
+    private void runJob(Job job, int maxErrorCount) {
+        currentJob.set(job);
+        job.errorLog = new ErrorLogHandler(maxErrorCount);
+
+        AnalysisContext context = new AnalysisContext(job.seed);
+        context.setWorkingDirectory(job.outputDirectory);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            if (!job.outputDirectory.isDirectory() && !job.outputDirectory.mkdirs()) {
+                throw new IOException("Unable to create the output directory, " + job.outputDirectory);
+            }
+            job.output = new BufferedOutputStream(new FileOutputStream(
+                    new File(job.outputDirectory, job.name + OUTPUT_FILE_SUFFIX)));
+
+            System.out.println("Running file: " + job.inputFile.getAbsolutePath());
+            System.out.println("Random number seed: " + job.seed);
+            System.out.println();
+
+            XMLParser parser = new BeastParser(new String[]{job.inputFile.getName()}, additionalParsers,
+                    verbose, parserWarnings, strictXML, version);
+            BeastMain.addPluginParsers(parser);
+            parser.setAnalysisContext(context);
+
+            FileReader reader = new FileReader(job.inputFile);
+            try {
+                parser.parse(reader, true);
+            } finally {
+                reader.close();
+            }
+        } catch (Throwable throwable) {
+            // one run failing shouldn't stop the others
+            if (job.failure == null) {
+                job.failure = throwable;
+            }
+            throwable.printStackTrace(System.err);
+        } finally {
+            job.time = System.currentTimeMillis() - startTime;
+
+            context.close();
+            AnalysisContext.setCurrent(null);
+
+            System.out.flush();
+            System.err.flush();
+            currentJob.remove();
+
+            if (job.output != null) {
+                try {
+                    job.output.close();
+                } catch (IOException ioe) {
+                    // the run itself is done
+                }
+            }
+        }
+    }
+
+    private boolean writeSummary(File summaryFile, PrintStream console) throws IOException {
+        int failureCount = 0;
+
+        PrintWriter writer = new PrintWriter(new FileWriter(summaryFile));
+        writer.println("file\tseed\tstatus\ttime\toutput\tmessage");
+        for (Job job : jobs) {
+            String message = "";
+            if (job.failure != null) {
+                message = job.failure.getMessage() != null ? job.failure.getMessage() : job.failure.getClass().getName();
+                failureCount++;
+            }
+            writer.println(job.inputFile.getPath() + "\t" + job.seed + "\t" +
+                    (job.failure == null ? "completed" : "failed") + "\t" + (job.time / 1000.0) + "\t" +
+                    job.outputDirectory.getPath() + "\t" + message.replace('\t', ' ').replace('\n', ' '));
+        }
+        writer.close();
+
+        console.println((jobs.size() - failureCount) + " of " + jobs.size() + " files completed, " +
+                failureCount + " failed (see " + summaryFile.getPath() + ")");
+
+        return failureCount == 0;
+    }
+
+    /**
+     * Reads the XML files from a directory or a list of them, one per line with an optional seed.
+     * Files in a list are relative to the list's directory.
+     */
+    private void readJobs(File batchFile, long seed) throws IOException {
+        List<File> inputFiles = new ArrayList<File>();
+        List<Long> seeds = new ArrayList<Long>();
+
+        if (batchFile.isDirectory()) {
+            File[] files = batchFile.listFiles(new FileFilter() {
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().toLowerCase().endsWith(XML_SUFFIX);
+                }
+            });
+            Arrays.sort(files);
+            for (File file : files) {
+                inputFiles.add(file);
+                seeds.add(null);
+            }
+        } else {
+            BufferedReader reader = new BufferedReader(new FileReader(batchFile));
+            String line = reader.readLine();
+            while (line != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    String[] fields = line.split("\\s+");
+                    File file = new File(fields[0]);
+                    if (!file.isAbsolute()) {
+                        file = new File(batchFile.getAbsoluteFile().getParentFile(), fields[0]);
+                    }
+                    inputFiles.add(file);
+                    try {
+                        seeds.add(fields.length > 1 ? Long.parseLong(fields[1]) : null);
+                    } catch (NumberFormatException nfe) {
+                        reader.close();
+                        throw new IOException("Unable to parse the seed for " + fields[0] + " in " + batchFile);
+                    }
+                }
+                line = reader.readLine();
+            }
+            reader.close();
+        }
+
+        if (inputFiles.size() == 0) {
+            throw new IOException("No XML files found in " + batchFile);
+        }
+
+        File outputRoot = new File(System.getProperty("user.dir"));
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < inputFiles.size(); i++) {
+            File inputFile = inputFiles.get(i);
+
+            String name = inputFile.getName();
+            if (name.toLowerCase().endsWith(XML_SUFFIX)) {
+                name = name.substring(0, name.length() - XML_SUFFIX.length());
+            }
+            // the same file (or name) can be run more than once
+            String uniqueName = name;
+            int copy = 1;
+            while (!names.add(uniqueName)) {
+                copy++;
+                uniqueName = name + "_" + copy;
+            }
+
+            long jobSeed = (seeds.get(i) != null ? seeds.get(i) : seed + i);
+            jobs.add(new Job(inputFile, uniqueName, new File(outputRoot, uniqueName), jobSeed));
+        }
+    }
+
+    private static class Job {
+        Job(File inputFile, String name, File outputDirectory, long seed) {
+            this.inputFile = inputFile;
+            this.name = name;
+            this.outputDirectory = outputDirectory;
+            this.seed = seed;
+        }
+
+        final File inputFile;
+        final String name;
+        final File outputDirectory;
+        final long seed;
+
+        OutputStream output = null;
+        ErrorLogHandler errorLog = null;
+        volatile Throwable failure = null;
+        long time = 0;
+    }
+
+    /**
+     * Sends the output of a thread belonging to a run to that run's output file. Threads started
+     * by a run belong to it too.
+     */
+    private static class JobOutputStream extends OutputStream {
+        JobOutputStream(OutputStream defaultStream) {
+            this.defaultStream = defaultStream;
+        }
+
+        public void write(int b) throws IOException {
+            getStream().write(b);
+        }
+
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            getStream().write(bytes, offset, length);
+        }
+
+        public void flush() throws IOException {
+            getStream().flush();
+        }
+
+        private OutputStream getStream() {
+            Job job = currentJob.get();
+            return (job != null && job.output != null ? job.output : defaultStream);
+        }
+
+        private final OutputStream defaultStream;
+    }
+
+    /**
+     * Counts the errors logged by the threads of each run separately so one run reaching the
+     * maximum number of errors doesn't stop the others.
+     */
+    private static class JobErrorLogHandler extends Handler {
+        JobErrorLogHandler(int maxErrorCount) {
+            defaultErrorLog = new ErrorLogHandler(maxErrorCount);
+        }
+
+        public void publish(LogRecord record) {
+            if (isLoggable(record)) {
+                getErrorLog().publish(record);
+            }
+        }
+
+        public void flush() {
+            getErrorLog().flush();
+        }
+
+        public void close() {
+            defaultErrorLog.close();
+        }
+
+        private ErrorLogHandler getErrorLog() {
+            Job job = currentJob.get();
+            return (job != null && job.errorLog != null ? job.errorLog : defaultErrorLog);
+        }
+
+        private final ErrorLogHandler defaultErrorLog;
+    }
+
+    private static final InheritableThreadLocal<Job> currentJob = new InheritableThreadLocal<Job>();
+
+    private final boolean verbose;
+    private final boolean parserWarnings;
+    private final boolean strictXML;
+    private final List<String> additionalParsers;
+
+    private final List<Job> jobs = new ArrayList<Job>();
+}
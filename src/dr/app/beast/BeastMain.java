@@ -30,11 +30,15 @@ import beagle.BeagleInfo;
 import dr.app.checkpoint.BeastCheckpointer;
 import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
+import dr.app.realtime.CheckPointUpdateWatcher;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.loggers.MCLogger;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
+import dr.inference.model.AnalysisContext;
+import dr.inferencexml.loggers.LoggerParser;
 import dr.math.MathUtils;
 import dr.util.ErrorLogHandler;
 import dr.util.MessageLogHandler;
@@ -81,7 +85,7 @@ public class BeastMain {
 
     public BeastMain(File inputFile, BeastConsoleApp consoleApp, int maxErrorCount, final boolean verbose,
                      boolean parserWarning, boolean strictXML, List<String> additionalParsers,
-                     boolean useMC3, double[] chainTemperatures, int swapChainsEvery) {
+                     boolean useMC3, double[] chainTemperatures, int swapChainsEvery, boolean adaptTemperatures) {
 
         if (inputFile == null) {
             throw new RuntimeException("Error: no input file specified");
@@ -100,74 +104,69 @@ public class BeastMain {
                 consoleApp.parser = parser;
             }
 
-            // Add a handler to handle warnings and errors. This is a ConsoleHandler
-            // so the messages will go to StdOut..
+            installLogHandlers(verbose, maxErrorCount);
             Logger logger = Logger.getLogger("dr");
 
-            Handler messageHandler = new MessageLogHandler();
-            messageHandler.setFilter(new Filter() {
-                public boolean isLoggable(LogRecord record) {
-                    return record.getLevel().intValue() < Level.WARNING.intValue();
-                }
-            });
-            logger.addHandler(messageHandler);
-
-            // Add a handler to handle warnings and errors. This is a ConsoleHandler
-            // so the messages will go to StdErr..
-            Handler errorHandler = new ConsoleHandler();
-            errorHandler.setFilter(new Filter() {
-                public boolean isLoggable(LogRecord record) {
-                    if (verbose) {
-                        return record.getLevel().intValue() >= Level.WARNING.intValue();
-                    } else {
-                        return record.getLevel().intValue() >= Level.SEVERE.intValue();
-                    }
-                }
-            });
-            infoLogger.addHandler(errorHandler);
-
-            if (System.getProperty("citations.filename") != null) {
-                FileOutputStream citationStream = new FileOutputStream(System.getProperty("citations.filename"));
-                Handler citationHandler = new MessageLogHandler(citationStream);
-                Logger.getLogger("dr.apps.beast").addHandler(citationHandler);
-            }
-
-            logger.setUseParentHandlers(false);
-
             infoLogger.info("Parsing XML file: " + fileName);
             infoLogger.info("  File encoding: " + fileReader.getEncoding());
 
-            // This is a special logger that is for logging numerical and statistical errors
-            // during the MCMC run. It will tolerate up to maxErrorCount before throwing a
-            // RuntimeException to shut down the run.
-            Logger errorLogger = Logger.getLogger("error");
-            messageHandler = new ErrorLogHandler(maxErrorCount);
-            messageHandler.setLevel(Level.WARNING);
-            errorLogger.addHandler(messageHandler);
-
-            for (String pluginName : PluginLoader.getAvailablePlugins()) {
-                Plugin plugin = PluginLoader.loadPlugin(pluginName);
-                if (plugin != null) {
-                    Set<XMLObjectParser> parserSet = plugin.getParsers();
-                    for (XMLObjectParser pluginParser : parserSet) {
-                        parser.addXMLObjectParser(pluginParser);
-                    }
-                }
-            }
+            addPluginParsers(parser);
 
             // Install the checkpointer. This creates a factory that returns
             // appropriate savers and loaders according to the user's options.
             new BeastCheckpointer();
 
-            if (!useMC3) {
+            CheckPointUpdateWatcher updateWatcher = CheckPointUpdateWatcher.create();
+
+            if (!useMC3 && updateWatcher == null) {
                 // just parse the file running all threads...
 
                 parser.parse(fileReader, true);
 
+            } else if (!useMC3) {
+                // parse without running so that the chain can be replaced by a re-parsed one when taxa are added
+                MCMC mcmc = (MCMC) parser.parse(fileReader, MCMC.class);
+                if (mcmc == null) {
+                    throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
+                }
+                fileReader.close();
+
+                File update = updateWatcher.run(mcmc);
+                while (update != null) {
+                    infoLogger.info("Parsing " + update.getName() + " and continuing from the stopped state with its additional taxa");
+
+                    AnalysisContext previousContext = parser.getAnalysisContext();
+
+                    FileReader updateReader = new FileReader(update);
+                    parser = new BeastParser(new String[]{update.getName()}, additionalParsers, verbose, parserWarning, strictXML, version);
+                    if (consoleApp != null) {
+                        consoleApp.parser = parser;
+                    }
+                    addPluginParsers(parser);
+
+                    // the update's loggers carry on with the log files of the stopped chain
+                    System.setProperty(LoggerParser.APPEND_LOGS, Boolean.TRUE.toString());
+                    try {
+                        mcmc = (MCMC) parser.parse(updateReader, MCMC.class);
+                    } finally {
+                        System.clearProperty(LoggerParser.APPEND_LOGS);
+                    }
+                    if (mcmc == null) {
+                        throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
+                    }
+                    updateReader.close();
+
+                    // the stopped chain is no longer needed
+                    previousContext.close();
+
+                    updateWatcher.extend(mcmc);
+                    update = updateWatcher.run(mcmc);
+                }
+
             } else {
                 int chainCount = chainTemperatures.length;
                 MCMC[] chains = new MCMC[chainCount];
-                MCMCMCOptions options = new MCMCMCOptions(chainTemperatures, swapChainsEvery);
+                MCMCMCOptions options = new MCMCMCOptions(chainTemperatures, swapChainsEvery, adaptTemperatures);
 
                 Logger.getLogger("dr.apps.beast").info("Starting cold chain plus hot chains with temperatures: ");
                 for (int i = 1; i < chainTemperatures.length; i++) {
@@ -185,6 +184,9 @@ public class BeastMain {
 
                 chainTemperatures[0] = 1.0;
 
+                // the hot chains are part of the same analysis
+                AnalysisContext analysisContext = parser.getAnalysisContext();
+
                 for (int i = 1; i < chainCount; i++) {
                     // parse the file once for each hot chain
                     fileReader = new FileReader(inputFile);
@@ -194,6 +196,7 @@ public class BeastMain {
                     logger.setLevel(Level.OFF);
 
                     parser = new BeastParser(new String[]{fileName}, additionalParsers, verbose, parserWarning, strictXML, version);
+                    parser.setAnalysisContext(analysisContext);
 
                     chains[i] = (MCMC) parser.parse(fileReader, MCMC.class);
                     if (chains[i] == null) {
@@ -205,9 +208,9 @@ public class BeastMain {
                 // restart messages
                 logger.setLevel(Level.ALL);
 
+                // run on this thread (the chains get their own) so that main doesn't exit before it finishes
                 MCMCMC mc3 = new MCMCMC(chains, options);
-                Thread thread = new Thread(mc3);
-                thread.start();
+                mc3.run();
             }
 
         } catch (java.io.IOException ioe) {
@@ -281,6 +284,83 @@ public class BeastMain {
         }
     }
 
+    /**
+     * Adds the handlers that print the messages logged during a run: information to stdout,
+     * warnings and errors to stderr (and citations to a file if one was given) and the handler
+     * that stops a run after too many numerical errors.
+     */
+    static void installLogHandlers(final boolean verbose, int maxErrorCount) throws IOException {
+        installLogHandlers(verbose, new ErrorLogHandler(maxErrorCount));
+    }
+
+    /**
+     * @param errorLogHandler the handler that counts the numerical errors logged during a run and stops it
+     */
+    static void installLogHandlers(final boolean verbose, Handler errorLogHandler) throws IOException {
+        Logger infoLogger = Logger.getLogger("dr.app.beast");
+
+        // Add a handler to handle warnings and errors. This is a ConsoleHandler
+        // so the messages will go to StdOut..
+        Logger logger = Logger.getLogger("dr");
+
+        Handler messageHandler = new MessageLogHandler();
+        messageHandler.setFilter(new Filter() {
+            public boolean isLoggable(LogRecord record) {
+                return record.getLevel().intValue() < Level.WARNING.intValue();
+            }
+        });
+        logger.addHandler(messageHandler);
+
+        // Add a handler to handle warnings and errors. This is a ConsoleHandler
+        // so the messages will go to StdErr..
+        Handler errorHandler = new ConsoleHandler() {
+            // flush each message before another thread's is written
+            public synchronized void publish(LogRecord record) {
+                super.publish(record);
+            }
+        };
+        errorHandler.setFilter(new Filter() {
+            public boolean isLoggable(LogRecord record) {
+                if (verbose) {
+                    return record.getLevel().intValue() >= Level.WARNING.intValue();
+                } else {
+                    return record.getLevel().intValue() >= Level.SEVERE.intValue();
+                }
+            }
+        });
+        infoLogger.addHandler(errorHandler);
+
+        if (System.getProperty("citations.filename") != null) {
+            FileOutputStream citationStream = new FileOutputStream(System.getProperty("citations.filename"));
+            Handler citationHandler = new MessageLogHandler(citationStream);
+            Logger.getLogger("dr.apps.beast").addHandler(citationHandler);
+        }
+
+        logger.setUseParentHandlers(false);
+
+        // This is a special logger that is for logging numerical and statistical errors
+        // during the MCMC run. It will tolerate up to maxErrorCount before throwing a
+        // RuntimeException to shut down the run.
+        Logger errorLogger = Logger.getLogger("error");
+        errorLogHandler.setLevel(Level.WARNING);
+        errorLogger.addHandler(errorLogHandler);
+    }
+
+    /**
+     * Adds the parsers of any plugins that are available.
+     */
+    static void addPluginParsers(XMLParser parser) {
+        for (String pluginName : PluginLoader.getAvailablePlugins()) {
+            Plugin plugin = PluginLoader.loadPlugin(pluginName);
+            if (plugin != null) {
+                Set<XMLObjectParser> parserSet = plugin.getParsers();
+                for (XMLObjectParser pluginParser : parserSet) {
+                    parser.addXMLObjectParser(pluginParser);
+                }
+            }
+        }
+    }
+
     public static void centreLine(String line, int pageWidth) {
         int n = pageWidth - line.length();
         int n1 = n / 2;
@@ -334,12 +414,17 @@ public class BeastMain {
                         new Arguments.LongOption("seed", "Specify a random number generator seed"),
                         new Arguments.StringOption("prefix", "PREFIX", "Specify a prefix for all output log filenames"),
                         new Arguments.Option("overwrite", "Allow overwriting of log files"),
+                        new Arguments.Option("async_logging", "Format and write the log files on a background thread"),
+                        new Arguments.Option("binary_log", "Also write each log file as a columnar binary trace (.btrace)"),
                         new Arguments.IntegerOption("errors", "Specify maximum number of numerical errors before stopping"),
                         new Arguments.IntegerOption("threads", "The number of computational threads to use (default auto)"),
                         new Arguments.Option("java", "Use Java only, no native implementations"),
                         new Arguments.LongOption("tests", "The number of full evaluation tests to perform (default 1000)"),
                         new Arguments.RealOption("threshold", 0.0, Double.MAX_VALUE, "Full evaluation test threshold (default 0.1)"),
 
+                        new Arguments.StringOption("metrics_log", "FILENAME", "Write the time spent in each operator and likelihood to a file"),
+                        new Arguments.LongOption("metrics_every", "The number of states between writes of the metrics (default 1% of the chain)"),
+
                         new Arguments.Option("adaptation_off", "Don't adapt operator sizes"),
                         new Arguments.RealOption("adaptation_target", 0.0, 1.0, "Target acceptance rate for adaptive operators (default 0.234)"),
 
@@ -372,16 +457,26 @@ public class BeastMain {
                         new Arguments.RealOption("mc3_delta", 0.0, Double.MAX_VALUE, "temperature increment parameter"),
                         new Arguments.RealArrayOption("mc3_temperatures", -1, "a comma-separated list of the hot chain temperatures"),
                         new Arguments.IntegerOption("mc3_swap", 1, Integer.MAX_VALUE, "frequency at which chains temperatures will be swapped"),
+                        new Arguments.Option("mc3_adapt", "adapt the hot chain temperatures towards a common swap acceptance rate during burn-in"),
 
                         new Arguments.StringOption("load_state", "FILENAME", "Specify a filename to load a saved state from"),
                         new Arguments.StringOption("save_stem", "FILENAME", "Specify a stem for the filenames to save states to"),
                         new Arguments.LongOption("save_at", "Specify a state at which to save a state file"),
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
+                        new Arguments.Option("save_binary", "Save states in a binary file that only records changes between complete saves"),
+                        new Arguments.IntegerOption("save_full_every", 1, Integer.MAX_VALUE, "Specify the number of binary saves between complete ones"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
+                        new Arguments.StringOption("checkpoint_update", "FOLDER", "Watch a folder for BEAST XML files with additional taxa; when one appears, stop the chain, parse it and continue from the stopped state extended as CheckPointUpdaterApp would"),
+                        new Arguments.LongOption("checkpoint_update_every", "Specify how often (in states) to check the checkpoint update folder"),
+                        new Arguments.StringOption("checkpoint_update_choice", "UPDATECHOICE", "Specify how to place added taxa: JC69Distance, F84Distance or Simple"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
 
+                        new Arguments.StringOption("batch", "FILE|FOLDER", "Run all the XML files in a folder, or listed in a file (one per line optionally followed by a seed), in this JVM"),
+                        new Arguments.IntegerOption("batch_threads", 1, Integer.MAX_VALUE, "The number of XML files in a batch to run at the same time (default the number of processors)"),
+                        new Arguments.StringOption("batch_summary", "FILENAME", "Specify a filename to write the summary of a batch to (default " + BeastBatchRunner.SUMMARY_FILE_NAME + ")"),
+
                         new Arguments.Option("version", "Print the version and credits and stop"),
                         new Arguments.Option("help", "Print this information and stop"),
                 });
@@ -454,6 +549,7 @@ public class BeastMain {
         boolean usingMC3 = false;
         double[] chainTemperatures = null;
         int swapChainsEvery = DEFAULT_SWAP_CHAIN_EVERY;
+        boolean adaptTemperatures = false;
 
         if (arguments.hasOption("particles")) {
             System.setProperty("smc.particle_folder", arguments.getStringOption("particles"));
@@ -462,9 +558,19 @@ public class BeastMain {
             System.setProperty("mcmc.evaluation.count", Long.toString(0));
         }
 
-        // smc option is always run without GUI.
-        final boolean window = !usingSMC && arguments.hasOption("window");
-        final boolean options = !usingSMC && (arguments.hasOption("options") || (argumentCount == 0));
+        File batchFile = null;
+        if (arguments.hasOption("batch")) {
+            batchFile = new File(arguments.getStringOption("batch"));
+            if (!batchFile.exists()) {
+                printTitle();
+                System.err.println("The batch file or folder, " + batchFile + ", does not exist");
+                System.exit(1);
+            }
+        }
+
+        // smc and batch options are always run without GUI.
+        final boolean window = !usingSMC && batchFile == null && arguments.hasOption("window");
+        final boolean options = !usingSMC && batchFile == null && (arguments.hasOption("options") || (argumentCount == 0));
 
         if (!usingSMC) {
             if (arguments.hasOption("tests")) {
@@ -522,6 +628,8 @@ public class BeastMain {
                 swapChainsEvery = arguments.getIntegerOption("mc3_swap");
             }
 
+            adaptTemperatures = arguments.hasOption("mc3_adapt");
+
             usingMC3 = chainCount > 1;
         }
 
@@ -620,6 +728,13 @@ public class BeastMain {
             }
         }
 
+        if (arguments.hasOption("metrics_log")) {
+            System.setProperty("mcmc.metrics.file", arguments.getStringOption("metrics_log"));
+        }
+        if (arguments.hasOption("metrics_every")) {
+            System.setProperty("mcmc.metrics.every", Long.toString(arguments.getLongOption("metrics_every")));
+        }
+
         if (arguments.hasOption("adaptation_off")) {
             System.setProperty("mcmc.use_adaptation", Boolean.FALSE.toString());
         }
@@ -656,10 +771,34 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.SAVE_STEM, stemName);
             }
 
+            if (arguments.hasOption("save_binary")) {
+                System.setProperty(BeastCheckpointer.SAVE_STATE_BINARY, Boolean.TRUE.toString());
+            }
+
+            if (arguments.hasOption("save_full_every")) {
+                int fullEvery = arguments.getIntegerOption("save_full_every");
+                System.setProperty(BeastCheckpointer.SAVE_STATE_FULL_EVERY, Integer.toString(fullEvery));
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
 
+            if (arguments.hasOption("checkpoint_update")) {
+                String folderName = arguments.getStringOption("checkpoint_update");
+                System.setProperty(CheckPointUpdateWatcher.UPDATE_FOLDER, folderName);
+            }
+
+            if (arguments.hasOption("checkpoint_update_every")) {
+                long updateEvery = arguments.getLongOption("checkpoint_update_every");
+                System.setProperty(CheckPointUpdateWatcher.UPDATE_EVERY, Long.toString(updateEvery));
+            }
+
+            if (arguments.hasOption("checkpoint_update_choice")) {
+                String choice = arguments.getStringOption("checkpoint_update_choice");
+                System.setProperty(CheckPointUpdateWatcher.UPDATE_CHOICE, choice);
+            }
+
             if (arguments.hasOption("citations_file")) {
                 String debugStateFile = arguments.getStringOption("citations_file");
                 System.setProperty("citations.filename", debugStateFile);
@@ -809,7 +948,7 @@ public class BeastMain {
             return;
         }
 
-        if (inputFile == null) {
+        if (inputFile == null && batchFile == null) {
 
             String[] args2 = arguments.getLeftoverArguments();
 
@@ -858,6 +997,14 @@ public class BeastMain {
             System.setProperty("log.allow.overwrite", "true");
         }
 
+        if (arguments.hasOption("async_logging")) {
+            System.setProperty(MCLogger.ASYNCHRONOUS_LOGGING, "true");
+        }
+
+        if (arguments.hasOption("binary_log")) {
+            System.setProperty(LoggerParser.BINARY_TRACE_LOGGING, "true");
+        }
+
         additionalParsers.add("beagle");
 
         if (beagleFlags != 0) {
@@ -871,11 +1018,30 @@ public class BeastMain {
 
         MathUtils.setSeed(seed);
 
+        if (batchFile != null) {
+            int batchThreadCount = Runtime.getRuntime().availableProcessors();
+            if (arguments.hasOption("batch_threads")) {
+                batchThreadCount = arguments.getIntegerOption("batch_threads");
+            }
+            File summaryFile = new File(arguments.hasOption("batch_summary") ?
+                    arguments.getStringOption("batch_summary") : BeastBatchRunner.SUMMARY_FILE_NAME);
+
+            boolean completed = false;
+            try {
+                BeastBatchRunner batchRunner = new BeastBatchRunner(batchFile, seed, verbose, warnings, strictXML,
+                        additionalParsers);
+                completed = batchRunner.run(batchThreadCount, maxErrorCount, summaryFile);
+            } catch (IOException ioe) {
+                System.err.println("Unable to run the batch: " + ioe.getMessage());
+            }
+            System.exit(completed ? 0 : 1);
+        }
+
         System.out.println("Random number seed: " + seed);
 
         try {
             new BeastMain(inputFile, consoleApp, maxErrorCount, verbose, warnings, strictXML, additionalParsers,
-                    usingMC3, chainTemperatures, swapChainsEvery);
+                    usingMC3, chainTemperatures, swapChainsEvery, adaptTemperatures);
         } catch (RuntimeException rte) {
             // The stack trace here is not useful
 //            rte.printStackTrace(System.err);
@@ -30,6 +30,7 @@ import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tree.TreeParameterModel;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
@@ -61,8 +62,14 @@ public class BeastCheckpointer implements StateLoaderSaver {
     public final static String SAVE_STATE_EVERY = "save.state.every";
     public final static String SAVE_STEM = "save.state.stem";
 
+    public final static String SAVE_STATE_BINARY = "save.state.binary";
+    public final static String SAVE_STATE_FULL_EVERY = "save.state.full.every";
+
     public final static String FORCE_RESUME = "force.resume";
 
+    // the number of incremental saves to a binary state file between complete ones
+    private final static int DEFAULT_FULL_SAVE_EVERY = 20;
+
     private final String loadStateFileName;
     private final String saveStateFileName;
 
@@ -70,10 +77,21 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private boolean forceResume = false;
 
+    // null if the state files are written as text
+    private final BinaryStateFile binaryStateFile;
+
     public BeastCheckpointer() {
         loadStateFileName = System.getProperty(LOAD_STATE_FILE, null);
         saveStateFileName = System.getProperty(SAVE_STATE_FILE, null);
 
+        if (Boolean.parseBoolean(System.getProperty(SAVE_STATE_BINARY, "false"))) {
+            int fullSaveEvery = Integer.parseInt(System.getProperty(SAVE_STATE_FULL_EVERY,
+                    Integer.toString(DEFAULT_FULL_SAVE_EVERY)));
+            binaryStateFile = new BinaryStateFile(fullSaveEvery);
+        } else {
+            binaryStateFile = null;
+        }
+
         stemFileName = System.getProperty(SAVE_STEM, null);
 
         final List<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
@@ -218,6 +236,10 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        if (binaryStateFile != null) {
+            return writeBinaryStateToFile(file, state, lnL, markovChain);
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
         OutputStream fileOut = null;
@@ -235,13 +257,27 @@ public class BeastCheckpointer implements StateLoaderSaver {
             }
             out.println();
 
+            // any independent streams used by concurrent chains
+            for (int index = 0; index < MathUtils.getRandomStreamCount(); index++) {
+                int[] streamState = MathUtils.getRandomStreamState(index);
+                if (streamState != null) {
+                    out.print("rng.stream\t");
+                    out.print(index);
+                    for (int i = 0; i < streamState.length; i++) {
+                        out.print("\t");
+                        out.print(streamState[i]);
+                    }
+                    out.println();
+                }
+            }
+
             out.print("state\t");
             out.println(state);
 
             out.print("lnL\t");
             out.println(lnL);
 
-            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            for (Parameter parameter : AnalysisContext.getCurrent().getConnectedParameterSet()) {
                 if (!parameter.isImmutable()) {
                     out.print("parameter");
                     out.print("\t");
@@ -273,14 +309,14 @@ public class BeastCheckpointer implements StateLoaderSaver {
             }
 
             //check up front if there are any TreeParameterModel objects
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
                 if (model instanceof TreeParameterModel) {
                     //System.out.println("\nDetected TreeParameterModel: " + ((TreeParameterModel) model).toString());
                     traitModels.add((TreeParameterModel) model);
                 }
             }
 
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
 
                 if (model instanceof TreeModel) {
                     out.print("tree");
@@ -353,7 +389,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
         }
 
         if (DEBUG) {
-            for (Likelihood likelihood : Likelihood.CONNECTED_LIKELIHOOD_SET) {
+            for (Likelihood likelihood : AnalysisContext.getCurrent().getConnectedLikelihoodSet()) {
                 System.err.println(likelihood.getId() + ": " + likelihood.getLogLikelihood());
             }
         }
@@ -362,6 +398,14 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
+        try {
+            if (BinaryStateFile.isBinaryStateFile(file)) {
+                return readBinaryStateFromFile(file, markovChain, lnL);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
         long state = -1;
@@ -373,6 +417,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
             BufferedReader in = new BufferedReader(fileIn);
 
             int[] rngState = null;
+            Map<Integer, int[]> streamStates = new HashMap<Integer, int[]>();
 
             String line = in.readLine();
             String[] fields = line.split("\t");
@@ -392,6 +437,21 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 fields = line.split("\t");
             }
 
+            while (fields[0].equals("rng.stream")) {
+                try {
+                    int[] streamState = new int[fields.length - 2];
+                    for (int i = 0; i < streamState.length; i++) {
+                        streamState[i] = Integer.parseInt(fields[i + 2]);
+                    }
+                    streamStates.put(Integer.parseInt(fields[1]), streamState);
+                } catch (NumberFormatException nfe) {
+                    throw new RuntimeException("Unable to read random number stream from state file");
+                }
+
+                line = in.readLine();
+                fields = line.split("\t");
+            }
+
             try {
                 if (!fields[0].equals("state")) {
                     throw new RuntimeException("Unable to read state number from state file");
@@ -414,7 +474,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 throw new RuntimeException("Unable to read lnL from state file");
             }
 
-            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            for (Parameter parameter : AnalysisContext.getCurrent().getConnectedParameterSet()) {
 
                 line = in.readLine();
                 fields = line.split("\t");
@@ -483,7 +543,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
             //store list of TreeModels for debugging purposes
             ArrayList<TreeModel> treeModelList = new ArrayList<TreeModel>();
 
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
 
                 if (model instanceof TreeModel) {
                     if (DEBUG) {
@@ -532,7 +592,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                     System.out.println("\ntree: " + fields[1]);
                 }
 
-                for (Model model : Model.CONNECTED_MODEL_SET) {
+                for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
                     if (model instanceof TreeModel && fields[1].equals(model.getModelName())) {
                         line = in.readLine();
                         line = in.readLine();
@@ -630,7 +690,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
             if (DEBUG) {
                 System.out.println("\nDouble checking:");
-                for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+                for (Parameter parameter : AnalysisContext.getCurrent().getConnectedParameterSet()) {
                     if (parameter.getParameterName().equals("branchRates.categories.rootNodeNumber")) {
                         System.out.println(parameter.getParameterName() + ": " + parameter.getParameterValue(0));
                     }
@@ -645,12 +705,15 @@ public class BeastCheckpointer implements StateLoaderSaver {
             if (rngState != null) {
                 MathUtils.setRandomState(rngState);
             }
+            for (Map.Entry<Integer, int[]> entry : streamStates.entrySet()) {
+                MathUtils.setRandomStreamState(entry.getKey(), entry.getValue());
+            }
 
             in.close();
             fileIn.close();
 
             //This shouldn't be necessary and if it is then it might be hiding a bug...
-            /*for (Likelihood likelihood : Likelihood.CONNECTED_LIKELIHOOD_SET) {
+            /*for (Likelihood likelihood : AnalysisContext.getCurrent().getConnectedLikelihoodSet()) {
                 likelihood.makeDirty();
             }*/
 
@@ -661,4 +724,206 @@ public class BeastCheckpointer implements StateLoaderSaver {
         return state;
     }
 
+    private boolean writeBinaryStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+
+        BinaryStateFile.Checkpoint checkpoint = new BinaryStateFile.Checkpoint();
+
+        checkpoint.rngState = MathUtils.getRandomState();
+        for (int index = 0; index < MathUtils.getRandomStreamCount(); index++) {
+            int[] streamState = MathUtils.getRandomStreamState(index);
+            if (streamState != null) {
+                checkpoint.streamStates.put(index, streamState);
+            }
+        }
+
+        checkpoint.state = state;
+        checkpoint.lnL = lnL;
+
+        int parameterCount = AnalysisContext.getCurrent().getConnectedParameterSet().size();
+        checkpoint.parameterNames = new String[parameterCount];
+        checkpoint.parameterValues = new double[parameterCount][];
+        int index = 0;
+        for (Parameter parameter : AnalysisContext.getCurrent().getConnectedParameterSet()) {
+            String name = parameter.getParameterName();
+            checkpoint.parameterNames[index] = (name != null ? name : "");
+            if (!parameter.isImmutable()) {
+                double[] values = new double[parameter.getDimension()];
+                for (int dim = 0; dim < values.length; dim++) {
+                    values[dim] = parameter.getParameterValue(dim);
+                }
+                checkpoint.parameterValues[index] = values;
+            }
+            index++;
+        }
+
+        int operatorCount = operatorSchedule.getOperatorCount();
+        checkpoint.operatorNames = new String[operatorCount];
+        checkpoint.acceptCounts = new long[operatorCount];
+        checkpoint.rejectCounts = new long[operatorCount];
+        checkpoint.adaptableParameters = new double[operatorCount];
+        for (int i = 0; i < operatorCount; i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            checkpoint.operatorNames[i] = operator.getOperatorName();
+            checkpoint.acceptCounts[i] = operator.getAcceptCount();
+            checkpoint.rejectCounts[i] = operator.getRejectCount();
+            checkpoint.adaptableParameters[i] = (operator instanceof AdaptableMCMCOperator ?
+                    ((AdaptableMCMCOperator) operator).getAdaptableParameter() : Double.NaN);
+        }
+
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
+            if (model instanceof TreeModel) {
+                TreeModel treeModel = (TreeModel) model;
+                int nodeCount = treeModel.getNodeCount();
+
+                ArrayList<TreeParameterModel> linkedModels = new ArrayList<TreeParameterModel>();
+                for (TreeParameterModel tpm : traitModels) {
+                    if (model == tpm.getTreeModel()) {
+                        linkedModels.add(tpm);
+                    }
+                }
+
+                BinaryStateFile.TreeState tree = new BinaryStateFile.TreeState();
+                tree.name = model.getModelName();
+                tree.nodeHeights = new double[nodeCount];
+                tree.taxaNames = new String[treeModel.getExternalNodeCount()];
+                tree.parents = new int[nodeCount];
+                tree.childOrder = new int[nodeCount];
+                tree.traitValues = new double[linkedModels.size()][nodeCount];
+
+                for (int i = 0; i < nodeCount; i++) {
+                    NodeRef node = treeModel.getNode(i);
+                    tree.nodeHeights[i] = treeModel.getNodeHeight(node);
+                    if (treeModel.isExternal(node)) {
+                        tree.taxaNames[i] = treeModel.getNodeTaxon(node).getId();
+                    }
+
+                    NodeRef parent = treeModel.getParent(node);
+                    if (parent != null) {
+                        tree.parents[i] = parent.getNumber();
+                        if (treeModel.getChild(parent, 0) == node) {
+                            tree.childOrder[i] = 0;
+                        } else if (treeModel.getChild(parent, 1) == node) {
+                            tree.childOrder[i] = 1;
+                        } else {
+                            throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                        }
+                        for (int j = 0; j < linkedModels.size(); j++) {
+                            tree.traitValues[j][i] = linkedModels.get(j).getNodeValue(treeModel, node);
+                        }
+                    } else {
+                        tree.parents[i] = -1;
+                        tree.childOrder[i] = -1;
+                    }
+                }
+
+                checkpoint.trees.add(tree);
+            }
+        }
+
+        try {
+            binaryStateFile.write(file, checkpoint);
+        } catch (IOException ioe) {
+            System.err.println("Unable to write file: " + ioe.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    private long readBinaryStateFromFile(File file, MarkovChain markovChain, double[] lnL) throws IOException {
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+
+        BinaryStateFile.Checkpoint checkpoint = BinaryStateFile.read(file);
+
+        if (lnL != null) {
+            lnL[0] = checkpoint.lnL;
+        }
+
+        if (checkpoint.parameterValues.length != AnalysisContext.getCurrent().getConnectedParameterSet().size()) {
+            throw new RuntimeException("Unable to match state parameters: found " + checkpoint.parameterValues.length +
+                    ", expecting " + AnalysisContext.getCurrent().getConnectedParameterSet().size());
+        }
+        int index = 0;
+        for (Parameter parameter : AnalysisContext.getCurrent().getConnectedParameterSet()) {
+            double[] values = checkpoint.parameterValues[index];
+            if (values != null) {
+                if (values.length != parameter.getDimension()) {
+                    System.err.println("Unable to match state parameter dimension: " + values.length + ", expecting " +
+                            parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+                }
+                for (int dim = 0; dim < Math.min(values.length, parameter.getDimension()); dim++) {
+                    parameter.setParameterValue(dim, values[dim]);
+                }
+            }
+            index++;
+        }
+
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            if (i >= checkpoint.operatorNames.length || !checkpoint.operatorNames[i].equals(operator.getOperatorName())) {
+                throw new RuntimeException("Unable to match operator: " + operator.getOperatorName());
+            }
+            operator.setAcceptCount(checkpoint.acceptCounts[i]);
+            operator.setRejectCount(checkpoint.rejectCounts[i]);
+            if (operator instanceof AdaptableMCMCOperator) {
+                if (Double.isNaN(checkpoint.adaptableParameters[i])) {
+                    throw new RuntimeException("Coercable operator missing parameter: " + operator.getOperatorName());
+                }
+                ((AdaptableMCMCOperator) operator).setAdaptableParameter(checkpoint.adaptableParameters[i]);
+            }
+        }
+
+        // load the tree models last as we get the node heights from the tree
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<TreeParameterModel>();
+        for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+
+        for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
+            if (model instanceof TreeModel) {
+                BinaryStateFile.TreeState tree = null;
+                for (BinaryStateFile.TreeState treeState : checkpoint.trees) {
+                    if (treeState.name.equals(model.getModelName())) {
+                        tree = treeState;
+                    }
+                }
+                if (tree == null) {
+                    throw new RuntimeException("\nExpecting, but unable to match state parameter:" + model.getModelName());
+                }
+
+                ArrayList<TreeParameterModel> linkedModels = new ArrayList<TreeParameterModel>();
+                for (TreeParameterModel tpm : traitModels) {
+                    if (model == tpm.getTreeModel()) {
+                        linkedModels.add(tpm);
+                    }
+                }
+
+                TreeModel treeModel = (TreeModel) model;
+                treeModel.beginTreeEdit();
+                treeModel.adoptTreeStructure(tree.parents, tree.nodeHeights, tree.childOrder, tree.taxaNames);
+                if (linkedModels.size() > 0) {
+                    treeModel.adoptTraitData(tree.parents, linkedModels, tree.traitValues, tree.taxaNames);
+                }
+                treeModel.endTreeEdit();
+            }
+        }
+
+        MathUtils.setRandomState(checkpoint.rngState);
+        for (Map.Entry<Integer, int[]> entry : checkpoint.streamStates.entrySet()) {
+            MathUtils.setRandomStreamState(entry.getKey(), entry.getValue());
+        }
+
+        return checkpoint.state;
+    }
+
 }
@@ -0,0 +1,464 @@
+/*
+ * BinaryStateFile.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.checkpoint;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A binary state file for the BeastCheckpointer. The file starts with a complete checkpoint which is
+ * written to a temporary file and then renamed over the previous one so a crash never leaves a
+ * half written file. Subsequent saves to the same file append a record with only the parameters and
+ * trees that have changed since the last save. Every record carries a checksum so a record that was
+ * only partly appended is ignored on loading and the previous state is used instead. A complete
+ * checkpoint is written again every fullSaveEvery saves to stop the file growing.
+ */
+public class BinaryStateFile {
+
+    private static final int MAGIC = 0x42535446; // "BSTF"
+    private static final int VERSION = 1;
+
+    private static final byte FULL_RECORD = 0;
+    private static final byte DELTA_RECORD = 1;
+
+    // the largest record written or read so a corrupt length is reported rather than allocated
+    private static final int MAX_RECORD_LENGTH = 1 << 30;
+
+    private static final byte UNCHANGED = 0;
+    private static final byte ALL_VALUES = 1;
+    private static final byte SOME_VALUES = 2;
+
+    public BinaryStateFile(int fullSaveEvery) {
+        this.fullSaveEvery = fullSaveEvery;
+    }
+
+    /**
+     * The contents of a checkpoint. Parameters and operators are in the order of the connected
+     * parameter set and the operator schedule, as they are in the text format.
+     */
+    public static class Checkpoint {
+        public int[] rngState;
+        public Map<Integer, int[]> streamStates = new TreeMap<Integer, int[]>();
+        public long state;
+        public double lnL;
+
+        // values are null for immutable parameters
+        public String[] parameterNames;
+        public double[][] parameterValues;
+
+        public String[] operatorNames;
+        public long[] acceptCounts;
+        public long[] rejectCounts;
+        // NaN for operators that are not adaptable
+        public double[] adaptableParameters;
+
+        public List<TreeState> trees = new ArrayList<TreeState>();
+    }
+
+    /**
+     * The structure of a tree indexed by node number with the values of any trait models on it.
+     */
+    public static class TreeState {
+        public String name;
+        public double[] nodeHeights;
+        public String[] taxaNames;
+        public int[] parents;
+        public int[] childOrder;
+        public double[][] traitValues;
+
+        boolean sameAs(TreeState other) {
+            return Arrays.equals(nodeHeights, other.nodeHeights) &&
+                    Arrays.equals(parents, other.parents) &&
+                    Arrays.equals(childOrder, other.childOrder) &&
+                    Arrays.deepEquals(traitValues, other.traitValues);
+        }
+    }
+
+    public static boolean isBinaryStateFile(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (EOFException eofe) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the checkpoint as a change to the last one if it is going to the same file, otherwise
+     * as a complete checkpoint.
+     */
+    public void write(File file, Checkpoint checkpoint) throws IOException {
+        if (lastCheckpoint == null || !file.equals(lastFile) || savesSinceFull >= fullSaveEvery ||
+                !sameStructure(lastCheckpoint, checkpoint)) {
+            writeFull(file, checkpoint);
+            savesSinceFull = 0;
+        } else {
+            appendDelta(file, lastCheckpoint, checkpoint);
+            savesSinceFull++;
+        }
+        lastCheckpoint = checkpoint;
+        lastFile = file;
+    }
+
+    private void writeFull(File file, Checkpoint checkpoint) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeRecord(out, encode(FULL_RECORD, null, checkpoint));
+        out.flush();
+        fileOut.getFD().sync();
+        out.close();
+
+        if (!tempFile.renameTo(file)) {
+            // some platforms won't rename over an existing file
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("unable to rename " + tempFile + " to " + file);
+            }
+        }
+    }
+
+    private void appendDelta(File file, Checkpoint previous, Checkpoint checkpoint) throws IOException {
+        FileOutputStream fileOut = new FileOutputStream(file, true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+        writeRecord(out, encode(DELTA_RECORD, previous, checkpoint));
+        out.flush();
+        fileOut.getFD().sync();
+        out.close();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        if (payload.length > MAX_RECORD_LENGTH) {
+            throw new IOException("checkpoint is too large for a binary state file (" + payload.length + " bytes)");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeLong(crc.getValue());
+    }
+
+    private static byte[] encode(byte recordType, Checkpoint previous, Checkpoint checkpoint) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(recordType);
+
+        writeInts(out, checkpoint.rngState);
+        out.writeInt(checkpoint.streamStates.size());
+        for (Map.Entry<Integer, int[]> entry : checkpoint.streamStates.entrySet()) {
+            out.writeInt(entry.getKey());
+            writeInts(out, entry.getValue());
+        }
+
+        out.writeLong(checkpoint.state);
+        out.writeDouble(checkpoint.lnL);
+
+        out.writeInt(checkpoint.parameterValues.length);
+        for (int i = 0; i < checkpoint.parameterValues.length; i++) {
+            double[] values = checkpoint.parameterValues[i];
+            if (previous == null) {
+                out.writeUTF(checkpoint.parameterNames[i]);
+            }
+            if (values == null) {
+                out.writeByte(UNCHANGED);
+            } else if (previous == null) {
+                out.writeByte(ALL_VALUES);
+                writeDoubles(out, values);
+            } else {
+                double[] previousValues = previous.parameterValues[i];
+                int changedCount = 0;
+                for (int j = 0; j < values.length; j++) {
+                    if (Double.doubleToLongBits(values[j]) != Double.doubleToLongBits(previousValues[j])) {
+                        changedCount++;
+                    }
+                }
+                if (changedCount == 0) {
+                    out.writeByte(UNCHANGED);
+                } else if (changedCount * 12 < values.length * 8) {
+                    // fewer bytes as (index, value) pairs
+                    out.writeByte(SOME_VALUES);
+                    out.writeInt(changedCount);
+                    for (int j = 0; j < values.length; j++) {
+                        if (Double.doubleToLongBits(values[j]) != Double.doubleToLongBits(previousValues[j])) {
+                            out.writeInt(j);
+                            out.writeDouble(values[j]);
+                        }
+                    }
+                } else {
+                    out.writeByte(ALL_VALUES);
+                    writeDoubles(out, values);
+                }
+            }
+        }
+
+        out.writeInt(checkpoint.operatorNames.length);
+        for (int i = 0; i < checkpoint.operatorNames.length; i++) {
+            out.writeUTF(checkpoint.operatorNames[i]);
+            out.writeLong(checkpoint.acceptCounts[i]);
+            out.writeLong(checkpoint.rejectCounts[i]);
+            out.writeDouble(checkpoint.adaptableParameters[i]);
+        }
+
+        out.writeInt(checkpoint.trees.size());
+        for (int i = 0; i < checkpoint.trees.size(); i++) {
+            TreeState tree = checkpoint.trees.get(i);
+            out.writeUTF(tree.name);
+            if (previous != null && tree.sameAs(previous.trees.get(i))) {
+                out.writeByte(UNCHANGED);
+            } else {
+                out.writeByte(ALL_VALUES);
+                writeDoubles(out, tree.nodeHeights);
+                out.writeInt(tree.taxaNames.length);
+                for (String taxon : tree.taxaNames) {
+                    out.writeUTF(taxon);
+                }
+                writeInts(out, tree.parents);
+                writeInts(out, tree.childOrder);
+                out.writeInt(tree.traitValues.length);
+                for (double[] values : tree.traitValues) {
+                    writeDoubles(out, values);
+                }
+            }
+        }
+
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the complete checkpoint at the start of the file and applies any changes appended after it.
+     */
+    public static Checkpoint read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a binary state file");
+            }
+            int version = in.readInt();
+            if (version > VERSION) {
+                throw new IOException("binary state file version " + version + " is not supported");
+            }
+
+            long remaining = file.length() - 8;
+
+            byte[] payload = readRecord(in, remaining);
+            if (payload == null) {
+                throw new IOException("binary state file is incomplete");
+            }
+            Checkpoint checkpoint = decode(payload, null);
+            remaining -= payload.length + 12;
+
+            payload = readRecord(in, remaining);
+            while (payload != null) {
+                checkpoint = decode(payload, checkpoint);
+                remaining -= payload.length + 12;
+                payload = readRecord(in, remaining);
+            }
+
+            return checkpoint;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param remaining the number of bytes left in the file
+     * @return the payload of the next record or null if there are no more complete records
+     * @throws IOException if the record's length is one that is never written
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length == 0) {
+                // space for a record that was never written
+                return null;
+            }
+            if (length < 0 || length > MAX_RECORD_LENGTH) {
+                throw new IOException("binary state file has a corrupt record length (" + length + ")");
+            }
+            if (length + 12L > remaining) {
+                // the last record was only partly written
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            long checksum = in.readLong();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return payload;
+        } catch (EOFException eofe) {
+            // the last record was only partly written
+            return null;
+        }
+    }
+
+    private static Checkpoint decode(byte[] payload, Checkpoint previous) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte recordType = in.readByte();
+        if ((recordType == FULL_RECORD) != (previous == null)) {
+            throw new IOException("binary state file records are out of order");
+        }
+
+        Checkpoint checkpoint = new Checkpoint();
+
+        checkpoint.rngState = readInts(in);
+        int streamCount = in.readInt();
+        for (int i = 0; i < streamCount; i++) {
+            int index = in.readInt();
+            checkpoint.streamStates.put(index, readInts(in));
+        }
+
+        checkpoint.state = in.readLong();
+        checkpoint.lnL = in.readDouble();
+
+        int parameterCount = in.readInt();
+        checkpoint.parameterNames = (previous == null ? new String[parameterCount] : previous.parameterNames);
+        checkpoint.parameterValues = new double[parameterCount][];
+        for (int i = 0; i < parameterCount; i++) {
+            if (previous == null) {
+                checkpoint.parameterNames[i] = in.readUTF();
+            }
+            byte type = in.readByte();
+            if (type == ALL_VALUES) {
+                checkpoint.parameterValues[i] = readDoubles(in);
+            } else if (type == SOME_VALUES) {
+                double[] values = previous.parameterValues[i].clone();
+                int changedCount = in.readInt();
+                for (int j = 0; j < changedCount; j++) {
+                    int index = in.readInt();
+                    values[index] = in.readDouble();
+                }
+                checkpoint.parameterValues[i] = values;
+            } else {
+                checkpoint.parameterValues[i] = (previous == null ? null : previous.parameterValues[i]);
+            }
+        }
+
+        int operatorCount = in.readInt();
+        checkpoint.operatorNames = new String[operatorCount];
+        checkpoint.acceptCounts = new long[operatorCount];
+        checkpoint.rejectCounts = new long[operatorCount];
+        checkpoint.adaptableParameters = new double[operatorCount];
+        for (int i = 0; i < operatorCount; i++) {
+            checkpoint.operatorNames[i] = in.readUTF();
+            checkpoint.acceptCounts[i] = in.readLong();
+            checkpoint.rejectCounts[i] = in.readLong();
+            checkpoint.adaptableParameters[i] = in.readDouble();
+        }
+
+        int treeCount = in.readInt();
+        for (int i = 0; i < treeCount; i++) {
+            String name = in.readUTF();
+            byte type = in.readByte();
+            if (type == UNCHANGED) {
+                checkpoint.trees.add(previous.trees.get(i));
+            } else {
+                TreeState tree = new TreeState();
+                tree.name = name;
+                tree.nodeHeights = readDoubles(in);
+                tree.taxaNames = new String[in.readInt()];
+                for (int j = 0; j < tree.taxaNames.length; j++) {
+                    tree.taxaNames[j] = in.readUTF();
+                }
+                tree.parents = readInts(in);
+                tree.childOrder = readInts(in);
+                tree.traitValues = new double[in.readInt()][];
+                for (int j = 0; j < tree.traitValues.length; j++) {
+                    tree.traitValues[j] = readDoubles(in);
+                }
+                checkpoint.trees.add(tree);
+            }
+        }
+
+        return checkpoint;
+    }
+
+    /**
+     * A delta can only be written if the parameters and trees are the same shape as the last save
+     */
+    private static boolean sameStructure(Checkpoint previous, Checkpoint checkpoint) {
+        if (previous.parameterValues.length != checkpoint.parameterValues.length ||
+                previous.trees.size() != checkpoint.trees.size()) {
+            return false;
+        }
+        for (int i = 0; i < checkpoint.parameterValues.length; i++) {
+            double[] values = checkpoint.parameterValues[i];
+            double[] previousValues = previous.parameterValues[i];
+            if ((values == null) != (previousValues == null) ||
+                    (values != null && values.length != previousValues.length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    private final int fullSaveEvery;
+
+    private Checkpoint lastCheckpoint = null;
+    private File lastFile = null;
+    private int savesSinceFull = 0;
+}
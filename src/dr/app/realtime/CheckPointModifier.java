@@ -31,6 +31,7 @@ import dr.evolution.tree.NodeRef;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tree.TreeParameterModel;
 import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.operators.AdaptableMCMCOperator;
@@ -58,6 +59,7 @@ public class CheckPointModifier extends BeastCheckpointer {
 
     public final static String LOAD_STATE_FILE = "load.state.file";
     public final static String SAVE_STATE_FILE = "save.state.file";
+    public final static String NEAREST_TAXON_INDEX_FILE = "nearest.taxon.index";
 
     private final String loadStateFileName;
     private final String saveStateFileName;
@@ -103,6 +105,12 @@ public class CheckPointModifier extends BeastCheckpointer {
                 fields = line.split("\t");
             }
 
+            // the independent random number streams are not needed after the state is modified
+            while (fields[0].equals("rng.stream")) {
+                line = in.readLine();
+                fields = line.split("\t");
+            }
+
             try {
                 if (!fields[0].equals("state")) {
                     throw new RuntimeException("Unable to read state number from state file");
@@ -131,7 +139,7 @@ public class CheckPointModifier extends BeastCheckpointer {
             fields = line.split("\t");
 
             //Tree nodes have numbers as parameter ids
-            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            for (Parameter parameter : AnalysisContext.getCurrent().getConnectedParameterSet()) {
 
                 //first check if this is actually a tree node by checking if it's a number
                 //numbers should be positive but can include zero
@@ -217,7 +225,7 @@ public class CheckPointModifier extends BeastCheckpointer {
             // load the tree models last as we get the node heights from the tree (not the parameters which
             // which may not be associated with the right node
             Set<String> expectedTreeModelNames = new HashSet<String>();
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
 
                 if (model instanceof TreeModel) {
                     expectedTreeModelNames.add(model.getModelName());
@@ -235,7 +243,7 @@ public class CheckPointModifier extends BeastCheckpointer {
 
             while (fields[0].equals("tree")) {
 
-                for (Model model : Model.CONNECTED_MODEL_SET) {
+                for (Model model : AnalysisContext.getCurrent().getConnectedModelSet()) {
                     if (model instanceof TreeModel && fields[1].equals(model.getModelName())) {
 
                         //AR: Can we not just add them to a Flexible tree and then make a new TreeModel
@@ -350,8 +358,21 @@ public class CheckPointModifier extends BeastCheckpointer {
         if (this.rateModel == null) {
             throw new RuntimeException("BranchRates model has not been set correctly.");
         } else {
-            ArrayList<NodeRef> newTaxa = modifyTree.incorporateAdditionalTaxa(choice, this.rateModel);
+            //the nearest taxon index is kept next to the state files
+            String indexFileName = System.getProperty(NEAREST_TAXON_INDEX_FILE,
+                    loadStateFileName == null ? null : loadStateFileName + NearestTaxonIndex.FILE_EXTENSION);
+            File indexFile = indexFileName == null ? null : new File(indexFileName);
+            ArrayList<NodeRef> newTaxa = modifyTree.incorporateAdditionalTaxa(choice, this.rateModel, indexFile);
             modifyTree.interpolateTraitValues(this.traitModels);
+
+            NearestTaxonIndex index = modifyTree.getNearestTaxonIndex();
+            if (index != null && saveStateFileName != null) {
+                try {
+                    index.write(new File(saveStateFileName + NearestTaxonIndex.FILE_EXTENSION));
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Unable to write nearest taxon index: " + ioe.getMessage());
+                }
+            }
         }
     }
 
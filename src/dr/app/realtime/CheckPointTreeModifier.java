@@ -35,11 +35,16 @@ import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tree.TreeParameterModel;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.MultiPartitionDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Likelihood;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -57,6 +62,7 @@ public class CheckPointTreeModifier {
     private ArrayList<String> newTaxaNames;
     private int[] nodeMap;
     private int additionalTaxa;
+    private NearestTaxonIndex nearestTaxonIndex;
 
     public CheckPointTreeModifier(TreeModel treeModel) {
         this.treeModel = treeModel;
@@ -323,8 +329,10 @@ public class CheckPointTreeModifier {
 
     /**
      * Add the remaining taxa, which can be identified through the TreeDataLikelihood XML elements.
+     * @param indexFile a nearest taxon index written by a previous update, used if it exists (may be null)
      */
-    public ArrayList<NodeRef> incorporateAdditionalTaxa(CheckPointUpdaterApp.UpdateChoice choice, BranchRates rateModel) {
+    public ArrayList<NodeRef> incorporateAdditionalTaxa(CheckPointUpdaterApp.UpdateChoice choice, BranchRates rateModel,
+                                                        File indexFile) {
 
         System.out.println("Tree before adding taxa:\n" + treeModel.toString() + "\n");
 
@@ -377,7 +385,7 @@ public class CheckPointTreeModifier {
         ArrayList<TreeDataLikelihood> likelihoods = new ArrayList<TreeDataLikelihood>();
         ArrayList<Tree> trees = new ArrayList<Tree>();
         ArrayList<DataLikelihoodDelegate> delegates = new ArrayList<DataLikelihoodDelegate>();
-        for (Likelihood likelihood : Likelihood.CONNECTED_LIKELIHOOD_SET) {
+        for (Likelihood likelihood : AnalysisContext.getCurrent().getConnectedLikelihoodSet()) {
             if (likelihood instanceof TreeDataLikelihood) {
                 likelihoods.add((TreeDataLikelihood)likelihood);
                 trees.add(((TreeDataLikelihood) likelihood).getTree());
@@ -391,6 +399,8 @@ public class CheckPointTreeModifier {
         for (DataLikelihoodDelegate del : delegates) {
             if (del instanceof BeagleDataLikelihoodDelegate) {
                 patternLists.add(((BeagleDataLikelihoodDelegate) del).getPatternList());
+            } else if (del instanceof JavaDataLikelihoodDelegate) {
+                patternLists.add(((JavaDataLikelihoodDelegate) del).getPatternList());
             } else if (del instanceof MultiPartitionDataLikelihoodDelegate) {
                 MultiPartitionDataLikelihoodDelegate mpdld = (MultiPartitionDataLikelihoodDelegate)del;
                 List<PatternList> list = mpdld.getPatternLists();
@@ -416,6 +426,12 @@ public class CheckPointTreeModifier {
         //set the patterns for the distance matrix computations
         choice.setPatterns(patterns);
 
+        //the nearest taxon index avoids scanning all current taxa for each new taxon
+        nearestTaxonIndex = null;
+        if (choice.getIndexScore() != null) {
+            nearestTaxonIndex = createNearestTaxonIndex(patterns, choice.getIndexScore(), currentTaxa, indexFile);
+        }
+
         //add new taxa one at a time
         System.out.println("Adding " + newTaxaNodes.size() + " taxa ...");
 
@@ -441,7 +457,12 @@ public class CheckPointTreeModifier {
                 }
                 //get the closest Taxon to the Taxon that needs to be added
                 //take into account which taxa can currently be chosen
-                Taxon closest = choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), currentTaxa);
+                Taxon closest;
+                if (nearestTaxonIndex != null) {
+                    closest = choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), nearestTaxonIndex, currentTaxa);
+                } else {
+                    closest = choice.getClosestTaxon(treeModel.getNodeTaxon(newTaxon), currentTaxa);
+                }
                 System.out.println("\nclosest Taxon: " + closest + " with original height: " + closest.getHeight());
                 //get the distance between these two taxa
                 double distance = choice.getDistance(treeModel.getNodeTaxon(newTaxon), closest);
@@ -524,6 +545,9 @@ public class CheckPointTreeModifier {
                 System.out.println("\nTree after adding taxon " + newTaxon + ":\n" + treeModel.toString());
                 //add newly added Taxon to list of current taxa
                 currentTaxa.add(treeModel.getNodeTaxon(newTaxon));
+                if (nearestTaxonIndex != null) {
+                    nearestTaxonIndex.add(treeModel.getNodeTaxon(newTaxon));
+                }
             }
         } else {
 
@@ -537,6 +561,43 @@ public class CheckPointTreeModifier {
         return newTaxaNodes;
     }
 
+    /**
+     * Reads the nearest taxon index of a previous update if it covers only taxa still in the tree, otherwise builds
+     * a new one; taxa in the tree that are missing from the index are added.
+     */
+    private NearestTaxonIndex createNearestTaxonIndex(PatternList patterns, NearestTaxonIndex.Score score,
+                                                      List<Taxon> currentTaxa, File indexFile) {
+        NearestTaxonIndex index = null;
+        if (indexFile != null && indexFile.exists()) {
+            try {
+                index = NearestTaxonIndex.read(indexFile, patterns, score);
+                if (!new HashSet<Taxon>(currentTaxa).containsAll(index.getTaxa())) {
+                    System.out.println("Nearest taxon index " + indexFile + " contains taxa that are not in the tree, rebuilding.");
+                    index = null;
+                } else {
+                    System.out.println("Read nearest taxon index for " + index.getTaxonCount() + " taxa from " + indexFile);
+                }
+            } catch (IOException ioe) {
+                System.out.println("Unable to read nearest taxon index, rebuilding: " + ioe.getMessage());
+                index = null;
+            }
+        }
+        if (index == null) {
+            index = new NearestTaxonIndex(patterns, score);
+        }
+        for (Taxon taxon : currentTaxa) {
+            index.add(taxon);
+        }
+        return index;
+    }
+
+    /**
+     * @return the nearest taxon index of the last call to incorporateAdditionalTaxa, null if the distance has none
+     */
+    public NearestTaxonIndex getNearestTaxonIndex() {
+        return nearestTaxonIndex;
+    }
+
     /**
      * Add a given offset to all node height (both internal and external) of a tree
      * @param offset The offset to add to the node height
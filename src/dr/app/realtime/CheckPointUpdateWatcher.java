@@ -0,0 +1,218 @@
+/*
+ * CheckPointUpdateWatcher.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.realtime;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.mcmc.MCMC;
+import dr.inference.model.Model;
+import dr.inference.state.Factory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Automates the checkpoint update workflow (stop BEAST, run CheckPointUpdaterApp, relaunch with -load_state) within
+ * a single BEAST run. A folder is watched for BEAST XML files, each a complete analysis with additional taxa (as given
+ * to CheckPointUpdaterApp). When one appears the chain is stopped and its state saved, the new XML is parsed from
+ * scratch in the same JVM, the saved state is extended with the new taxa by CheckPointUpdaterApp and the re-parsed
+ * chain continues from it at the state number the previous chain stopped at. It runs only the rest of the chain
+ * length and appends to the log files, which the update file should give the same names as before.
+ *
+ * This saves starting a new JVM and re-running burn-in, but the parsing of the XML and the creation of every
+ * likelihood (and BEAGLE instance) are paid again for each update: the running model is not extended in place.
+ *
+ * The state of the stopped chain and the extended state are kept next to the update file (as [update].stopped.state
+ * and [update].state) so the analysis can also be resumed from them with -load_state. Update files should be moved
+ * into the folder once they are complete.
+ */
+public class CheckPointUpdateWatcher implements MarkovChainListener {
+
+    public final static String UPDATE_FOLDER = "checkpoint.update.folder";
+    public final static String UPDATE_EVERY = "checkpoint.update.every";
+    public final static String UPDATE_CHOICE = "checkpoint.update.choice";
+
+    private final static long DEFAULT_UPDATE_EVERY = 10000;
+
+    private final static String STOPPED_STATE_EXTENSION = ".stopped.state";
+    private final static String STATE_EXTENSION = ".state";
+
+    public CheckPointUpdateWatcher(File folder, long updateEvery, CheckPointUpdaterApp.UpdateChoice choice) {
+        if (!folder.isDirectory()) {
+            throw new IllegalArgumentException("Checkpoint update folder " + folder + " does not exist");
+        }
+        this.folder = folder;
+        this.updateEvery = updateEvery;
+        this.choice = choice;
+
+        // files already in the folder belong to the analysis being started
+        for (File file : listUpdateFiles()) {
+            processed.add(file.getName());
+        }
+    }
+
+    /**
+     * @return an updater set up from the system properties, or null if no checkpoint update folder has been given
+     */
+    public static CheckPointUpdateWatcher create() {
+        String folderName = System.getProperty(UPDATE_FOLDER);
+        if (folderName == null) {
+            return null;
+        }
+
+        long updateEvery = Long.parseLong(System.getProperty(UPDATE_EVERY, Long.toString(DEFAULT_UPDATE_EVERY)));
+
+        String choiceName = System.getProperty(UPDATE_CHOICE, CheckPointTreeModifier.TREE_UPDATE_OPTION);
+        CheckPointUpdaterApp.UpdateChoice choice = CheckPointUpdaterApp.UpdateChoice.parse(choiceName);
+        if (choice == null) {
+            throw new IllegalArgumentException("Unknown checkpoint update choice: " + choiceName);
+        }
+
+        return new CheckPointUpdateWatcher(new File(folderName), updateEvery, choice);
+    }
+
+    /**
+     * Runs the chain until it finishes or an update arrives.
+     *
+     * @return the update file that stopped the chain, or null if the chain ran to the end
+     */
+    public File run(MCMC mcmc) {
+        this.mcmc = mcmc;
+        this.update = null;
+
+        MarkovChain markovChain = mcmc.getMarkovChain();
+        markovChain.addMarkovChainListener(this);
+        try {
+            mcmc.run();
+        } finally {
+            markovChain.removeMarkovChainListener(this);
+            this.mcmc = null;
+        }
+
+        return update;
+    }
+
+    /**
+     * Loads the state at which the previous chain was stopped into the chain parsed from the update file, adds the
+     * new taxa and makes the extended state the initial state of that chain, which continues from the stopped state.
+     */
+    public void extend(MCMC mcmc) {
+        if (update == null) {
+            throw new IllegalStateException("No update to extend the chain with");
+        }
+
+        final String saveStateFile = System.getProperty(BeastCheckpointer.SAVE_STATE_FILE);
+        final File stateFile = new File(folder, update.getName() + STATE_EXTENSION);
+
+        System.setProperty(BeastCheckpointer.LOAD_STATE_FILE, stoppedStateFile.getPath());
+        System.setProperty(BeastCheckpointer.SAVE_STATE_FILE, stateFile.getPath());
+        if (indexFile != null) {
+            System.setProperty(CheckPointModifier.NEAREST_TAXON_INDEX_FILE, indexFile.getPath());
+        }
+
+        CheckPointUpdaterApp.extendStateFile(mcmc.getMarkovChain(), choice);
+
+        File extendedIndexFile = new File(stateFile.getPath() + NearestTaxonIndex.FILE_EXTENSION);
+        indexFile = extendedIndexFile.exists() ? extendedIndexFile : null;
+
+        // the next chain starts from the extended state and saves where the user asked it to
+        System.setProperty(BeastCheckpointer.LOAD_STATE_FILE, stateFile.getPath());
+        if (saveStateFile != null) {
+            System.setProperty(BeastCheckpointer.SAVE_STATE_FILE, saveStateFile);
+        } else {
+            System.clearProperty(BeastCheckpointer.SAVE_STATE_FILE);
+        }
+        System.clearProperty(CheckPointModifier.NEAREST_TAXON_INDEX_FILE);
+        new BeastCheckpointer();
+        mcmc.setContinueFromLoadedState(true);
+
+        update = null;
+    }
+
+    // MarkovChainListener interface *******************************************
+
+    @Override
+    public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+        if (update != null || state == 0 || state % updateEvery != 0) {
+            return;
+        }
+
+        File next = nextUpdateFile();
+        if (next != null) {
+            Logger.getLogger("dr.app.realtime").info("Found " + next.getName() + ", stopping the chain at state "
+                    + state + " to add its taxa");
+
+            stoppedStateFile = new File(folder, next.getName() + STOPPED_STATE_EXTENSION);
+            Factory.INSTANCE.getStateLoaderSaver(null, stoppedStateFile).saveState(markovChain, state,
+                    markovChain.getCurrentScore());
+
+            update = next;
+            mcmc.pleaseStop();
+        }
+    }
+
+    @Override
+    public void bestState(long state, MarkovChain markovChain, Model bestModel) { }
+
+    @Override
+    public void finished(long chainLength, MarkovChain markovChain) { }
+
+    private File nextUpdateFile() {
+        File[] files = listUpdateFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            if (processed.add(file.getName())) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private File[] listUpdateFiles() {
+        File[] files = folder.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().toLowerCase().endsWith(".xml");
+            }
+        });
+        return files != null ? files : new File[0];
+    }
+
+    private final File folder;
+    private final long updateEvery;
+    private final CheckPointUpdaterApp.UpdateChoice choice;
+
+    private final Set<String> processed = new HashSet<String>();
+
+    private MCMC mcmc;
+    private File update;
+    private File stoppedStateFile;
+    private File indexFile;
+}
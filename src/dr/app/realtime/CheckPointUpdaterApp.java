@@ -54,21 +54,23 @@ import java.util.*;
  */
 public class CheckPointUpdaterApp {
 
-    private final boolean ADD_TAXA = true;
-
     private final boolean VERBOSE = true;
     private final boolean PARSER_WARNINGS = true;
     private final boolean STRICT_XML = false;
 
     public enum UpdateChoice {
-        JC69DISTANCE("JC69Distance", new JukesCantorDistanceMatrix()), F84DISTANCE("F84Distance", new F84DistanceMatrix()), SIMPLE("Simple", new SimpleDistanceMatrix());
+        JC69DISTANCE("JC69Distance", new JukesCantorDistanceMatrix(), NearestTaxonIndex.Score.MISMATCHES),
+        F84DISTANCE("F84Distance", new F84DistanceMatrix(), null),
+        SIMPLE("Simple", new SimpleDistanceMatrix(), NearestTaxonIndex.Score.PROPORTION);
 
         private String name;
         private DistanceMatrix matrix;
+        private NearestTaxonIndex.Score indexScore;
 
-        UpdateChoice(String name, DistanceMatrix matrix) {
+        UpdateChoice(String name, DistanceMatrix matrix, NearestTaxonIndex.Score indexScore) {
             this.name = name;
             this.matrix = matrix;
+            this.indexScore = indexScore;
         }
 
         public void setPatterns(PatternList patterns) {
@@ -84,8 +86,9 @@ public class CheckPointUpdaterApp {
             double minimumDistance = Double.MAX_VALUE;
             for (int i = 0; i < matrix.getColumnCount(); i++) {
                 if (i != taxonIndex) {
-                    if (matrix.getElement(taxonIndex, i) < minimumDistance) {
-                        minimumDistance = matrix.getElement(taxonIndex, i);
+                    double distance = matrix.getDistance(taxonIndex, i);
+                    if (distance < minimumDistance) {
+                        minimumDistance = distance;
                         closestIndex = i;
                     }
                 }
@@ -97,13 +100,16 @@ public class CheckPointUpdaterApp {
             if (matrix == null) {
                 throw new RuntimeException("Patterns need to be set first.");
             }
+            //only calculate the distances to the taxa that can be chosen, not the full matrix
+            Set<Taxon> candidates = new HashSet<Taxon>(taxa);
             int taxonIndex = matrix.getTaxonIndex(taxon);
             int closestIndex = 0;
             double minimumDistance = Double.MAX_VALUE;
             for (int i = 0; i < matrix.getColumnCount(); i++) {
-                if (i != taxonIndex) {
-                    if ((matrix.getElement(taxonIndex, i) < minimumDistance) && (taxa.contains(matrix.getTaxon(i)))) {
-                        minimumDistance = matrix.getElement(taxonIndex, i);
+                if (i != taxonIndex && candidates.contains(matrix.getTaxon(i))) {
+                    double distance = matrix.getDistance(taxonIndex, i);
+                    if (distance < minimumDistance) {
+                        minimumDistance = distance;
                         closestIndex = i;
                     }
                 }
@@ -111,16 +117,48 @@ public class CheckPointUpdaterApp {
             return matrix.getTaxon(closestIndex);
         }
 
+        /**
+         * Find the closest taxon using a nearest taxon index built with getIndexScore(), falling back to a scan
+         * over the given taxa if the index has no taxon at a defined distance.
+         */
+        public Taxon getClosestTaxon(Taxon taxon, NearestTaxonIndex index, ArrayList<Taxon> taxa) {
+            Taxon closest = index.getNearestTaxon(taxon);
+            if (closest == null) {
+                closest = getClosestTaxon(taxon, taxa);
+            }
+            return closest;
+        }
+
         public double getDistance(Taxon taxonOne, Taxon taxonTwo) {
             System.out.println("taxon 1: " + taxonOne + " (" + matrix.getTaxonIndex(taxonOne) + ")");
             System.out.println("taxon 2: " + taxonTwo + " (" + matrix.getTaxonIndex(taxonTwo) + ")");
-            return matrix.getElement(matrix.getTaxonIndex(taxonOne), matrix.getTaxonIndex(taxonTwo));
+            return matrix.getDistance(matrix.getTaxonIndex(taxonOne), matrix.getTaxonIndex(taxonTwo));
+        }
+
+        /**
+         * @return the score by which a nearest taxon index ranks taxa in the same order as this distance,
+         * or null if there is none (F84 depends on transitions and transversions separately)
+         */
+        public NearestTaxonIndex.Score getIndexScore() {
+            return this.indexScore;
         }
 
         public String getName() {
             return this.name;
         }
 
+        /**
+         * @return the update choice with the given name, or null if there is none
+         */
+        public static UpdateChoice parse(String name) {
+            for (UpdateChoice choice : values()) {
+                if (choice.getName().equals(name)) {
+                    return choice;
+                }
+            }
+            return null;
+        }
+
         public DistanceMatrix getMatrix() {
             return this.matrix;
         }
@@ -166,44 +204,8 @@ public class CheckPointUpdaterApp {
             for(int i = 0; i < inputStateFiles.size(); i++) {
                 System.setProperty(BeastCheckpointer.LOAD_STATE_FILE, inputStateFiles.get(i));
                 System.setProperty(BeastCheckpointer.SAVE_STATE_FILE, outputStateFiles.get(i));
-                CheckPointModifier checkpoint = new CheckPointModifier();
-
-                //load the stored checkpoint file
-                //this will/should also copy any trait information present in the checkpoint file
-                //TODO Check if this works for multiple trees (e.g. for multiple partitions)
-                long state = checkpoint.loadState(mc, new double[]{Double.NaN});
-
-                //TODO Check if this can be uncommented again
-                //System.out.println("Pre-checking likelihood values ...");
-                //probably don't need this but it's good to check
-                //double logL = mc.evaluate();
-                //System.out.println("likelihood = " + logL);
-                //mc.getLikelihood().makeDirty();
-                //logL = mc.evaluate();
-                //System.out.println("likelihood = " + logL);
-
-                double logL;
-
-                if (ADD_TAXA) {
-
-                    checkpoint.extendLoadState(choice);
-
-                    mc.getLikelihood().makeDirty();
-                    logL = mc.evaluate();
-                    System.out.println("likelihood = " + logL);
-                    mc.getLikelihood().makeDirty();
-                    logL = mc.evaluate();
-                    System.out.println("likelihood = " + logL);
-
-                    //TODO Print full compoundLikelihood evaluation
-                    Set<Likelihood> likelihoodSet = mc.getLikelihood().getLikelihoodSet();
-                    for (Likelihood l : likelihoodSet) {
-                        System.out.println("  " + l.getLogLikelihood());
-                    }
 
-                }
-
-                checkpoint.saveState(mc, state, logL);
+                extendStateFile(mc, choice);
             }
 
             //TODO .log and .trees files are being created; not necessary here as we're not running an analysis
@@ -224,6 +226,39 @@ public class CheckPointUpdaterApp {
         }
     }
 
+    /**
+     * Loads the state file set as BeastCheckpointer.LOAD_STATE_FILE into the chain, adds the taxa that the chain has
+     * but the state file does not and writes the extended state to BeastCheckpointer.SAVE_STATE_FILE.
+     * @return the log likelihood of the extended state
+     */
+    public static double extendStateFile(MarkovChain mc, UpdateChoice choice) {
+        CheckPointModifier checkpoint = new CheckPointModifier();
+
+        //load the stored checkpoint file
+        //this will/should also copy any trait information present in the checkpoint file
+        //TODO Check if this works for multiple trees (e.g. for multiple partitions)
+        long state = checkpoint.loadState(mc, new double[]{Double.NaN});
+
+        checkpoint.extendLoadState(choice);
+
+        mc.getLikelihood().makeDirty();
+        double logL = mc.evaluate();
+        System.out.println("likelihood = " + logL);
+        mc.getLikelihood().makeDirty();
+        logL = mc.evaluate();
+        System.out.println("likelihood = " + logL);
+
+        //TODO Print full compoundLikelihood evaluation
+        Set<Likelihood> likelihoodSet = mc.getLikelihood().getLikelihoodSet();
+        for (Likelihood l : likelihoodSet) {
+            System.out.println("  " + l.getLogLikelihood());
+        }
+
+        checkpoint.saveState(mc, state, logL);
+
+        return logL;
+    }
+
     public static void main(String[] args) throws java.io.IOException {
 
         // There is a major issue with languages that use the comma as a decimal separator.
@@ -272,13 +307,7 @@ public class CheckPointUpdaterApp {
         } else {
             throw new RuntimeException("Update mechanism needs to be specified.");
         }
-        UpdateChoice chosen = null;
-        for (UpdateChoice ch : UpdateChoice.values()) {
-            if (choice.equals(ch.getName())) {
-                chosen = ch;
-                break;
-            }
-        }
+        UpdateChoice chosen = UpdateChoice.parse(choice);
         if (chosen == null) {
             throw new RuntimeException("Incorrect update mechanism specified.");
         }
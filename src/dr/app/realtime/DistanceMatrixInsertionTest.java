@@ -33,10 +33,12 @@ import dr.evolution.distance.DistanceMatrix;
 import dr.evolution.tree.Tree;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.MultiPartitionDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.mcmc.MCMC;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Likelihood;
 import dr.xml.XMLParseException;
 import dr.xml.XMLParser;
@@ -80,7 +82,7 @@ public class DistanceMatrixInsertionTest extends JPanel {
             ArrayList<TreeDataLikelihood> likelihoods = new ArrayList<TreeDataLikelihood>();
             ArrayList<Tree> trees = new ArrayList<Tree>();
             ArrayList<DataLikelihoodDelegate> delegates = new ArrayList<DataLikelihoodDelegate>();
-            for (Likelihood likelihood : Likelihood.CONNECTED_LIKELIHOOD_SET) {
+            for (Likelihood likelihood : AnalysisContext.getCurrent().getConnectedLikelihoodSet()) {
                 if (likelihood instanceof TreeDataLikelihood) {
                     likelihoods.add((TreeDataLikelihood)likelihood);
                     trees.add(((TreeDataLikelihood) likelihood).getTree());
@@ -94,6 +96,8 @@ public class DistanceMatrixInsertionTest extends JPanel {
             for (DataLikelihoodDelegate del : delegates) {
                 if (del instanceof BeagleDataLikelihoodDelegate) {
                     patternLists.add(((BeagleDataLikelihoodDelegate) del).getPatternList());
+                } else if (del instanceof JavaDataLikelihoodDelegate) {
+                    patternLists.add(((JavaDataLikelihoodDelegate) del).getPatternList());
                 } else if (del instanceof MultiPartitionDataLikelihoodDelegate) {
                     MultiPartitionDataLikelihoodDelegate mpdld = (MultiPartitionDataLikelihoodDelegate)del;
                     List<PatternList> list = mpdld.getPatternLists();
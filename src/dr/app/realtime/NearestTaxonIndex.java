@@ -0,0 +1,613 @@
+/*
+ * NearestTaxonIndex.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.realtime;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.util.Taxon;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An incremental index over the taxa of a pattern list that finds the closest taxon to a query without calculating
+ * a full distance matrix.
+ *
+ * Each sequence is packed into bit planes (the bits of the state code, whether the state is unambiguous and whether
+ * it is a gap) so that comparing two taxa takes a few XOR and bit count operations per 64 patterns. Patterns are
+ * grouped by weight so every word is counted with a single weight. The indexed taxa are arranged in a vantage-point
+ * tree on the Hamming distance between state codes, with ambiguous states packed as code 0 so that this distance is
+ * a metric. The number of unambiguous mismatches differs from the Hamming distance by at most the number of ambiguous
+ * sites in either taxon, which gives an exact lower bound for pruning subtrees; the result is the same taxon a linear
+ * scan over the distance matrix would return.
+ */
+public class NearestTaxonIndex {
+
+    public static final String FILE_EXTENSION = ".index";
+
+    /**
+     * The quantity by which taxa are ranked.
+     */
+    public enum Score {
+        MISMATCHES, // weighted number of unambiguous differences, monotone in the JC69 distance
+        PROPORTION  // proportion of unambiguous differences among the sites without a gap, as in SimpleDistanceMatrix
+    }
+
+    public NearestTaxonIndex(PatternList patterns, Score score) {
+
+        this.patterns = patterns;
+        this.score = score;
+
+        final DataType dataType = patterns.getDataType();
+        codeBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(dataType.getStateCount() - 1));
+        stride = codeBits + 2;
+
+        Map<Double, List<Integer>> groups = new LinkedHashMap<Double, List<Integer>>();
+        double total = 0.0;
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            double weight = patterns.getPatternWeight(i);
+            List<Integer> group = groups.get(weight);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(weight, group);
+            }
+            group.add(i);
+            total += weight;
+        }
+        totalWeight = total;
+
+        groupWeights = new double[groups.size()];
+        groupStarts = new int[groups.size() + 1];
+        int group = 0;
+        int words = 0;
+        for (Map.Entry<Double, List<Integer>> entry : groups.entrySet()) {
+            groupWeights[group] = entry.getKey();
+            groupStarts[group] = words;
+            words += (entry.getValue().size() + 63) / 64;
+            group++;
+        }
+        groupStarts[group] = words;
+
+        taxonCount = patterns.getTaxonCount();
+        sequences = new long[taxonCount][];
+        ambiguity = new double[taxonCount];
+        for (int taxon = 0; taxon < taxonCount; taxon++) {
+            sequences[taxon] = pack(taxon, dataType, groups.values(), words);
+        }
+
+        indexed = new boolean[taxonCount];
+        root = new Node(null);
+    }
+
+    private long[] pack(int taxon, DataType dataType, Collection<List<Integer>> groups, int wordCount) {
+
+        final int gapState = dataType.getGapState();
+        final long[] bits = new long[wordCount * stride];
+
+        double ambiguous = 0.0;
+        int group = 0;
+        for (List<Integer> patternsInGroup : groups) {
+            int word = groupStarts[group];
+            int bit = 0;
+            for (int pattern : patternsInGroup) {
+                final int state = patterns.getPatternState(taxon, pattern);
+                final int offset = word * stride;
+                final long mask = 1L << bit;
+
+                if (dataType.isAmbiguousState(state)) {
+                    ambiguous += groupWeights[group];
+                } else {
+                    for (int k = 0; k < codeBits; k++) {
+                        if (((state >> k) & 1) != 0) {
+                            bits[offset + k] |= mask;
+                        }
+                    }
+                    bits[offset + codeBits] |= mask;
+                }
+                if (state != gapState) {
+                    bits[offset + codeBits + 1] |= mask;
+                }
+
+                if (++bit == 64) {
+                    bit = 0;
+                    word++;
+                }
+            }
+            group++;
+        }
+
+        ambiguity[taxon] = ambiguous;
+        return bits;
+    }
+
+    /**
+     * @return the weighted number of sites at which the state codes of two taxa differ
+     */
+    double getHammingDistance(int taxon1, int taxon2) {
+
+        final long[] x = sequences[taxon1];
+        final long[] y = sequences[taxon2];
+
+        double distance = 0.0;
+        for (int group = 0; group < groupWeights.length; group++) {
+            int count = 0;
+            for (int word = groupStarts[group]; word < groupStarts[group + 1]; word++) {
+                final int offset = word * stride;
+                long diff = 0L;
+                for (int k = 0; k < codeBits; k++) {
+                    diff |= x[offset + k] ^ y[offset + k];
+                }
+                count += Long.bitCount(diff);
+            }
+            distance += count * groupWeights[group];
+        }
+        return distance;
+    }
+
+    /**
+     * @return the score of a pair of taxa, NaN if they share no site without a gap
+     */
+    double getScore(int taxon1, int taxon2) {
+
+        final long[] x = sequences[taxon1];
+        final long[] y = sequences[taxon2];
+
+        double mismatches = 0.0;
+        double comparable = 0.0;
+        for (int group = 0; group < groupWeights.length; group++) {
+            int mismatchCount = 0;
+            int comparableCount = 0;
+            for (int word = groupStarts[group]; word < groupStarts[group + 1]; word++) {
+                final int offset = word * stride;
+                long diff = 0L;
+                for (int k = 0; k < codeBits; k++) {
+                    diff |= x[offset + k] ^ y[offset + k];
+                }
+                mismatchCount += Long.bitCount(diff & x[offset + codeBits] & y[offset + codeBits]);
+                comparableCount += Long.bitCount(x[offset + codeBits + 1] & y[offset + codeBits + 1]);
+            }
+            mismatches += mismatchCount * groupWeights[group];
+            comparable += comparableCount * groupWeights[group];
+        }
+
+        if (score == Score.MISMATCHES) {
+            return mismatches;
+        }
+        return mismatches / comparable;
+    }
+
+    private double getLowerBound(double hammingBound, double queryAmbiguity, Node node) {
+
+        // mismatches >= hamming - ambiguity(query) - ambiguity(taxon), less a little slack for rounding
+        double bound = hammingBound - queryAmbiguity - node.maxAmbiguity - ROUNDING * totalWeight;
+        if (bound <= 0.0) {
+            return 0.0;
+        }
+        // PROPORTION divides by at most the total weight
+        return score == Score.MISMATCHES ? bound : bound / totalWeight;
+    }
+
+    public Score getScore() {
+        return score;
+    }
+
+    /**
+     * @return the number of taxa in the index
+     */
+    public int getTaxonCount() {
+        return indexedCount;
+    }
+
+    public boolean contains(Taxon taxon) {
+        int index = patterns.getTaxonIndex(taxon.getId());
+        return index >= 0 && indexed[index];
+    }
+
+    /**
+     * @return the indexed taxa in the order of the pattern list
+     */
+    public List<Taxon> getTaxa() {
+        List<Taxon> taxa = new ArrayList<Taxon>(indexedCount);
+        for (int i = 0; i < taxonCount; i++) {
+            if (indexed[i]) {
+                taxa.add(patterns.getTaxon(i));
+            }
+        }
+        return taxa;
+    }
+
+    /**
+     * Add a taxon to the index, which does nothing if the taxon has already been added.
+     */
+    public void add(Taxon taxon) {
+        add(getTaxonIndex(taxon));
+    }
+
+    private void add(int taxon) {
+
+        if (indexed[taxon]) {
+            return;
+        }
+        indexed[taxon] = true;
+        indexedCount++;
+
+        Node node = root;
+        while (!node.isLeaf()) {
+            node.maxAmbiguity = Math.max(node.maxAmbiguity, ambiguity[taxon]);
+            double distance = getHammingDistance(node.vantage, taxon);
+            if (distance <= node.radius) {
+                node.insideMax = Math.max(node.insideMax, distance);
+                node = node.inside;
+            } else {
+                node.outsideMin = Math.min(node.outsideMin, distance);
+                node = node.outside;
+            }
+        }
+
+        node.addMember(taxon, ambiguity[taxon]);
+        if (node.size > node.splitSize) {
+            split(node);
+        }
+    }
+
+    private void split(Node leaf) {
+
+        // the least ambiguous member keeps the lower bounds of both children tightest
+        int vantagePosition = 0;
+        for (int i = 1; i < leaf.size; i++) {
+            if (ambiguity[leaf.members[i]] < ambiguity[leaf.members[vantagePosition]]) {
+                vantagePosition = i;
+            }
+        }
+        final int vantage = leaf.members[vantagePosition];
+
+        final int[] others = new int[leaf.size - 1];
+        final double[] distances = new double[leaf.size - 1];
+        int count = 0;
+        for (int i = 0; i < leaf.size; i++) {
+            if (i != vantagePosition) {
+                others[count] = leaf.members[i];
+                distances[count] = getHammingDistance(vantage, others[count]);
+                count++;
+            }
+        }
+
+        double[] sorted = distances.clone();
+        Arrays.sort(sorted);
+        final double radius = sorted[(sorted.length - 1) / 2];
+
+        if (sorted[sorted.length - 1] <= radius) {
+            // all members are equidistant from the vantage point; wait until the bucket has doubled
+            leaf.splitSize *= 2;
+            return;
+        }
+
+        leaf.vantage = vantage;
+        leaf.radius = radius;
+        leaf.inside = new Node(leaf);
+        leaf.outside = new Node(leaf);
+        for (int i = 0; i < others.length; i++) {
+            if (distances[i] <= radius) {
+                leaf.insideMax = Math.max(leaf.insideMax, distances[i]);
+                leaf.inside.addMember(others[i], ambiguity[others[i]]);
+            } else {
+                leaf.outsideMin = Math.min(leaf.outsideMin, distances[i]);
+                leaf.outside.addMember(others[i], ambiguity[others[i]]);
+            }
+        }
+        leaf.members = null;
+        leaf.size = 0;
+    }
+
+    /**
+     * @return the indexed taxon with the lowest score to the given taxon (ties go to the first in the pattern list),
+     * or null if no indexed taxon has a defined score
+     */
+    public Taxon getNearestTaxon(Taxon taxon) {
+        int nearest = getNearestTaxonIndex(getTaxonIndex(taxon));
+        return nearest < 0 ? null : patterns.getTaxon(nearest);
+    }
+
+    private int getNearestTaxonIndex(int query) {
+
+        final double queryAmbiguity = ambiguity[query];
+
+        double best = Double.POSITIVE_INFINITY;
+        int nearest = -1;
+
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        Deque<Double> bounds = new ArrayDeque<Double>();
+        nodes.push(root);
+        bounds.push(0.0);
+
+        while (!nodes.isEmpty()) {
+            final Node node = nodes.pop();
+            final double bound = bounds.pop();
+
+            if (bound > best) {
+                continue;
+            }
+
+            if (node.isLeaf()) {
+                for (int i = 0; i < node.size; i++) {
+                    final int taxon = node.members[i];
+                    if (taxon != query) {
+                        double value = getScore(query, taxon);
+                        if (value < best || (value == best && taxon < nearest)) {
+                            best = value;
+                            nearest = taxon;
+                        }
+                    }
+                }
+            } else {
+                if (node.vantage != query) {
+                    double value = getScore(query, node.vantage);
+                    if (value < best || (value == best && node.vantage < nearest)) {
+                        best = value;
+                        nearest = node.vantage;
+                    }
+                }
+
+                final double distance = getHammingDistance(query, node.vantage);
+                final double insideBound = getLowerBound(distance - node.insideMax, queryAmbiguity, node.inside);
+                final double outsideBound = getLowerBound(node.outsideMin - distance, queryAmbiguity, node.outside);
+
+                // push the far side first so the side containing the query is searched first
+                if (distance <= node.radius) {
+                    nodes.push(node.outside);
+                    bounds.push(outsideBound);
+                    nodes.push(node.inside);
+                    bounds.push(insideBound);
+                } else {
+                    nodes.push(node.inside);
+                    bounds.push(insideBound);
+                    nodes.push(node.outside);
+                    bounds.push(outsideBound);
+                }
+            }
+        }
+
+        return nearest;
+    }
+
+    private int getTaxonIndex(Taxon taxon) {
+        int index = patterns.getTaxonIndex(taxon.getId());
+        if (index < 0) {
+            throw new IllegalArgumentException("Taxon " + taxon.getId() + " is not in the patterns");
+        }
+        return index;
+    }
+
+    /**
+     * Write the structure of the index as a pre-order list of nodes (inside before outside children).
+     */
+    public void write(File file) throws IOException {
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        out.println(HEADER + "\t" + VERSION + "\t" + score + "\t" + indexedCount);
+
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            if (node.isLeaf()) {
+                StringBuilder sb = new StringBuilder(LEAF);
+                sb.append("\t").append(node.splitSize);
+                for (int i = 0; i < node.size; i++) {
+                    sb.append("\t").append(patterns.getTaxonId(node.members[i]));
+                }
+                out.println(sb.toString());
+            } else {
+                out.println(NODE + "\t" + patterns.getTaxonId(node.vantage) + "\t" + node.radius);
+                nodes.push(node.outside);
+                nodes.push(node.inside);
+            }
+        }
+
+        out.close();
+    }
+
+    /**
+     * Read an index written by write(). Only the structure is stored; the sequences are packed from the given
+     * patterns and the bounds are recomputed, as the alignment may have been extended since the index was written.
+     */
+    public static NearestTaxonIndex read(File file, PatternList patterns, Score score) throws IOException {
+
+        NearestTaxonIndex index = new NearestTaxonIndex(patterns, score);
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line = in.readLine();
+            if (line == null || !line.startsWith(HEADER + "\t" + VERSION + "\t")) {
+                throw new IOException("Not a nearest taxon index: " + file.getName());
+            }
+            if (!line.split("\t")[2].equals(score.toString())) {
+                throw new IOException("Nearest taxon index " + file.getName() + " was not built for " + score);
+            }
+
+            Deque<Node> parents = new ArrayDeque<Node>();
+            Node root = null;
+            while ((line = in.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+
+                Node parent = parents.peek();
+                if (root != null && parent == null) {
+                    throw new IOException("Unexpected node after the end of the index");
+                }
+                Node node = new Node(parent);
+                if (parent == null) {
+                    root = node;
+                } else if (parent.inside == null) {
+                    parent.inside = node;
+                } else {
+                    parent.outside = node;
+                    parents.pop();
+                }
+
+                if (fields[0].equals(NODE)) {
+                    node.vantage = index.readTaxon(fields[1]);
+                    node.radius = Double.parseDouble(fields[2]);
+                    node.members = null;
+                    parents.push(node);
+                } else if (fields[0].equals(LEAF)) {
+                    node.splitSize = Integer.parseInt(fields[1]);
+                    for (int i = 2; i < fields.length; i++) {
+                        node.addMember(index.readTaxon(fields[i]), 0.0);
+                    }
+                } else {
+                    throw new IOException("Unknown line in nearest taxon index: " + fields[0]);
+                }
+            }
+
+            if (root == null || !parents.isEmpty()) {
+                throw new IOException("Incomplete nearest taxon index: " + file.getName());
+            }
+            index.root = root;
+
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Unable to parse nearest taxon index: " + nfe.getMessage());
+        } finally {
+            in.close();
+        }
+
+        index.updateBounds();
+        return index;
+    }
+
+    private int readTaxon(String id) throws IOException {
+        int taxon = patterns.getTaxonIndex(id);
+        if (taxon < 0) {
+            throw new IOException("Taxon " + id + " in the nearest taxon index is not in the patterns");
+        }
+        if (indexed[taxon]) {
+            throw new IOException("Taxon " + id + " occurs more than once in the nearest taxon index");
+        }
+        indexed[taxon] = true;
+        indexedCount++;
+        return taxon;
+    }
+
+    private void updateBounds() {
+
+        Deque<Node> nodes = new ArrayDeque<Node>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            if (node.isLeaf()) {
+                for (int i = 0; i < node.size; i++) {
+                    updateAncestors(node, node.members[i]);
+                }
+            } else {
+                updateAncestors(node, node.vantage);
+                nodes.push(node.inside);
+                nodes.push(node.outside);
+            }
+        }
+    }
+
+    private void updateAncestors(Node node, int taxon) {
+
+        node.maxAmbiguity = Math.max(node.maxAmbiguity, ambiguity[taxon]);
+        Node child = node;
+        Node parent = node.parent;
+        while (parent != null) {
+            parent.maxAmbiguity = Math.max(parent.maxAmbiguity, ambiguity[taxon]);
+            double distance = getHammingDistance(parent.vantage, taxon);
+            if (child == parent.inside) {
+                parent.insideMax = Math.max(parent.insideMax, distance);
+            } else {
+                parent.outsideMin = Math.min(parent.outsideMin, distance);
+            }
+            child = parent;
+            parent = parent.parent;
+        }
+    }
+
+    private static class Node {
+
+        Node(Node parent) {
+            this.parent = parent;
+        }
+
+        boolean isLeaf() {
+            return vantage < 0;
+        }
+
+        void addMember(int taxon, double ambiguity) {
+            if (size == members.length) {
+                members = Arrays.copyOf(members, size * 2);
+            }
+            members[size++] = taxon;
+            maxAmbiguity = Math.max(maxAmbiguity, ambiguity);
+        }
+
+        final Node parent;
+
+        // internal nodes
+        int vantage = -1;
+        double radius;
+        double insideMax = Double.NEGATIVE_INFINITY;
+        double outsideMin = Double.POSITIVE_INFINITY;
+        Node inside;
+        Node outside;
+
+        // leaves
+        int[] members = new int[BUCKET_SIZE + 1];
+        int size;
+        int splitSize = BUCKET_SIZE;
+
+        // largest weighted number of ambiguous sites of any taxon in this subtree
+        double maxAmbiguity;
+    }
+
+    private static final int BUCKET_SIZE = 16;
+    private static final double ROUNDING = 1E-12;
+
+    private static final String HEADER = "#NearestTaxonIndex";
+    private static final int VERSION = 1;
+    private static final String NODE = "N";
+    private static final String LEAF = "L";
+
+    private final PatternList patterns;
+    private final Score score;
+
+    private final int codeBits;
+    private final int stride;
+    private final double[] groupWeights;
+    private final int[] groupStarts;
+    private final double totalWeight;
+
+    private final int taxonCount;
+    private final long[][] sequences;
+    private final double[] ambiguity;
+
+    private final boolean[] indexed;
+    private int indexedCount;
+    private Node root;
+}
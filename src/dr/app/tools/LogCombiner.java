@@ -28,7 +28,7 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
+import dr.evolution.io.ParallelTreeImporter;
 import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
@@ -45,6 +45,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -60,6 +61,32 @@ public class LogCombiner {
     public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
                        boolean convertToDecimal, boolean stripAnnotations,
                        boolean renumberOutput, boolean useScale, double scale) throws IOException {
+        this(burnins, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal, stripAnnotations,
+                renumberOutput, useScale, scale, 0);
+    }
+
+    /**
+     * @param threadCount the number of threads to parse the trees on (0 to parse them on the main thread)
+     */
+    public LogCombiner(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
+                       boolean convertToDecimal, boolean stripAnnotations,
+                       boolean renumberOutput, boolean useScale, double scale, int threadCount) throws IOException {
+
+        ExecutorService executor = (treeFiles ? ParallelTreeImporter.createExecutor(threadCount) : null);
+        try {
+            combine(burnins, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal, stripAnnotations,
+                    renumberOutput, useScale, scale, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void combine(long[] burnins, long resample, String[] inputFileNames, String outputFileName, boolean treeFiles,
+                         boolean convertToDecimal, boolean stripAnnotations,
+                         boolean renumberOutput, boolean useScale, double scale,
+                         ExecutorService executor) throws IOException {
 
         System.out.println("Creating combined " + (treeFiles ? "tree" : "log") + " file: '" + outputFileName + "'");
 
@@ -126,7 +153,7 @@ public class LogCombiner {
 
             if (treeFiles) {
 
-                TreeImporter importer = new NexusImporter(new FileReader(inputFile), stripAnnotations);
+                TreeImporter importer = ParallelTreeImporter.create(new FileReader(inputFile), stripAnnotations, executor);
                 try {
                     while (importer.hasTree()) {
                         Tree tree = importer.importNextTree();
@@ -628,7 +655,7 @@ public class LogCombiner {
 
             try {
                 new LogCombiner(burnins, resample, inputFiles, outputFileName, treeFiles, convertToDecimal,
-                        stripAnnotations, renumberOutput, useScale, scale);
+                        stripAnnotations, renumberOutput, useScale, scale, ParallelTreeImporter.getDefaultThreadCount());
 
             } catch (Exception ex) {
                 System.err.println("Exception: " + ex.getMessage());
@@ -655,6 +682,7 @@ public class LogCombiner {
                             new Arguments.RealOption("scale", "a scaling factor that will multiply any time units by this value"),
                             new Arguments.Option("strip", "strip out all annotations (trees only)"),
                             new Arguments.Option("renumber", "this option renumbers output states consecutively"),
+                            new Arguments.IntegerOption("threads", "the number of threads to read trees on (default the number of cores)"),
                             new Arguments.Option("help", "option to print this message")
                     });
 
@@ -696,6 +724,11 @@ public class LogCombiner {
                 useScale = true;
             }
 
+            int threadCount = ParallelTreeImporter.getDefaultThreadCount();
+            if (arguments.hasOption("threads")) {
+                threadCount = arguments.getIntegerOption("threads");
+            }
+
             String[] args2 = arguments.getLeftoverArguments();
 
             if (args2.length < 2) {
@@ -710,7 +743,7 @@ public class LogCombiner {
             String outputFileName = args2[args2.length - 1];
 
             new LogCombiner(new long[]{burnin}, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal,
-                    stripAnnotations, renumberOutput, useScale, scale);
+                    stripAnnotations, renumberOutput, useScale, scale, threadCount);
 
             System.out.println("Finished.");
         }
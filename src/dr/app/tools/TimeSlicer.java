@@ -30,6 +30,7 @@ import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
+import dr.evolution.io.ParallelTreeImporter;
 import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
@@ -52,6 +53,7 @@ import java.awt.geom.Point2D;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Marc A. Suchard
@@ -132,6 +134,7 @@ public class TimeSlicer {
     public static final boolean GREATCIRCLEDISTANCE = true;
     public static final String SUBSTITUTION = "N";
     public static final String DESCENDENTS = "descendents";
+    public static final String THREADS = "threads";
 
     public static final String[] falseTrue = {"false", "true"};
 
@@ -142,7 +145,8 @@ public class TimeSlicer {
                       boolean trueNoise, double mrsd, ContourMode contourMode, SliceMode sliceMode,
                       final boolean summarizeRoot, final boolean summarizeTips, Normalization normalize, boolean getSDR, boolean getSNR,
                       String progress, boolean branchNormalization, BranchSet branchset, Set taxaSet, int grid,
-                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString) {
+                      double latMin, double latMax, double longMin, double longMax, Set descendentTaxaSet, String rateString,
+                      int threadCount) {
 
         this.traits = traits;
         traitCount = traits.length;
@@ -214,7 +218,7 @@ public class TimeSlicer {
         }
 
         try {
-            readAndAnalyzeTrees(treeFileName, burnin, skipEvery, traits, sliceHeights, impute, trueNoise, normalize, branchNormalization, branchset, taxaSet);
+            readAndAnalyzeTrees(treeFileName, burnin, skipEvery, traits, sliceHeights, impute, trueNoise, normalize, branchNormalization, branchset, taxaSet, threadCount);
         } catch (IOException e) {
             System.err.println("Error reading file: " + treeFileName);
             System.exit(-1);
@@ -1489,7 +1493,7 @@ public class TimeSlicer {
     private void readAndAnalyzeTrees(String treeFileName, int burnin, int skipEvery,
                                      String[] traits, double[] slices,
                                      boolean impute, boolean trueNoise, Normalization normalize,
-                                     boolean divideByBranchLength, BranchSet branchset, Set taxaSet)
+                                     boolean divideByBranchLength, BranchSet branchset, Set taxaSet, int threadCount)
             throws IOException, Importer.ImportException {
 
         int totalTrees = 10000;
@@ -1506,29 +1510,38 @@ public class TimeSlicer {
 
         String line1 = reader1.readLine();
         TreeImporter importer1;
+        ExecutorService executor = null;
         if (line1.toUpperCase().startsWith("#NEXUS")) {
-            importer1 = new NexusImporter(new FileReader(treeFileName));
+            // the trees are parsed on a number of threads while they are analyzed on this one
+            executor = ParallelTreeImporter.createExecutor(threadCount);
+            importer1 = ParallelTreeImporter.create(new FileReader(treeFileName), false, executor);
         } else {
             importer1 = new NewickImporter(new FileReader(treeFileName));
         }
         totalTrees = 0;
 
-        while (importer1.hasTree()) {
-            Tree treeTime = importer1.importNextTree();
-            if (totalTrees % skipEvery == 0) {
-                treesRead++;
-                if (totalTrees >= burnin) {
-                    analyzeTree(treeTime, traits, slices, impute, trueNoise, normalize, divideByBranchLength, branchset, taxaSet);
+        try {
+            while (importer1.hasTree()) {
+                Tree treeTime = importer1.importNextTree();
+                if (totalTrees % skipEvery == 0) {
+                    treesRead++;
+                    if (totalTrees >= burnin) {
+                        analyzeTree(treeTime, traits, slices, impute, trueNoise, normalize, divideByBranchLength, branchset, taxaSet);
+                    }
+                }
+                if (totalTrees > 0 && totalTrees % stepSize == 0) {
+                    progressStream.print("*");
+                    totalStars++;
+                    if (totalStars % 61 == 0)
+                        progressStream.print("\n");
+                    progressStream.flush();
                 }
+                totalTrees++;
             }
-            if (totalTrees > 0 && totalTrees % stepSize == 0) {
-                progressStream.print("*");
-                totalStars++;
-                if (totalStars % 61 == 0)
-                    progressStream.print("\n");
-                progressStream.flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
-            totalTrees++;
         }
         progressStream.print("\n");
     }
@@ -2658,6 +2671,7 @@ public class TimeSlicer {
         double longMin = -Double.MAX_VALUE;
         String rateString = "location.rate";
         Set descendents = null;
+        int threadCount = ParallelTreeImporter.getDefaultThreadCount();
 
 //        if (args.length == 0) {
 //          // TODO Make flash GUI
@@ -2710,7 +2724,8 @@ public class TimeSlicer {
                         new Arguments.RealOption(LONGMAX, "specifies the maximum longitude for a child node for a branch to be included in the summary [default=MAX_VALUE]"),
                         new Arguments.RealOption(LONGMIN, "specifies the minimum longitude for a child node for a branch to be included in the summary [default=MIN_VALUE]"),
                         new Arguments.IntegerOption(GRIDSIZE, "the grid size for contouring [default=200]"),
-                        new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]")
+                        new Arguments.StringOption(DESCENDENTS, "descendent taxa", "specifies a branch based on the descendent taxa [default=all branches]"),
+                        new Arguments.IntegerOption(THREADS, "the number of threads to read trees on [default=the number of cores]")
 
                 });
 
@@ -2980,6 +2995,10 @@ public class TimeSlicer {
                 grid = arguments.getIntegerOption(GRIDSIZE);
             }
 
+            if (arguments.hasOption(THREADS)) {
+                threadCount = arguments.getIntegerOption(THREADS);
+            }
+
 
 
         } catch (Arguments.ArgumentException e) {
@@ -3011,7 +3030,8 @@ public class TimeSlicer {
 
         TimeSlicer timeSlicer = new TimeSlicer(inputFileName, burnin, skipEvery, traitNames, sliceHeights, impute,
                 trueNoise, mrsd, contourMode, sliceMode,summarizeRoot, summarizeTips, normalize, getSDR, getSNR, progress,
-                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString);
+                branchNormalization, set, taxaSet, grid, latMin, latMax, longMin, longMax, descendents, rateString,
+                threadCount);
         timeSlicer.output(outputFileName, summaryOnly, summarizeRoot, summarizeTips, contours, points, outputFormat, hpdValues, outputFileSDR, outputFileSNR);
 
         System.exit(0);
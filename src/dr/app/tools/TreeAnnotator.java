@@ -30,6 +30,7 @@ import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
+import dr.evolution.io.ParallelTreeImporter;
 import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.*;
 import dr.evolution.util.TaxonList;
@@ -49,7 +50,9 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Alexei Drummond
@@ -61,6 +64,9 @@ public class TreeAnnotator {
 
     private final static boolean USE_R = false;
 
+    public final static int DEFAULT_SAMPLE_SIZE = 1000;
+    private final static long SAMPLE_SEED = 666;
+
     private static boolean forceIntegerToDiscrete = false;
 
     enum Target {
@@ -128,6 +134,59 @@ public class TreeAnnotator {
                          String inputFileName,
                          String outputFileName
     ) throws IOException {
+        this(burninTrees, burninStates, heightsOption, posteriorLimit, hpd2D, targetOption,
+                targetTreeFileName, inputFileName, outputFileName, 0, 0);
+    }
+
+    /**
+     * In streaming mode the trees are parsed on a number of threads and, rather than keeping
+     * every value of every attribute for each clade of the target tree, running summaries and
+     * a fixed size sample are kept so the memory used doesn't grow with the number of trees.
+     * The means, ranges and frequencies are the same as they would be otherwise while the
+     * medians and HPDs come from the sample (and so are also the same if there are fewer trees
+     * than the sample size).
+     *
+     * @param threadCount the number of threads to parse trees on when streaming
+     * @param sampleSize  the number of values to sample for each clade or 0 to keep them all
+     */
+    public TreeAnnotator(final int burninTrees,
+                         final long burninStates,
+                         HeightsSummary heightsOption,
+                         double posteriorLimit,
+                         double[] hpd2D,
+                         Target targetOption,
+                         String targetTreeFileName,
+                         String inputFileName,
+                         String outputFileName,
+                         int threadCount,
+                         int sampleSize
+    ) throws IOException {
+
+        this.sampleSize = sampleSize;
+        if (sampleSize > 0 && threadCount > 0) {
+            executor = ParallelTreeImporter.createExecutor(threadCount);
+        }
+
+        try {
+            annotate(burninTrees, burninStates, heightsOption, posteriorLimit, hpd2D, targetOption,
+                    targetTreeFileName, inputFileName, outputFileName);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void annotate(final int burninTrees,
+                          final long burninStates,
+                          HeightsSummary heightsOption,
+                          double posteriorLimit,
+                          double[] hpd2D,
+                          Target targetOption,
+                          String targetTreeFileName,
+                          String inputFileName,
+                          String outputFileName
+    ) throws IOException {
 
         this.posteriorLimit = posteriorLimit;
         this.hpd2D = hpd2D;
@@ -152,7 +211,7 @@ public class TreeAnnotator {
         if (targetOption != Target.USER_TARGET_TREE) {
             cladeSystem = new CladeSystem();
             FileReader fileReader = new FileReader(inputFileName);
-            TreeImporter importer = new NexusImporter(fileReader, true);
+            TreeImporter importer = createTreeImporter(fileReader, true);
             try {
                 totalTrees = 0;
                 while (importer.hasTree()) {
@@ -272,7 +331,7 @@ public class TreeAnnotator {
         if (stepSize < 1) stepSize = 1;
 
         FileReader fileReader = new FileReader(inputFileName);
-        NexusImporter importer = new NexusImporter(fileReader);
+        TreeImporter importer = createTreeImporter(fileReader, false);
 
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
@@ -372,7 +431,7 @@ public class TreeAnnotator {
 
         int counter = 0;
         int bestTreeNumber = 0;
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        TreeImporter importer = createTreeImporter(new FileReader(inputFileName), true);
         try {
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
@@ -480,10 +539,11 @@ public class TreeAnnotator {
         }
 
         private void addClade(BitSet bits) {
-            Clade clade = cladeMap.get(bits);
+            CladeKey key = new CladeKey(bits);
+            Clade clade = cladeMap.get(key);
             if (clade == null) {
-                clade = new Clade(bits);
-                cladeMap.put(bits, clade);
+                clade = new Clade(key);
+                cladeMap.put(key, clade);
             }
             clade.setCount(clade.getCount() + 1);
         }
@@ -520,10 +580,10 @@ public class TreeAnnotator {
         }
 
         private void collectAttributesForClade(BitSet bits, Tree tree, NodeRef node) {
-            Clade clade = cladeMap.get(bits);
+            Clade clade = cladeMap.get(new CladeKey(bits));
             if (clade != null) {
 
-                if (clade.attributeValues == null) {
+                if (clade.attributeValues == null && sampleSize == 0) {
                     clade.attributeValues = new ArrayList<Object[]>();
                 }
 
@@ -564,7 +624,11 @@ public class TreeAnnotator {
                     }
                     i++;
                 }
-                clade.attributeValues.add(values);
+                if (sampleSize > 0) {
+                    clade.addSummarisedValues(values);
+                } else {
+                    clade.attributeValues.add(values);
+                }
 
                 //progressStream.println(clade + " " + clade.getValuesSize());
                 clade.setCount(clade.getCount() + 1);
@@ -645,7 +709,7 @@ public class TreeAnnotator {
         }
 
         private double getCladeCredibility(BitSet bits) {
-            Clade clade = cladeMap.get(bits);
+            Clade clade = cladeMap.get(new CladeKey(bits));
             if (clade == null) {
                 return 0.0;
             }
@@ -680,9 +744,16 @@ public class TreeAnnotator {
         }
 
         private void annotateNode(MutableTree tree, NodeRef node, BitSet bits, boolean isTip, HeightsSummary heightsOption) {
-            Clade clade = cladeMap.get(bits);
+            Clade clade = cladeMap.get(new CladeKey(bits));
             assert clade != null : "Clade missing?";
 
+            // if only a sample of the values has been kept then it is used for the medians and HPDs
+            // while the means, ranges and frequencies come from the summaries of all the values
+            final AttributeSummary[] summaries = clade.summaries;
+            if (summaries != null) {
+                clade.attributeValues = clade.getSampledValues();
+            }
+
             boolean filter = false;
             if (!isTip) {
                 final double posterior = clade.getCredibility();
@@ -694,6 +765,7 @@ public class TreeAnnotator {
 
             int i = 0;
             for (String attributeName : attributeNames) {
+                final AttributeSummary summary = (summaries != null ? summaries[i] : null);
 
                 if (clade.attributeValues != null && clade.attributeValues.size() > 0) {
                     double[] values = new double[clade.attributeValues.size()];
@@ -772,9 +844,22 @@ public class TreeAnnotator {
                                 }
                             }
                         }
+                        if (summary != null) {
+                            if (isDiscrete) {
+                                hashMap = summary.counts;
+                            } else if (isDoubleArray) {
+                                for (int k = 0; k < lenArray; k++) {
+                                    minValueArray[k] = summary.mins[k];
+                                    maxValueArray[k] = summary.maxs[k];
+                                }
+                            } else if (!isBoolean) {
+                                minValue = summary.mins[0];
+                                maxValue = summary.maxs[0];
+                            }
+                        }
                         if (isHeight) {
                             if (heightsOption == HeightsSummary.MEAN_HEIGHTS) {
-                                final double mean = DiscreteStatistics.mean(values);
+                                final double mean = getMean(summary, 0, values);
                                 tree.setNodeHeight(node, mean);
                             } else if (heightsOption == HeightsSummary.MEDIAN_HEIGHTS) {
                                 final double median = DiscreteStatistics.median(values);
@@ -795,10 +880,10 @@ public class TreeAnnotator {
                             if (!processed) {
                                 if (!isDiscrete) {
                                     if (!isDoubleArray)
-                                        annotateMeanAttribute(tree, node, attributeName, values);
+                                        annotateMeanAttribute(tree, node, attributeName, getMean(summary, 0, values));
                                     else {
                                         for (int k = 0; k < lenArray; k++) {
-                                            annotateMeanAttribute(tree, node, attributeName + (k + 1), valuesArray[k]);
+                                            annotateMeanAttribute(tree, node, attributeName + (k + 1), getMean(summary, k, valuesArray[k]));
                                         }
                                     }
                                 } else {
@@ -810,7 +895,7 @@ public class TreeAnnotator {
                                     // Likewise if it doesn't vary.
                                     annotateMedianAttribute(tree, node, attributeName + "_median", values);
                                     annotateHPDAttribute(tree, node, attributeName + "_95%_HPD", 0.95, values);
-                                    annotateRangeAttribute(tree, node, attributeName + "_range", values);
+                                    annotateRangeAttribute(tree, node, attributeName + "_range", summary, 0, values);
                                 }
 
                                 if (isDoubleArray) {
@@ -826,7 +911,7 @@ public class TreeAnnotator {
                                     for (int k = 0; k < lenArray; k++) {
                                         if (minValueArray[k] < maxValueArray[k]) {
                                             annotateMedianAttribute(tree, node, name + (k + 1) + "_median", valuesArray[k]);
-                                            annotateRangeAttribute(tree, node, name + (k + 1) + "_range", valuesArray[k]);
+                                            annotateRangeAttribute(tree, node, name + (k + 1) + "_range", summary, k, valuesArray[k]);
                                             if (!want2d)
                                                 annotateHPDAttribute(tree, node, name + (k + 1) + "_95%_HPD", 0.95, valuesArray[k]);
                                         }
@@ -865,10 +950,17 @@ public class TreeAnnotator {
                 }
                 i++;
             }
+
+            if (summaries != null) {
+                clade.attributeValues = null;
+            }
         }
 
-        private void annotateMeanAttribute(MutableTree tree, NodeRef node, String label, double[] values) {
-            double mean = DiscreteStatistics.mean(values);
+        private double getMean(AttributeSummary summary, int index, double[] values) {
+            return (summary != null ? summary.getMean(index) : DiscreteStatistics.mean(values));
+        }
+
+        private void annotateMeanAttribute(MutableTree tree, NodeRef node, String label, double mean) {
             tree.setNodeAttribute(node, label, mean);
         }
 
@@ -922,9 +1014,10 @@ public class TreeAnnotator {
             tree.setNodeAttribute(node, label + ".set.prob", freq);
         }
 
-        private void annotateRangeAttribute(MutableTree tree, NodeRef node, String label, double[] values) {
-            double min = DiscreteStatistics.min(values);
-            double max = DiscreteStatistics.max(values);
+        private void annotateRangeAttribute(MutableTree tree, NodeRef node, String label,
+                                            AttributeSummary summary, int index, double[] values) {
+            double min = (summary != null ? summary.mins[index] : DiscreteStatistics.min(values));
+            double max = (summary != null ? summary.maxs[index] : DiscreteStatistics.max(values));
             tree.setNodeAttribute(node, label, new Object[]{min, max});
         }
 
@@ -1125,7 +1218,7 @@ public class TreeAnnotator {
         }
 
         private void removeClade(BitSet bits) {
-            Clade clade = cladeMap.get(bits);
+            Clade clade = cladeMap.get(new CladeKey(bits));
             if (clade != null) {
                 clade.setCount(clade.getCount() - 1);
             }
@@ -1157,7 +1250,7 @@ public class TreeAnnotator {
         }
 
         class Clade {
-            public Clade(BitSet bits) {
+            public Clade(CladeKey bits) {
                 this.bits = bits;
                 count = 0;
                 credibility = 0.0;
@@ -1197,21 +1290,237 @@ public class TreeAnnotator {
                 return "clade " + bits.toString();
             }
 
+            /**
+             * Adds the values to the running summaries of each attribute and, using reservoir
+             * sampling, to a fixed size sample of the rows of values. Whole rows are sampled so the
+             * values of a node stay together.
+             */
+            void addSummarisedValues(Object[] values) {
+                if (summaries == null) {
+                    summaries = new AttributeSummary[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        summaries[i] = new AttributeSummary(values[i], sampleSize);
+                    }
+                }
+
+                int slot = -1;
+                if (valueCount < sampleSize) {
+                    slot = (int) valueCount;
+                } else {
+                    long r = (long) (random.nextDouble() * (valueCount + 1));
+                    if (r < sampleSize) {
+                        slot = (int) r;
+                    }
+                }
+                valueCount++;
+
+                for (int i = 0; i < values.length; i++) {
+                    summaries[i].add(values[i], slot);
+                }
+            }
+
+            /**
+             * @return the sampled rows of values in the form they were collected
+             */
+            List<Object[]> getSampledValues() {
+                int n = (int) Math.min(valueCount, sampleSize);
+                List<Object[]> rows = new ArrayList<Object[]>(n);
+                for (int j = 0; j < n; j++) {
+                    Object[] row = new Object[summaries.length];
+                    for (int i = 0; i < summaries.length; i++) {
+                        row[i] = summaries[i].getSampledValue(j);
+                    }
+                    rows.add(row);
+                }
+                return rows;
+            }
+
             int count;
             double credibility;
-            BitSet bits;
+            CladeKey bits;
             List<Object[]> attributeValues = null;
+
+            // used instead of attributeValues when the values are being summarised
+            AttributeSummary[] summaries = null;
+            long valueCount = 0;
         }
 
         //
         // Private stuff
         //
         TaxonList taxonList = null;
-        Map<BitSet, Clade> cladeMap = new HashMap<BitSet, Clade>();
+        Map<CladeKey, Clade> cladeMap = new HashMap<CladeKey, Clade>();
+
+        // a fixed seed so the sampled values, and so the annotations, are the same each time
+        final Random random = new Random(SAMPLE_SEED);
 
         Tree targetTree;
     }
 
+    /**
+     * The taxa of a clade as a compact copy of the words of a BitSet with the hash code worked
+     * out once. Used as the key for the clades so the many clades of a large tree take less memory.
+     */
+    static final class CladeKey {
+        CladeKey(BitSet bits) {
+            words = bits.toLongArray();
+            hashCode = Arrays.hashCode(words);
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CladeKey)) return false;
+            CladeKey key = (CladeKey) o;
+            return hashCode == key.hashCode && Arrays.equals(words, key.words);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public String toString() {
+            return BitSet.valueOf(words).toString();
+        }
+
+        private final long[] words;
+        private final int hashCode;
+    }
+
+    /**
+     * The values of one attribute of a clade summarised in a fixed amount of memory: the sums
+     * (for the mean), the range and the frequency of each discrete value of all the values, and a
+     * sample of them (for the median and HPDs). How the values are summarised depends on the
+     * first value, as it does when all the values are kept.
+     */
+    static class AttributeSummary {
+        AttributeSummary(Object first, int sampleSize) {
+            this.first = first;
+            this.sampleSize = sampleSize;
+
+            boolean isDiscrete = first instanceof String || (forceIntegerToDiscrete && first instanceof Integer);
+            isBoolean = first instanceof Boolean;
+
+            boolean isDoubleArray = first instanceof Object[] && ((Object[]) first).length > 0;
+            if (isDoubleArray) {
+                for (Object n : (Object[]) first) {
+                    if (!(n instanceof Double)) {
+                        isDoubleArray = false;
+                        break;
+                    }
+                }
+            }
+            this.isDoubleArray = isDoubleArray;
+
+            if (isDiscrete) {
+                counts = new HashMap<Object, Integer>();
+                dimension = 0;
+            } else if (isDoubleArray) {
+                dimension = ((Object[]) first).length;
+            } else if (isBoolean || first instanceof Number) {
+                dimension = 1;
+            } else {
+                // not something that is summarised
+                dimension = 0;
+            }
+
+            sums = new double[dimension];
+            valueCounts = new long[dimension];
+            mins = new double[dimension];
+            maxs = new double[dimension];
+            Arrays.fill(mins, Double.MAX_VALUE);
+            Arrays.fill(maxs, -Double.MAX_VALUE);
+            sample = new double[dimension][];
+        }
+
+        /**
+         * @param value the value
+         * @param slot  the position in the sample to put it in or -1 if it is not to be sampled
+         */
+        void add(Object value, int slot) {
+            if (counts != null) {
+                Integer count = counts.get(value);
+                counts.put(value, count == null ? 1 : count + 1);
+                return;
+            }
+
+            for (int k = 0; k < dimension; k++) {
+                double x = 0.0;
+                if (isDoubleArray) {
+                    x = (Double) ((Object[]) value)[k];
+                    updateRange(k, x);
+                } else if (isBoolean) {
+                    x = (Boolean.TRUE.equals(value) ? 1.0 : 0.0);
+                } else if (value instanceof Number) {
+                    x = ((Number) value).doubleValue();
+                    updateRange(k, x);
+                }
+
+                if (!Double.isNaN(x)) {
+                    sums[k] += x;
+                    valueCounts[k]++;
+                }
+
+                if (slot >= 0) {
+                    if (sample[k] == null || slot >= sample[k].length) {
+                        int length = (sample[k] == null ? 16 : sample[k].length * 2);
+                        sample[k] = Arrays.copyOf(sample[k] == null ? new double[0] : sample[k],
+                                Math.min(Math.max(length, slot + 1), sampleSize));
+                    }
+                    sample[k][slot] = x;
+                }
+            }
+        }
+
+        private void updateRange(int k, double x) {
+            if (x < mins[k]) mins[k] = x;
+            if (x > maxs[k]) maxs[k] = x;
+        }
+
+        double getMean(int k) {
+            return sums[k] / (double) valueCounts[k];
+        }
+
+        /**
+         * @return the sampled value at the given position in the form it was collected
+         */
+        Object getSampledValue(int slot) {
+            if (dimension == 0) {
+                // the frequencies of discrete values come from the counts
+                return first;
+            } else if (isDoubleArray) {
+                Object[] array = new Object[dimension];
+                for (int k = 0; k < dimension; k++) {
+                    array[k] = sample[k][slot];
+                }
+                return array;
+            } else if (isBoolean) {
+                return sample[0][slot] > 0.5;
+            }
+            return sample[0][slot];
+        }
+
+        final Object first;
+        final int sampleSize;
+        final boolean isBoolean;
+        final boolean isDoubleArray;
+        final int dimension;
+
+        final double[] sums;
+        final long[] valueCounts;
+        final double[] mins;
+        final double[] maxs;
+        final double[][] sample;
+        HashMap<Object, Integer> counts = null;
+    }
+
+    private TreeImporter createTreeImporter(Reader reader, boolean ignoreMetaComments) {
+        return ParallelTreeImporter.create(reader, ignoreMetaComments, executor);
+    }
+
+    // the number of rows of values sampled for each clade when streaming or 0 to keep them all
+    int sampleSize = 0;
+    ExecutorService executor = null;
+
     int totalTrees = 0;
     int totalTreesUsed = 0;
     double posteriorLimit = 0.0;
@@ -1276,6 +1585,7 @@ public class TreeAnnotator {
         progressStream.println("  Example: treeannotator test.trees out.txt");
         progressStream.println("  Example: treeannotator -burnin 100 -heights mean test.trees out.txt");
         progressStream.println("  Example: treeannotator -burnin 100 -target map.tree test.trees out.txt");
+        progressStream.println("  Example: treeannotator -burnin 100 -stream -threads 4 test.trees out.txt");
         progressStream.println();
     }
 
@@ -1415,6 +1725,9 @@ public class TreeAnnotator {
                         new Arguments.StringOption("target", "target_file_name", "specifies a user target tree to be annotated"),
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
+                        new Arguments.Option("stream", "summarise the node values as the trees are read so the memory used doesn't grow with the number of trees"),
+                        new Arguments.IntegerOption("threads", "the number of threads to read trees on when streaming (default the number of cores)"),
+                        new Arguments.IntegerOption("sample", "the number of values to sample for the medians and HPDs of each node when streaming (default " + DEFAULT_SAMPLE_SIZE + ")"),
                         new Arguments.StringOption("hpd2D", "the HPD interval to be used for the bivariate traits", "specifies a (vector of comma seperated) HPD proportion(s)")
                 });
 
@@ -1496,7 +1809,21 @@ public class TreeAnnotator {
             }
         }
 
-        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, target, targetTreeFileName, inputFileName, outputFileName);
+        int threadCount = 0;
+        int sampleSize = 0;
+        if (arguments.hasOption("stream")) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+            if (arguments.hasOption("threads")) {
+                threadCount = arguments.getIntegerOption("threads");
+            }
+            sampleSize = DEFAULT_SAMPLE_SIZE;
+            if (arguments.hasOption("sample")) {
+                sampleSize = arguments.getIntegerOption("sample");
+            }
+        }
+
+        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, target, targetTreeFileName, inputFileName, outputFileName,
+                threadCount, sampleSize);
 
         System.exit(0);
     }
@@ -1530,7 +1857,7 @@ public class TreeAnnotator {
         if (reportStepSize < 1) reportStepSize = 1;
 
         final FileReader fileReader = new FileReader(inputFileName);
-        final NexusImporter importer = new NexusImporter(fileReader, true);
+        final TreeImporter importer = createTreeImporter(fileReader, true);
 
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
@@ -30,6 +30,7 @@ import dr.app.util.Arguments;
 import dr.app.util.Utils;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NexusImporter;
+import dr.evolution.io.ParallelTreeImporter;
 import dr.evolution.tree.Tree;
 import dr.evomodel.tree.TreeTraceAnalysis;
 import dr.util.Version;
@@ -38,6 +39,7 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Alexei Drummond
@@ -51,6 +53,16 @@ public class TreeLogAnalyser {
 
     public TreeLogAnalyser(int burnin, String inputFileName, String outputFileName, String trueTreeFileName,
                            String exportFileName, double minSupport, double credibleSetProbability, int maxExport, boolean verbose) throws IOException {
+        this(burnin, inputFileName, outputFileName, trueTreeFileName, exportFileName, minSupport, credibleSetProbability,
+                maxExport, verbose, 0);
+    }
+
+    /**
+     * @param threadCount the number of threads to parse the trees on (0 to parse them on the main thread)
+     */
+    public TreeLogAnalyser(int burnin, String inputFileName, String outputFileName, String trueTreeFileName,
+                           String exportFileName, double minSupport, double credibleSetProbability, int maxExport,
+                           boolean verbose, int threadCount) throws IOException {
 
         List<File> files = new ArrayList<File>();
         File inputFile = new File(inputFileName);
@@ -88,7 +100,15 @@ public class TreeLogAnalyser {
             }
         }
 
-        analyze(files, burnin, trueTree, verbose, exportFileName, minSupport, credibleSetProbability, maxExport, new boolean[]{true});
+        ExecutorService executor = ParallelTreeImporter.createExecutor(threadCount);
+        try {
+            analyze(files, burnin, trueTree, verbose, exportFileName, minSupport, credibleSetProbability, maxExport,
+                    new boolean[]{true}, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
     }
 
     private static void collectFiles(File file, List<File> files) {
@@ -106,7 +126,8 @@ public class TreeLogAnalyser {
     }
 
     private static void analyze(List<File> files, int burnin, Tree tree, boolean verbose, String exportFileName,
-                                double minSupport, double credibleSetProbability, int maxExport, boolean[] drawHeader) {
+                                double minSupport, double credibleSetProbability, int maxExport, boolean[] drawHeader,
+                                ExecutorService executor) {
 
         if (combine) {
             try {
@@ -114,7 +135,7 @@ public class TreeLogAnalyser {
                 for (int i = 0; i < readers.length; i++) {
                     readers[i] = new FileReader(files.get(i));
                 }
-                TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(readers, burnin, verbose);
+                TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(readers, burnin, verbose, executor);
                 if (exportFileName != null) {
                     PrintStream exportStream = new PrintStream(exportFileName);
                     //System.err.println("Exporting trees ...");
@@ -136,7 +157,7 @@ public class TreeLogAnalyser {
             for (File file : files) {
                 try {
                     final Reader[] readers = {new FileReader(file)};
-                    TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(readers, burnin, verbose);
+                    TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(readers, burnin, verbose, executor);
                     if (verbose) {
                         analysis.report((int)(minSupport+.5));
                     } else {
@@ -203,6 +224,7 @@ public class TreeLogAnalyser {
                         new Arguments.RealOption("probability", "credible set probability limit [default = 0.95]"),
                         new Arguments.IntegerOption("max", "export no more than max trees [default = all]"),
                         new Arguments.Option("short", "use this option to produce a short report"),
+                        new Arguments.IntegerOption("threads", "the number of threads to read trees on [default = the number of cores]"),
                         new Arguments.Option("help", "option to print this message")
                 });
 
@@ -226,6 +248,11 @@ public class TreeLogAnalyser {
 
         boolean shortReport = arguments.hasOption("short");
 
+        int threadCount = ParallelTreeImporter.getDefaultThreadCount();
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
         String exportFileName = null;
         if (arguments.hasOption("export")) {
             exportFileName = arguments.getStringOption("export");
@@ -277,7 +304,7 @@ public class TreeLogAnalyser {
         }
 
         new TreeLogAnalyser(burnin, inputFileName, outputFileName, trueTreeFileName, exportFileName,
-                minSupport, credibleSetProbability, maxExport, !shortReport);
+                minSupport, credibleSetProbability, maxExport, !shortReport, threadCount);
 
         System.exit(0);
     }
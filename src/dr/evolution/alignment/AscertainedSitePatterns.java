@@ -193,12 +193,10 @@ public class AscertainedSitePatterns extends SitePatterns implements Citable {
     }
 
     private int addAscertainmentPattern(int[] pattern) {
-        for (int i = 0; i < patternCount; i++) {
-            if (comparePatterns(patterns[i], pattern)) {
-                return i;
-            }
+        int index = patternIndex.add(pattern);
+        if (index < patternCount) {
+            return index;
         }
-        int index = patternCount;
         patterns[index] = pattern;
         weights[index] = 0.0;  /* do not affect weight */
         patternCount++;
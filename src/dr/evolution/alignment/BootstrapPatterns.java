@@ -27,6 +27,8 @@ package dr.evolution.alignment;
 
 import dr.math.MathUtils;
 
+import java.util.Arrays;
+
 /**
  * Provides bootstrap replicate patterns
  *
@@ -60,6 +62,10 @@ public class BootstrapPatterns extends ResamplePatterns {
 		patternIndices = new int[oldPatternCount];
 		weights = new double[oldPatternCount];
 
+		// source pattern -> bootstrapped pattern (or -1 if not yet sampled)
+		int[] resampledIndices = new int[oldPatternCount];
+		Arrays.fill(resampledIndices, -1);
+
 		int site, pattern;
 
 		patternCount = 0;
@@ -68,16 +74,12 @@ public class BootstrapPatterns extends ResamplePatterns {
 			site = MathUtils.nextInt(siteCount);
 			pattern = patterns.getPatternIndex(site);
 
-			int j = 0;
-			for (j = 0; j < patternCount; j++) {
-				if (patternIndices[j] == pattern) {
-					break;
-				}
-			}
+			int j = resampledIndices[pattern];
 
-			if (j < patternCount) {
+			if (j >= 0) {
 				weights[j] += 1.0;
 			} else {
+				resampledIndices[pattern] = patternCount;
 				patternIndices[patternCount] = pattern;
 				weights[patternCount] = 1.0;
 				patternCount++;
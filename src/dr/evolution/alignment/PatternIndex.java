@@ -0,0 +1,291 @@
+/*
+ * PatternIndex.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.alignment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A hash index of distinct site patterns. Each pattern is given the index of the order in which
+ * it was first added so finding the pattern of a site takes constant time rather than a
+ * comparison with every pattern found so far.
+ *
+ * The table is chained with the buckets, links and hashes held in primitive arrays so there is
+ * no boxing or per-entry object. The patterns are held by reference and must not be changed
+ * once they have been added.
+ */
+public class PatternIndex {
+
+    /**
+     * the smallest number of patterns worth indexing on a thread of their own
+     */
+    public static final int MIN_PATTERNS_PER_BLOCK = 64;
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    public PatternIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedCount the number of distinct patterns expected (the index grows past this if needed)
+     */
+    public PatternIndex(int expectedCount) {
+        int capacity = Math.max(expectedCount, 1);
+        int bucketCount = DEFAULT_CAPACITY;
+        while (bucketCount * LOAD_FACTOR < capacity) {
+            bucketCount <<= 1;
+        }
+
+        buckets = new int[bucketCount];
+        Arrays.fill(buckets, -1);
+        next = new int[capacity];
+        hashes = new int[capacity];
+        patterns = new int[capacity][];
+    }
+
+    /**
+     * @return the number of distinct patterns
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the pattern with the given index
+     */
+    public int[] getPattern(int index) {
+        return patterns[index];
+    }
+
+    /**
+     * @return the index of the pattern or -1 if it hasn't been added
+     */
+    public int indexOf(int[] pattern) {
+        return find(pattern, hash(pattern));
+    }
+
+    /**
+     * Adds a pattern if it isn't already in the index. A new pattern is given the next
+     * index so a return value equal to the previous size() means it was new.
+     *
+     * @return the index of the pattern
+     */
+    public int add(int[] pattern) {
+        return add(pattern, hash(pattern));
+    }
+
+    /**
+     * Adds a block of patterns giving the same indices as adding them one at a time in order.
+     * With an executor the patterns are split into contiguous blocks which are indexed on
+     * their own, in parallel, and then merged into this index in block order. A pattern first
+     * seen in a later block is new to all the earlier ones so it is still given its index in
+     * order of first occurrence.
+     *
+     * @param sitePatterns the patterns to add
+     * @param patternCount the number of patterns to add from the start of sitePatterns
+     * @param indices      on return, the index of each pattern
+     * @param executor     the threads to index the blocks on (or null to add them on this thread)
+     * @param threadCount  the greatest number of blocks to split the patterns into
+     */
+    public void addAll(final int[][] sitePatterns, final int patternCount, final int[] indices,
+                       ExecutorService executor, int threadCount) {
+
+        int blockCount = Math.min(threadCount, patternCount / MIN_PATTERNS_PER_BLOCK);
+
+        if (executor == null || blockCount < 2) {
+            for (int i = 0; i < patternCount; i++) {
+                indices[i] = add(sitePatterns[i]);
+            }
+            return;
+        }
+
+        List<Future<PatternIndex>> futures = new ArrayList<Future<PatternIndex>>();
+        for (int block = 0; block < blockCount; block++) {
+            final int start = getBlockStart(block, blockCount, patternCount);
+            final int end = getBlockStart(block + 1, blockCount, patternCount);
+
+            futures.add(executor.submit(new Callable<PatternIndex>() {
+                public PatternIndex call() throws Exception {
+                    PatternIndex blockIndex = new PatternIndex();
+                    for (int i = start; i < end; i++) {
+                        indices[i] = blockIndex.add(sitePatterns[i]);
+                    }
+                    return blockIndex;
+                }
+            }));
+        }
+
+        for (int block = 0; block < blockCount; block++) {
+            PatternIndex blockIndex = getBlockIndex(futures.get(block));
+
+            // the hashes have already been computed so merging only compares the colliding patterns
+            int[] map = new int[blockIndex.count];
+            for (int i = 0; i < blockIndex.count; i++) {
+                map[i] = add(blockIndex.patterns[i], blockIndex.hashes[i]);
+            }
+
+            int end = getBlockStart(block + 1, blockCount, patternCount);
+            for (int i = getBlockStart(block, blockCount, patternCount); i < end; i++) {
+                indices[i] = map[indices[i]];
+            }
+        }
+    }
+
+    /**
+     * Removes the pattern with the given index. The last pattern is moved into its place, and
+     * given its index, so the indices stay contiguous (as Patterns does with its own arrays).
+     */
+    public void remove(int index) {
+        int last = count - 1;
+
+        unlink(index);
+        if (index != last) {
+            unlink(last);
+            patterns[index] = patterns[last];
+            hashes[index] = hashes[last];
+            link(index);
+        }
+
+        patterns[last] = null;
+        count--;
+    }
+
+    /**
+     * Removes all the patterns.
+     */
+    public void clear() {
+        Arrays.fill(buckets, -1);
+        Arrays.fill(patterns, 0, count, null);
+        count = 0;
+    }
+
+    private static int getBlockStart(int block, int blockCount, int patternCount) {
+        return (int) (((long) block * patternCount) / blockCount);
+    }
+
+    private static PatternIndex getBlockIndex(Future<PatternIndex> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing site patterns");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private int add(int[] pattern, int hash) {
+        int index = find(pattern, hash);
+        if (index >= 0) {
+            return index;
+        }
+
+        if (count == patterns.length) {
+            int capacity = count * 2;
+            next = Arrays.copyOf(next, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            patterns = Arrays.copyOf(patterns, capacity);
+        }
+
+        index = count;
+        patterns[index] = pattern;
+        hashes[index] = hash;
+        link(index);
+        count++;
+
+        if (count > buckets.length * LOAD_FACTOR) {
+            rehash(buckets.length * 2);
+        }
+
+        return index;
+    }
+
+    private int find(int[] pattern, int hash) {
+        int index = buckets[hash & (buckets.length - 1)];
+        while (index >= 0) {
+            if (hashes[index] == hash && Arrays.equals(patterns[index], pattern)) {
+                return index;
+            }
+            index = next[index];
+        }
+        return -1;
+    }
+
+    private void link(int index) {
+        int bucket = hashes[index] & (buckets.length - 1);
+        next[index] = buckets[bucket];
+        buckets[bucket] = index;
+    }
+
+    private void unlink(int index) {
+        int bucket = hashes[index] & (buckets.length - 1);
+        if (buckets[bucket] == index) {
+            buckets[bucket] = next[index];
+            return;
+        }
+        int previous = buckets[bucket];
+        while (next[previous] != index) {
+            previous = next[previous];
+        }
+        next[previous] = next[index];
+    }
+
+    private void rehash(int bucketCount) {
+        buckets = new int[bucketCount];
+        Arrays.fill(buckets, -1);
+        for (int i = 0; i < count; i++) {
+            int bucket = hashes[i] & (bucketCount - 1);
+            next[i] = buckets[bucket];
+            buckets[bucket] = i;
+        }
+    }
+
+    private static int hash(int[] pattern) {
+        int hash = 1;
+        for (int state : pattern) {
+            hash = 31 * hash + state;
+        }
+        // spread the high bits into the low ones used to pick the bucket
+        return hash ^ (hash >>> 16);
+    }
+
+    private int[] buckets;
+    private int[] next;
+    private int[] hashes;
+    private int[][] patterns;
+    private int count = 0;
+}
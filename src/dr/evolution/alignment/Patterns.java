@@ -66,6 +66,11 @@ public class Patterns implements PatternList {
      */
     protected int[][] patterns = new int[COUNT_INCREMENT][];
 
+    /**
+     * pattern -> index of the pattern
+     */
+    private final PatternIndex patternIndex = new PatternIndex(COUNT_INCREMENT);
+
     protected DataType dataType = null;
 
     protected TaxonList taxonList = null;
@@ -158,6 +163,7 @@ public class Patterns implements PatternList {
             weights = newWeights;
 
             patternCount = newPatternCount;
+            indexPatterns();
         }
     }
 
@@ -260,18 +266,17 @@ public class Patterns implements PatternList {
             throw new IllegalArgumentException("Added pattern's length (" + pattern.length + ") does not match those of existing patterns (" + patternLength + ")");
         }
 
-        for (int i = 0; i < patternCount; i++) {
-
-            if (comparePatterns(patterns[i], pattern)) {
-
-                weights[i] += weight;
-                return;
-            }
+        int index = patternIndex.add(pattern);
+        if (index < patternCount) {
+            weights[index] += weight;
+            return;
         }
 
         if (patternCount == patterns.length) {
-            int[][] newPatterns = new int[patternCount + COUNT_INCREMENT][];
-            double[] newWeights = new double[patternCount + COUNT_INCREMENT];
+            // grow geometrically so adding many patterns doesn't copy the arrays each time
+            int newLength = Math.max(patternCount * 2, patternCount + COUNT_INCREMENT);
+            int[][] newPatterns = new int[newLength][];
+            double[] newWeights = new double[newLength];
             for (int i = 0; i < patternCount; i++) {
                 newPatterns[i] = patterns[i];
                 newWeights[i] = weights[i];
@@ -290,14 +295,7 @@ public class Patterns implements PatternList {
      */
     public void removePattern(int[] pattern) {
 
-        int index = -1;
-        for (int i = 0; i < patternCount; i++) {
-
-            if (comparePatterns(patterns[i], pattern)) {
-                index = i;
-                break;
-            }
-        }
+        int index = patternIndex.indexOf(pattern);
 
         if (index == -1) throw new IllegalArgumentException("Pattern not found");
 
@@ -307,6 +305,7 @@ public class Patterns implements PatternList {
             patterns[patternCount - 1] = null;
             weights[index] = weights[patternCount - 1];
             patternCount--;
+            patternIndex.remove(index);
         }
 
     }
@@ -317,6 +316,17 @@ public class Patterns implements PatternList {
     public void removeAllPatterns() {
         patternCount = 0;
         for (int i = 0; i < patterns.length; i++) patterns[i] = null;
+        patternIndex.clear();
+    }
+
+    /**
+     * rebuilds the pattern index after the patterns have been reordered
+     */
+    private void indexPatterns() {
+        patternIndex.clear();
+        for (int i = 0; i < patternCount; i++) {
+            patternIndex.add(patterns[i]);
+        }
     }
 
     /**
@@ -114,7 +114,7 @@ public abstract class ResamplePatterns implements PatternList, dr.util.XHTMLable
 	 * @return state at (taxonIndex, patternIndex)
 	 */
 	public int getPatternState(int taxonIndex, int patternIndex) {
-		return getPattern(patternIndex)[taxonIndex];
+		return patterns.getPatternState(taxonIndex, patternIndices[patternIndex]);
 	}
 
 	@Override
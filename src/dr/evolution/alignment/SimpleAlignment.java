@@ -64,6 +64,11 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
     private boolean siteCountKnown = false;
     private boolean countStatistics = !(dataType instanceof Codons) && !(dataType instanceof GeneralDataType);
 
+    // the states decoded from the sequences (built when first needed)
+    private volatile StateMatrix stateMatrix = null;
+    // the data type for which the states couldn't be held in a StateMatrix
+    private DataType noStateMatrixDataType = null;
+
     // **************************************************************
     // SimpleAlignment METHODS
     // **************************************************************
@@ -124,6 +129,7 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
      */
     public void setDataType(DataType dataType) {
         this.dataType = dataType;
+        stateMatrix = null;
     }
 
     /**
@@ -241,6 +247,11 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
      * @return the site pattern at siteIndex
      */
     public int[] getSitePattern(int siteIndex) {
+        StateMatrix matrix = getStateMatrix();
+        if (matrix != null && siteIndex < matrix.getSiteCount()) {
+            return matrix.getSitePattern(siteIndex, new int[matrix.getTaxonCount()]);
+        }
+
         Sequence seq;
         int i, n = getSequenceCount();
 
@@ -258,6 +269,46 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
         return pattern;
     }
 
+    /**
+     * Copies the pattern of site into the given array (one state per sequence) so that
+     * reading many sites doesn't allocate an array for each.
+     *
+     * @return the pattern array
+     */
+    public int[] getSitePattern(int siteIndex, int[] pattern) {
+        StateMatrix matrix = getStateMatrix();
+        if (matrix != null && siteIndex < matrix.getSiteCount()) {
+            return matrix.getSitePattern(siteIndex, pattern);
+        }
+
+        for (int i = 0, n = getSequenceCount(); i < n; i++) {
+            pattern[i] = getState(i, siteIndex);
+        }
+        return pattern;
+    }
+
+    /**
+     * @return the decoded states, decoding them again if the sequences have changed, or
+     * null if they can't be held in a StateMatrix
+     */
+    private StateMatrix getStateMatrix() {
+        StateMatrix matrix = stateMatrix;
+        int siteCount = getSiteCount();
+        if (matrix != null && matrix.isCurrent(sequences, siteCount)) {
+            return matrix;
+        }
+        if (dataType == null || dataType == noStateMatrixDataType) {
+            return null;
+        }
+
+        matrix = StateMatrix.create(sequences, siteCount, dataType.getGapState());
+        if (matrix == null) {
+            noStateMatrixDataType = dataType;
+        }
+        stateMatrix = matrix;
+        return matrix;
+    }
+
     @Override
     public double[][] getUncertainSitePattern(int siteIndex) {
         if (areUncertain())   {
@@ -304,6 +355,14 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
 
         Sequence seq = getSequence(taxonIndex);
 
+        StateMatrix matrix = stateMatrix;
+        if (matrix == null || !matrix.isCurrent(taxonIndex, seq)) {
+            matrix = getStateMatrix();
+        }
+        if (matrix != null && siteIndex < matrix.getSiteCount()) {
+            return matrix.getState(taxonIndex, siteIndex);
+        }
+
         if (siteIndex >= seq.getLength()) {
             return dataType.getGapState();
         }
@@ -326,7 +385,15 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
             throw new IllegalArgumentException();
         }
 
+        StateMatrix matrix = stateMatrix;
+        boolean isCurrent = matrix != null && matrix.isCurrent(taxonIndex, seq);
+
         seq.setState(siteIndex, state);
+
+        // keep the decoded states in step rather than decoding them all again
+        if (isCurrent && !matrix.setState(taxonIndex, siteIndex, seq.getState(siteIndex))) {
+            stateMatrix = null;
+        }
     }
 
     // **************************************************************
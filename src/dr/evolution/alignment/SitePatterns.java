@@ -31,10 +31,12 @@ import dr.evolution.datatype.DataType;
 import dr.evolution.datatype.Nucleotides;
 import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Stores a set of site patterns. This differs from the simple Patterns
@@ -47,6 +49,21 @@ import java.util.*;
  */
 public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
+    /**
+     * the number of threads to build the patterns on (by default, one per processor)
+     */
+    public static final String THREAD_COUNT = "thread.count";
+
+    /**
+     * alignments with fewer sites than this are always compressed on one thread
+     */
+    private static final int MIN_PARALLEL_SITE_COUNT = 4096;
+
+    /**
+     * the largest number of states read ahead to be indexed in parallel
+     */
+    private static final int MAX_WINDOW_STATE_COUNT = 1 << 24;
+
     /**
      * the source alignment
      */
@@ -89,6 +106,11 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     protected double[][][] uncertainPatterns;
 
+    /**
+     * pattern -> index of the pattern, if the patterns are unique
+     */
+    protected PatternIndex patternIndex;
+
     protected int from, to, every;
 
     protected boolean strip = true;  // Strip out completely ambiguous sites
@@ -254,6 +276,7 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         siteCount = ((to - from) / every) + 1;
 
         patternCount = 0;
+        patternIndex = new PatternIndex();
 
         patterns = new int[siteCount][];
 
@@ -281,6 +304,12 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
+        int threadCount = getThreadCount();
+        if (unique && threadCount > 1 && siteCount >= MIN_PARALLEL_SITE_COUNT) {
+            addPatternsInParallel(siteList, from, to, every, threadCount);
+            return;
+        }
+
         int site = 0;
 
         for (int i = from; i <= to; i += every) {
@@ -305,6 +334,86 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
     }
 
+    /**
+     * Reads the site patterns on this thread, a window at a time, and indexes each window
+     * on a thread pool. This gives the same patterns, in the same order, as adding the
+     * sites one by one. The window is limited by the number of states so that an alignment
+     * of many thousands of taxa doesn't need all its sites in memory at once.
+     */
+    private void addPatternsInParallel(SiteList siteList, int from, int to, int every, int threadCount) {
+        int windowSize = Math.max(threadCount * PatternIndex.MIN_PATTERNS_PER_BLOCK,
+                MAX_WINDOW_STATE_COUNT / Math.max(siteList.getPatternLength(), 1));
+        windowSize = Math.min(windowSize, siteCount);
+
+        int[][] window = new int[windowSize][];
+        int[] windowSites = new int[windowSize];
+        int[] windowIndices = new int[windowSize];
+
+        ExecutorService executor = AnalysisContext.getCurrent().getSharedThreadPool();
+
+        int site = 0;
+        int windowCount = 0;
+
+        for (int i = from; i <= to; i += every) {
+            int[] pattern = siteList.getSitePattern(i);
+
+            if (!strip || !isInvariant(pattern) ||
+                    (!isGapped(pattern) &&
+                            !isAmbiguous(pattern) &&
+                            !isUnknown(pattern))) {
+
+                window[windowCount] = pattern;
+                windowSites[windowCount] = site;
+                windowCount++;
+
+                if (windowCount == windowSize) {
+                    addWindow(siteList, from, every, window, windowSites, windowIndices, windowCount, executor, threadCount);
+                    windowCount = 0;
+                }
+
+            }  else {
+                sitePatternIndices[site] = -1;
+            }
+            site++;
+        }
+
+        addWindow(siteList, from, every, window, windowSites, windowIndices, windowCount, executor, threadCount);
+    }
+
+    private void addWindow(SiteList siteList, int from, int every,
+                           int[][] window, int[] windowSites, int[] windowIndices, int windowCount,
+                           ExecutorService executor, int threadCount) {
+        patternIndex.addAll(window, windowCount, windowIndices, executor, threadCount);
+
+        for (int i = 0; i < windowCount; i++) {
+            int index = windowIndices[i];
+            double[][] probs = null;
+
+            // the uncertainty is only kept for the first site with each pattern
+            if (uncertainSites && index == patternCount) {
+                probs = siteList.getUncertainSitePattern(from + windowSites[i] * every);
+            }
+
+            sitePatternIndices[windowSites[i]] = addIndexedPattern(index, window[i], 1, probs);
+            window[i] = null;
+        }
+    }
+
+    private static int getThreadCount() {
+        String threadCount = System.getProperty(THREAD_COUNT);
+        if (threadCount != null) {
+            try {
+                int count = Integer.parseInt(threadCount.trim());
+                if (count >= 0) {
+                    return count;
+                }
+            } catch (NumberFormatException nfe) {
+                // use the processor count
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * sets up pattern list using an alignment
      */
@@ -322,6 +431,7 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         siteCount = siteList.getSiteCount();
 
         patternCount = 0;
+        patternIndex = new PatternIndex();
 
         patterns = new int[siteCount][];
 
@@ -379,21 +489,27 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
      * @return the index of the pattern in the pattern list
      */
     private int addPattern(int[] pattern, int weight, double[][] uncertainty) {
+        int index = unique ? patternIndex.add(pattern) : patternCount;
+        return addIndexedPattern(index, pattern, weight, uncertainty);
+    }
 
-        for (int i = 0; i < patternCount; i++) {
-
-            if (unique && comparePatterns(patterns[i], pattern)) {
+    /**
+     * adds a pattern given its index in the pattern index (or the next index if the
+     * patterns are not unique)
+     *
+     * @return the index of the pattern in the pattern list
+     */
+    private int addIndexedPattern(int index, int[] pattern, int weight, double[][] uncertainty) {
 
-                weights[i] += weight;
-                return i;
-            }
+        if (index < patternCount) {
+            weights[index] += weight;
+            return index;
         }
 
         if (isInvariant(pattern)) {
             invariantCount += weight;
         }
 
-        int index = patternCount;
         patterns[index] = pattern;
         weights[index] = weight;
 
@@ -0,0 +1,156 @@
+/*
+ * StateMatrix.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.alignment;
+
+import dr.evolution.sequence.Sequence;
+
+import java.util.List;
+
+/**
+ * The states of a list of sequences decoded once into a column-major byte matrix, so the
+ * states of a site are contiguous and reading a site pattern doesn't need the characters
+ * of each sequence to be looked up in the data type again. A byte holds the state codes of
+ * all the standard data types (including their ambiguity and gap codes); sequences with
+ * any state outside 0..255 can't be held and create() returns null.
+ *
+ * The matrix remembers the sequences it was decoded from and their modification counts
+ * so the owner can check it is still up to date before using it.
+ */
+public class StateMatrix {
+
+    private static final int MAX_STATE = 255;
+
+    /**
+     * Decodes the states of the sequences. Sites beyond the end of a shorter sequence are
+     * given the gap state.
+     *
+     * @return the matrix or null if a state doesn't fit in a byte
+     */
+    public static StateMatrix create(List<Sequence> sequences, int siteCount, int gapState) {
+        if (gapState < 0 || gapState > MAX_STATE) {
+            return null;
+        }
+
+        int taxonCount = sequences.size();
+        StateMatrix matrix = new StateMatrix(taxonCount, siteCount);
+
+        for (int i = 0; i < taxonCount; i++) {
+            Sequence sequence = sequences.get(i);
+            matrix.sequences[i] = sequence;
+            matrix.modificationCounts[i] = sequence.getModificationCount();
+
+            int length = Math.min(sequence.getLength(), siteCount);
+            for (int j = 0; j < siteCount; j++) {
+                int state = j < length ? sequence.getState(j) : gapState;
+                if (state < 0 || state > MAX_STATE) {
+                    return null;
+                }
+                matrix.states[j * taxonCount + i] = (byte) state;
+            }
+        }
+
+        return matrix;
+    }
+
+    private StateMatrix(int taxonCount, int siteCount) {
+        this.taxonCount = taxonCount;
+        this.siteCount = siteCount;
+        this.states = new byte[taxonCount * siteCount];
+        this.sequences = new Sequence[taxonCount];
+        this.modificationCounts = new int[taxonCount];
+    }
+
+    /**
+     * @return true if the matrix was decoded from these sequences, unchanged since
+     */
+    public boolean isCurrent(List<Sequence> sequences, int siteCount) {
+        if (sequences.size() != taxonCount || siteCount != this.siteCount) {
+            return false;
+        }
+        for (int i = 0; i < taxonCount; i++) {
+            if (!isCurrent(i, sequences.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the row of the taxon was decoded from this sequence, unchanged since
+     */
+    public boolean isCurrent(int taxonIndex, Sequence sequence) {
+        return taxonIndex < taxonCount && sequences[taxonIndex] == sequence &&
+                modificationCounts[taxonIndex] == sequence.getModificationCount();
+    }
+
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+    /**
+     * @return the state at (taxon, site)
+     */
+    public int getState(int taxonIndex, int siteIndex) {
+        return states[siteIndex * taxonCount + taxonIndex] & 0xFF;
+    }
+
+    /**
+     * Sets a state after the sequence has been changed to match so the matrix stays current.
+     *
+     * @return false if the state can't be held (and the matrix should be dropped)
+     */
+    public boolean setState(int taxonIndex, int siteIndex, int state) {
+        if (state < 0 || state > MAX_STATE) {
+            return false;
+        }
+        states[siteIndex * taxonCount + taxonIndex] = (byte) state;
+        modificationCounts[taxonIndex] = sequences[taxonIndex].getModificationCount();
+        return true;
+    }
+
+    /**
+     * Copies the states of a site into the given array (which must hold one per taxon)
+     *
+     * @return the pattern array
+     */
+    public int[] getSitePattern(int siteIndex, int[] pattern) {
+        int offset = siteIndex * taxonCount;
+        for (int i = 0; i < taxonCount; i++) {
+            pattern[i] = states[offset + i] & 0xFF;
+        }
+        return pattern;
+    }
+
+    private final int taxonCount;
+    private final int siteCount;
+    private final byte[] states;
+    private final Sequence[] sequences;
+    private final int[] modificationCounts;
+}
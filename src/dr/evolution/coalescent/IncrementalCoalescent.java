@@ -0,0 +1,180 @@
+/*
+ * IncrementalCoalescent.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.coalescent;
+
+import dr.math.Binomial;
+
+/**
+ * The coalescent likelihood of a set of IncrementalIntervals, keeping the contribution of each
+ * interval so that when only a few intervals have changed (such as after a move of one node
+ * height) the demographic function is only integrated over those. The contribution of an
+ * interval depends only on its start and end times, so this works for any demographic function
+ * (piecewise constant, exponential and so on), but all the intervals are recalculated when the
+ * demographic function changes (call makeDirty()).
+ *
+ * The terms are the same as those of Coalescent.calculateLogLikelihood() except that the times
+ * are measured from the first event rather than summed from the interval lengths.
+ */
+public class IncrementalCoalescent {
+
+    public IncrementalCoalescent(IncrementalIntervals intervals) {
+        this.intervals = intervals;
+
+        int intervalCount = intervals.getEventCount() - 1;
+
+        areaTerms = new double[intervalCount];
+        demographicTerms = new double[intervalCount];
+        failed = new boolean[intervalCount];
+
+        storedAreaTerms = new double[intervalCount];
+        storedDemographicTerms = new double[intervalCount];
+        storedFailed = new boolean[intervalCount];
+
+        clearCalculatedIntervals();
+    }
+
+    /**
+     * Calculates the log likelihood, given a demographic model, recalculating the terms of the
+     * intervals that have changed since the last call.
+     */
+    public double calculateLogLikelihood(DemographicFunction demographicFunction, double threshold) {
+
+        final int n = intervals.getIntervalCount();
+
+        if (!termsKnown || threshold != lastThreshold) {
+            calculateTerms(demographicFunction, threshold, 0, n - 1);
+        } else {
+            calculateTerms(demographicFunction, threshold,
+                    intervals.getFirstChangedInterval(), intervals.getLastChangedInterval());
+        }
+        intervals.clearChangedIntervals();
+        termsKnown = true;
+        lastThreshold = threshold;
+
+        // the sum is cheap compared to the terms and is done in full so it doesn't drift
+        double logL = 0.0;
+        for (int i = 0; i < n; i++) {
+            if (failed[i]) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            logL += areaTerms[i];
+            logL -= demographicTerms[i];
+        }
+
+        return logL;
+    }
+
+    /**
+     * The demographic function has changed so all the intervals need recalculating.
+     */
+    public void makeDirty() {
+        termsKnown = false;
+    }
+
+    public void storeState() {
+        if (firstCalculatedInterval <= lastCalculatedInterval) {
+            int length = lastCalculatedInterval - firstCalculatedInterval + 1;
+            System.arraycopy(areaTerms, firstCalculatedInterval, storedAreaTerms, firstCalculatedInterval, length);
+            System.arraycopy(demographicTerms, firstCalculatedInterval, storedDemographicTerms, firstCalculatedInterval, length);
+            System.arraycopy(failed, firstCalculatedInterval, storedFailed, firstCalculatedInterval, length);
+        }
+        storedTermsKnown = termsKnown;
+        storedLastThreshold = lastThreshold;
+
+        clearCalculatedIntervals();
+    }
+
+    public void restoreState() {
+        if (firstCalculatedInterval <= lastCalculatedInterval) {
+            int length = lastCalculatedInterval - firstCalculatedInterval + 1;
+            System.arraycopy(storedAreaTerms, firstCalculatedInterval, areaTerms, firstCalculatedInterval, length);
+            System.arraycopy(storedDemographicTerms, firstCalculatedInterval, demographicTerms, firstCalculatedInterval, length);
+            System.arraycopy(storedFailed, firstCalculatedInterval, failed, firstCalculatedInterval, length);
+        }
+        termsKnown = storedTermsKnown;
+        lastThreshold = storedLastThreshold;
+
+        clearCalculatedIntervals();
+    }
+
+    private void calculateTerms(DemographicFunction demographicFunction, double threshold, int first, int last) {
+
+        for (int i = first; i <= last; i++) {
+
+            final double duration = intervals.getInterval(i);
+            final double startTime = intervals.getIntervalStart(i);
+            final double finishTime = startTime + duration;
+
+            final double intervalArea = demographicFunction.getIntegral(startTime, finishTime);
+            final int lineageCount = intervals.getLineageCount(i);
+
+            areaTerms[i] = -Binomial.choose2(lineageCount) * intervalArea;
+            demographicTerms[i] = 0.0;
+            failed[i] = (intervalArea == 0 && duration != 0);
+
+            if (!failed[i] && intervals.getIntervalType(i) == IntervalType.COALESCENT) {
+
+                final double demographicAtCoalPoint = demographicFunction.getDemographic(finishTime);
+
+                // if value at end is many orders of magnitude different than mean over interval reject the interval
+                if (duration == 0.0 || demographicAtCoalPoint * (intervalArea / duration) >= threshold) {
+                    demographicTerms[i] = Math.log(demographicAtCoalPoint);
+                } else {
+                    failed[i] = true;
+                }
+            }
+        }
+
+        firstCalculatedInterval = Math.min(firstCalculatedInterval, first);
+        lastCalculatedInterval = Math.max(lastCalculatedInterval, last);
+    }
+
+    private void clearCalculatedIntervals() {
+        firstCalculatedInterval = Integer.MAX_VALUE;
+        lastCalculatedInterval = -1;
+    }
+
+    private final IncrementalIntervals intervals;
+
+    // the contributions of each interval: -choose(k, 2) times the integral over the interval,
+    // the log population size at the coalescent event ending it and whether it is impossible
+    private final double[] areaTerms;
+    private final double[] demographicTerms;
+    private final boolean[] failed;
+
+    private final double[] storedAreaTerms;
+    private final double[] storedDemographicTerms;
+    private final boolean[] storedFailed;
+
+    private boolean termsKnown = false;
+    private boolean storedTermsKnown = false;
+    private double lastThreshold;
+    private double storedLastThreshold;
+
+    // the intervals recalculated since the last store
+    private int firstCalculatedInterval;
+    private int lastCalculatedInterval;
+}
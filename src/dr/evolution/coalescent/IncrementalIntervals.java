@@ -0,0 +1,376 @@
+/*
+ * IncrementalIntervals.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.coalescent;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The coalescent intervals of a whole tree (a sample event for each tip and a coalescent event
+ * for each internal node), with the events kept sorted by height. Changing the height of a node
+ * only moves its event to its new place and updates the intervals between the old and new
+ * places, rather than collecting and sorting all the heights again as Intervals does.
+ *
+ * The intervals changed since clearChangedIntervals() was last called are recorded so the
+ * likelihood of only those need be recalculated (see IncrementalCoalescent). Storing and
+ * restoring copies only the events that have moved since the last store.
+ */
+public class IncrementalIntervals implements IntervalList {
+
+    public IncrementalIntervals(int nodeCount) {
+        eventCount = nodeCount;
+
+        times = new double[nodeCount];
+        types = new IntervalType[nodeCount];
+        eventNodes = new int[nodeCount];
+        positions = new int[nodeCount];
+        lineageCounts = new int[nodeCount - 1];
+
+        storedTimes = new double[nodeCount];
+        storedTypes = new IntervalType[nodeCount];
+        storedEventNodes = new int[nodeCount];
+        storedLineageCounts = new int[nodeCount - 1];
+
+        clearChangedIntervals();
+        storedFirstChangedInterval = firstChangedInterval;
+        storedLastChangedInterval = lastChangedInterval;
+        clearMovedEvents();
+    }
+
+    /**
+     * Sets up the events from the heights of all the nodes of the tree.
+     */
+    public void setTree(Tree tree) {
+        if (tree.getNodeCount() != eventCount) {
+            throw new IllegalArgumentException("The tree has " + tree.getNodeCount() + " nodes, expecting " + eventCount);
+        }
+
+        final double[] nodeTimes = new double[eventCount];
+        final IntervalType[] nodeTypes = new IntervalType[eventCount];
+        Integer[] order = new Integer[eventCount];
+
+        sampleCount = 0;
+        for (int i = 0; i < eventCount; i++) {
+            NodeRef node = tree.getNode(i);
+            int nodeNumber = node.getNumber();
+            nodeTimes[nodeNumber] = tree.getNodeHeight(node);
+            if (tree.isExternal(node)) {
+                nodeTypes[nodeNumber] = IntervalType.SAMPLE;
+                sampleCount++;
+            } else {
+                nodeTypes[nodeNumber] = IntervalType.COALESCENT;
+            }
+            order[i] = nodeNumber;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer node1, Integer node2) {
+                return compareEvents(nodeTimes[node1], nodeTypes[node1], nodeTimes[node2], nodeTypes[node2]);
+            }
+        });
+
+        for (int i = 0; i < eventCount; i++) {
+            int nodeNumber = order[i];
+            times[i] = nodeTimes[nodeNumber];
+            types[i] = nodeTypes[nodeNumber];
+            eventNodes[i] = nodeNumber;
+            positions[nodeNumber] = i;
+        }
+
+        updateLineageCounts(0, eventCount - 1);
+        eventsMoved(0, eventCount - 1);
+    }
+
+    /**
+     * Changes the height of a node, moving its event into its new place.
+     *
+     * @param nodeNumber the number of the node in the tree
+     * @param time       the new height of the node
+     */
+    public void setNodeTime(int nodeNumber, double time) {
+        final int position = positions[nodeNumber];
+        if (times[position] == time) {
+            return;
+        }
+
+        final IntervalType type = types[position];
+
+        // shift the events between the old and new places along by one
+        int newPosition = position;
+        while (newPosition > 0 && compareEvents(time, type, times[newPosition - 1], types[newPosition - 1]) < 0) {
+            copyEvent(newPosition - 1, newPosition);
+            newPosition--;
+        }
+        while (newPosition < eventCount - 1 && compareEvents(time, type, times[newPosition + 1], types[newPosition + 1]) > 0) {
+            copyEvent(newPosition + 1, newPosition);
+            newPosition++;
+        }
+
+        times[newPosition] = time;
+        types[newPosition] = type;
+        eventNodes[newPosition] = nodeNumber;
+        positions[nodeNumber] = newPosition;
+
+        int first = Math.min(position, newPosition);
+        int last = Math.max(position, newPosition);
+
+        updateLineageCounts(first, last);
+        eventsMoved(first, last);
+    }
+
+    /**
+     * @return the number of events, one for each node of the tree.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the first interval which has changed since clearChangedIntervals() was called
+     * (greater than the last changed interval if none have).
+     */
+    public int getFirstChangedInterval() {
+        return firstChangedInterval;
+    }
+
+    /**
+     * @return the last interval which has changed since clearChangedIntervals() was called.
+     */
+    public int getLastChangedInterval() {
+        return lastChangedInterval;
+    }
+
+    public void clearChangedIntervals() {
+        firstChangedInterval = Integer.MAX_VALUE;
+        lastChangedInterval = -1;
+    }
+
+    /**
+     * @return the time at the start of an interval measured from the first (most recent) event.
+     */
+    public double getIntervalStart(int i) {
+        return times[i] - times[0];
+    }
+
+    /**
+     * Makes a copy of the events to restore (only those that have moved since the last store are
+     * copied).
+     */
+    public void storeState() {
+        if (firstMovedEvent <= lastMovedEvent) {
+            copyEvents(times, types, eventNodes, lineageCounts, storedTimes, storedTypes, storedEventNodes, storedLineageCounts);
+        }
+
+        storedFirstChangedInterval = firstChangedInterval;
+        storedLastChangedInterval = lastChangedInterval;
+
+        clearMovedEvents();
+    }
+
+    /**
+     * Puts back the events as they were when last stored.
+     */
+    public void restoreState() {
+        if (firstMovedEvent <= lastMovedEvent) {
+            copyEvents(storedTimes, storedTypes, storedEventNodes, storedLineageCounts, times, types, eventNodes, lineageCounts);
+
+            // the moves only shuffled the nodes within this range
+            for (int i = firstMovedEvent; i <= lastMovedEvent; i++) {
+                positions[eventNodes[i]] = i;
+            }
+        }
+
+        firstChangedInterval = storedFirstChangedInterval;
+        lastChangedInterval = storedLastChangedInterval;
+
+        clearMovedEvents();
+    }
+
+    // **************************************************************
+    // IntervalList IMPLEMENTATION
+    // **************************************************************
+
+    public int getIntervalCount() {
+        if (types[0] != IntervalType.SAMPLE) {
+            throw new IllegalArgumentException("First event is not a sample event");
+        }
+        return eventCount - 1;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public double getInterval(int i) {
+        return times[i + 1] - times[i];
+    }
+
+    public int getLineageCount(int i) {
+        return lineageCounts[i];
+    }
+
+    public int getCoalescentEvents(int i) {
+        if (i < eventCount - 2) {
+            return lineageCounts[i] - lineageCounts[i + 1];
+        } else {
+            return lineageCounts[i] - 1;
+        }
+    }
+
+    public IntervalType getIntervalType(int i) {
+        return types[i + 1];
+    }
+
+    public double getTotalDuration() {
+        return times[eventCount - 1];
+    }
+
+    public boolean isBinaryCoalescent() {
+        return true;
+    }
+
+    public boolean isCoalescentOnly() {
+        return true;
+    }
+
+    // **************************************************************
+    // Units IMPLEMENTATION
+    // **************************************************************
+
+    public final Type getUnits() {
+        return units;
+    }
+
+    public final void setUnits(Type units) {
+        this.units = units;
+    }
+
+    // **************************************************************
+    // Private stuff
+    // **************************************************************
+
+    /**
+     * Orders events by time and then by type, as Intervals does.
+     */
+    private static int compareEvents(double time1, IntervalType type1, double time2, IntervalType type2) {
+        if (time1 < time2) {
+            return -1;
+        } else if (time1 > time2) {
+            return 1;
+        }
+        return type1.compareTo(type2);
+    }
+
+    private void copyEvent(int from, int to) {
+        times[to] = times[from];
+        types[to] = types[from];
+        eventNodes[to] = eventNodes[from];
+        positions[eventNodes[to]] = to;
+    }
+
+    /**
+     * The number of lineages in interval i is the number after the first i + 1 events, so only
+     * changes for the events from first to last.
+     */
+    private void updateLineageCounts(int first, int last) {
+        lineageCounts[0] = 1;
+
+        int lastInterval = Math.min(last, eventCount - 2);
+        for (int i = Math.max(first, 1); i <= lastInterval; i++) {
+            int lineages = lineageCounts[i - 1];
+            if (types[i] == IntervalType.SAMPLE) {
+                lineages++;
+            } else if (types[i] == IntervalType.COALESCENT) {
+                lineages--;
+            }
+            lineageCounts[i] = lineages;
+        }
+    }
+
+    private void eventsMoved(int first, int last) {
+        firstMovedEvent = Math.min(firstMovedEvent, first);
+        lastMovedEvent = Math.max(lastMovedEvent, last);
+
+        if (first == 0) {
+            // all the start times are measured from the first event
+            firstChangedInterval = 0;
+            lastChangedInterval = eventCount - 2;
+        } else {
+            // the intervals either side of the events have changed
+            firstChangedInterval = Math.min(firstChangedInterval, first - 1);
+            lastChangedInterval = Math.max(lastChangedInterval, Math.min(last, eventCount - 2));
+        }
+    }
+
+    private void clearMovedEvents() {
+        firstMovedEvent = Integer.MAX_VALUE;
+        lastMovedEvent = -1;
+    }
+
+    private void copyEvents(double[] fromTimes, IntervalType[] fromTypes, int[] fromEventNodes, int[] fromLineageCounts,
+                            double[] toTimes, IntervalType[] toTypes, int[] toEventNodes, int[] toLineageCounts) {
+        int length = lastMovedEvent - firstMovedEvent + 1;
+        System.arraycopy(fromTimes, firstMovedEvent, toTimes, firstMovedEvent, length);
+        System.arraycopy(fromTypes, firstMovedEvent, toTypes, firstMovedEvent, length);
+        System.arraycopy(fromEventNodes, firstMovedEvent, toEventNodes, firstMovedEvent, length);
+
+        int lastInterval = Math.min(lastMovedEvent, eventCount - 2);
+        if (lastInterval >= firstMovedEvent) {
+            System.arraycopy(fromLineageCounts, firstMovedEvent, toLineageCounts, firstMovedEvent, lastInterval - firstMovedEvent + 1);
+        }
+    }
+
+    private final int eventCount;
+    private int sampleCount = 0;
+
+    // the events in order of time
+    private final double[] times;
+    private final IntervalType[] types;
+    private final int[] eventNodes;
+    private final int[] lineageCounts;
+
+    // the place of each node's event
+    private final int[] positions;
+
+    private final double[] storedTimes;
+    private final IntervalType[] storedTypes;
+    private final int[] storedEventNodes;
+    private final int[] storedLineageCounts;
+
+    private int firstChangedInterval;
+    private int lastChangedInterval;
+    private int storedFirstChangedInterval;
+    private int storedLastChangedInterval;
+
+    // the events that have moved since the last store
+    private int firstMovedEvent;
+    private int lastMovedEvent;
+
+    private Type units = Type.GENERATIONS;
+}
@@ -119,6 +119,22 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         distances[row][column] = value;
     }
 
+    /**
+     * @return the distance between two taxa without calculating the whole matrix if it is not yet known
+     */
+    public double getDistance(int taxon1, int taxon2) {
+
+        if (distancesKnown) {
+            return distances[taxon1][taxon2];
+        }
+
+        if (taxon1 == taxon2) {
+            return 0.0;
+        }
+
+        return calculatePairwiseDistance(taxon1, taxon2);
+    }
+
     /**
      * Calculate the distances
      */
@@ -147,13 +163,10 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         double sumDistance = 0.0;
         double sumWeight = 0.0;
 
-        int[] pattern;
-
         for (int i = 0; i < n; i++) {
-            pattern = patterns.getPattern(i);
-
-            state1 = pattern[taxon1];
-            state2 = pattern[taxon2];
+            // read the two states rather than the whole pattern which some pattern lists have to build
+            state1 = patterns.getPatternState(taxon1, i);
+            state2 = patterns.getPatternState(taxon2, i);
 
             weight = patterns.getPatternWeight(i);
 //			sumDistance += dataType.getObservedDistance(state1, state2) * weight;
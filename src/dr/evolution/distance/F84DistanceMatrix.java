@@ -88,14 +88,10 @@ public class F84DistanceMatrix extends DistanceMatrix
 		double sumTs = 0.0;
 		double sumTv = 0.0;
 		double sumWeight = 0.0;
-		
-		int[] pattern;
-		
+
 		for (int i = 0; i < n; i++) {
-			pattern = patterns.getPattern(i);
-			
-			state1 = pattern[taxon1];
-			state2 = pattern[taxon2];
+			state1 = patterns.getPatternState(taxon1, i);
+			state2 = patterns.getPatternState(taxon2, i);
 			
 			weight = patterns.getPatternWeight(i);
 			if (!dataType.isAmbiguousState(state1) && !dataType.isAmbiguousState(state2) && state1 != state2) {
@@ -346,6 +346,23 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return tree;
     }
 
+    /**
+     * @return the translation list of the TREES block being read (after hasTree has been called)
+     */
+    HashMap<String, Taxon> getTranslationList() {
+        return translationList;
+    }
+
+    /**
+     * Reads a single TREE command that has been split out of a TREES block using that block's
+     * translation list. Used by ParallelTreeImporter so trees can be parsed independently.
+     */
+    Tree importTreeCommand(HashMap<String, Taxon> translationList) throws IOException, ImportException {
+        String[] lastToken = new String[1];
+        lastToken[0] = readToken(";");
+        return readNextTree(translationList, lastToken, null);
+    }
+
     public boolean startReadingTrees(TaxonList[] taxonList) throws IOException, ImportException {
         boolean done = false;
 
@@ -0,0 +1,367 @@
+/*
+ * ParallelTreeImporter.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads the trees in the TREES block of a NEXUS file in parallel. The file is split into the
+ * individual TREE commands on the calling thread, which is just a matter of finding the ';' at
+ * the end of each, and the commands are parsed by NexusImporter on the threads of the given
+ * executor. The trees are returned in the order they are in the file and only a limited number
+ * are read ahead so the memory used doesn't depend on the length of the file.
+ *
+ * The tools that read tree logs (TreeAnnotator, LogCombiner, TreeLogAnalyser and TimeSlicer)
+ * get their importer from create so they can read the trees on a number of threads or, given
+ * no executor, with a NexusImporter on the calling thread.
+ */
+public class ParallelTreeImporter implements TreeImporter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64;
+
+    private static final int BUFFER_LENGTH = 1 << 16;
+
+    public ParallelTreeImporter(Reader reader, boolean ignoreMetaComments, ExecutorService executor) {
+        this(reader, ignoreMetaComments, executor, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param reader             the NEXUS file
+     * @param ignoreMetaComments whether to skip the node annotations
+     * @param executor           the threads to parse the trees on
+     * @param bufferSize         the number of trees to read ahead
+     */
+    public ParallelTreeImporter(Reader reader, boolean ignoreMetaComments, ExecutorService executor, int bufferSize) {
+        this.reader = reader;
+        this.ignoreMetaComments = ignoreMetaComments;
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return the number of cores or, if there is only one, 0 as parsing on another thread would just compete
+     * with the thread splitting the file
+     */
+    public static int getDefaultThreadCount() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return cores > 1 ? cores : 0;
+    }
+
+    /**
+     * @param threadCount the number of threads to read trees on
+     * @return a pool of daemon threads to read trees on or null if threadCount is less than 1
+     */
+    public static ExecutorService createExecutor(int threadCount) {
+        if (threadCount < 1) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tree reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param executor the threads to parse the trees on or null to parse them on the calling thread
+     * @return an importer for the trees of a NEXUS file
+     */
+    public static TreeImporter create(Reader reader, boolean ignoreMetaComments, ExecutorService executor) {
+        if (executor != null) {
+            return new ParallelTreeImporter(reader, ignoreMetaComments, executor);
+        }
+        return new NexusImporter(reader, ignoreMetaComments);
+    }
+
+    /**
+     * return whether another tree is available.
+     */
+    public boolean hasTree() throws IOException, Importer.ImportException {
+        if (nextTree == null) {
+            fillBuffer();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            nextTree = getTree(pending.removeFirst());
+            fillBuffer();
+        }
+        return nextTree != null;
+    }
+
+    /**
+     * import the next tree.
+     * return the tree or null if no more trees are available
+     */
+    public Tree importNextTree() throws IOException, Importer.ImportException {
+        if (!hasTree()) {
+            return null;
+        }
+        Tree tree = nextTree;
+        nextTree = null;
+        return tree;
+    }
+
+    /**
+     * import a single tree. Trees can only be read with their own taxa so the taxon list must be null.
+     */
+    public Tree importTree(TaxonList taxonList) throws IOException, Importer.ImportException {
+        checkTaxonList(taxonList);
+        return importNextTree();
+    }
+
+    /**
+     * import an array of all trees. Trees can only be read with their own taxa so the taxon list must be null.
+     */
+    public Tree[] importTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+        checkTaxonList(taxonList);
+        List<Tree> trees = new ArrayList<Tree>();
+        while (hasTree()) {
+            trees.add(importNextTree());
+        }
+        return trees.toArray(new Tree[trees.size()]);
+    }
+
+    private void checkTaxonList(TaxonList taxonList) {
+        if (taxonList != null) {
+            throw new UnsupportedOperationException("Use NexusImporter to read trees with a given taxon list");
+        }
+    }
+
+    /**
+     * Reads tree commands from the file and queues them to be parsed until the buffer is full
+     * or the end of the TREES block is reached.
+     */
+    private void fillBuffer() throws IOException, Importer.ImportException {
+        if (!isReadingTreesBlock && !isFinished) {
+            readHeader();
+        }
+
+        while (!isFinished && pending.size() < bufferSize) {
+            final String command = readCommand();
+            if (command == null) {
+                isFinished = true;
+                break;
+            }
+
+            final String word = getFirstWord(command);
+            if (word.equalsIgnoreCase("TREE") || word.equalsIgnoreCase("UTREE")) {
+                pending.add(executor.submit(new Callable<Tree>() {
+                    public Tree call() throws Exception {
+                        NexusImporter importer = new NexusImporter(new StringReader(command + "\nEND;"), ignoreMetaComments);
+                        return importer.importTreeCommand(translationList);
+                    }
+                }));
+            } else if (word.equalsIgnoreCase("END") || word.equalsIgnoreCase("ENDBLOCK")) {
+                isFinished = true;
+            } else {
+                throw new Importer.BadFormatException("Unknown command '" + word + "' in TREES block");
+            }
+        }
+    }
+
+    /**
+     * Reads everything up to the first tree and gets the translation list from it. If there is
+     * no TREES block then there are no trees.
+     */
+    private void readHeader() throws IOException, Importer.ImportException {
+        StringBuilder header = new StringBuilder();
+
+        boolean inTreesBlock = false;
+        while (!isReadingTreesBlock) {
+            String command = readCommand();
+            if (command == null) {
+                isFinished = true;
+                return;
+            }
+
+            if (!inTreesBlock) {
+                header.append(command);
+                String[] words = getWords(command, 3);
+                for (int i = 0; i < words.length - 1; i++) {
+                    if (words[i].equalsIgnoreCase("BEGIN") && words[i + 1].equalsIgnoreCase("TREES")) {
+                        inTreesBlock = true;
+                    }
+                }
+            } else if (getFirstWord(command).equalsIgnoreCase("TRANSLATE")) {
+                header.append(command);
+            } else {
+                // the first tree (or the end of an empty block) which is kept to be parsed
+                pushBack = command;
+                isReadingTreesBlock = true;
+            }
+        }
+
+        header.append("\nEND;\n");
+        NexusImporter importer = new NexusImporter(new StringReader(header.toString()), ignoreMetaComments);
+        importer.hasTree();
+        translationList = importer.getTranslationList();
+    }
+
+    /**
+     * Reads the text of the next command up to and including its ';', ignoring any inside
+     * comments or quotes.
+     *
+     * @return the command or null at the end of the file
+     */
+    private String readCommand() throws IOException {
+        if (pushBack != null) {
+            String command = pushBack;
+            pushBack = null;
+            return command;
+        }
+
+        StringBuilder command = new StringBuilder();
+        int commentDepth = 0;
+        int quote = 0;
+
+        // scan a block of the file at a time rather than reading each character from the reader
+        while (true) {
+            if (bufferPosition == bufferLength) {
+                bufferLength = reader.read(buffer);
+                bufferPosition = 0;
+                if (bufferLength == -1) {
+                    bufferLength = 0;
+                    break;
+                }
+            }
+
+            int start = bufferPosition;
+            while (bufferPosition < bufferLength) {
+                char ch = buffer[bufferPosition];
+                bufferPosition++;
+
+                if (commentDepth > 0) {
+                    if (ch == '[') {
+                        commentDepth++;
+                    } else if (ch == ']') {
+                        commentDepth--;
+                    }
+                } else if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    }
+                } else if (ch == '[') {
+                    commentDepth = 1;
+                } else if (ch == '\'' || ch == '"') {
+                    quote = ch;
+                } else if (ch == ';') {
+                    command.append(buffer, start, bufferPosition - start);
+                    return command.toString();
+                }
+            }
+            command.append(buffer, start, bufferPosition - start);
+        }
+
+        // anything after the last ';' is ignored
+        return null;
+    }
+
+    private static String getFirstWord(String command) {
+        String[] words = getWords(command, 1);
+        return words.length > 0 ? words[0] : "";
+    }
+
+    /**
+     * @return up to maxWords words from the start of the command, skipping comments
+     */
+    private static String[] getWords(String command, int maxWords) {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        int commentDepth = 0;
+
+        for (int i = 0; i < command.length() && words.size() < maxWords; i++) {
+            char ch = command.charAt(i);
+            if (ch == '[') {
+                commentDepth++;
+            } else if (ch == ']') {
+                commentDepth--;
+            } else if (commentDepth == 0) {
+                if (Character.isWhitespace(ch) || ch == ';' || ch == '=') {
+                    if (word.length() > 0) {
+                        words.add(word.toString());
+                        word.setLength(0);
+                    }
+                } else {
+                    word.append(ch);
+                }
+            }
+        }
+        if (word.length() > 0 && words.size() < maxWords) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    private Tree getTree(Future<Tree> future) throws IOException, Importer.ImportException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading trees");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Importer.ImportException) {
+                throw (Importer.ImportException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_LENGTH];
+    private int bufferPosition = 0;
+    private int bufferLength = 0;
+    private final boolean ignoreMetaComments;
+    private final ExecutorService executor;
+    private final int bufferSize;
+
+    private final LinkedList<Future<Tree>> pending = new LinkedList<Future<Tree>>();
+    private HashMap<String, Taxon> translationList = null;
+    private boolean isReadingTreesBlock = false;
+    private boolean isFinished = false;
+    private String pushBack = null;
+    private Tree nextTree = null;
+}
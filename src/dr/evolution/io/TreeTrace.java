@@ -33,6 +33,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Andrew Rambaut
@@ -108,6 +109,20 @@ public class TreeTrace implements Identifiable {
      * @throws java.io.IOException if general I/O error occurs
      */
     public static TreeTrace loadTreeTrace(Reader r) throws IOException, Importer.ImportException {
+        return loadTreeTrace(r, null);
+    }
+
+    /**
+     * Loads the trace for with trees from a reader
+     *
+     * @param r        the reader to load the trees from
+     * @param executor the threads to parse the trees of a NEXUS file on (null to parse them on this thread)
+     * @return the TreeTrace
+     * @throws dr.evolution.io.Importer.ImportException
+     *                             thrown when tree file is not correctly formatted
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static TreeTrace loadTreeTrace(Reader r, ExecutorService executor) throws IOException, Importer.ImportException {
 
         BufferedReader reader = new BufferedReader(r);
 
@@ -121,7 +136,7 @@ public class TreeTrace implements Identifiable {
         String line = reader.readLine();
 
         if (line.toUpperCase().startsWith("#NEXUS")) {
-            NexusImporter importer = new NexusImporter(reader);
+            TreeImporter importer = ParallelTreeImporter.create(reader, false, executor);
             Tree[] trees = importer.importTrees(null);
 
             if (trees.length < 2) {
@@ -45,7 +45,7 @@ public class Sequence implements Identifiable, Attributable {
      * Empty constructor.
      */
     public Sequence() {
-        sequenceString = new StringBuffer();
+        sequenceString = new StringBuilder();
     }
 
     /**
@@ -54,7 +54,7 @@ public class Sequence implements Identifiable, Attributable {
      * @param sequence a string representing the sequence
      */
     public Sequence(String sequence) {
-        sequenceString = new StringBuffer();
+        sequenceString = new StringBuilder();
         setSequenceString(sequence);
     }
 
@@ -75,7 +75,7 @@ public class Sequence implements Identifiable, Attributable {
      * @param sequence the sequence's symbol string
      */
     public Sequence(Taxon taxon, String sequence) {
-        sequenceString = new StringBuffer();
+        sequenceString = new StringBuilder();
         setTaxon(taxon);
         setSequenceString(sequence);
     }
@@ -120,6 +120,7 @@ public class Sequence implements Identifiable, Attributable {
     public void setState(int index, int state) {
 
         sequenceString.setCharAt(index, dataType.getChar(state));
+        modificationCount++;
     }
 
     /**
@@ -151,6 +152,7 @@ public class Sequence implements Identifiable, Attributable {
      */
     public void setDataType(DataType dataType) {
         this.dataType = dataType;
+        modificationCount++;
     }
 
     /**
@@ -166,6 +168,7 @@ public class Sequence implements Identifiable, Attributable {
     public void setSequenceString(String sequence) {
         sequenceString.setLength(0);
         sequenceString.append(sequence.toUpperCase());
+        modificationCount++;
     }
 
     /**
@@ -173,6 +176,7 @@ public class Sequence implements Identifiable, Attributable {
      */
     public void appendSequenceString(String sequence) {
         sequenceString.append(sequence);
+        modificationCount++;
     }
 
     /**
@@ -180,6 +184,15 @@ public class Sequence implements Identifiable, Attributable {
      */
     public void insertSequenceString(int offset, String sequence) {
         sequenceString.insert(offset, sequence);
+        modificationCount++;
+    }
+
+    /**
+     * @return a count that changes whenever the characters or data type of the sequence are
+     * changed, so anything decoded from the sequence can tell when it is out of date.
+     */
+    public int getModificationCount() {
+        return modificationCount;
     }
 
     /**
@@ -262,8 +275,9 @@ public class Sequence implements Identifiable, Attributable {
     // **************************************************************
 
     protected Taxon taxon = null;
-    protected StringBuffer sequenceString = null;
+    protected StringBuilder sequenceString = null;
     protected DataType dataType = null;
+    private int modificationCount = 0;
 }
 
 
@@ -25,6 +25,7 @@
 
 package dr.evomodel.coalescent;
 
+import dr.evolution.coalescent.IncrementalIntervals;
 import dr.evolution.coalescent.IntervalList;
 import dr.evolution.coalescent.IntervalType;
 import dr.evolution.coalescent.Intervals;
@@ -33,6 +34,7 @@ import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 import dr.evolution.util.TaxonList;
 import dr.evolution.util.Units;
+import dr.evomodel.tree.TreeChangedEvent;
 import dr.evomodel.tree.TreeModel;
 import dr.inference.model.*;
 
@@ -81,8 +83,14 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
             addModel((TreeModel) tree);
         }
 
-        intervals = new Intervals(tree.getNodeCount());
-        storedIntervals = new Intervals(tree.getNodeCount());
+        if (includedLeafSet == null && excludedLeafSets.length == 0) {
+            // every node of the tree is an event so the events can be kept in order as the
+            // node heights change
+            nodeIntervals = new IncrementalIntervals(tree.getNodeCount());
+        } else {
+            intervals = new Intervals(tree.getNodeCount());
+            storedIntervals = new Intervals(tree.getNodeCount());
+        }
         eventsKnown = false;
 
         this.coalescentEventStatisticValues = new double[getNumberOfCoalescentEvents()];
@@ -98,8 +106,32 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
 
     protected void handleModelChangedEvent(Model model, Object object, int index) {
         if (model == tree) {
-            // treeModel has changed so recalculate the intervals
-            eventsKnown = false;
+            if (nodeIntervals != null && eventsKnown && object instanceof TreeChangedEvent) {
+                TreeChangedEvent event = (TreeChangedEvent) object;
+
+                if (event.isNodeChanged() && event.isNodeParameterChanged()) {
+                    if (event.getIndex() >= 0) {
+                        // move the event of this node if its height has changed (this doesn't use
+                        // isHeightChanged() as the height parameters of the old and new root are
+                        // swapped at the end of an edit, before the event is sent)
+                        NodeRef node = event.getNode();
+                        nodeIntervals.setNodeTime(node.getNumber(), tree.getNodeHeight(node));
+                    } else {
+                        // all the internal node heights have changed
+                        eventsKnown = false;
+                    }
+                } else if (!event.isNodeChanged()) {
+                    // the whole tree has changed
+                    eventsKnown = false;
+                }
+                // otherwise the topology has changed which leaves the heights of the nodes the same
+            } else if (nodeIntervals != null && tree instanceof TreeModel && object instanceof Variable) {
+                // the TreeModel also passes on changes to its node parameters, but each of these
+                // is (or at the end of an edit will be) sent as a TreeChangedEvent as well
+            } else {
+                // treeModel has changed so recalculate the intervals
+                eventsKnown = false;
+            }
         }
 
         likelihoodKnown = false;
@@ -120,8 +152,12 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
      * Stores the precalculated state: in this case the intervals
      */
     protected void storeState() {
-        // copy the intervals into the storedIntervals
-        storedIntervals.copyIntervals(intervals);
+        if (nodeIntervals != null) {
+            nodeIntervals.storeState();
+        } else {
+            // copy the intervals into the storedIntervals
+            storedIntervals.copyIntervals(intervals);
+        }
 
         storedEventsKnown = eventsKnown;
         storedLikelihoodKnown = likelihoodKnown;
@@ -132,10 +168,14 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
      * Restores the precalculated state: that is the intervals of the tree.
      */
     protected void restoreState() {
-        // swap the intervals back
-        Intervals tmp = storedIntervals;
-        storedIntervals = intervals;
-        intervals = tmp;
+        if (nodeIntervals != null) {
+            nodeIntervals.restoreState();
+        } else {
+            // swap the intervals back
+            Intervals tmp = storedIntervals;
+            storedIntervals = intervals;
+            intervals = tmp;
+        }
 
         eventsKnown = storedEventsKnown;
         likelihoodKnown = storedLikelihoodKnown;
@@ -208,6 +248,9 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     }
 
     public IntervalList getIntervals() {
+        if (nodeIntervals != null) {
+            return nodeIntervals;
+        }
         return intervals;
     }
 
@@ -216,10 +259,14 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
      */
     protected final void setupIntervals() {
 
-        intervals.resetEvents();
-        collectTimes(tree, getIncludedMRCA(tree), getExcludedMRCAs(tree), intervals);
+        if (nodeIntervals != null) {
+            nodeIntervals.setTree(tree);
+        } else {
+            intervals.resetEvents();
+            collectTimes(tree, getIncludedMRCA(tree), getExcludedMRCAs(tree), intervals);
+        }
         // force a calculation of the intervals...
-        intervals.getIntervalCount();
+        getIntervals().getIntervalCount();
 
         eventsKnown = true;
         likelihoodKnown = false;
@@ -260,14 +307,14 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
         if (!eventsKnown) {
             setupIntervals();
         }
-        return intervals.getInterval(i);
+        return getIntervals().getInterval(i);
     }
 
     public int getCoalescentIntervalDimension() {
         if (!eventsKnown) {
             setupIntervals();
         }
-        return intervals.getIntervalCount();
+        return getIntervals().getIntervalCount();
     }
 
     public int getNumberOfCoalescentEvents() {
@@ -278,14 +325,14 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
         if (!eventsKnown) {
             setupIntervals();
         }
-        return intervals.getLineageCount(i);
+        return getIntervals().getLineageCount(i);
     }
 
     public IntervalType getCoalescentIntervalType(int i) {
         if (!eventsKnown) {
             setupIntervals();
         }
-        return intervals.getIntervalType(i);
+        return getIntervals().getIntervalType(i);
     }
 
     public double getCoalescentEventsStatisticValue(int i) {
@@ -353,6 +400,11 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
      */
     private Intervals storedIntervals = null;
 
+    /**
+     * The intervals kept in order as node heights change, used instead when the whole tree is included.
+     */
+    private IncrementalIntervals nodeIntervals = null;
+
     private boolean eventsKnown = false;
     private boolean storedEventsKnown = false;
 
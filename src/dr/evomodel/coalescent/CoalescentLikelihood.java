@@ -27,11 +27,14 @@ package dr.evomodel.coalescent;
 
 import dr.evolution.coalescent.Coalescent;
 import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.coalescent.IncrementalCoalescent;
+import dr.evolution.coalescent.IncrementalIntervals;
 import dr.evolution.tree.Tree;
 import dr.evolution.tree.TreeUtils;
 import dr.evolution.util.TaxonList;
 import dr.evolution.util.Units;
 import dr.evomodelxml.coalescent.CoalescentLikelihoodParser;
+import dr.inference.model.Model;
 
 import java.util.List;
 import java.util.logging.Logger;
@@ -60,6 +63,40 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 		this.demoModel = demoModel;
 
 		addModel(demoModel);
+
+		if (getIntervals() instanceof IncrementalIntervals) {
+			// only the intervals that change need recalculating
+			coalescent = new IncrementalCoalescent((IncrementalIntervals) getIntervals());
+		}
+	}
+
+	// **************************************************************
+	// ModelListener IMPLEMENTATION
+	// **************************************************************
+
+	protected void handleModelChangedEvent(Model model, Object object, int index) {
+		if (model == demoModel && coalescent != null) {
+			coalescent.makeDirty();
+		}
+		super.handleModelChangedEvent(model, object, index);
+	}
+
+	// **************************************************************
+	// Model IMPLEMENTATION
+	// **************************************************************
+
+	protected void storeState() {
+		super.storeState();
+		if (coalescent != null) {
+			coalescent.storeState();
+		}
+	}
+
+	protected void restoreState() {
+		super.restoreState();
+		if (coalescent != null) {
+			coalescent.restoreState();
+		}
 	}
 
     // **************************************************************
@@ -74,8 +111,13 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 		DemographicFunction demoFunction = demoModel.getDemographicFunction();
 
-		//double lnL =  Coalescent.calculateLogLikelihood(getIntervals(), demoFunction);
-        double lnL =  Coalescent.calculateLogLikelihood(getIntervals(), demoFunction, demoFunction.getThreshold());
+		double lnL;
+		if (coalescent != null) {
+			lnL = coalescent.calculateLogLikelihood(demoFunction, demoFunction.getThreshold());
+		} else {
+			//double lnL =  Coalescent.calculateLogLikelihood(getIntervals(), demoFunction);
+			lnL = Coalescent.calculateLogLikelihood(getIntervals(), demoFunction, demoFunction.getThreshold());
+		}
 
 		if (Double.isNaN(lnL) || Double.isInfinite(lnL)) {
 			Logger.getLogger("warning").severe("CoalescentLikelihood for " + demoModel.getId() + " is " + Double.toString(lnL));
@@ -84,6 +126,13 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 		return lnL;
 	}
 
+	public void makeDirty() {
+		super.makeDirty();
+		if (coalescent != null) {
+			coalescent.makeDirty();
+		}
+	}
+
 	// **************************************************************
 	// Units IMPLEMENTATION
 	// **************************************************************
@@ -112,4 +161,7 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 	/** The demographic model. */
 	private DemographicModel demoModel = null;
+
+	/** The likelihood of each interval, if the intervals are kept up to date as the tree changes. */
+	private IncrementalCoalescent coalescent = null;
 }
\ No newline at end of file
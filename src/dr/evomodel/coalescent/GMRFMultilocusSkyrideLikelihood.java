@@ -34,6 +34,7 @@ import dr.evomodelxml.coalescent.GMRFSkyrideLikelihoodParser;
 import dr.inference.model.MatrixParameter;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
+import dr.math.matrixAlgebra.SymmetricTridiagonalMatrix;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -919,7 +920,7 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
         public SkygridHelper() {
         }
 
-        protected void updateGammaWithCovariates(DenseVector currentGamma) {
+        protected void updateGammaWithCovariates(double[] currentGamma) {
             // Do nothing
         }
 
@@ -936,17 +937,16 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
                 intervalsKnown = true;
             }
 
-            DenseVector diagonal1 = new DenseVector(fieldLength);
-            DenseVector currentGamma = new DenseVector(popSizeParameter.getParameterValues());
+            double[] currentGamma = getFieldValues();
 
             updateGammaWithCovariates(currentGamma);
 
             double currentLike = handleMissingValues();
 
-            SymmTridiagMatrix currentQ = getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
-            currentQ.mult(currentGamma, diagonal1);
+            SymmetricTridiagonalMatrix currentQ = getFieldPrecisionMatrix();
+            getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0), currentQ);
 
-            currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentGamma.dot(diagonal1);
+            currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentQ.quadraticForm(currentGamma);
             if (lambdaParameter.getParameterValue(0) == 1) {
                 currentLike -= (fieldLength - 1) / 2.0 * LOG_TWO_TIMES_PI;
             } else {
@@ -963,13 +963,13 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
         }
 
         @Override
-        protected void updateGammaWithCovariates(DenseVector currentGamma) {
+        protected void updateGammaWithCovariates(double[] currentGamma) {
 
             // Handle betaParameter / designMatrix
 
             if (NEW_APPROACH) {
 
-                final int N = currentGamma.size();
+                final int N = currentGamma.length;
                 double[] update = new double[N];
 
                 if (dMatrix != null) {
@@ -1013,7 +1013,7 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
                 }
 
                 for (int i = 0; i < N; ++i) {
-                    currentGamma.set(i, currentGamma.get(i) - update[i]);
+                    currentGamma[i] = currentGamma[i] - update[i];
                 }
 
             } else {
@@ -1034,7 +1034,7 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
                     for (int j = 0; j < covariates.get(i).getColumnDimension(); j++) {
                         // System.err.println("j: " + j);
                         // System.err.println("covariates.get(i).getParameterValue(0,j): " + covariates.get(i).getParameterValue(0,j));
-                        currentGamma.set(j, currentGamma.get(j) - covariates.get(i).getParameterValue(0, j) * currentBeta.get(i));
+                        currentGamma[j] = currentGamma[j] - covariates.get(i).getParameterValue(0, j) * currentBeta.get(i);
                     }
                 }
             }
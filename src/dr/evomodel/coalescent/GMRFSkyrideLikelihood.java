@@ -34,10 +34,10 @@ import dr.inference.model.MatrixParameter;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalMatrix;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
-import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.NotConvergedException;
 import no.uib.cipr.matrix.SymmTridiagEVD;
 import no.uib.cipr.matrix.SymmTridiagMatrix;
@@ -83,6 +83,8 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
 
     protected SymmTridiagMatrix weightMatrix;
     protected SymmTridiagMatrix storedWeightMatrix;
+    private SymmetricTridiagonalMatrix fieldPrecisionMatrix = null;
+    private double[] fieldValues = null;
     protected MatrixParameter dMatrix;
     protected boolean timeAwareSmoothing = TIME_AWARE_IS_ON_BY_DEFAULT;
     protected boolean rescaleByRootHeight;
@@ -348,6 +350,45 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
         return a;
     }
 
+    /**
+     * Sets a matrix to the scaled weight matrix, as getScaledWeightMatrix(precision, lambda) does
+     * but without copying the weight matrix.
+     */
+    public void getScaledWeightMatrix(double precision, double lambda, SymmetricTridiagonalMatrix matrix) {
+        matrix.setScaled(weightMatrix.getDiagonal(), weightMatrix.getOffDiagonal(), precision, lambda);
+    }
+
+    /**
+     * Sets a matrix to the stored scaled weight matrix, as getStoredScaledWeightMatrix(precision, lambda)
+     * does but without copying the weight matrix.
+     */
+    public void getStoredScaledWeightMatrix(double precision, double lambda, SymmetricTridiagonalMatrix matrix) {
+        matrix.setScaled(storedWeightMatrix.getDiagonal(), storedWeightMatrix.getOffDiagonal(), precision, lambda);
+    }
+
+    /**
+     * @return the matrix the scaled weight matrix is put in to calculate the field likelihood
+     */
+    protected SymmetricTridiagonalMatrix getFieldPrecisionMatrix() {
+        if (fieldPrecisionMatrix == null || fieldPrecisionMatrix.getDimension() != fieldLength) {
+            fieldPrecisionMatrix = new SymmetricTridiagonalMatrix(fieldLength);
+        }
+        return fieldPrecisionMatrix;
+    }
+
+    /**
+     * @return the log population sizes, in an array which is reused each time this is called
+     */
+    protected double[] getFieldValues() {
+        if (fieldValues == null || fieldValues.length != fieldLength) {
+            fieldValues = new double[fieldLength];
+        }
+        for (int i = 0; i < fieldLength; i++) {
+            fieldValues[i] = popSizeParameter.getParameterValue(i);
+        }
+        return fieldValues;
+    }
+
     private void makeIntervalsKnown() {
         if (!intervalsKnown) {
             wrapSetupIntervals();
@@ -417,7 +458,8 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
         super.storeState();
         System.arraycopy(coalescentIntervals, 0, storedCoalescentIntervals, 0, coalescentIntervals.length);
         System.arraycopy(sufficientStatistics, 0, storedSufficientStatistics, 0, sufficientStatistics.length);
-        storedWeightMatrix = weightMatrix.copy();
+        // the weight matrix is replaced rather than changed when the intervals change
+        storedWeightMatrix = weightMatrix;
         storedLogFieldLikelihood = logFieldLikelihood;
     }
 
@@ -461,15 +503,14 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
         makeIntervalsKnown();
 
         double currentLike = 0;
-        DenseVector diagonal1 = new DenseVector(fieldLength);
-        DenseVector currentGamma = new DenseVector(popSizeParameter.getParameterValues());
+        double[] currentGamma = getFieldValues();
 
-        SymmTridiagMatrix currentQ = getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
-        currentQ.mult(currentGamma, diagonal1);
+        SymmetricTridiagonalMatrix currentQ = getFieldPrecisionMatrix();
+        getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0), currentQ);
 
 //        currentLike += 0.5 * logGeneralizedDeterminant(currentQ) - 0.5 * currentGamma.dot(diagonal1);
 
-        currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentGamma.dot(diagonal1);
+        currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentQ.quadraticForm(currentGamma);
         if (lambdaParameter.getParameterValue(0) == 1) {
             currentLike -= (fieldLength - 1) / 2.0 * LOG_TWO_TIMES_PI;
         } else {
@@ -48,6 +48,7 @@ import dr.evomodel.treedatalikelihood.EvolutionaryProcessDelegate;
 import dr.evomodel.treedatalikelihood.HomogenousSubstitutionModelDelegate;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
 import dr.inference.model.AbstractModel;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
@@ -87,7 +88,10 @@ public class BeagleMatrixExponentiationDelegate extends AbstractModel implements
     private static final String FORCE_VECTORIZATION = "beagle.force.vectorization";
     private static final String THREAD_COUNT = "beagle.thread.count";
 
-    private static int instanceCount = 0;
+    // the instances created so far in this analysis, used to hand out the resources in turn
+    private static int getInstanceCount() {
+        return AnalysisContext.getCurrent().getInstanceCount(BeagleMatrixExponentiationDelegate.class);
+    }
     private static List<Integer> resourceOrder = null;
     private static List<Integer> preferredOrder = null;
     private static List<Integer> requiredOrder = null;
@@ -142,18 +146,18 @@ public class BeagleMatrixExponentiationDelegate extends AbstractModel implements
 
         if (resourceOrder.size() > 0) {
             // added the zero on the end so that a CPU is selected if requested resource fails
-            resourceList = new int[]{resourceOrder.get(instanceCount % resourceOrder.size()), 0};
+            resourceList = new int[]{resourceOrder.get(getInstanceCount() % resourceOrder.size()), 0};
             if (resourceList[0] > 0) {
                 preferenceFlags |= BeagleFlag.PROCESSOR_GPU.getMask(); // Add preference weight against CPU
             }
         }
 
         if (preferredOrder.size() > 0) {
-            preferenceFlags = preferredOrder.get(instanceCount % preferredOrder.size());
+            preferenceFlags = preferredOrder.get(getInstanceCount() % preferredOrder.size());
         }
 
         if (requiredOrder.size() > 0) {
-            requirementFlags = requiredOrder.get(instanceCount % requiredOrder.size());
+            requirementFlags = requiredOrder.get(getInstanceCount() % requiredOrder.size());
         }
 
         boolean forceVectorization = false;
@@ -254,7 +258,7 @@ public class BeagleMatrixExponentiationDelegate extends AbstractModel implements
         updateSubstitutionModel = true;
 
 
-        instanceCount++;
+        AnalysisContext.getCurrent().incrementInstanceCount(BeagleMatrixExponentiationDelegate.class);
     }
 
     private static List<Integer> parseSystemPropertyIntegerArray(String propertyName) {
@@ -31,8 +31,10 @@ import dr.inference.model.MatrixParameter;
 import dr.inference.model.Parameter;
 import dr.inference.operators.*;
 import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalMatrix;
 import no.uib.cipr.matrix.*;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -62,7 +64,25 @@ public class GMRFMultilocusSkyrideBlockUpdateOperator extends AbstractAdaptableO
 
     GMRFMultilocusSkyrideLikelihood gmrfField;
 
-    private double[] zeros;
+    // working space for the dimension of the field, so nothing is allocated by a move
+    private final SymmetricTridiagonalMatrix currentQ;
+    private final SymmetricTridiagonalMatrix proposedQ;
+    private final SymmetricTridiagonalMatrix forwardQW;
+    private final SymmetricTridiagonalMatrix backwardQW;
+    private final SymmetricTridiagonalMatrix jacobian;
+
+    private final double[] currentGamma;
+    private final double[] proposedGamma;
+    private final double[] fieldMode;
+    private final double[] gradient;
+    private final double[] step;
+    private final double[] canonical;
+    private final double[] mean;
+    private final double[] standardNormal;
+    private final double[] difference;
+    private final double[] zBeta;
+    private final double[] currentQZBeta;
+    private final double[] proposedQZBeta;
 
     public GMRFMultilocusSkyrideBlockUpdateOperator(GMRFMultilocusSkyrideLikelihood gmrfLikelihood,
                                                     double weight, AdaptationMode mode, double scaleFactor,
@@ -83,7 +103,24 @@ public class GMRFMultilocusSkyrideBlockUpdateOperator extends AbstractAdaptableO
         this.stopValue = stopValue;
         setWeight(weight);
 
-        zeros = new double[fieldLength];
+        currentQ = new SymmetricTridiagonalMatrix(fieldLength);
+        proposedQ = new SymmetricTridiagonalMatrix(fieldLength);
+        forwardQW = new SymmetricTridiagonalMatrix(fieldLength);
+        backwardQW = new SymmetricTridiagonalMatrix(fieldLength);
+        jacobian = new SymmetricTridiagonalMatrix(fieldLength);
+
+        currentGamma = new double[fieldLength];
+        proposedGamma = new double[fieldLength];
+        fieldMode = new double[fieldLength];
+        gradient = new double[fieldLength];
+        step = new double[fieldLength];
+        canonical = new double[fieldLength];
+        mean = new double[fieldLength];
+        standardNormal = new double[fieldLength];
+        difference = new double[fieldLength];
+        zBeta = new double[fieldLength];
+        currentQZBeta = new double[fieldLength];
+        proposedQZBeta = new double[fieldLength];
     }
 
     private double getNewLambda(double currentValue, double lambdaScale) {
@@ -113,44 +150,6 @@ public class GMRFMultilocusSkyrideBlockUpdateOperator extends AbstractAdaptableO
         return returnValue;
     }
 
-    public DenseVector getMultiNormalMean(DenseVector CanonVector, BandCholesky Cholesky) {
-
-        DenseVector tempValue = new DenseVector(zeros);
-        DenseVector Mean = new DenseVector(zeros);
-
-        UpperTriangBandMatrix CholeskyUpper = Cholesky.getU();
-
-        // Assume Cholesky factorization of the precision matrix Q = LL^T
-
-        // 1. Solve L\omega = b
-
-        CholeskyUpper.transSolve(CanonVector, tempValue);
-
-        // 2. Solve L^T \mu = \omega
-
-        CholeskyUpper.solve(tempValue, Mean);
-
-        return Mean;
-    }
-
-    public DenseVector getMultiNormal(DenseVector StandNorm, DenseVector Mean, BandCholesky Cholesky) {
-
-        DenseVector returnValue = new DenseVector(zeros);
-
-        UpperTriangBandMatrix CholeskyUpper = Cholesky.getU();
-
-        // 3. Solve L^T v = z
-
-        CholeskyUpper.solve(StandNorm, returnValue);
-
-        // 4. Return x = \mu + v
-
-        returnValue.add(Mean);
-
-        return returnValue;
-    }
-
-
     public static DenseVector getMultiNormal(DenseVector Mean, UpperSPDDenseMatrix Variance) {
         int length = Mean.size();
         DenseVector tempValue = new DenseVector(length);
@@ -183,72 +182,58 @@ public class GMRFMultilocusSkyrideBlockUpdateOperator extends AbstractAdaptableO
         return returnValue;
     }
 
-    public DenseVector getZBeta(List<MatrixParameter> covariates, List<Parameter> beta){
+    private void getZBeta(List<MatrixParameter> covariates, List<Parameter> beta, double[] zBeta) {
 
-        DenseVector temporaryVect = new DenseVector(fieldLength);
+        Arrays.fill(zBeta, 0.0);
 
         // TODO: Update for covariateMatrix block as well !!!
 
-        if(covariates != null) {
-           // DenseVector currentBeta = new DenseVector(beta.getParameterValues());
-            DenseVector currentBeta = new DenseVector(beta.size());
-            for(int i =0; i < beta.size(); i++){
-                currentBeta.set(i, beta.get(i).getParameterValue(0));
-            }
-
+        if (covariates != null) {
             for (int i = 0; i < covariates.size(); i++) {
                 for (int j = 0; j < covariates.get(i).getColumnDimension(); j++) {
-                    temporaryVect.set(j, covariates.get(i).getParameterValue(0, j) * currentBeta.get(i));
+                    zBeta[j] = covariates.get(i).getParameterValue(0, j) * beta.get(i).getParameterValue(0);
                 }
             }
-            return temporaryVect;
-        }else{
-            return temporaryVect.zero();
         }
     }
 
-    public DenseVector newtonRaphson(double[] data1, double[] data2, DenseVector currentGamma,
-                                     SymmTridiagMatrix proposedQ, DenseVector ZBeta) {
-        return newNewtonRaphson(data1, data2, currentGamma, proposedQ, maxIterations, stopValue, ZBeta);
-    }
-
-    public static DenseVector newNewtonRaphson(double[] data1, double[] data2, DenseVector currentGamma, SymmTridiagMatrix proposedQ,
-                                               int maxIterations, double stopValue, DenseVector ZBeta) {
-
-        DenseVector iterateGamma = currentGamma.copy();
-        DenseVector tempValue = currentGamma.copy();
+    /**
+     * Finds the mode of the full conditional of the field by Newton-Raphson.
+     *
+     * @return false if it fails to converge
+     */
+    private boolean newtonRaphson(double[] data1, double[] data2, double[] startGamma, SymmetricTridiagonalMatrix Q,
+                                  double[] QZBeta, double[] mode) {
+        System.arraycopy(startGamma, 0, mode, 0, fieldLength);
 
         int numberIterations = 0;
 
 
-        while (gradient(data1, data2, iterateGamma, proposedQ, ZBeta).norm(Vector.Norm.Two) > stopValue) {
-           try {
-                jacobian(data2, iterateGamma, proposedQ).solve(gradient(data1, data2, iterateGamma, proposedQ, ZBeta), tempValue);
-           } catch (no.uib.cipr.matrix.MatrixNotSPDException e) {
-               if (FAIL_SILENTLY) {
-                   // this replicates the old behaviour of throwing an OperatorFailedException and rejecting the move.
-                   return null;
-               }
-               Logger.getLogger("dr.evomodel.coalescent.operators.GMRFMultilocusSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
-               throw new RuntimeException("Newton Raphson algorithm did not converge within " + maxIterations + " step to a norm less than " + stopValue + "\n" +
-                       "Try starting BEAST with a more accurate initial tree.");
-           } catch (no.uib.cipr.matrix.MatrixSingularException e) {
-               if (FAIL_SILENTLY) {
-                   // this replicates the old behaviour of throwing an OperatorFailedException and rejecting the move.
-                   return null;
-               }
-               Logger.getLogger("dr.evomodel.coalescent.operators.GMRFMultilocusSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
-               throw new RuntimeException("Newton Raphson algorithm did not converge within " + maxIterations + " step to a norm less than " + stopValue + "\n" +
-                       "Try starting BEAST with a more accurate initial tree.");
+        while (gradient(data1, data2, mode, Q, QZBeta, gradient) > stopValue) {
+            jacobian.set(Q);
+            for (int i = 0; i < fieldLength; i++) {
+                jacobian.addToDiagonal(i, Math.exp(-mode[i]) * data2[i]);
+            }
+
+            if (!jacobian.solve(gradient, step)) {
+                if (FAIL_SILENTLY) {
+                    // this replicates the old behaviour of throwing an OperatorFailedException and rejecting the move.
+                    return false;
+                }
+                Logger.getLogger("dr.evomodel.coalescent.operators.GMRFMultilocusSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
+                throw new RuntimeException("Newton Raphson algorithm did not converge within " + maxIterations + " step to a norm less than " + stopValue + "\n" +
+                        "Try starting BEAST with a more accurate initial tree.");
             }
 
-            iterateGamma.add(tempValue);
+            for (int i = 0; i < fieldLength; i++) {
+                mode[i] += step[i];
+            }
             numberIterations++;
 
             if (numberIterations > maxIterations) {
                 if (FAIL_SILENTLY) {
                     // this replicates the old behaviour of throwing an OperatorFailedException and rejecting the move.
-                    return null;
+                    return false;
                 }
                 Logger.getLogger("dr.evomodel.coalescent.operators.GMRFMultilocusSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
                 throw new RuntimeException("Newton Raphson algorithm did not converge within " + maxIterations + " step to a norm less than " + stopValue + "\n" +
@@ -257,31 +242,24 @@ public class GMRFMultilocusSkyrideBlockUpdateOperator extends AbstractAdaptableO
         }
 
         Logger.getLogger("dr.evomodel.coalescent.operators.GMRFMultilocusSkyrideBlockUpdateOperator").fine("Newton-Raphson S");
-        return iterateGamma;
+        return true;
 
     }
 
-    private static DenseVector gradient(double[] data1, double[] data2, DenseVector value,
-                                        SymmTridiagMatrix Q, DenseVector ZBeta) {
-
-        DenseVector returnValue = new DenseVector(value.size());
-        DenseVector returnValueCov = new DenseVector(ZBeta.size());
-        Q.mult(value, returnValue);
-        //check this
-        Q.mult(ZBeta, returnValueCov);
-        for (int i = 0; i < value.size(); i++) {
-            returnValue.set(i, -returnValue.get(i) +returnValueCov.get(i) - data1[i] + data2[i] * Math.exp(-value.get(i)));
+    /**
+     * Calculates the gradient of the log full conditional of the field.
+     *
+     * @return the Euclidean norm of the gradient
+     */
+    private static double gradient(double[] data1, double[] data2, double[] value,
+                                   SymmetricTridiagonalMatrix Q, double[] QZBeta, double[] gradient) {
+        Q.multiply(value, gradient);
+        double norm = 0.0;
+        for (int i = 0; i < value.length; i++) {
+            gradient[i] = -gradient[i] + QZBeta[i] - data1[i] + data2[i] * Math.exp(-value[i]);
+            norm += gradient[i] * gradient[i];
         }
-        return returnValue;
-    }
-
-
-    private static SPDTridiagMatrix jacobian(double[] data2, DenseVector value, SymmTridiagMatrix Q) {
-        SPDTridiagMatrix jacobian = new SPDTridiagMatrix(Q, true);
-        for (int i = 0, n = value.size(); i < n; i++) {
-            jacobian.set(i, i, jacobian.get(i, i) + Math.exp(-value.get(i)) * data2[i]);
-        }
-        return jacobian;
+        return Math.sqrt(norm);
     }
 
     public double doOperation() {
@@ -295,110 +273,90 @@ public class GMRFMultilocusSkyrideBlockUpdateOperator extends AbstractAdaptableO
         precisionParameter.setParameterValue(0, proposedPrecision);
         lambdaParameter.setParameterValue(0, proposedLambda);
 
-        DenseVector currentGamma = new DenseVector(gmrfField.getPopSizeParameter().getParameterValues());
-        DenseVector proposedGamma;
+        for (int i = 0; i < fieldLength; i++) {
+            currentGamma[i] = popSizeParameter.getParameterValue(i);
+        }
 
-        SymmTridiagMatrix currentQ = gmrfField.getStoredScaledWeightMatrix(currentPrecision, currentLambda);
-        SymmTridiagMatrix proposedQ = gmrfField.getScaledWeightMatrix(proposedPrecision, proposedLambda);
+        gmrfField.getStoredScaledWeightMatrix(currentPrecision, currentLambda, currentQ);
+        gmrfField.getScaledWeightMatrix(proposedPrecision, proposedLambda, proposedQ);
 
         double[] wNative = gmrfField.getSufficientStatistics();
         double[] numCoalEv = gmrfField.getNumCoalEvents();
 
-        UpperSPDBandMatrix forwardQW = new UpperSPDBandMatrix(proposedQ, 1);
-        UpperSPDBandMatrix backwardQW = new UpperSPDBandMatrix(currentQ, 1);
-
-        BandCholesky forwardCholesky = new BandCholesky(wNative.length, 1, true);
-        BandCholesky backwardCholesky = new BandCholesky(wNative.length, 1, true);
+        getZBeta(covariates, betaParameter, zBeta);
+        proposedQ.multiply(zBeta, proposedQZBeta);
+        currentQ.multiply(zBeta, currentQZBeta);
 
-        DenseVector diagonal1 = new DenseVector(fieldLength);
-        DenseVector diagonal2 = new DenseVector(fieldLength);
-        DenseVector diagonal3 = new DenseVector(fieldLength);
-        DenseVector ZBetaVector = getZBeta(covariates, betaParameter);
-        DenseVector QZBetaProp = new DenseVector(fieldLength);
-        DenseVector QZBetaCurrent = new DenseVector(fieldLength);
-        forwardQW.mult(ZBetaVector, QZBetaProp);
-        backwardQW.mult(ZBetaVector, QZBetaCurrent);
-
-        DenseVector modeForward = newtonRaphson(numCoalEv, wNative, currentGamma, proposedQ.copy(), ZBetaVector);
-
-        if (modeForward == null) {
+        if (!newtonRaphson(numCoalEv, wNative, currentGamma, proposedQ, proposedQZBeta, fieldMode)) {
             // used to pass on an OperatorFailedException
             return Double.NEGATIVE_INFINITY;
         }
 
+        forwardQW.set(proposedQ);
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, wNative[i] * Math.exp(-modeForward.get(i)));
-            diagonal2.set(i, modeForward.get(i) + 1);
+            double diagonal1 = wNative[i] * Math.exp(-fieldMode[i]);
+            double diagonal2 = fieldMode[i] + 1;
 
-            forwardQW.set(i, i, diagonal1.get(i) + forwardQW.get(i, i));
-            //diagonal1.set(i, diagonal1.get(i) * diagonal2.get(i) - 1);
-            diagonal1.set(i, QZBetaProp.get(i) + diagonal1.get(i) * diagonal2.get(i) - numCoalEv[i]);
+            forwardQW.addToDiagonal(i, diagonal1);
+            canonical[i] = proposedQZBeta[i] + diagonal1 * diagonal2 - numCoalEv[i];
         }
 
-        forwardCholesky.factor(forwardQW.copy());
-
-        DenseVector forwardMean = getMultiNormalMean(diagonal1, forwardCholesky);
-
-        DenseVector stand_norm = new DenseVector(zeros);
+        if (!forwardQW.factor()) {
+            return Double.NEGATIVE_INFINITY;
+        }
 
-        for (int i = 0; i < zeros.length; i++)
-            stand_norm.set(i, MathUtils.nextGaussian());
+        // the mean solves QW mu = b and the proposal is mu + v where U v = z (QW = U'U)
+        forwardQW.solveFactored(canonical, mean);
 
-        proposedGamma = getMultiNormal(stand_norm, forwardMean, forwardCholesky);
+        for (int i = 0; i < fieldLength; i++)
+            standardNormal[i] = MathUtils.nextGaussian();
 
-        /*
-        double hRatio = 0;
+        forwardQW.backSolve(standardNormal, proposedGamma);
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, proposedGamma.get(i) - forwardMean.get(i));
+            proposedGamma[i] += mean[i];
         }
-        diagonal3.zero();
-        forwardQW.mult(diagonal1, diagonal3);
-
-        hRatio -= logGeneralizedDeterminant(forwardCholesky.getU() ) - 0.5 * diagonal1.dot(diagonal3);
-        */
 
         for (int i = 0; i < fieldLength; i++)
-            popSizeParameter.setParameterValueQuietly(i, proposedGamma.get(i));
+            popSizeParameter.setParameterValueQuietly(i, proposedGamma[i]);
 
         ((Parameter.Abstract) popSizeParameter).fireParameterChangedEvent();
 
 
         double hRatio = 0;
 
-        diagonal1.zero();
-        diagonal2.zero();
-        diagonal3.zero();
-
-        DenseVector modeBackward = newtonRaphson(numCoalEv, wNative, proposedGamma, currentQ.copy(), ZBetaVector);
-
-        if (modeBackward == null) {
+        if (!newtonRaphson(numCoalEv, wNative, proposedGamma, currentQ, currentQZBeta, fieldMode)) {
             // used to pass on an OperatorFailedException
             return Double.NEGATIVE_INFINITY;
         }
 
+        backwardQW.set(currentQ);
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, wNative[i] * Math.exp(-modeBackward.get(i)));
-            diagonal2.set(i, modeBackward.get(i) + 1);
+            double diagonal1 = wNative[i] * Math.exp(-fieldMode[i]);
+            double diagonal2 = fieldMode[i] + 1;
 
-            backwardQW.set(i, i, diagonal1.get(i) + backwardQW.get(i, i));
-            //diagonal1.set(i, diagonal1.get(i) * diagonal2.get(i) - 1);
-            diagonal1.set(i, QZBetaCurrent.get(i) + diagonal1.get(i) * diagonal2.get(i) - numCoalEv[i]);
+            backwardQW.addToDiagonal(i, diagonal1);
+            canonical[i] = currentQZBeta[i] + diagonal1 * diagonal2 - numCoalEv[i];
         }
 
-        backwardCholesky.factor(backwardQW.copy());
+        if (!backwardQW.factor()) {
+            return Double.NEGATIVE_INFINITY;
+        }
 
-        DenseVector backwardMean = getMultiNormalMean(diagonal1, backwardCholesky);
+        backwardQW.solveFactored(canonical, mean);
 
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, currentGamma.get(i) - backwardMean.get(i));
+            difference[i] = currentGamma[i] - mean[i];
         }
 
-        backwardQW.mult(diagonal1, diagonal3);
+        double standardNormalSquared = 0.0;
+        for (int i = 0; i < fieldLength; i++) {
+            standardNormalSquared += standardNormal[i] * standardNormal[i];
+        }
 
-        hRatio += logGeneralizedDeterminant(backwardCholesky.getU()) - 0.5 * diagonal1.dot(diagonal3);
-        hRatio -= logGeneralizedDeterminant(forwardCholesky.getU() ) - 0.5 * stand_norm.dot(stand_norm);
+        hRatio += 0.5 * backwardQW.getLogDeterminant() - 0.5 * backwardQW.quadraticForm(difference);
+        hRatio -= 0.5 * forwardQW.getLogDeterminant() - 0.5 * standardNormalSquared;
 
-       return hRatio;
+        return hRatio;
     }
 
     //MCMCOperator INTERFACE
@@ -30,6 +30,7 @@ import dr.evomodelxml.coalescent.operators.GMRFSkyrideBlockUpdateOperatorParser;
 import dr.inference.model.Parameter;
 import dr.inference.operators.*;
 import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalMatrix;
 import no.uib.cipr.matrix.*;
 
 import java.util.logging.Logger;
@@ -57,7 +58,22 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractAdaptableOperator {
 
     GMRFSkyrideLikelihood gmrfField;
 
-    private double[] zeros;
+    // working space for the dimension of the field, so nothing is allocated by a move
+    private final SymmetricTridiagonalMatrix currentQ;
+    private final SymmetricTridiagonalMatrix proposedQ;
+    private final SymmetricTridiagonalMatrix forwardQW;
+    private final SymmetricTridiagonalMatrix backwardQW;
+    private final SymmetricTridiagonalMatrix jacobian;
+
+    private final double[] currentGamma;
+    private final double[] proposedGamma;
+    private final double[] fieldMode;
+    private final double[] gradient;
+    private final double[] step;
+    private final double[] canonical;
+    private final double[] mean;
+    private final double[] standardNormal;
+    private final double[] difference;
 
     public GMRFSkyrideBlockUpdateOperator(GMRFSkyrideLikelihood gmrfLikelihood,
                                           double weight, AdaptationMode mode, double scaleFactor,
@@ -76,7 +92,21 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractAdaptableOperator {
         this.stopValue = stopValue;
         setWeight(weight);
 
-        zeros = new double[fieldLength];
+        currentQ = new SymmetricTridiagonalMatrix(fieldLength);
+        proposedQ = new SymmetricTridiagonalMatrix(fieldLength);
+        forwardQW = new SymmetricTridiagonalMatrix(fieldLength);
+        backwardQW = new SymmetricTridiagonalMatrix(fieldLength);
+        jacobian = new SymmetricTridiagonalMatrix(fieldLength);
+
+        currentGamma = new double[fieldLength];
+        proposedGamma = new double[fieldLength];
+        fieldMode = new double[fieldLength];
+        gradient = new double[fieldLength];
+        step = new double[fieldLength];
+        canonical = new double[fieldLength];
+        mean = new double[fieldLength];
+        standardNormal = new double[fieldLength];
+        difference = new double[fieldLength];
     }
 
     private double getNewLambda(double currentValue, double lambdaScale) {
@@ -106,44 +136,6 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractAdaptableOperator {
         return returnValue;
     }
 
-    public DenseVector getMultiNormalMean(DenseVector CanonVector, BandCholesky Cholesky) {
-
-        DenseVector tempValue = new DenseVector(zeros);
-        DenseVector Mean = new DenseVector(zeros);
-
-        UpperTriangBandMatrix CholeskyUpper = Cholesky.getU();
-
-        // Assume Cholesky factorization of the precision matrix Q = LL^T
-
-        // 1. Solve L\omega = b
-
-        CholeskyUpper.transSolve(CanonVector, tempValue);
-
-        // 2. Solve L^T \mu = \omega
-
-        CholeskyUpper.solve(tempValue, Mean);
-
-        return Mean;
-    }
-
-    public DenseVector getMultiNormal(DenseVector StandNorm, DenseVector Mean, BandCholesky Cholesky) {
-
-        DenseVector returnValue = new DenseVector(zeros);
-
-        UpperTriangBandMatrix CholeskyUpper = Cholesky.getU();
-
-        // 3. Solve L^T v = z
-
-        CholeskyUpper.solve(StandNorm, returnValue);
-
-        // 4. Return x = \mu + v
-
-        returnValue.add(Mean);
-
-        return returnValue;
-    }
-
-
     public static DenseVector getMultiNormal(DenseVector Mean, UpperSPDDenseMatrix Variance) {
         int length = Mean.size();
         DenseVector tempValue = new DenseVector(length);
@@ -176,40 +168,38 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractAdaptableOperator {
         return returnValue;
     }
 
-    public DenseVector newtonRaphson(double[] data, DenseVector currentGamma, SymmTridiagMatrix proposedQ) {
-        return newNewtonRaphson(data, currentGamma, proposedQ, maxIterations, stopValue);
-    }
-
-    public static DenseVector newNewtonRaphson(double[] data, DenseVector currentGamma, SymmTridiagMatrix proposedQ,
-                                               int maxIterations, double stopValue) {
-        DenseVector iterateGamma = currentGamma.copy();
-        DenseVector tempValue = currentGamma.copy();
+    /**
+     * Finds the mode of the full conditional of the field by Newton-Raphson.
+     *
+     * @return false if it fails to converge
+     */
+    private boolean newtonRaphson(double[] data, double[] startGamma, SymmetricTridiagonalMatrix Q, double[] mode) {
+        System.arraycopy(startGamma, 0, mode, 0, fieldLength);
 
         int numberIterations = 0;
 
 
-        while (gradient(data, iterateGamma, proposedQ).norm(Vector.Norm.Two) > stopValue) {
-            try {
-                jacobian(data, iterateGamma, proposedQ).solve(gradient(data, iterateGamma, proposedQ), tempValue);
-            } catch (no.uib.cipr.matrix.MatrixNotSPDException e) {
-                if (FAIL_SILENTLY) {
-                    return null;
-                }
-                Logger.getLogger("dr.evomodel.coalescent.operators.GMRFSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
-                throw new RuntimeException("Newton-Raphson F.");
-            } catch (no.uib.cipr.matrix.MatrixSingularException e) {
+        while (gradient(data, mode, Q, gradient) > stopValue) {
+            jacobian.set(Q);
+            for (int i = 0; i < fieldLength; i++) {
+                jacobian.addToDiagonal(i, Math.exp(-mode[i]) * data[i]);
+            }
+
+            if (!jacobian.solve(gradient, step)) {
                 if (FAIL_SILENTLY) {
-                    return null;
+                    return false;
                 }
                 Logger.getLogger("dr.evomodel.coalescent.operators.GMRFSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
                 throw new RuntimeException("Newton-Raphson F.");
             }
-            iterateGamma.add(tempValue);
+            for (int i = 0; i < fieldLength; i++) {
+                mode[i] += step[i];
+            }
             numberIterations++;
 
             if (numberIterations > maxIterations) {
                 if (FAIL_SILENTLY) {
-                    return null;
+                    return false;
                 }
                 Logger.getLogger("dr.evomodel.coalescent.operators.GMRFSkyrideBlockUpdateOperator").fine("Newton-Raphson F");
                 throw new RuntimeException("Newton Raphson algorithm did not converge within " + maxIterations + " step to a norm less than " + stopValue + "\n" +
@@ -218,27 +208,23 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractAdaptableOperator {
         }
 
         Logger.getLogger("dr.evomodel.coalescent.operators.GMRFSkyrideBlockUpdateOperator").fine("Newton-Raphson S");
-        return iterateGamma;
+        return true;
 
     }
 
-    private static DenseVector gradient(double[] data, DenseVector value, SymmTridiagMatrix Q) {
-
-        DenseVector returnValue = new DenseVector(value.size());
-        Q.mult(value, returnValue);
-        for (int i = 0; i < value.size(); i++) {
-            returnValue.set(i, -returnValue.get(i) - 1 + data[i] * Math.exp(-value.get(i)));
-        }
-        return returnValue;
-    }
-
-
-    private static SPDTridiagMatrix jacobian(double[] data, DenseVector value, SymmTridiagMatrix Q) {
-        SPDTridiagMatrix jacobian = new SPDTridiagMatrix(Q, true);
-        for (int i = 0, n = value.size(); i < n; i++) {
-            jacobian.set(i, i, jacobian.get(i, i) + Math.exp(-value.get(i)) * data[i]);
+    /**
+     * Calculates the gradient of the log full conditional of the field.
+     *
+     * @return the Euclidean norm of the gradient
+     */
+    private static double gradient(double[] data, double[] value, SymmetricTridiagonalMatrix Q, double[] gradient) {
+        Q.multiply(value, gradient);
+        double norm = 0.0;
+        for (int i = 0; i < value.length; i++) {
+            gradient[i] = -gradient[i] - 1 + data[i] * Math.exp(-value[i]);
+            norm += gradient[i] * gradient[i];
         }
-        return jacobian;
+        return Math.sqrt(norm);
     }
 
     public double doOperation() {
@@ -252,92 +238,86 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractAdaptableOperator {
         precisionParameter.setParameterValue(0, proposedPrecision);
         lambdaParameter.setParameterValue(0, proposedLambda);
 
-        DenseVector currentGamma = new DenseVector(gmrfField.getPopSizeParameter().getParameterValues());
-        DenseVector proposedGamma;
+        for (int i = 0; i < fieldLength; i++) {
+            currentGamma[i] = popSizeParameter.getParameterValue(i);
+        }
 
-        SymmTridiagMatrix currentQ = gmrfField.getStoredScaledWeightMatrix(currentPrecision, currentLambda);
-        SymmTridiagMatrix proposedQ = gmrfField.getScaledWeightMatrix(proposedPrecision, proposedLambda);
+        gmrfField.getStoredScaledWeightMatrix(currentPrecision, currentLambda, currentQ);
+        gmrfField.getScaledWeightMatrix(proposedPrecision, proposedLambda, proposedQ);
 
 
         double[] wNative = gmrfField.getSufficientStatistics();
 
-        UpperSPDBandMatrix forwardQW = new UpperSPDBandMatrix(proposedQ, 1);
-        UpperSPDBandMatrix backwardQW = new UpperSPDBandMatrix(currentQ, 1);
-
-        BandCholesky forwardCholesky = new BandCholesky(wNative.length, 1, true);
-        BandCholesky backwardCholesky = new BandCholesky(wNative.length, 1, true);
-
-        DenseVector diagonal1 = new DenseVector(fieldLength);
-        DenseVector diagonal2 = new DenseVector(fieldLength);
-        DenseVector diagonal3 = new DenseVector(fieldLength);
-
-        DenseVector modeForward = newtonRaphson(wNative, currentGamma, proposedQ.copy());
-
-        if (modeForward == null) {
+        if (!newtonRaphson(wNative, currentGamma, proposedQ, fieldMode)) {
             // used to pass on an OperatorFailedException
             return Double.NEGATIVE_INFINITY;
         }
 
+        forwardQW.set(proposedQ);
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, wNative[i] * Math.exp(-modeForward.get(i)));
-            diagonal2.set(i, modeForward.get(i) + 1);
+            double diagonal1 = wNative[i] * Math.exp(-fieldMode[i]);
+            double diagonal2 = fieldMode[i] + 1;
 
-            forwardQW.set(i, i, diagonal1.get(i) + forwardQW.get(i, i));
-            diagonal1.set(i, diagonal1.get(i) * diagonal2.get(i) - 1);
+            forwardQW.addToDiagonal(i, diagonal1);
+            canonical[i] = diagonal1 * diagonal2 - 1;
         }
 
-        forwardCholesky.factor(forwardQW.copy());
-
-        DenseVector forwardMean = getMultiNormalMean(diagonal1, forwardCholesky);
+        if (!forwardQW.factor()) {
+            return Double.NEGATIVE_INFINITY;
+        }
 
-        DenseVector stand_norm = new DenseVector(zeros);
+        // the mean solves QW mu = b and the proposal is mu + v where U v = z (QW = U'U)
+        forwardQW.solveFactored(canonical, mean);
 
-        for (int i = 0; i < zeros.length; i++)
-            stand_norm.set(i, MathUtils.nextGaussian());
+        for (int i = 0; i < fieldLength; i++)
+            standardNormal[i] = MathUtils.nextGaussian();
 
-        proposedGamma = getMultiNormal(stand_norm, forwardMean, forwardCholesky);
+        forwardQW.backSolve(standardNormal, proposedGamma);
+        for (int i = 0; i < fieldLength; i++) {
+            proposedGamma[i] += mean[i];
+        }
 
 
         for (int i = 0; i < fieldLength; i++)
-            popSizeParameter.setParameterValueQuietly(i, proposedGamma.get(i));
+            popSizeParameter.setParameterValueQuietly(i, proposedGamma[i]);
 
         ((Parameter.Abstract) popSizeParameter).fireParameterChangedEvent();
 
 
         double hRatio = 0;
 
-        diagonal1.zero();
-        diagonal2.zero();
-        diagonal3.zero();
-
-        DenseVector modeBackward = newtonRaphson(wNative, proposedGamma, currentQ.copy());
-
-        if (modeBackward == null) {
+        if (!newtonRaphson(wNative, proposedGamma, currentQ, fieldMode)) {
             // used to pass on an OperatorFailedException
             return Double.NEGATIVE_INFINITY;
         }
 
+        backwardQW.set(currentQ);
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, wNative[i] * Math.exp(-modeBackward.get(i)));
-            diagonal2.set(i, modeBackward.get(i) + 1);
+            double diagonal1 = wNative[i] * Math.exp(-fieldMode[i]);
+            double diagonal2 = fieldMode[i] + 1;
 
-            backwardQW.set(i, i, diagonal1.get(i) + backwardQW.get(i, i));
-            diagonal1.set(i, diagonal1.get(i) * diagonal2.get(i) - 1);
+            backwardQW.addToDiagonal(i, diagonal1);
+            canonical[i] = diagonal1 * diagonal2 - 1;
         }
 
-        backwardCholesky.factor(backwardQW.copy());
+        if (!backwardQW.factor()) {
+            return Double.NEGATIVE_INFINITY;
+        }
 
-        DenseVector backwardMean = getMultiNormalMean(diagonal1, backwardCholesky);
+        backwardQW.solveFactored(canonical, mean);
 
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, currentGamma.get(i) - backwardMean.get(i));
+            difference[i] = currentGamma[i] - mean[i];
         }
 
-        backwardQW.mult(diagonal1, diagonal3);
+        double standardNormalSquared = 0.0;
+        for (int i = 0; i < fieldLength; i++) {
+            standardNormalSquared += standardNormal[i] * standardNormal[i];
+        }
 
         // Removed 0.5 * 2
-        hRatio += logGeneralizedDeterminant(backwardCholesky.getU()) - 0.5 * diagonal1.dot(diagonal3);
-        hRatio -= logGeneralizedDeterminant(forwardCholesky.getU() ) - 0.5 * stand_norm.dot(stand_norm);
+        hRatio += 0.5 * backwardQW.getLogDeterminant() - 0.5 * backwardQW.quadraticForm(difference);
+        hRatio -= 0.5 * forwardQW.getLogDeterminant() - 0.5 * standardNormalSquared;
 
 
         return hRatio;
@@ -150,8 +150,10 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         System.arraycopy(relativeRates, 0, storedRelativeRates, 0, rateCount);
 
         if (eigenDecomposition != null) {
-            storedEigenDecomposition = eigenDecomposition.copy();
+            // a decomposition from the cache is never changed so only the reference is kept
+            storedEigenDecomposition = (eigenDecompositionShared ? eigenDecomposition : eigenDecomposition.copy());
         }
+        storedEigenDecompositionShared = eigenDecompositionShared;
     }
 
     /**
@@ -170,6 +172,10 @@ public abstract class BaseSubstitutionModel extends AbstractModel
         storedEigenDecomposition = eigenDecomposition;
         eigenDecomposition = tmp;
 
+        boolean tmp2 = storedEigenDecompositionShared;
+        storedEigenDecompositionShared = eigenDecompositionShared;
+        eigenDecompositionShared = tmp2;
+
     }
 
     protected void acceptState() {
@@ -269,10 +275,20 @@ public abstract class BaseSubstitutionModel extends AbstractModel
 
         double normalization = setupMatrix();
 
-        eigenDecomposition = eigenSystem.decomposeMatrix(q);
+        if (eigenCache == null) {
+            eigenCache = EigenDecompositionCache.getInstance(eigenSystem);
+        }
 
-        if (eigenDecomposition != null)
-            eigenDecomposition.normalizeEigenValues(normalization);
+        if (eigenCache != null) {
+            eigenDecomposition = eigenCache.getEigenDecomposition(eigenSystem, q, normalization);
+            eigenDecompositionShared = true;
+        } else {
+            eigenDecomposition = eigenSystem.decomposeMatrix(q);
+
+            if (eigenDecomposition != null)
+                eigenDecomposition.normalizeEigenValues(normalization);
+            eigenDecompositionShared = false;
+        }
 
         updateMatrix = false;
     }
@@ -411,4 +427,9 @@ public abstract class BaseSubstitutionModel extends AbstractModel
     protected EigenDecomposition eigenDecomposition;
     private EigenDecomposition storedEigenDecomposition;
 
+    // decompositions of recently seen rate matrices, shared with other models
+    private EigenDecompositionCache eigenCache = null;
+    private boolean eigenDecompositionShared = false;
+    private boolean storedEigenDecompositionShared = false;
+
 }
\ No newline at end of file
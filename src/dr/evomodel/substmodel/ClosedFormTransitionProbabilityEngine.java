@@ -0,0 +1,111 @@
+/*
+ * ClosedFormTransitionProbabilityEngine.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.substmodel;
+
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.substmodel.nucleotide.TN93;
+
+/**
+ * The transition probabilities of the HKY and TN93 models from their analytic solution (Tamura
+ * and Nei 1993), which only needs three exponentials for each distance. The rate matrix is
+ * normalized to one expected substitution per unit time, as in BaseSubstitutionModel.
+ */
+public class ClosedFormTransitionProbabilityEngine implements TransitionProbabilityEngine {
+
+    private static final int STATE_COUNT = 4;
+
+    // nucleotides in the order A, C, G, T
+    private static final boolean[] IS_PURINE = new boolean[]{true, false, true, false};
+
+    public ClosedFormTransitionProbabilityEngine(SubstitutionModel substitutionModel) {
+        if (substitutionModel instanceof HKY) {
+            hky = (HKY) substitutionModel;
+            tn93 = null;
+        } else if (substitutionModel instanceof TN93) {
+            hky = null;
+            tn93 = (TN93) substitutionModel;
+        } else {
+            throw new IllegalArgumentException("Closed form transition probabilities are only available for the HKY and TN93 models");
+        }
+        this.substitutionModel = substitutionModel;
+    }
+
+    public SubstitutionModel getSubstitutionModel() {
+        return substitutionModel;
+    }
+
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        // the transition rates between purines (A <-> G) and between pyrimidines (C <-> T)
+        // relative to the transversion rate
+        final double kappaR = (hky != null ? hky.getKappa() : tn93.getKappa1());
+        final double kappaY = (hky != null ? hky.getKappa() : tn93.getKappa2());
+
+        final double[] pi = substitutionModel.getFrequencyModel().getFrequencies();
+        final double piR = pi[0] + pi[2];
+        final double piY = pi[1] + pi[3];
+
+        final double beta = 1.0 / (2.0 * (pi[0] * pi[2] * kappaR + pi[1] * pi[3] * kappaY + piR * piY));
+
+        // the three non-zero eigenvalues
+        final double transversionRate = -beta;
+        final double purineRate = -(piR * kappaR + piY) * beta;
+        final double pyrimidineRate = -(piY * kappaY + piR) * beta;
+
+        int u = 0;
+        for (int k = 0; k < count; k++) {
+            final double distance = distances[k];
+
+            final double e1 = Math.exp(transversionRate * distance);
+            final double eR = Math.exp(purineRate * distance);
+            final double eY = Math.exp(pyrimidineRate * distance);
+
+            for (int i = 0; i < STATE_COUNT; i++) {
+                for (int j = 0; j < STATE_COUNT; j++) {
+                    if (IS_PURINE[i] == IS_PURINE[j]) {
+                        final double piClass = (IS_PURINE[j] ? piR : piY);
+                        final double piOther = (IS_PURINE[j] ? piY : piR);
+                        final double eClass = (IS_PURINE[j] ? eR : eY);
+
+                        double p = pi[j] + pi[j] * (piOther / piClass) * e1;
+                        if (i == j) {
+                            p += ((piClass - pi[j]) / piClass) * eClass;
+                        } else {
+                            p -= (pi[j] / piClass) * eClass;
+                        }
+                        matrices[u] = p;
+                    } else {
+                        matrices[u] = pi[j] * (1.0 - e1);
+                    }
+                    u++;
+                }
+            }
+        }
+    }
+
+    private final SubstitutionModel substitutionModel;
+    private final HKY hky;
+    private final TN93 tn93;
+}
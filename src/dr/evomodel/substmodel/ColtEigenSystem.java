@@ -50,6 +50,26 @@ public class ColtEigenSystem implements EigenSystem {
         this.maxIterations = maxIterations;
     }
 
+    /**
+     * Eigen systems of the same class, dimension and settings give the same decompositions (so
+     * can share an EigenDecompositionCache).
+     */
+    public boolean equals(Object obj) {
+        if (obj == null || obj.getClass() != getClass()) {
+            return false;
+        }
+        ColtEigenSystem other = (ColtEigenSystem) obj;
+        return other.stateCount == stateCount && other.checkConditioning == checkConditioning &&
+                other.maxConditionNumber == maxConditionNumber && other.maxIterations == maxIterations;
+    }
+
+    public int hashCode() {
+        int hash = 31 * getClass().hashCode() + stateCount;
+        hash = 31 * hash + (checkConditioning ? 1 : 0);
+        hash = 31 * hash + maxConditionNumber;
+        return 31 * hash + maxIterations;
+    }
+
     public EigenDecomposition decomposeMatrix(double[][] matrix) {
 
         final int stateCount = matrix.length;
@@ -48,6 +48,18 @@ public class DefaultEigenSystem implements EigenSystem {
         evali = new double[stateCount];
     }
 
+    /**
+     * Eigen systems of the same dimension give the same decompositions (so can share an
+     * EigenDecompositionCache).
+     */
+    public boolean equals(Object obj) {
+        return obj != null && obj.getClass() == getClass() && ((DefaultEigenSystem) obj).stateCount == stateCount;
+    }
+
+    public int hashCode() {
+        return 31 * getClass().hashCode() + stateCount;
+    }
+
     /**
      * set instantaneous rate matrix
      */
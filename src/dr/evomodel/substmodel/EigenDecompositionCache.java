@@ -0,0 +1,213 @@
+/*
+ * EigenDecompositionCache.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.substmodel;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A bounded, least recently used cache of the eigen decompositions of rate matrices. A chain
+ * often returns to a rate matrix it has recently decomposed (when a move is rejected and the
+ * next one proposes the same values, or when epochs or branches have models with the same
+ * parameters) and for 61 state codon models the decomposition is by far the most expensive part
+ * of updating the model.
+ *
+ * The decompositions are keyed by the (unnormalized) rate matrix and its normalization, which
+ * together hold the relative rates and the frequencies, and a decomposition is only ever returned
+ * for an identical matrix so the results are exactly those of decomposing it again. A cache is
+ * shared by all the substitution models that decompose with equal eigen systems (the same
+ * class, dimension and settings). The decompositions handed out are shared so must not be
+ * changed.
+ *
+ * The number of decompositions kept for each eigen system is set with the
+ * "substmodel.eigen.cache.size" property (0 turns the caching off). The hit rates can be watched
+ * with JMX under dr.evomodel.substmodel:type=EigenDecompositionCache.
+ */
+public class EigenDecompositionCache implements EigenDecompositionCacheMBean {
+
+    public static final String CACHE_SIZE_PROPERTY = "substmodel.eigen.cache.size";
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    private static final String DOMAIN = "dr.evomodel.substmodel";
+
+    private static final Map<EigenSystem, EigenDecompositionCache> caches = new HashMap<EigenSystem, EigenDecompositionCache>();
+
+    /**
+     * @return the cache shared by the substitution models using eigen systems equal to the one
+     * given or null if the caching is turned off
+     */
+    public static EigenDecompositionCache getInstance(EigenSystem eigenSystem) {
+        final int capacity = Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+        if (capacity <= 0) {
+            return null;
+        }
+
+        synchronized (caches) {
+            EigenDecompositionCache cache = caches.get(eigenSystem);
+            if (cache == null) {
+                cache = new EigenDecompositionCache(eigenSystem, capacity);
+                caches.put(eigenSystem, cache);
+                cache.register(caches.size());
+            }
+            return cache;
+        }
+    }
+
+    public EigenDecompositionCache(EigenSystem eigenSystem, int capacity) {
+        this.name = eigenSystem.getClass().getSimpleName();
+        this.capacity = capacity;
+
+        decompositions = new LinkedHashMap<Key, EigenDecomposition>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, EigenDecomposition> eldest) {
+                return size() > EigenDecompositionCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the normalized eigen decomposition of a rate matrix, from the cache if this matrix
+     * has been decomposed recently and otherwise by decomposing it with the eigen system given.
+     *
+     * @param eigenSystem   the eigen system to decompose with if needed (the caller's own, as
+     *                      eigen systems are not thread safe)
+     * @param matrix        the rate matrix (which the eigen system may overwrite)
+     * @param normalization the value to normalize the eigen values by
+     * @return the decomposition (or null if the eigen system failed)
+     */
+    public EigenDecomposition getEigenDecomposition(EigenSystem eigenSystem, double[][] matrix, double normalization) {
+        Key key = new Key(matrix, normalization);
+
+        synchronized (this) {
+            EigenDecomposition decomposition = decompositions.get(key);
+            if (decomposition != null) {
+                hitCount++;
+                return decomposition;
+            }
+            missCount++;
+        }
+
+        EigenDecomposition decomposition = eigenSystem.decomposeMatrix(matrix);
+        if (decomposition != null) {
+            decomposition.normalizeEigenValues(normalization);
+
+            synchronized (this) {
+                decompositions.put(key, decomposition);
+            }
+        }
+        return decomposition;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getSize() {
+        return decompositions.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized double getHitRate() {
+        final long total = hitCount + missCount;
+        return (total > 0 ? (double) hitCount / total : 0.0);
+    }
+
+    public synchronized void clear() {
+        decompositions.clear();
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    private void register(int number) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(DOMAIN + ":type=EigenDecompositionCache,name=" +
+                    ObjectName.quote(name) + ",cache=" + number));
+        } catch (Exception e) {
+            Logger.getLogger("dr.evomodel").warning("Unable to register the eigen decomposition cache with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The entries of a rate matrix and its normalization, compared exactly.
+     */
+    private static final class Key {
+
+        Key(double[][] matrix, double normalization) {
+            final int dim = matrix.length;
+
+            values = new double[dim * dim + 1];
+            for (int i = 0; i < dim; i++) {
+                System.arraycopy(matrix[i], 0, values, i * dim, dim);
+            }
+            values[dim * dim] = normalization;
+
+            hashCode = Arrays.hashCode(values);
+        }
+
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && Arrays.equals(values, other.values);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private final double[] values;
+        private final int hashCode;
+    }
+
+    private final String name;
+    private final int capacity;
+
+    private final LinkedHashMap<Key, EigenDecomposition> decompositions;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+}
@@ -0,0 +1,226 @@
+/*
+ * PadeTransitionProbabilityEngine.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.substmodel;
+
+/**
+ * The transition probabilities exp(Q t) by scaling and squaring with a diagonal Pade
+ * approximant of degree 6 (as in Expokit), which doesn't need an eigen decomposition so works for
+ * non-reversible rate matrices whose eigen systems are complex or badly conditioned. The powers of
+ * the rate matrix are calculated once for all the distances of a call. Small negative
+ * probabilities from rounding are set to zero.
+ */
+public class PadeTransitionProbabilityEngine implements TransitionProbabilityEngine {
+
+    private static final int DEGREE = 6;
+
+    private static final double[] COEFFICIENTS = new double[DEGREE + 1];
+
+    static {
+        COEFFICIENTS[0] = 1.0;
+        for (int k = 1; k <= DEGREE; k++) {
+            COEFFICIENTS[k] = COEFFICIENTS[k - 1] * (DEGREE + 1 - k) / (k * (2 * DEGREE + 1 - k));
+        }
+    }
+
+    public PadeTransitionProbabilityEngine(SubstitutionModel substitutionModel) {
+        this.substitutionModel = substitutionModel;
+        stateCount = substitutionModel.getDataType().getStateCount();
+
+        final int size = stateCount * stateCount;
+        powers = new double[DEGREE + 1][size];
+        numerator = new double[size];
+        denominator = new double[size];
+        work = new double[size];
+        pivots = new int[stateCount];
+    }
+
+    public SubstitutionModel getSubstitutionModel() {
+        return substitutionModel;
+    }
+
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        final int size = stateCount * stateCount;
+
+        // powers[k] = Q^k
+        substitutionModel.getInfinitesimalMatrix(powers[1]);
+        for (int k = 2; k <= DEGREE; k++) {
+            multiply(powers[k - 1], powers[1], powers[k]);
+        }
+        final double norm = infinityNorm(powers[1]);
+
+        for (int d = 0; d < count; d++) {
+            final double distance = distances[d];
+
+            // scale so that the norm of Q t / 2^s is no more than about a half
+            int squarings = 0;
+            if (distance * norm > 0.0) {
+                squarings = Math.max(0, (int) (Math.log(distance * norm) / Math.log(2.0)) + 2);
+            }
+            final double h = distance / Math.pow(2.0, squarings);
+
+            // numerator = sum c_k (Q h)^k and denominator = sum c_k (-Q h)^k
+            for (int i = 0; i < size; i++) {
+                numerator[i] = 0.0;
+                denominator[i] = 0.0;
+            }
+            double scale = 1.0;
+            for (int k = 1; k <= DEGREE; k++) {
+                scale *= h;
+                final double term = COEFFICIENTS[k] * scale;
+                final double sign = (k % 2 == 0 ? term : -term);
+                final double[] power = powers[k];
+                for (int i = 0; i < size; i++) {
+                    numerator[i] += term * power[i];
+                    denominator[i] += sign * power[i];
+                }
+            }
+            for (int i = 0; i < stateCount; i++) {
+                numerator[i * stateCount + i] += COEFFICIENTS[0];
+                denominator[i * stateCount + i] += COEFFICIENTS[0];
+            }
+
+            // exp(Q h) ~ denominator^-1 numerator
+            factor(denominator);
+            solve(denominator, numerator);
+
+            for (int s = 0; s < squarings; s++) {
+                multiply(numerator, numerator, work);
+                System.arraycopy(work, 0, numerator, 0, size);
+            }
+
+            final int offset = d * size;
+            for (int i = 0; i < size; i++) {
+                matrices[offset + i] = (numerator[i] > 0.0 ? numerator[i] : 0.0);
+            }
+        }
+    }
+
+    /**
+     * c = a b
+     */
+    private void multiply(double[] a, double[] b, double[] c) {
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < stateCount; k++) {
+                    sum += a[i * stateCount + k] * b[k * stateCount + j];
+                }
+                c[i * stateCount + j] = sum;
+            }
+        }
+    }
+
+    private double infinityNorm(double[] a) {
+        double norm = 0.0;
+        for (int i = 0; i < stateCount; i++) {
+            double sum = 0.0;
+            for (int j = 0; j < stateCount; j++) {
+                sum += Math.abs(a[i * stateCount + j]);
+            }
+            norm = Math.max(norm, sum);
+        }
+        return norm;
+    }
+
+    /**
+     * LU decomposition in place with partial pivoting (the denominator of a Pade approximant
+     * with a small enough argument is always well conditioned).
+     */
+    private void factor(double[] a) {
+        for (int k = 0; k < stateCount; k++) {
+            int pivot = k;
+            double max = Math.abs(a[k * stateCount + k]);
+            for (int i = k + 1; i < stateCount; i++) {
+                final double value = Math.abs(a[i * stateCount + k]);
+                if (value > max) {
+                    max = value;
+                    pivot = i;
+                }
+            }
+            pivots[k] = pivot;
+            if (pivot != k) {
+                swapRows(a, k, pivot);
+            }
+
+            final double diagonal = a[k * stateCount + k];
+            for (int i = k + 1; i < stateCount; i++) {
+                final double factor = a[i * stateCount + k] / diagonal;
+                a[i * stateCount + k] = factor;
+                for (int j = k + 1; j < stateCount; j++) {
+                    a[i * stateCount + j] -= factor * a[k * stateCount + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves A X = B for the factored A, overwriting B with X.
+     */
+    private void solve(double[] lu, double[] b) {
+        for (int k = 0; k < stateCount; k++) {
+            if (pivots[k] != k) {
+                swapRows(b, k, pivots[k]);
+            }
+        }
+
+        for (int j = 0; j < stateCount; j++) {
+            // forward substitution with the unit lower triangle
+            for (int i = 1; i < stateCount; i++) {
+                double sum = b[i * stateCount + j];
+                for (int k = 0; k < i; k++) {
+                    sum -= lu[i * stateCount + k] * b[k * stateCount + j];
+                }
+                b[i * stateCount + j] = sum;
+            }
+            // back substitution with the upper triangle
+            for (int i = stateCount - 1; i >= 0; i--) {
+                double sum = b[i * stateCount + j];
+                for (int k = i + 1; k < stateCount; k++) {
+                    sum -= lu[i * stateCount + k] * b[k * stateCount + j];
+                }
+                b[i * stateCount + j] = sum / lu[i * stateCount + i];
+            }
+        }
+    }
+
+    private void swapRows(double[] a, int row1, int row2) {
+        for (int j = 0; j < stateCount; j++) {
+            final double tmp = a[row1 * stateCount + j];
+            a[row1 * stateCount + j] = a[row2 * stateCount + j];
+            a[row2 * stateCount + j] = tmp;
+        }
+    }
+
+    private final SubstitutionModel substitutionModel;
+    private final int stateCount;
+
+    // working space
+    private final double[][] powers;
+    private final double[] numerator;
+    private final double[] denominator;
+    private final double[] work;
+    private final int[] pivots;
+}
@@ -0,0 +1,107 @@
+/*
+ * TransitionProbabilityEngine.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.substmodel;
+
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.substmodel.nucleotide.TN93;
+
+/**
+ * Calculates the transition probability matrices of a substitution model for many distances
+ * (branch lengths times category rates) in one call, as an alternative to exponentiating the
+ * eigen decomposition of the rate matrix for each branch. An engine is made for a particular
+ * substitution model and holds its own working space, so each likelihood needs its own.
+ */
+public interface TransitionProbabilityEngine {
+
+    /**
+     * The ways the transition probabilities of a partition can be calculated.
+     */
+    enum Type {
+        EIGEN("eigen"),            // the eigen decomposition, exponentiated by the likelihood delegate
+        CLOSED_FORM("closedForm"), // the analytic solution for HKY and TN93
+        PADE("pade");              // scaling and squaring with a Pade approximant, for any rate matrix
+
+        Type(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return an engine of this type for the given substitution model or null for EIGEN
+         * (the likelihood delegates use the eigen decomposition themselves)
+         * @throws IllegalArgumentException if the substitution model isn't supported
+         */
+        public TransitionProbabilityEngine createEngine(SubstitutionModel substitutionModel) {
+            switch (this) {
+                case EIGEN:
+                    return null;
+                case CLOSED_FORM:
+                    if (!(substitutionModel instanceof HKY || substitutionModel instanceof TN93)) {
+                        throw new IllegalArgumentException("Closed form transition probabilities are only available for the HKY and TN93 models");
+                    }
+                    return new ClosedFormTransitionProbabilityEngine(substitutionModel);
+                case PADE:
+                    return new PadeTransitionProbabilityEngine(substitutionModel);
+                default:
+                    throw new IllegalArgumentException("Unknown transition probability engine: " + this);
+            }
+        }
+
+        /**
+         * @return the type with the given name or null if there is none
+         */
+        public static Type parseFromString(String text) {
+            for (Type type : Type.values()) {
+                if (type.getText().compareToIgnoreCase(text) == 0)
+                    return type;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+
+        private final String text;
+    }
+
+    SubstitutionModel getSubstitutionModel();
+
+    /**
+     * Calculates the transition probability matrices for a set of distances from the current
+     * state of the substitution model.
+     *
+     * @param distances the distances in expected substitutions
+     * @param count     the number of distances to use
+     * @param matrices  receives a stateCount x stateCount matrix (row major) for each distance, one
+     *                  after the other
+     */
+    void getTransitionProbabilities(double[] distances, int count, double[] matrices);
+}
@@ -136,19 +136,24 @@ public class TreeLogger extends MCLogger {
 
         if (nexusFormat) {
             int taxonCount = tree.getTaxonCount();
-            logLine("#NEXUS");
-            logLine("");
-            logLine("Begin taxa;");
-            logLine("\tDimensions ntax=" + taxonCount + ";");
-            logLine("\tTaxlabels");
-
-            for (String taxaId : taxaIds) {
-                logLine("\t\t" + cleanTaxonName(taxaId));
-                }
+            if (isAppending()) {
+                // the taxa may have changed so the continued log gets a trees block with its own translation
+                logLine("");
+            } else {
+                logLine("#NEXUS");
+                logLine("");
+                logLine("Begin taxa;");
+                logLine("\tDimensions ntax=" + taxonCount + ";");
+                logLine("\tTaxlabels");
 
-            logLine("\t\t;");
-            logLine("End;");
-            logLine("");
+                for (String taxaId : taxaIds) {
+                    logLine("\t\t" + cleanTaxonName(taxaId));
+                    }
+
+                logLine("\t\t;");
+                logLine("End;");
+                logLine("");
+            }
             logLine("Begin trees;");
 
             if (tree instanceof Keywordable) {
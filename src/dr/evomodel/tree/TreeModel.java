@@ -131,6 +131,9 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
             }
         } while (node != root);
 
+        journal = new int[nodeCount];
+        isJournaled = new boolean[nodeCount];
+
         // must be done here to allow programmatic running of BEAST
         setupHeightBounds();
     }
@@ -595,23 +598,38 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
     // *****************************************************************
 
     /**
-     * Store current state
+     * Store current state. The node structure isn't copied - the nodes changed after this
+     * are recorded in the journal as they are changed.
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
+        clearJournal();
         storedRootNumber = root.getNumber();
 
     }
 
     /**
-     * Restore the stored state
+     * Restore the stored state by putting back the nodes in the journal
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        for (int i = 0; i < journalSize; i++) {
+            final int number = journal[i];
+            Node node = nodes[number];
+            Node stored = storedNodes[number];
+
+            // the parameter values are restored by the parameters themselves,
+            // just need to put back the links
+            node.parent = stored.parent;
+            node.leftChild = stored.leftChild;
+            node.rightChild = stored.rightChild;
+            node.heightParameter = stored.heightParameter;
+            node.rateParameter = stored.rateParameter;
+            node.traitParameters = stored.traitParameters;
+
+            isJournaled[number] = false;
+        }
+        journalSize = 0;
 
         root = nodes[storedRootNumber];
     }
@@ -620,48 +638,41 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      * accept the stored state
      */
     protected void acceptState() {
-    } // nothing to do
+        clearJournal();
+    }
 
     /**
-     * Copies the node connections from this TreeModel's nodes array to the
-     * destination array. Basically it connects up the nodes in destination
-     * in the same way as this TreeModel is set up. This method is package
-     * private.
+     * Records the links and parameters of a node in storedNodes the first time it is
+     * changed after the state was stored, so restoring only has to put back the nodes
+     * an operator actually touched rather than copying the whole tree on every store.
      */
-    private void copyNodeStructure(Node[] destination) {
-
-        if (nodes.length != destination.length) {
-            throw new IllegalArgumentException("Node arrays are of different lengths");
+    private void journalNode(Node node) {
+        if (journal == null) {
+            // the tree is still being constructed
+            return;
         }
 
-        for (int i = 0, n = nodes.length; i < n; i++) {
-            Node node0 = nodes[i];
-            Node node1 = destination[i];
+        final int number = node.getNumber();
+        if (!isJournaled[number]) {
+            Node stored = storedNodes[number];
+            stored.parent = node.parent;
+            stored.leftChild = node.leftChild;
+            stored.rightChild = node.rightChild;
+            stored.heightParameter = node.heightParameter;
+            stored.rateParameter = node.rateParameter;
+            stored.traitParameters = node.traitParameters;
 
-            // the parameter values are automatically stored and restored
-            // just need to keep the links
-            node1.heightParameter = node0.heightParameter;
-            node1.rateParameter = node0.rateParameter;
-            node1.traitParameters = node0.traitParameters;
-
-            if (node0.parent != null) {
-                node1.parent = storedNodes[node0.parent.getNumber()];
-            } else {
-                node1.parent = null;
-            }
-
-            if (node0.leftChild != null) {
-                node1.leftChild = storedNodes[node0.leftChild.getNumber()];
-            } else {
-                node1.leftChild = null;
-            }
+            isJournaled[number] = true;
+            journal[journalSize] = number;
+            journalSize++;
+        }
+    }
 
-            if (node0.rightChild != null) {
-                node1.rightChild = storedNodes[node0.rightChild.getNumber()];
-            } else {
-                node1.rightChild = null;
-            }
+    private void clearJournal() {
+        for (int i = 0; i < journalSize; i++) {
+            isJournaled[journal[i]] = false;
         }
+        journalSize = 0;
     }
 
     /**
@@ -1306,6 +1317,9 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      */
     private void swapParameterObjects(Node n1, Node n2) {
 
+        journalNode(n1);
+        journalNode(n2);
+
         double height1 = n1.getHeight();
         double height2 = n2.getHeight();
 
@@ -1546,6 +1560,8 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
          * @param node new child node
          */
         public void addChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == null) {
                 leftChild = node;
             } else if (rightChild == null) {
@@ -1562,6 +1578,8 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
          * @param node child to be removed
          */
         public Node removeChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == node) {
                 leftChild = null;
             } else if (rightChild == node) {
@@ -1579,6 +1597,7 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
          * @param n number of child to be removed
          */
         public Node removeChild(int n) {
+            journalNode(this);
             Node node;
             if (n == 0) {
                 node = leftChild;
@@ -1589,6 +1608,7 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
             } else {
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
+            journalNode(node);
             node.parent = null;
             return node;
         }
@@ -1683,8 +1703,19 @@ public class TreeModel extends AbstractModel implements MutableTreeModel, Keywor
      * list of internal nodes (including root)
      */
     private Node[] nodes = null;
+
+    /**
+     * the links and parameters of each node at the last store, valid only for the nodes in the journal
+     */
     private Node[] storedNodes = null;
 
+    /**
+     * the numbers of the nodes changed since the last store
+     */
+    private int[] journal = null;
+    private boolean[] isJournaled = null;
+    private int journalSize = 0;
+
     /**
      * number of nodes (including root and tips)
      */
@@ -41,6 +41,7 @@ import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Alexei Drummond
@@ -507,11 +508,24 @@ public class TreeTraceAnalysis {
      * @throws java.io.IOException if general I/O error occurs
      */
     public static TreeTraceAnalysis analyzeLogFile(Reader[] reader, int burnin, boolean verbose) throws IOException {
+        return analyzeLogFile(reader, burnin, verbose, null);
+    }
+
+    /**
+     * @param reader   the readers to be analyzed
+     * @param burnin   the burnin in states
+     * @param verbose  true if progress should be logged to stdout
+     * @param executor the threads to parse the trees on or null to parse them on this thread
+     * @return an analyses of the trees in a log file.
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static TreeTraceAnalysis analyzeLogFile(Reader[] reader, int burnin, boolean verbose,
+                                                   ExecutorService executor) throws IOException {
 
         TreeTrace[] trace = new TreeTrace[reader.length];
         for (int i = 0; i < reader.length; i++) {
             try {
-                trace[i] = TreeTrace.loadTreeTrace(reader[i]);
+                trace[i] = TreeTrace.loadTreeTrace(reader[i], executor);
             } catch (Importer.ImportException ie) {
                 throw new RuntimeException(ie.toString());
             }
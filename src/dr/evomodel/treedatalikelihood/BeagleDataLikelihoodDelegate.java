@@ -38,6 +38,7 @@ package dr.evomodel.treedatalikelihood;
 import beagle.*;
 import dr.evomodel.branchmodel.BranchModel;
 import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.TransitionProbabilityEngine;
 import dr.evomodel.treelikelihood.*;
 import dr.evolution.alignment.PatternList;
 import dr.evolution.alignment.UncertainSiteList;
@@ -46,6 +47,7 @@ import dr.evolution.tree.Tree;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.inference.model.AbstractModel;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
@@ -89,7 +91,10 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
     // Which scheme to use if choice not specified (or 'default' is selected):
     private static final PartialsRescalingScheme DEFAULT_RESCALING_SCHEME = PartialsRescalingScheme.DYNAMIC;
 
-    private static int instanceCount = 0;
+    // the instances created so far in this analysis, used to hand out the resources in turn
+    private static int getInstanceCount() {
+        return AnalysisContext.getCurrent().getInstanceCount(BeagleDataLikelihoodDelegate.class);
+    }
     private static List<Integer> resourceOrder = null;
     private static List<Integer> preferredOrder = null;
     private static List<Integer> requiredOrder = null;
@@ -119,6 +124,28 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
                                         boolean useAmbiguities,
                                         PartialsRescalingScheme rescalingScheme,
                                         boolean delayRescalingUntilUnderflow) {
+        this(tree, patternList, branchModel, siteRateModel, useAmbiguities, rescalingScheme,
+                delayRescalingUntilUnderflow, TransitionProbabilityEngine.Type.EIGEN);
+    }
+
+    /**
+     *
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param branchModel Specifies substitution model for each branch
+     * @param patternList List of patterns
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param transitionProbabilityType How the transition matrices are calculated (anything other than
+     *                                  EIGEN is only used for homogeneous branch models)
+     */
+    public BeagleDataLikelihoodDelegate(Tree tree,
+                                        PatternList patternList,
+                                        BranchModel branchModel,
+                                        SiteRateModel siteRateModel,
+                                        boolean useAmbiguities,
+                                        PartialsRescalingScheme rescalingScheme,
+                                        boolean delayRescalingUntilUnderflow,
+                                        TransitionProbabilityEngine.Type transitionProbabilityType) {
 
         super("BeagleDataLikelihoodDelegate");
         final Logger logger = Logger.getLogger("dr.evomodel");
@@ -176,8 +203,17 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             scaleBufferHelper = new BufferIndexHelper(getScaleBufferCount(), 0);
 
             if (branchModel.getSubstitutionModels().size() == 1) {
-                evolutionaryProcessDelegate = new HomogenousSubstitutionModelDelegate(tree, branchModel);
+                TransitionProbabilityEngine transitionProbabilityEngine =
+                        transitionProbabilityType.createEngine(branchModel.getRootSubstitutionModel());
+                if (transitionProbabilityEngine != null) {
+                    logger.info("  Transition matrices calculated by the " + transitionProbabilityType + " engine");
+                }
+                evolutionaryProcessDelegate = new HomogenousSubstitutionModelDelegate(tree, branchModel, 0,
+                        siteRateModel, transitionProbabilityEngine);
             } else {
+                if (transitionProbabilityType != TransitionProbabilityEngine.Type.EIGEN) {
+                    logger.warning("  Transition matrices for more than one substitution model use the eigen decompositions");
+                }
                 // use a more general delegate that allows different substitution models on different branches and
                 // can do matrix convolution.
 
@@ -212,23 +248,23 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
 
             if (scalingOrder.size() > 0) {
                 this.rescalingScheme = PartialsRescalingScheme.parseFromString(
-                        scalingOrder.get(instanceCount % scalingOrder.size()));
+                        scalingOrder.get(getInstanceCount() % scalingOrder.size()));
             }
 
             if (resourceOrder.size() > 0) {
                 // added the zero on the end so that a CPU is selected if requested resource fails
-                resourceList = new int[]{resourceOrder.get(instanceCount % resourceOrder.size()), 0};
+                resourceList = new int[]{resourceOrder.get(getInstanceCount() % resourceOrder.size()), 0};
                 if (resourceList[0] > 0) {
                     preferenceFlags |= BeagleFlag.PROCESSOR_GPU.getMask(); // Add preference weight against CPU
                 }
             }
 
             if (preferredOrder.size() > 0) {
-                preferenceFlags = preferredOrder.get(instanceCount % preferredOrder.size());
+                preferenceFlags = preferredOrder.get(getInstanceCount() % preferredOrder.size());
             }
 
             if (requiredOrder.size() > 0) {
-                requirementFlags = requiredOrder.get(instanceCount % requiredOrder.size());
+                requirementFlags = requiredOrder.get(getInstanceCount() % requiredOrder.size());
             }
 
 
@@ -478,7 +514,7 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             throw new RuntimeException(mte.toString());
         }
 
-        instanceCount++;
+        AnalysisContext.getCurrent().incrementInstanceCount(BeagleDataLikelihoodDelegate.class);
     }
 
     @Override
@@ -28,8 +28,10 @@ package dr.evomodel.treedatalikelihood;
 import beagle.Beagle;
 import dr.evolution.tree.Tree;
 import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
 import dr.evomodel.substmodel.EigenDecomposition;
 import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.TransitionProbabilityEngine;
 import dr.util.Timer;
 
 import java.io.Serializable;
@@ -47,6 +49,14 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
     private final SubstitutionModel substitutionModel;
 
+    private final SiteRateModel siteRateModel;
+    private final TransitionProbabilityEngine transitionProbabilityEngine;
+
+    // working space for the transition probability engine
+    private double[] distances = null;
+    private double[] matrices = null;
+    private double[] matrix = null;
+
     private final int eigenCount = 1;
 
     private final BufferIndexHelper eigenBufferHelper;
@@ -70,11 +80,33 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
      * @param partitionNumber which data partition is this (used to offset eigen and matrix buffer numbers)
      */
     public HomogenousSubstitutionModelDelegate(Tree tree, BranchModel branchModel, int partitionNumber) {
+        this(tree, branchModel, partitionNumber, null, null);
+    }
+
+    /**
+     * A class which handles substitution models including epoch models where multiple
+     * substitution models on a branch are convolved.
+     * @param tree
+     * @param branchModel Describes which substitution models use on each branch
+     * @param partitionNumber which data partition is this (used to offset eigen and matrix buffer numbers)
+     * @param siteRateModel the category rates to calculate the transition matrices for
+     * @param transitionProbabilityEngine calculates the transition matrices which are then given to BEAGLE (or
+     *                                    null to have BEAGLE calculate them from the eigen decomposition)
+     */
+    public HomogenousSubstitutionModelDelegate(Tree tree, BranchModel branchModel, int partitionNumber,
+                                               SiteRateModel siteRateModel,
+                                               TransitionProbabilityEngine transitionProbabilityEngine) {
 
         assert(branchModel.getSubstitutionModels().size() == 1) : "this delegate should only be used with simple branch models";
 
         this.substitutionModel = branchModel.getRootSubstitutionModel();
 
+        this.siteRateModel = siteRateModel;
+        this.transitionProbabilityEngine = transitionProbabilityEngine;
+        if (transitionProbabilityEngine != null && transitionProbabilityEngine.getSubstitutionModel() != substitutionModel) {
+            throw new IllegalArgumentException("The transition probability engine is for a different substitution model");
+        }
+
 
         int nodeCount = tree.getNodeCount();
 
@@ -95,6 +127,9 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
         this.substitutionModel = substitutionModel;
 
+        this.siteRateModel = null;
+        this.transitionProbabilityEngine = null;
+
         // two eigen buffers for each decomposition for store and restore.
         eigenBufferHelper = new BufferIndexHelper(eigenCount, 0, 1);
 
@@ -146,6 +181,11 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
     @Override
     public void updateSubstitutionModels(Beagle beagle, boolean flip) {
+        if (transitionProbabilityEngine != null) {
+            // the transition matrices are calculated directly from the substitution model
+            return;
+        }
+
         if (flip) {
             eigenBufferHelper.flipOffset(0);
         }
@@ -170,6 +210,11 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
             probabilityIndices[i] = matrixBufferHelper.getOffsetIndex(branchIndices[i]);
         }// END: i loop
 
+        if (transitionProbabilityEngine != null) {
+            setTransitionMatrices(beagle, probabilityIndices, edgeLengths, updateCount);
+            return;
+        }
+
         beagle.updateTransitionMatrices(eigenBufferHelper.getOffsetIndex(0),
                 probabilityIndices,
                 null, // firstDerivativeIndices
@@ -179,6 +224,40 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
     }
 
+    /**
+     * Calculates the matrices of all the branches and categories in one call to the transition
+     * probability engine and gives them to BEAGLE.
+     */
+    private void setTransitionMatrices(Beagle beagle, int[] probabilityIndices, double[] edgeLengths, int updateCount) {
+        final double[] categoryRates = siteRateModel.getCategoryRates();
+        final int categoryCount = categoryRates.length;
+        final int stateCount = substitutionModel.getDataType().getStateCount();
+        final int matrixSize = categoryCount * stateCount * stateCount;
+
+        if (distances == null || distances.length < updateCount * categoryCount) {
+            distances = new double[updateCount * categoryCount];
+            matrices = new double[updateCount * matrixSize];
+        }
+        if (matrix == null || matrix.length != matrixSize) {
+            matrix = new double[matrixSize];
+        }
+
+        int k = 0;
+        for (int i = 0; i < updateCount; i++) {
+            for (int c = 0; c < categoryCount; c++) {
+                distances[k] = edgeLengths[i] * categoryRates[c];
+                k++;
+            }
+        }
+
+        transitionProbabilityEngine.getTransitionProbabilities(distances, k, matrices);
+
+        for (int i = 0; i < updateCount; i++) {
+            System.arraycopy(matrices, i * matrixSize, matrix, 0, matrixSize);
+            beagle.setTransitionMatrix(probabilityIndices[i], matrix, 1.0);
+        }
+    }
+
     @Override
     public void flipTransitionMatrices(int[] branchIndices, int updateCount) {
         for (int i = 0; i < updateCount; i++) {
@@ -0,0 +1,1123 @@
+/*
+ * JavaDataLikelihoodDelegate.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import beagle.BeagleInfo;
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.TransitionProbabilityEngine;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.AnalysisContext;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * JavaDataLikelihoodDelegate
+ *
+ * A DataLikelihoodDelegate that does the peeling in pure Java. All partials, transition matrices
+ * and scale factors are held in flat primitive buffers that are allocated once in the constructor
+ * so that an evaluation does not create any garbage. The inner kernels are unrolled for nucleotide
+ * data and use a 4-way unrolled inner product for larger state spaces (amino acids, codons).
+ *
+ * Site patterns are independent so, given more than one thread, the patterns are split into contiguous
+ * blocks and the whole post-order peeling for each block is run on a thread pool. The log likelihoods
+ * of the blocks are summed at the end.
+ *
+ * This is intended for the case where no native BEAGLE resource can be found. Only branch models
+ * with a single substitution model are supported - the constructor throws a DelegateTypeException
+ * otherwise so that the caller can fall back to BeagleDataLikelihoodDelegate.
+ *
+ * @version $Id$
+ */
+public class JavaDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
+
+    /**
+     * @return true if the native BEAGLE library was loaded
+     */
+    public static boolean IS_NATIVE_BEAGLE_AVAILABLE() {
+        return BeagleInfo.getVersionNumbers().length != 0;
+    }
+
+    private static final boolean DEBUG = false;
+
+    private static final int MIN_PATTERNS_PER_BLOCK = 64;
+
+    private static final int OPERATION_TUPLE_SIZE = 8;
+    private static final int NONE = -1;
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch (must be homogeneous)
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme 'none' never rescales, 'always' rescales from the start, any other
+     *                        scheme rescales from the first underflow onwards
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme) throws DelegateTypeException {
+        this(tree, patternList, branchModel, siteRateModel, useAmbiguities, rescalingScheme, 1);
+    }
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch (must be homogeneous)
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme 'none' never rescales, 'always' rescales from the start, any other
+     *                        scheme rescales from the first underflow onwards
+     * @param threadCount the number of threads over which to split the site patterns (in blocks)
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      int threadCount) throws DelegateTypeException {
+        this(tree, patternList, branchModel, siteRateModel, useAmbiguities, rescalingScheme, threadCount,
+                TransitionProbabilityEngine.Type.EIGEN);
+    }
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch (must be homogeneous)
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param rescalingScheme 'none' never rescales, 'always' rescales from the start, any other
+     *                        scheme rescales from the first underflow onwards
+     * @param threadCount the number of threads over which to split the site patterns (in blocks)
+     * @param transitionProbabilityType how the transition matrices are calculated
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      PartialsRescalingScheme rescalingScheme,
+                                      int threadCount,
+                                      TransitionProbabilityEngine.Type transitionProbabilityType) throws DelegateTypeException {
+
+        super("JavaDataLikelihoodDelegate");
+
+        if (branchModel.getSubstitutionModels().size() != 1 || branchModel.requiresMatrixConvolution()) {
+            throw new DelegateTypeException();
+        }
+
+        final Logger logger = Logger.getLogger("dr.evomodel");
+
+        logger.info("\nUsing Java DataLikelihood Delegate");
+        setId(patternList.getId());
+
+        this.dataType = patternList.getDataType();
+        this.patternList = patternList;
+        patternCount = patternList.getPatternCount();
+        stateCount = dataType.getStateCount();
+
+        // Check for matching state counts
+        int stateCount2 = branchModel.getRootFrequencyModel().getFrequencyCount();
+        if (stateCount != stateCount2) {
+            throw new IllegalArgumentException("Pattern state count (" + stateCount
+                    + ") does not match substitution model state count (" + stateCount2 + ")");
+        }
+
+        patternWeights = patternList.getPatternWeights();
+
+        this.branchModel = branchModel;
+        addModel(this.branchModel);
+
+        this.substitutionModel = branchModel.getRootSubstitutionModel();
+
+        this.siteRateModel = siteRateModel;
+        addModel(this.siteRateModel);
+
+        this.categoryCount = this.siteRateModel.getCategoryCount();
+
+        nodeCount = tree.getNodeCount();
+        tipCount = tree.getExternalNodeCount();
+        internalNodeCount = nodeCount - tipCount;
+
+        // each row of a transition matrix has an extra column of 1's which is indexed by the
+        // gap/unknown state so tip states can be looked up without a branch
+        matrixSize = stateCount * (stateCount + 1);
+        partialsSize = categoryCount * patternCount * stateCount;
+
+        // one partials buffer for each tip and two for each internal node (for store restore)
+        partialBufferHelper = new BufferIndexHelper(nodeCount, tipCount);
+        partials = new double[partialBufferHelper.getBufferCount()][];
+        for (int i = tipCount; i < partials.length; i++) {
+            partials[i] = new double[partialsSize];
+        }
+        tipStates = new int[tipCount][];
+
+        // two matrices for each node (for store restore)
+        matrixBufferHelper = new BufferIndexHelper(nodeCount, 0);
+        matrices = new double[matrixBufferHelper.getBufferCount()][categoryCount * matrixSize];
+
+        // one scaling buffer for each internal node, doubled for store/restore
+        scaleBufferHelper = new BufferIndexHelper(internalNodeCount, 0);
+        logScaleFactors = new double[scaleBufferHelper.getBufferCount()][patternCount];
+        scaleBufferIndices = new int[internalNodeCount];
+        cumulativeLogScaleFactors = new double[patternCount];
+
+        // two eigen decompositions (for store restore)
+        eigenBufferHelper = new BufferIndexHelper(1, 0);
+        cMatrices = new double[eigenBufferHelper.getBufferCount()][stateCount * stateCount * stateCount];
+        eigenValues = new double[eigenBufferHelper.getBufferCount()][stateCount];
+        expEigenValues = new double[stateCount];
+        useComplexEigenSystem = substitutionModel.canReturnComplexDiagonalization();
+        if (useComplexEigenSystem) {
+            tmpMatrix = new double[stateCount * stateCount];
+        } else {
+            tmpMatrix = null;
+        }
+
+        // all the branches and categories to update are given to the engine in one call
+        transitionProbabilityEngine = transitionProbabilityType.createEngine(substitutionModel);
+        if (transitionProbabilityEngine != null) {
+            logger.info("  Transition matrices calculated by the " + transitionProbabilityType + " engine");
+            engineDistances = new double[nodeCount * categoryCount];
+            engineMatrices = new double[nodeCount * categoryCount * stateCount * stateCount];
+        } else {
+            engineDistances = null;
+            engineMatrices = null;
+        }
+
+        operations = new int[internalNodeCount * OPERATION_TUPLE_SIZE];
+
+        // don't make blocks so small that the hand-off to the threads costs more than the peeling
+        int blockCount = Math.min(threadCount, patternCount / MIN_PATTERNS_PER_BLOCK);
+        if (blockCount > 1) {
+            pool = AnalysisContext.getCurrent().newFixedThreadPool(blockCount);
+            patternBlockCallers = new ArrayList<PatternBlockCaller>();
+            for (int i = 0; i < blockCount; i++) {
+                patternBlockCallers.add(new PatternBlockCaller(
+                        (i * patternCount) / blockCount, ((i + 1) * patternCount) / blockCount));
+            }
+            logger.info("  Splitting site patterns into " + blockCount + " blocks evaluated in parallel.");
+        } else {
+            pool = null;
+            patternBlockCallers = null;
+        }
+
+        this.rescalingScheme = rescalingScheme;
+        useScaling = (rescalingScheme == PartialsRescalingScheme.ALWAYS);
+
+        // Uncertain tips can only be given as partials so they are always used rather than ignored.
+        // An UncertainSiteList holds its own site probabilities and doesn't report them through
+        // areUncertain() so it has to be checked for separately.
+        if (patternList instanceof UncertainSiteList || patternList.areUncertain()) {
+            useAmbiguities = true;
+        }
+
+        logger.info("  " + (useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
+        logger.info("  With " + patternList.getPatternCount() + " unique site patterns.");
+
+        try {
+            for (int i = 0; i < tipCount; i++) {
+                // Find the id of tip i in the patternList
+                String id = tree.getTaxonId(i);
+                int index = patternList.getTaxonIndex(id);
+
+                if (index == -1) {
+                    throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + tree.getId() +
+                            ", is not found in patternList, " + patternList.getId());
+                } else {
+                    if (useAmbiguities) {
+                        setPartials(patternList, index, i);
+                    } else {
+                        setStates(patternList, index, i);
+                    }
+                }
+            }
+        } catch (TaxonList.MissingTaxonException mte) {
+            throw new RuntimeException(mte.toString());
+        }
+
+        logger.info("  Using rescaling scheme : " + (useScaling ? "always" :
+                (rescalingScheme == PartialsRescalingScheme.NONE ? "none" : "delayed (until first underflow)")));
+
+        updateSubstitutionModel = true;
+        updateSiteModel = true;
+    }
+
+    @Override
+    public String getReport() {
+        return null;
+    }
+
+    @Override
+    public TreeTraversal.TraversalType getOptimalTraversalType() {
+        return TreeTraversal.TraversalType.POST_ORDER;
+    }
+
+    @Override
+    public int getTraitCount() {
+        return 1;
+    }
+
+    @Override
+    public int getTraitDim() {
+        return patternCount;
+    }
+
+    @Override
+    public RateRescalingScheme getRateRescalingScheme() {
+        return RateRescalingScheme.NONE;
+    }
+
+    public PatternList getPatternList() {
+        return this.patternList;
+    }
+
+    /**
+     * Sets the partials from a sequence in an alignment.
+     *
+     * @param patternList   patternList
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setPartials(PatternList patternList,
+                             int sequenceIndex,
+                             int nodeIndex) {
+        double[] tipPartials = new double[partialsSize];
+
+        int v = 0;
+        for (int i = 0; i < patternCount; i++) {
+
+            if (patternList instanceof UncertainSiteList) {
+                ((UncertainSiteList) patternList).fillPartials(sequenceIndex, i, tipPartials, v);
+                v += stateCount;
+            } else if (patternList.areUncertain()) {
+
+                double[] prob = patternList.getUncertainPatternState(sequenceIndex, i);
+                System.arraycopy(prob, 0, tipPartials, v, stateCount);
+                v += stateCount;
+
+            } else {
+                int state = patternList.getPatternState(sequenceIndex, i);
+                boolean[] stateSet = dataType.getStateSet(state);
+
+                for (int j = 0; j < stateCount; j++) {
+                    tipPartials[v] = stateSet[j] ? 1.0 : 0.0;
+                    v++;
+                }
+            }
+        }
+
+        // if there is more than one category then replicate the partials for each
+        int n = patternCount * stateCount;
+        int k = n;
+        for (int i = 1; i < categoryCount; i++) {
+            System.arraycopy(tipPartials, 0, tipPartials, k, n);
+            k += n;
+        }
+
+        partials[nodeIndex] = tipPartials;
+    }
+
+    /**
+     * Sets the states from a sequence in an alignment. Ambiguous states are mapped to
+     * stateCount which indexes the column of 1's in each transition matrix row.
+     *
+     * @param patternList   patternList
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setStates(PatternList patternList,
+                           int sequenceIndex,
+                           int nodeIndex) {
+        int[] states = new int[patternCount];
+
+        for (int i = 0; i < patternCount; i++) {
+            int state = patternList.getPatternState(sequenceIndex, i);
+            states[i] = (state < stateCount ? state : stateCount);
+        }
+
+        tipStates[nodeIndex] = states;
+    }
+
+    /**
+     * Calculate the log likelihood of the current state.
+     *
+     * @return the log likelihood.
+     */
+    @Override
+    public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations, int rootNodeNumber) throws LikelihoodException {
+
+        if (updateSubstitutionModel) {
+            updateEigenDecomposition();
+        }
+
+        if (updateSiteModel) {
+            categoryRates = this.siteRateModel.getCategoryRates();
+            if (categoryRates == null) {
+                // If this returns null then there was a numerical error calculating the category rates
+                // (probably a very small alpha) so reject the move.
+                return Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        // indexed loops rather than iterators to avoid any allocation
+        final int branchUpdateCount = branchOperations.size();
+        if (transitionProbabilityEngine != null) {
+            updateTransitionMatrices(branchOperations, branchUpdateCount);
+        } else {
+            for (int i = 0; i < branchUpdateCount; i++) {
+                BranchOperation op = branchOperations.get(i);
+                int branchNumber = op.getBranchNumber();
+                matrixBufferHelper.flipOffset(branchNumber);
+                updateTransitionMatrix(matrices[matrixBufferHelper.getOffsetIndex(branchNumber)], op.getBranchLength());
+            }
+        }
+
+        // flip the buffers and record the operations (the buffer helpers are not thread safe)
+        final int operationCount = nodeOperations.size();
+        int k = 0;
+        for (int i = 0; i < operationCount; i++) {
+            NodeOperation op = nodeOperations.get(i);
+            int nodeNum = op.getNodeNumber();
+            int child1 = op.getLeftChild();
+            int child2 = op.getRightChild();
+
+            partialBufferHelper.flipOffset(nodeNum);
+            operations[k] = partialBufferHelper.getOffsetIndex(nodeNum);
+
+            if (useScaling) {
+                int n = nodeNum - tipCount;
+                scaleBufferHelper.flipOffset(n);
+                operations[k + 1] = scaleBufferHelper.getOffsetIndex(n);
+            } else {
+                operations[k + 1] = NONE;
+            }
+
+            operations[k + 2] = child1;
+            operations[k + 3] = partialBufferHelper.getOffsetIndex(child1);
+            operations[k + 4] = matrixBufferHelper.getOffsetIndex(child1);
+            operations[k + 5] = child2;
+            operations[k + 6] = partialBufferHelper.getOffsetIndex(child2);
+            operations[k + 7] = matrixBufferHelper.getOffsetIndex(child2);
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        if (useScaling) {
+            for (int n = 0; n < internalNodeCount; n++) {
+                scaleBufferIndices[n] = scaleBufferHelper.getOffsetIndex(n);
+            }
+        }
+
+        final int rootIndex = partialBufferHelper.getOffsetIndex(rootNodeNumber);
+        categoryWeights = this.siteRateModel.getCategoryProportions();
+        frequencies = substitutionModel.getFrequencyModel().getFrequencies();
+
+        double logL = 0.0;
+
+        if (pool == null) {
+            logL = calculatePatternBlock(0, patternCount, operationCount, rootIndex);
+        } else {
+            for (PatternBlockCaller caller : patternBlockCallers) {
+                caller.setOperations(operationCount, rootIndex);
+            }
+
+            try {
+                List<Future<Double>> results = pool.invokeAll(patternBlockCallers);
+
+                for (Future<Double> result : results) {
+                    logL += result.get();
+                }
+
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        if (DEBUG) {
+            System.out.println("logL = " + logL + " (" + getId() + ")");
+        }
+
+        if (Double.isNaN(logL) || Double.isInfinite(logL)) {
+
+            if (!useScaling && rescalingScheme != PartialsRescalingScheme.NONE) {
+                Logger.getLogger("dr.evomodel").info("Underflow calculating likelihood. Switching on rescaling... (" + getId() + ")");
+
+                // scaling stays on from now on - TreeDataLikelihood will ask for all the nodes to
+                // be recomputed and call again.
+                useScaling = true;
+                throw new LikelihoodUnderflowException();
+            }
+
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        updateSubstitutionModel = false;
+        updateSiteModel = false;
+
+        return logL;
+    }
+
+    /**
+     * Pre-computes the products of the eigenvectors so each transition matrix entry is a single
+     * inner product with the exponentiated eigenvalues.
+     */
+    private void updateEigenDecomposition() {
+        if (useComplexEigenSystem || transitionProbabilityEngine != null) {
+            // the substitution model will compute the matrices directly
+            return;
+        }
+
+        eigenBufferHelper.flipOffset(0);
+        int index = eigenBufferHelper.getOffsetIndex(0);
+
+        EigenDecomposition ed = substitutionModel.getEigenDecomposition();
+        double[] evec = ed.getEigenVectors();
+        double[] ievc = ed.getInverseEigenVectors();
+
+        System.arraycopy(ed.getEigenValues(), 0, eigenValues[index], 0, stateCount);
+
+        double[] cMatrix = cMatrices[index];
+        int l = 0;
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                for (int k = 0; k < stateCount; k++) {
+                    cMatrix[l] = evec[(i * stateCount) + k] * ievc[(k * stateCount) + j];
+                    l++;
+                }
+            }
+        }
+    }
+
+    private void updateTransitionMatrix(double[] matrix, double branchLength) {
+        int n = 0;
+
+        if (useComplexEigenSystem) {
+            for (int c = 0; c < categoryCount; c++) {
+                substitutionModel.getTransitionProbabilities(categoryRates[c] * branchLength, tmpMatrix);
+                int m = 0;
+                for (int i = 0; i < stateCount; i++) {
+                    System.arraycopy(tmpMatrix, m, matrix, n, stateCount);
+                    m += stateCount;
+                    n += stateCount;
+                    matrix[n] = 1.0;
+                    n++;
+                }
+            }
+            return;
+        }
+
+        int index = eigenBufferHelper.getOffsetIndex(0);
+        final double[] cMatrix = cMatrices[index];
+        final double[] eval = eigenValues[index];
+
+        for (int c = 0; c < categoryCount; c++) {
+            final double distance = categoryRates[c] * branchLength;
+            for (int k = 0; k < stateCount; k++) {
+                expEigenValues[k] = Math.exp(eval[k] * distance);
+            }
+
+            int m = 0;
+            for (int i = 0; i < stateCount; i++) {
+                for (int j = 0; j < stateCount; j++) {
+                    double sum = innerProduct(cMatrix, m, expEigenValues, 0, stateCount);
+                    // truncate small negative values due to rounding
+                    matrix[n] = (sum > 0.0 ? sum : 0.0);
+                    m += stateCount;
+                    n++;
+                }
+                matrix[n] = 1.0;
+                n++;
+            }
+        }
+    }
+
+    /**
+     * Calculates the matrices of all the branches and categories with one call to the transition
+     * probability engine and copies them into the (padded) matrix buffers.
+     */
+    private void updateTransitionMatrices(List<BranchOperation> branchOperations, int branchUpdateCount) {
+        int k = 0;
+        for (int i = 0; i < branchUpdateCount; i++) {
+            final double branchLength = branchOperations.get(i).getBranchLength();
+            for (int c = 0; c < categoryCount; c++) {
+                engineDistances[k] = categoryRates[c] * branchLength;
+                k++;
+            }
+        }
+
+        transitionProbabilityEngine.getTransitionProbabilities(engineDistances, k, engineMatrices);
+
+        int m = 0;
+        for (int i = 0; i < branchUpdateCount; i++) {
+            int branchNumber = branchOperations.get(i).getBranchNumber();
+            matrixBufferHelper.flipOffset(branchNumber);
+            final double[] matrix = matrices[matrixBufferHelper.getOffsetIndex(branchNumber)];
+
+            int n = 0;
+            for (int c = 0; c < categoryCount; c++) {
+                for (int j = 0; j < stateCount; j++) {
+                    System.arraycopy(engineMatrices, m, matrix, n, stateCount);
+                    m += stateCount;
+                    n += stateCount;
+                    matrix[n] = 1.0;
+                    n++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Does the peeling for a contiguous block of patterns over all the recorded operations and
+     * returns the log likelihood of those patterns. Blocks share the buffers but write disjoint
+     * parts of them so can be run concurrently.
+     */
+    private double calculatePatternBlock(int patternStart, int patternEnd, int operationCount, int rootIndex) {
+        int k = 0;
+        for (int i = 0; i < operationCount; i++) {
+            double[] destination = partials[operations[k]];
+
+            int child1 = operations[k + 2];
+            int child2 = operations[k + 5];
+
+            double[] matrices1 = matrices[operations[k + 4]];
+            double[] matrices2 = matrices[operations[k + 7]];
+
+            int[] states1 = (child1 < tipCount ? tipStates[child1] : null);
+            int[] states2 = (child2 < tipCount ? tipStates[child2] : null);
+
+            if (states1 != null && states2 != null) {
+                updateStatesStates(destination, states1, matrices1, states2, matrices2, patternStart, patternEnd);
+            } else if (states1 != null) {
+                updatePartialsStates(destination, partials[operations[k + 6]], matrices2,
+                        states1, matrices1, patternStart, patternEnd);
+            } else if (states2 != null) {
+                updatePartialsStates(destination, partials[operations[k + 3]], matrices1,
+                        states2, matrices2, patternStart, patternEnd);
+            } else {
+                updatePartialsPartials(destination,
+                        partials[operations[k + 3]], matrices1,
+                        partials[operations[k + 6]], matrices2, patternStart, patternEnd);
+            }
+
+            if (operations[k + 1] != NONE) {
+                scalePartials(destination, logScaleFactors[operations[k + 1]], patternStart, patternEnd);
+            }
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        return calculateRootLogLikelihood(partials[rootIndex], patternStart, patternEnd);
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have states.
+     */
+    private void updateStatesStates(double[] destination,
+                                    int[] states1, double[] matrices1,
+                                    int[] states2, double[] matrices2,
+                                    int patternStart, int patternEnd) {
+        final int rowSize = stateCount + 1;
+
+        for (int c = 0; c < categoryCount; c++) {
+            int w = c * matrixSize;
+            int v = ((c * patternCount) + patternStart) * stateCount;
+
+            for (int k = patternStart; k < patternEnd; k++) {
+                final int state1 = states1[k];
+                final int state2 = states2[k];
+
+                int x = w;
+                for (int i = 0; i < stateCount; i++) {
+                    destination[v] = matrices1[x + state1] * matrices2[x + state2];
+                    x += rowSize;
+                    v++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when one child has states and one has partials.
+     */
+    private void updatePartialsStates(double[] destination,
+                                      double[] partials1, double[] matrices1,
+                                      int[] states2, double[] matrices2,
+                                      int patternStart, int patternEnd) {
+        if (stateCount == 4) {
+            updateNucleotidePartialsStates(destination, partials1, matrices1, states2, matrices2, patternStart, patternEnd);
+            return;
+        }
+
+        final int rowSize = stateCount + 1;
+
+        for (int c = 0; c < categoryCount; c++) {
+            int w = c * matrixSize;
+            int v = ((c * patternCount) + patternStart) * stateCount;
+
+            for (int k = patternStart; k < patternEnd; k++) {
+                final int state2 = states2[k];
+
+                int x = w;
+                for (int i = 0; i < stateCount; i++) {
+                    double sum1 = innerProduct(matrices1, x, partials1, v - i, stateCount);
+                    destination[v] = sum1 * matrices2[x + state2];
+                    x += rowSize;
+                    v++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have partials.
+     */
+    private void updatePartialsPartials(double[] destination,
+                                        double[] partials1, double[] matrices1,
+                                        double[] partials2, double[] matrices2,
+                                        int patternStart, int patternEnd) {
+        if (stateCount == 4) {
+            updateNucleotidePartialsPartials(destination, partials1, matrices1, partials2, matrices2, patternStart, patternEnd);
+            return;
+        }
+
+        final int rowSize = stateCount + 1;
+
+        for (int c = 0; c < categoryCount; c++) {
+            int w = c * matrixSize;
+            int v = ((c * patternCount) + patternStart) * stateCount;
+
+            for (int k = patternStart; k < patternEnd; k++) {
+                int x = w;
+                for (int i = 0; i < stateCount; i++) {
+                    double sum1 = innerProduct(matrices1, x, partials1, v - i, stateCount);
+                    double sum2 = innerProduct(matrices2, x, partials2, v - i, stateCount);
+                    destination[v] = sum1 * sum2;
+                    x += rowSize;
+                    v++;
+                }
+            }
+        }
+    }
+
+    private void updateNucleotidePartialsStates(double[] destination,
+                                                double[] partials1, double[] matrices1,
+                                                int[] states2, double[] matrices2,
+                                                int patternStart, int patternEnd) {
+        for (int c = 0; c < categoryCount; c++) {
+            int w = c * matrixSize;
+            int v = ((c * patternCount) + patternStart) * 4;
+
+            final double m00 = matrices1[w], m01 = matrices1[w + 1], m02 = matrices1[w + 2], m03 = matrices1[w + 3];
+            final double m10 = matrices1[w + 5], m11 = matrices1[w + 6], m12 = matrices1[w + 7], m13 = matrices1[w + 8];
+            final double m20 = matrices1[w + 10], m21 = matrices1[w + 11], m22 = matrices1[w + 12], m23 = matrices1[w + 13];
+            final double m30 = matrices1[w + 15], m31 = matrices1[w + 16], m32 = matrices1[w + 17], m33 = matrices1[w + 18];
+
+            for (int k = patternStart; k < patternEnd; k++) {
+                final int state2 = w + states2[k];
+
+                final double p0 = partials1[v];
+                final double p1 = partials1[v + 1];
+                final double p2 = partials1[v + 2];
+                final double p3 = partials1[v + 3];
+
+                destination[v] = (m00 * p0 + m01 * p1 + m02 * p2 + m03 * p3) * matrices2[state2];
+                destination[v + 1] = (m10 * p0 + m11 * p1 + m12 * p2 + m13 * p3) * matrices2[state2 + 5];
+                destination[v + 2] = (m20 * p0 + m21 * p1 + m22 * p2 + m23 * p3) * matrices2[state2 + 10];
+                destination[v + 3] = (m30 * p0 + m31 * p1 + m32 * p2 + m33 * p3) * matrices2[state2 + 15];
+
+                v += 4;
+            }
+        }
+    }
+
+    private void updateNucleotidePartialsPartials(double[] destination,
+                                                  double[] partials1, double[] matrices1,
+                                                  double[] partials2, double[] matrices2,
+                                                  int patternStart, int patternEnd) {
+        for (int c = 0; c < categoryCount; c++) {
+            int w = c * matrixSize;
+            int v = ((c * patternCount) + patternStart) * 4;
+
+            final double m00 = matrices1[w], m01 = matrices1[w + 1], m02 = matrices1[w + 2], m03 = matrices1[w + 3];
+            final double m10 = matrices1[w + 5], m11 = matrices1[w + 6], m12 = matrices1[w + 7], m13 = matrices1[w + 8];
+            final double m20 = matrices1[w + 10], m21 = matrices1[w + 11], m22 = matrices1[w + 12], m23 = matrices1[w + 13];
+            final double m30 = matrices1[w + 15], m31 = matrices1[w + 16], m32 = matrices1[w + 17], m33 = matrices1[w + 18];
+
+            final double n00 = matrices2[w], n01 = matrices2[w + 1], n02 = matrices2[w + 2], n03 = matrices2[w + 3];
+            final double n10 = matrices2[w + 5], n11 = matrices2[w + 6], n12 = matrices2[w + 7], n13 = matrices2[w + 8];
+            final double n20 = matrices2[w + 10], n21 = matrices2[w + 11], n22 = matrices2[w + 12], n23 = matrices2[w + 13];
+            final double n30 = matrices2[w + 15], n31 = matrices2[w + 16], n32 = matrices2[w + 17], n33 = matrices2[w + 18];
+
+            for (int k = patternStart; k < patternEnd; k++) {
+                final double p0 = partials1[v];
+                final double p1 = partials1[v + 1];
+                final double p2 = partials1[v + 2];
+                final double p3 = partials1[v + 3];
+
+                final double q0 = partials2[v];
+                final double q1 = partials2[v + 1];
+                final double q2 = partials2[v + 2];
+                final double q3 = partials2[v + 3];
+
+                destination[v] = (m00 * p0 + m01 * p1 + m02 * p2 + m03 * p3) * (n00 * q0 + n01 * q1 + n02 * q2 + n03 * q3);
+                destination[v + 1] = (m10 * p0 + m11 * p1 + m12 * p2 + m13 * p3) * (n10 * q0 + n11 * q1 + n12 * q2 + n13 * q3);
+                destination[v + 2] = (m20 * p0 + m21 * p1 + m22 * p2 + m23 * p3) * (n20 * q0 + n21 * q1 + n22 * q2 + n23 * q3);
+                destination[v + 3] = (m30 * p0 + m31 * p1 + m32 * p2 + m33 * p3) * (n30 * q0 + n31 * q1 + n32 * q2 + n33 * q3);
+
+                v += 4;
+            }
+        }
+    }
+
+    /**
+     * An inner product unrolled 4-way with independent accumulators so the additions can be pipelined.
+     */
+    private static double innerProduct(double[] x, int xOffset, double[] y, int yOffset, int length) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+
+        int k = 0;
+        for (; k <= length - 4; k += 4) {
+            sum0 += x[xOffset + k] * y[yOffset + k];
+            sum1 += x[xOffset + k + 1] * y[yOffset + k + 1];
+            sum2 += x[xOffset + k + 2] * y[yOffset + k + 2];
+            sum3 += x[xOffset + k + 3] * y[yOffset + k + 3];
+        }
+        for (; k < length; k++) {
+            sum0 += x[xOffset + k] * y[yOffset + k];
+        }
+
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Divides the partials for each pattern by their maximum (over categories and states) and stores
+     * the log of that factor.
+     */
+    private void scalePartials(double[] destination, double[] scaleFactors, int patternStart, int patternEnd) {
+        final int categoryStride = patternCount * stateCount;
+
+        for (int k = patternStart; k < patternEnd; k++) {
+            double max = 0.0;
+            int u = k * stateCount;
+            for (int c = 0; c < categoryCount; c++) {
+                for (int i = 0; i < stateCount; i++) {
+                    if (destination[u + i] > max) {
+                        max = destination[u + i];
+                    }
+                }
+                u += categoryStride;
+            }
+
+            if (max == 0.0) {
+                max = 1.0;
+            }
+
+            final double oneOverMax = 1.0 / max;
+            u = k * stateCount;
+            for (int c = 0; c < categoryCount; c++) {
+                for (int i = 0; i < stateCount; i++) {
+                    destination[u + i] *= oneOverMax;
+                }
+                u += categoryStride;
+            }
+
+            scaleFactors[k] = Math.log(max);
+        }
+    }
+
+    private double calculateRootLogLikelihood(double[] rootPartials, int patternStart, int patternEnd) {
+        if (useScaling) {
+            for (int k = patternStart; k < patternEnd; k++) {
+                cumulativeLogScaleFactors[k] = 0.0;
+            }
+            for (int n = 0; n < internalNodeCount; n++) {
+                final double[] scaleFactors = logScaleFactors[scaleBufferIndices[n]];
+                for (int k = patternStart; k < patternEnd; k++) {
+                    cumulativeLogScaleFactors[k] += scaleFactors[k];
+                }
+            }
+        }
+
+        final int categoryStride = patternCount * stateCount;
+
+        double logL = 0.0;
+        for (int k = patternStart; k < patternEnd; k++) {
+            double sum = 0.0;
+            int u = k * stateCount;
+            for (int c = 0; c < categoryCount; c++) {
+                sum += categoryWeights[c] * innerProduct(frequencies, 0, rootPartials, u, stateCount);
+                u += categoryStride;
+            }
+
+            double siteLogL = Math.log(sum);
+            if (useScaling) {
+                siteLogL += cumulativeLogScaleFactors[k];
+            }
+            logL += siteLogL * patternWeights[k];
+        }
+
+        return logL;
+    }
+
+    /**
+     * Evaluates one block of patterns on the thread pool
+     */
+    private class PatternBlockCaller implements Callable<Double> {
+
+        public PatternBlockCaller(int patternStart, int patternEnd) {
+            this.patternStart = patternStart;
+            this.patternEnd = patternEnd;
+        }
+
+        public void setOperations(int operationCount, int rootIndex) {
+            this.operationCount = operationCount;
+            this.rootIndex = rootIndex;
+        }
+
+        public Double call() throws Exception {
+            return calculatePatternBlock(patternStart, patternEnd, operationCount, rootIndex);
+        }
+
+        private final int patternStart;
+        private final int patternEnd;
+        private int operationCount;
+        private int rootIndex;
+    }
+
+    @Override
+    public void makeDirty() {
+        updateSiteModel = true;
+        updateSubstitutionModel = true;
+    }
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (model == siteRateModel) {
+            updateSiteModel = true;
+        } else if (model == branchModel) {
+            updateSubstitutionModel = true;
+        }
+
+        // Tell TreeDataLikelihood to update all nodes
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+
+    }
+
+    /**
+     * Stores the additional state other than model components
+     */
+    @Override
+    public void storeState() {
+        partialBufferHelper.storeState();
+        matrixBufferHelper.storeState();
+        scaleBufferHelper.storeState();
+        eigenBufferHelper.storeState();
+    }
+
+    /**
+     * Restore the additional stored state
+     */
+    @Override
+    public void restoreState() {
+        updateSiteModel = true; // the category rates may have changed in the rejected move
+
+        partialBufferHelper.restoreState();
+        matrixBufferHelper.restoreState();
+        scaleBufferHelper.restoreState();
+        eigenBufferHelper.restoreState();
+    }
+
+    @Override
+    public void setCallback(TreeDataLikelihood treeDataLikelihood) {
+        // Callback not necessary
+    }
+
+    @Override
+    public int vectorizeNodeOperations(List<ProcessOnTreeDelegate.NodeOperation> nodeOperations, int[] operations) {
+        throw new RuntimeException("Not yet implemented");
+    }
+
+    @Override
+    protected void acceptState() {
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    private final int nodeCount;
+    private final int tipCount;
+    private final int internalNodeCount;
+
+    private final int matrixSize;
+    private final int partialsSize;
+
+    /**
+     * the node operations recorded as [destination buffer, scale buffer, child1 node, child1 buffer,
+     * child1 matrix, child2 node, child2 buffer, child2 matrix]
+     */
+    private final int[] operations;
+
+    private final ExecutorService pool;
+    private final List<PatternBlockCaller> patternBlockCallers;
+
+    private final BufferIndexHelper partialBufferHelper;
+    private final BufferIndexHelper matrixBufferHelper;
+    private final BufferIndexHelper scaleBufferHelper;
+    private final BufferIndexHelper eigenBufferHelper;
+
+    /**
+     * partials for each buffer laid out as [category][pattern][state]. Tips using states have null buffers.
+     */
+    private final double[][] partials;
+
+    /**
+     * tip states for each tip (null if the tip has partials)
+     */
+    private final int[][] tipStates;
+
+    /**
+     * transition matrices for each buffer laid out as [category][state][state + 1]
+     */
+    private final double[][] matrices;
+
+    /**
+     * log scale factors for each scale buffer laid out as [pattern]
+     */
+    private final double[][] logScaleFactors;
+    private final double[] cumulativeLogScaleFactors;
+    private final int[] scaleBufferIndices;
+
+    /**
+     * precomputed eigenvector products laid out as [state][state][eigenvalue]
+     */
+    private final double[][] cMatrices;
+    private final double[][] eigenValues;
+    private final double[] expEigenValues;
+    private final double[] tmpMatrix;
+    private final boolean useComplexEigenSystem;
+
+    /**
+     * the engine (if any) and its distances and unpadded matrices laid out as [branch][category]
+     */
+    private final TransitionProbabilityEngine transitionProbabilityEngine;
+    private final double[] engineDistances;
+    private final double[] engineMatrices;
+
+    private final PartialsRescalingScheme rescalingScheme;
+    private boolean useScaling;
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] frequencies;
+
+    /**
+     * the patternList
+     */
+    private final PatternList patternList;
+
+    /**
+     * the data type
+     */
+    private final DataType dataType;
+
+    /**
+     * the pattern weights
+     */
+    private final double[] patternWeights;
+
+    /**
+     * the number of patterns
+     */
+    private final int patternCount;
+
+    /**
+     * the number of states in the data
+     */
+    private final int stateCount;
+
+    /**
+     * the branch model for these sites
+     */
+    private final BranchModel branchModel;
+
+    /**
+     * the single substitution model of the branch model
+     */
+    private final SubstitutionModel substitutionModel;
+
+    /**
+     * the site model for these sites
+     */
+    private final SiteRateModel siteRateModel;
+
+    /**
+     * the number of rate categories
+     */
+    private final int categoryCount;
+
+    /**
+     * Flag to specify that the substitution model has changed
+     */
+    private boolean updateSubstitutionModel;
+
+    /**
+     * Flag to specify that the site model has changed
+     */
+    private boolean updateSiteModel;
+
+}
@@ -45,6 +45,7 @@ import dr.evomodel.branchmodel.BranchModel;
 import dr.evomodel.siteratemodel.SiteRateModel;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
 import dr.inference.model.AbstractModel;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
@@ -90,7 +91,7 @@ public class MultiPartitionDataLikelihoodDelegate extends AbstractModel implemen
 
         fetchBeagleSettings();
 
-        int index = resourceOrder.size() > 0 ? instanceCount % resourceOrder.size() : 0;
+        int index = resourceOrder.size() > 0 ? getInstanceCount() % resourceOrder.size() : 0;
 
         if (resourceOrder.size() > 0 && resourceOrder.get(index) > 0) {
             return true;
@@ -129,7 +130,10 @@ public class MultiPartitionDataLikelihoodDelegate extends AbstractModel implemen
     // Which scheme to use if choice not specified (or 'default' is selected):
     private static final PartialsRescalingScheme DEFAULT_RESCALING_SCHEME = PartialsRescalingScheme.DYNAMIC;
 
-    private static int instanceCount = 0;
+    // the instances created so far in this analysis, used to hand out the resources in turn
+    private static int getInstanceCount() {
+        return AnalysisContext.getCurrent().getInstanceCount(MultiPartitionDataLikelihoodDelegate.class);
+    }
     private static List<Integer> resourceOrder = null;
     private static List<Integer> preferredOrder = null;
     private static List<Integer> requiredOrder = null;
@@ -294,23 +298,23 @@ public class MultiPartitionDataLikelihoodDelegate extends AbstractModel implemen
 
             if (scalingOrder.size() > 0) {
                 this.rescalingScheme = PartialsRescalingScheme.parseFromString(
-                        scalingOrder.get(instanceCount % scalingOrder.size()));
+                        scalingOrder.get(getInstanceCount() % scalingOrder.size()));
             }
 
             if (resourceOrder.size() > 0) {
                 // added the zero on the end so that a CPU is selected if requested resource fails
-                resourceList = new int[]{resourceOrder.get(instanceCount % resourceOrder.size()), 0};
+                resourceList = new int[]{resourceOrder.get(getInstanceCount() % resourceOrder.size()), 0};
                 if (resourceList[0] > 0) {
                     preferenceFlags |= BeagleFlag.PROCESSOR_GPU.getMask(); // Add preference weight against CPU
                 }
             }
 
             if (preferredOrder.size() > 0) {
-                preferenceFlags = preferredOrder.get(instanceCount % preferredOrder.size());
+                preferenceFlags = preferredOrder.get(getInstanceCount() % preferredOrder.size());
             }
 
             if (requiredOrder.size() > 0) {
-                requirementFlags = requiredOrder.get(instanceCount % requiredOrder.size());
+                requirementFlags = requiredOrder.get(getInstanceCount() % requiredOrder.size());
             }
 
             // Define default behaviour here
@@ -591,7 +595,7 @@ public class MultiPartitionDataLikelihoodDelegate extends AbstractModel implemen
             throw new RuntimeException(mte.toString());
         }
 
-        instanceCount ++;
+        AnalysisContext.getCurrent().incrementInstanceCount(MultiPartitionDataLikelihoodDelegate.class);
     }
 
     @Override
@@ -63,6 +63,7 @@ public class ProcessSimulation implements ModelListener, TreeTraitProvider {
                 simulationDelegate.getOptimalTraversalType());
 
         treeDataLikelihood.addModelListener(this);
+        treeDataLikelihood.addModelRestoreListener(this);
 
         this.simulationDelegate = simulationDelegate;
         simulationDelegate.setCallback(this);
@@ -118,6 +119,7 @@ public class ProcessSimulation implements ModelListener, TreeTraitProvider {
 
     @Override
     public void modelRestored(Model model) {
-        // Do nothing
+        // The simulated traits belong to the rejected state
+        validSimulation = false;
     }
 }
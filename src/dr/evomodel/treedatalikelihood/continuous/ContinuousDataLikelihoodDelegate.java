@@ -66,6 +66,11 @@ import java.util.logging.Logger;
 public class ContinuousDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate,
         ConjugateWishartStatisticsProvider, Citable {
 
+    /**
+     * the number of threads over which the full precision integrators peel independent subtrees
+     */
+    public static final String THREAD_COUNT_PROPERTY = "continuous.thread.count";
+
     private final int numTraits;
     private final int dimTrait;
     private final PrecisionType precisionType;
@@ -159,6 +164,11 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
         operations = new int[(internalNodeCount + rootProcessDelegate.getExtraPartialBufferCount())
                 * ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE];
 
+        int threadCount = 1;
+        if (System.getProperty(THREAD_COUNT_PROPERTY) != null) {
+            threadCount = Integer.parseInt(System.getProperty(THREAD_COUNT_PROPERTY));
+        }
+
         try {
 
             ContinuousDiffusionIntegrator base;
@@ -180,7 +190,8 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
                             numTraits,
                             dimTrait,
                             partialBufferCount,
-                            matrixBufferCount
+                            matrixBufferCount,
+                            threadCount
                     );
                 } else {
                     if (allowSingular) {
@@ -189,7 +200,8 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
                                 numTraits,
                                 dimTrait,
                                 partialBufferCount,
-                                matrixBufferCount
+                                matrixBufferCount,
+                                threadCount
                         );
                     } else {
                         base = new MultivariateIntegrator(
@@ -197,7 +209,8 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
                                 numTraits,
                                 dimTrait,
                                 partialBufferCount,
-                                matrixBufferCount
+                                matrixBufferCount,
+                                threadCount
                         );
                     }
                 }
@@ -32,13 +32,15 @@ import dr.evomodel.treedatalikelihood.preorder.TipFullConditionalDistributionDel
 import dr.evomodel.treedatalikelihood.preorder.TipGradientViaFullConditionalDelegate;
 import dr.inference.hmc.GradientWrtParameterProvider;
 import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
 import dr.inference.model.Parameter;
 import dr.xml.Reportable;
 
 /**
  * @author Marc A. Suchard
  */
-public class TreeTipGradient implements GradientWrtParameterProvider, Reportable {
+public class TreeTipGradient implements GradientWrtParameterProvider, ModelListener, Reportable {
 
     private final TreeDataLikelihood treeDataLikelihood;
     private final TreeTrait treeTraitProvider;
@@ -51,6 +53,9 @@ public class TreeTipGradient implements GradientWrtParameterProvider, Reportable
 
     private final Parameter maskParameter;
 
+    private final double[] gradient;
+    private boolean gradientKnown;
+
     public TreeTipGradient(String traitName,
                            TreeDataLikelihood treeDataLikelihood,
                            ContinuousDataLikelihoodDelegate likelihoodDelegate,
@@ -63,7 +68,7 @@ public class TreeTipGradient implements GradientWrtParameterProvider, Reportable
         this.maskParameter = maskParameter;
 
         String name =
-                TipGradientViaFullConditionalDelegate.getName(traitName);
+                TipGradientViaFullConditionalDelegate.getTipGradientName(traitName);
 
         TreeTrait test = treeDataLikelihood.getTreeTrait(name);
 
@@ -85,19 +90,19 @@ public class TreeTipGradient implements GradientWrtParameterProvider, Reportable
         nTraits = treeDataLikelihood.getDataLikelihoodDelegate().getTraitCount();
         dimTrait = treeDataLikelihood.getDataLikelihoodDelegate().getTraitDim();
 
-//        PrecisionType precisionType = likelihoodDelegate.getPrecisionType();
-//        int dimPartial = precisionType.getMatrixLength(dimTrait);
-        
-        if (nTraits != 1) {
-            throw new RuntimeException("Not yet implemented for >1 traits");
-        }
-
         this.traitParameter = likelihoodDelegate.getDataModel().getParameter();
 
         if (maskParameter != null &&
                 (maskParameter.getDimension() != traitParameter.getDimension())) {
             throw new RuntimeException("Trait and mask parameters must be the same size");
         }
+
+        // Consecutive leapfrog steps ask for the gradient at the same state, so it is kept until the likelihood changes
+        gradient = new double[nTaxa * dimTrait * nTraits];
+        gradientKnown = false;
+
+        treeDataLikelihood.addModelListener(this);
+        treeDataLikelihood.addModelRestoreListener(this);
     }
 
     @Override
@@ -118,24 +123,34 @@ public class TreeTipGradient implements GradientWrtParameterProvider, Reportable
     @Override
     public double[] getGradientLogDensity() {
 
-        double[] gradient = new double[nTaxa  * dimTrait * nTraits];
-
-        int offsetOutput = 0;
-        for (int taxon = 0; taxon < nTaxa; ++taxon) {
-            double[] taxonGradient = (double[]) treeTraitProvider.getTrait(tree, tree.getExternalNode(taxon));
-            System.arraycopy(taxonGradient, 0, gradient, offsetOutput, taxonGradient.length);
-            offsetOutput += taxonGradient.length;
+        if (!gradientKnown) {
+            double[] tipGradient = (double[]) treeTraitProvider.getTrait(tree, null);
+            System.arraycopy(tipGradient, 0, gradient, 0, gradient.length);
+            gradientKnown = true;
         }
 
+        double[] result = new double[gradient.length];
+        System.arraycopy(gradient, 0, result, 0, gradient.length);
+
         if (maskParameter != null) {
             for (int i = 0; i < maskParameter.getDimension(); ++i) {
                 if (maskParameter.getParameterValue(i) == 0.0) {
-                    gradient[i] = 0.0;
+                    result[i] = 0.0;
                 }
             }
         }
 
-        return gradient;
+        return result;
+    }
+
+    @Override
+    public void modelChangedEvent(Model model, Object object, int index) {
+        gradientKnown = false;
+    }
+
+    @Override
+    public void modelRestored(Model model) {
+        gradientKnown = false;
     }
 
     @Override
@@ -308,8 +308,28 @@ public interface ContinuousDiffusionIntegrator extends Reportable {
                 System.err.println("Pre-order operations:");
             }
 
+            int offset = 0;
+            for (int op = 0; op < operationCount; ++op) {
+
+                if (DEBUG) {
+                    System.err.println("\t" + getOperationString(operations, offset));
+                }
 
-            throw new RuntimeException("Not yet implemented");
+                updatePreOrderPartial(
+                        operations[offset    ],
+                        operations[offset + 1],
+                        operations[offset + 2],
+                        operations[offset + 3],
+                        operations[offset + 4]
+                );
+
+                offset += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+            }
+
+            if (DEBUG) {
+                System.err.println("End");
+                System.err.println("");
+            }
         }
 
         @Override
@@ -1,14 +1,26 @@
 package dr.evomodel.treedatalikelihood.continuous.cdi;
 
+import dr.inference.model.AnalysisContext;
 import dr.math.matrixAlgebra.WrappedVector;
 import dr.math.matrixAlgebra.missingData.InversionResult;
+import org.ejml.alg.dense.decomposition.lu.LUDecompositionAlt_D64;
+import org.ejml.alg.dense.linsol.lu.LinearSolverLu_D64;
 import org.ejml.data.DenseMatrix64F;
 import org.ejml.ops.CommonOps;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import static dr.math.matrixAlgebra.missingData.InversionResult.Code.FULLY_OBSERVED;
 import static dr.math.matrixAlgebra.missingData.InversionResult.Code.NOT_OBSERVED;
+import static dr.math.matrixAlgebra.missingData.MissingOps.invertAndGetDeterminant;
 import static dr.math.matrixAlgebra.missingData.MissingOps.safeInvert;
 import static dr.math.matrixAlgebra.missingData.MissingOps.unwrap;
 import static dr.math.matrixAlgebra.missingData.MissingOps.wrap;
@@ -23,12 +35,37 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
 
     public MultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int bufferCount,
                                   int diffusionCount) {
+        this(precisionType, numTraits, dimTrait, bufferCount, diffusionCount, 1);
+    }
+
+    /**
+     * @param threadCount the number of threads over which to peel independent subtrees
+     */
+    public MultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int bufferCount,
+                                  int diffusionCount, int threadCount) {
         super(precisionType, numTraits, dimTrait, bufferCount, diffusionCount);
 
         assert precisionType == PrecisionType.FULL;
 
         allocateStorage();
 
+        if (threadCount > 1) {
+            pool = AnalysisContext.getCurrent().newFixedThreadPool(threadCount);
+            peelingTasks = new ArrayList<PeelingTask>();
+            for (int i = 0; i < threadCount; i++) {
+                peelingTasks.add(new PeelingTask());
+            }
+            bufferWritten = new int[bufferCount];
+            bufferRead = new int[bufferCount];
+            Arrays.fill(bufferWritten, -1);
+            Arrays.fill(bufferRead, -1);
+        } else {
+            pool = null;
+            peelingTasks = null;
+            bufferWritten = null;
+            bufferRead = null;
+        }
+
         if (TIMING) {
             times = new HashMap<String, Long>();
         } else {
@@ -56,27 +93,66 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
 
     private final Map<String, Long> times;
 
-    DenseMatrix64F matrix0;
-    DenseMatrix64F matrix1;
-    DenseMatrix64F matrix2;
-    DenseMatrix64F matrix3;
-    DenseMatrix64F matrix4;
-    DenseMatrix64F matrix5;
-    DenseMatrix64F matrix6;
+    /**
+     * The temporary matrices and vectors of a peeling step, held by each thread so that independent
+     * subtrees can be peeled at the same time. Partial precisions and variances are copied into the
+     * 'node' matrices rather than wrapped in newly allocated ones.
+     */
+    final class Workspace {
+
+        final DenseMatrix64F matrix0 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F matrix1 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F matrix2 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F matrix3 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F matrix4 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F matrix5 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F matrix6 = new DenseMatrix64F(dimTrait, dimTrait);
+
+        final DenseMatrix64F nodeMatrix0 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F nodeMatrix1 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F nodeMatrix2 = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F nodeMatrix3 = new DenseMatrix64F(dimTrait, dimTrait);
+
+        final double[] vector0 = new double[dimTrait];
+        final double[] vector1 = new double[dimTrait];
+        final double[] vector2 = new double[dimTrait];
+
+        final DenseMatrix64F column0 = new DenseMatrix64F(dimTrait, 1);
+        final DenseMatrix64F column1 = new DenseMatrix64F(dimTrait, 1);
+
+        // the LU decomposition is reused for all the inversions of the thread
+        final LinearSolverLu_D64 solver = new LinearSolverLu_D64(new LUDecompositionAlt_D64());
+    }
+
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace();
+        }
+    };
 
-    double[] vector0;
+    Workspace getWorkspace() {
+        return workspaces.get();
+    }
+
+    /**
+     * Copies a dimTrait x dimTrait matrix out of a buffer into an existing matrix.
+     */
+    DenseMatrix64F load(final double[] source, final int offset, final DenseMatrix64F destination) {
+        System.arraycopy(source, offset, destination.getData(), 0, dimTrait * dimTrait);
+        return destination;
+    }
 
     private void allocateStorage() {
         inverseDiffusions = new double[dimTrait * dimTrait * diffusionCount];
 
-        vector0 = new double[dimTrait];
-        matrix0 = new DenseMatrix64F(dimTrait, dimTrait);
-        matrix1 = new DenseMatrix64F(dimTrait, dimTrait);
-        matrix2 = new DenseMatrix64F(dimTrait, dimTrait);
-        matrix3 = new DenseMatrix64F(dimTrait, dimTrait);
-        matrix4 = new DenseMatrix64F(dimTrait, dimTrait);
-        matrix5 = new DenseMatrix64F(dimTrait, dimTrait);
-        matrix6 = new DenseMatrix64F(dimTrait, dimTrait);
+        diffusionPrecisions = new DenseMatrix64F[diffusionCount];
+        diffusionVariances = new DenseMatrix64F[diffusionCount];
+        diffusionPrecisionDeterminants = new double[diffusionCount];
+        for (int i = 0; i < diffusionCount; ++i) {
+            diffusionPrecisions[i] = new DenseMatrix64F(dimTrait, dimTrait);
+            diffusionVariances[i] = new DenseMatrix64F(dimTrait, dimTrait);
+        }
     }
 
     @Override
@@ -86,9 +162,9 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
         assert (inverseDiffusions != null);
 
         final int offset = dimTrait * dimTrait * precisionIndex;
-        DenseMatrix64F precision = wrap(diffusions, offset, dimTrait, dimTrait);
-        DenseMatrix64F variance = new DenseMatrix64F(dimTrait, dimTrait);
-        CommonOps.invert(precision, variance);
+        DenseMatrix64F precision = load(diffusions, offset, diffusionPrecisions[precisionIndex]);
+        DenseMatrix64F variance = diffusionVariances[precisionIndex];
+        diffusionPrecisionDeterminants[precisionIndex] = invertAndGetDeterminant(precision, variance);
         unwrap(variance, inverseDiffusions, offset);
 
         if (DEBUG) {
@@ -98,11 +174,229 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
         }
     }
 
+    /**
+     * @return the precision of the diffusion set by the last call to update the diffusion matrices
+     * (shared by all the branches)
+     */
+    DenseMatrix64F getDiffusionPrecision() {
+        return diffusionPrecisions[precisionOffset / (dimTrait * dimTrait)];
+    }
+
+    /**
+     * @return the variance of the diffusion set by the last call to update the diffusion matrices
+     * (shared by all the branches)
+     */
+    DenseMatrix64F getDiffusionVariance() {
+        return diffusionVariances[precisionOffset / (dimTrait * dimTrait)];
+    }
+
+    /**
+     * Increases the variance of a partial along a branch, Vip = Vi + v Vd, and inverts it. When the
+     * partial has no variance of its own (an observed tip, about half of the branches) the precision is
+     * the diffusion precision divided by the branch length, so the inverse and determinant of the
+     * diffusion shared by all the branches are reused rather than inverting another matrix.
+     */
+    InversionResult increaseVariance(final DenseMatrix64F Vi, final double v,
+                                     final DenseMatrix64F Vip, final DenseMatrix64F Pip,
+                                     final Workspace workspace) {
+
+        final int diffusionIndex = precisionOffset / (dimTrait * dimTrait);
+
+        if (v > 0.0 && isZero(Vi)) {
+            CommonOps.scale(v, diffusionVariances[diffusionIndex], Vip);
+            CommonOps.scale(1.0 / v, diffusionPrecisions[diffusionIndex], Pip);
+            return new InversionResult(FULLY_OBSERVED, dimTrait,
+                    Math.pow(v, dimTrait) / diffusionPrecisionDeterminants[diffusionIndex]);
+        }
+
+        CommonOps.add(Vi, v, diffusionVariances[diffusionIndex], Vip);
+        return safeInvert(Vip, Pip, true, workspace.solver);
+    }
+
+    private static boolean isZero(final DenseMatrix64F matrix) {
+        final double[] data = matrix.getData();
+        final int length = matrix.getNumElements();
+        for (int i = 0; i < length; ++i) {
+            if (data[i] != 0.0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 //    @Override
 //    public boolean requireDataAugmentationForOuterProducts() {
 //        return true;
 //    }
 
+    @Override
+    public void updatePostOrderPartials(final int[] operations, int operationCount, boolean incrementOuterProducts) {
+
+        if (pool == null || incrementOuterProducts || operationCount < 2) {
+            super.updatePostOrderPartials(operations, operationCount, incrementOuterProducts);
+        } else {
+            updatePartialsInParallel(operations, operationCount, false);
+        }
+    }
+
+    @Override
+    public void updatePreOrderPartials(final int[] operations, int operationCount) {
+
+        if (pool == null || operationCount < 2) {
+            super.updatePreOrderPartials(operations, operationCount);
+        } else {
+            updatePartialsInParallel(operations, operationCount, true);
+        }
+    }
+
+    /**
+     * Groups the operations into levels, where an operation can be done once the operations that write
+     * its sources (or read the buffer it writes) are done, and peels the operations of each level on
+     * the thread pool. Each operation writes its own partial and remainder so no locking is needed.
+     * Post-order operations read the partials of both children; pre-order operations only read the
+     * pre-order partial of the parent, as the sibling's post-order partial is not written by any of them.
+     */
+    private void updatePartialsInParallel(final int[] operations, int operationCount, final boolean preOrder) {
+
+        if (operationLevels == null || operationLevels.length < operationCount) {
+            operationLevels = new int[operationCount];
+            operationOrder = new int[operationCount];
+        }
+
+        int levelCount = 0;
+        int offset = 0;
+        for (int op = 0; op < operationCount; ++op) {
+            final int k = operations[offset];
+            final int i = operations[offset + 1];
+            final int j = operations[offset + 3];
+
+            final int level;
+            if (preOrder) {
+                // writes node i from its parent k
+                level = Math.max(bufferWritten[k], Math.max(bufferWritten[i], bufferRead[i])) + 1;
+                bufferWritten[i] = level;
+                bufferRead[k] = Math.max(bufferRead[k], level);
+            } else {
+                // writes node k from its children i and j
+                level = Math.max(Math.max(bufferWritten[i], bufferWritten[j]),
+                        Math.max(bufferWritten[k], bufferRead[k])) + 1;
+                bufferWritten[k] = level;
+                bufferRead[i] = Math.max(bufferRead[i], level);
+                bufferRead[j] = Math.max(bufferRead[j], level);
+            }
+            operationLevels[op] = level;
+
+            levelCount = Math.max(levelCount, level + 1);
+            offset += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+        }
+
+        // reset the buffers touched and sort the operations by level
+        if (levelStarts == null || levelStarts.length < levelCount + 1) {
+            levelStarts = new int[levelCount + 1];
+        }
+        Arrays.fill(levelStarts, 0, levelCount + 1, 0);
+
+        offset = 0;
+        for (int op = 0; op < operationCount; ++op) {
+            bufferWritten[operations[offset]] = -1;
+            bufferWritten[operations[offset + 1]] = -1;
+            bufferRead[operations[offset]] = -1;
+            bufferRead[operations[offset + 1]] = -1;
+            bufferRead[operations[offset + 3]] = -1;
+            levelStarts[operationLevels[op] + 1]++;
+            offset += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+        }
+        for (int level = 0; level < levelCount; ++level) {
+            levelStarts[level + 1] += levelStarts[level];
+        }
+        for (int op = 0; op < operationCount; ++op) {
+            operationOrder[levelStarts[operationLevels[op]]++] = op;
+        }
+        // the starts have been moved on to the ends of each level
+        for (int level = levelCount; level > 0; --level) {
+            levelStarts[level] = levelStarts[level - 1];
+        }
+        levelStarts[0] = 0;
+
+        for (int level = 0; level < levelCount; ++level) {
+            final int start = levelStarts[level];
+            final int end = levelStarts[level + 1];
+
+            final int taskCount = Math.min(peelingTasks.size(), end - start);
+            if (taskCount == 1) {
+                peel(operations, start, end, preOrder);
+            } else {
+                for (int t = 0; t < taskCount; ++t) {
+                    peelingTasks.get(t).setOperations(operations,
+                            start + (t * (end - start)) / taskCount, start + ((t + 1) * (end - start)) / taskCount,
+                            preOrder);
+                }
+
+                try {
+                    List<Future<Void>> results = pool.invokeAll(peelingTasks.subList(0, taskCount));
+                    for (Future<Void> result : results) {
+                        result.get();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Peels the operations operationOrder[start] to operationOrder[end - 1].
+     */
+    private void peel(final int[] operations, int start, int end, boolean preOrder) {
+        for (int index = start; index < end; ++index) {
+            final int offset = operationOrder[index] * ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+
+            if (preOrder) {
+                updatePreOrderPartial(
+                        operations[offset    ],
+                        operations[offset + 1],
+                        operations[offset + 2],
+                        operations[offset + 3],
+                        operations[offset + 4]
+                );
+            } else {
+                updatePartial(
+                        operations[offset    ],
+                        operations[offset + 1],
+                        operations[offset + 2],
+                        operations[offset + 3],
+                        operations[offset + 4],
+                        false
+                );
+            }
+        }
+    }
+
+    /**
+     * Peels a share of the operations of one level on the thread pool
+     */
+    private class PeelingTask implements Callable<Void> {
+
+        public void setOperations(int[] operations, int start, int end, boolean preOrder) {
+            this.operations = operations;
+            this.start = start;
+            this.end = end;
+            this.preOrder = preOrder;
+        }
+
+        public Void call() throws Exception {
+            peel(operations, start, end, preOrder);
+            return null;
+        }
+
+        private int[] operations;
+        private int start;
+        private int end;
+        private boolean preOrder;
+    }
+
     @Override
     public void updatePreOrderPartial(
             final int kBuffer, // parent
@@ -111,6 +405,8 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             final int jBuffer, // sibling
             final int jMatrix) {
 
+        final Workspace workspace = getWorkspace();
+
         // Determine buffer offsets
         int kbo = dimPartial * kBuffer;
         int ibo = dimPartial * iBuffer;
@@ -124,7 +420,7 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
         final double vi = branchLengths[imo];
         final double vj = branchLengths[jmo];
 
-        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
+        final DenseMatrix64F Vd = getDiffusionVariance();
 
         if (DEBUG) {
             System.err.println("updatePreOrderPartial for node " + iBuffer);
@@ -137,44 +433,43 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
         for (int trait = 0; trait < numTraits; ++trait) {
 
             // A. Get current precision of k and j
-            final DenseMatrix64F Pk = wrap(prePartials, kbo + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Pk = load(prePartials, kbo + dimTrait, workspace.nodeMatrix0);
 //                final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
 
 //                final DenseMatrix64F Vk = wrap(prePartials, kbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Vj = wrap(partials, jbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Vj = load(partials, jbo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix1);
 
             // B. Inflate variance along sibling branch using matrix inversion
-//                final DenseMatrix64F Vjp = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Vjp = matrix0;
-            CommonOps.add(Vj, vj, Vd, Vjp);
+            final DenseMatrix64F Vjp = workspace.matrix0;
+            final DenseMatrix64F Pjp = workspace.matrix1;
+            InversionResult cj = increaseVariance(Vj, vj, Vjp, Pjp, workspace);
 
-//                final DenseMatrix64F Pjp = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pjp = matrix1;
-            InversionResult cj = safeInvert(Vjp, Pjp, false);
-
-//                final DenseMatrix64F Pip = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pip = matrix2;
+            final DenseMatrix64F Pip = workspace.matrix2;
             CommonOps.add(Pk, Pjp, Pip);
 
-//                final DenseMatrix64F Vip = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Vip = matrix3;
-            InversionResult cip = safeInvert(Pip, Vip, false);
+            final DenseMatrix64F Vip = workspace.matrix3;
+            InversionResult cip = safeInvert(Pip, Vip, false, workspace.solver);
 
             // C. Compute prePartial mean
-//                final double[] tmp = new double[dimTrait];
-            final double[] tmp = vector0;
+            final double[] pk = Pk.getData();
+            final double[] pjp = Pjp.getData();
+            final double[] vip = Vip.getData();
+
+            final double[] tmp = workspace.vector0;
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 double sum = 0.0;
                 for (int h = 0; h < dimTrait; ++h) {
-                    sum += Pk.unsafe_get(g, h) * prePartials[kbo + h]; // Read parent
-                    sum += Pjp.unsafe_get(g, h) * partials[jbo + h];   // Read sibling
+                    sum += pk[gOffset + h] * prePartials[kbo + h]; // Read parent
+                    sum += pjp[gOffset + h] * partials[jbo + h];   // Read sibling
                 }
                 tmp[g] = sum;
             }
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 double sum = 0.0;
                 for (int h = 0; h < dimTrait; ++h) {
-                    sum += Vip.unsafe_get(g, h) * tmp[h];
+                    sum += vip[gOffset + h] * tmp[h];
                 }
                 prePartials[ibo + g] = sum; // Write node
             }
@@ -183,9 +478,8 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             final DenseMatrix64F Vi = Vip;
             CommonOps.add(vi, Vd, Vip, Vi);
 
-//                final DenseMatrix64F Pi = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pi = matrix4;
-            InversionResult ci = safeInvert(Vi, Pi, false);
+            final DenseMatrix64F Pi = workspace.matrix4;
+            InversionResult ci = safeInvert(Vi, Pi, false, workspace.solver);
 
             // X. Store precision results for node
             unwrap(Pi, prePartials, ibo + dimTrait);
@@ -229,6 +523,8 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             startTime("total");
         }
 
+        final Workspace workspace = getWorkspace();
+
         // Determine buffer offsets
         int kbo = dimPartial * kBuffer;
         int ibo = dimPartial * iBuffer;
@@ -242,10 +538,8 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
         final double vi = branchLengths[imo];
         final double vj = branchLengths[jmo];
 
-        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
-
         if (DEBUG) {
-            System.err.println("variance diffusion: " + Vd);
+            System.err.println("variance diffusion: " + getDiffusionVariance());
             System.err.println("\tvi: " + vi + " vj: " + vj);
             System.err.println("precisionOffset = " + precisionOffset);
         }
@@ -269,11 +563,8 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             final double lpi = partials[ibo + dimTrait + 2 * dimTrait * dimTrait];
             final double lpj = partials[jbo + dimTrait + 2 * dimTrait * dimTrait];
 
-            final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
-
-            final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Vj = wrap(partials, jbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Vi = load(partials, ibo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix2);
+            final DenseMatrix64F Vj = load(partials, jbo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix3);
 
             if (TIMING) {
                 endTime("peel1");
@@ -286,29 +577,17 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             final double lpjp = Double.isInfinite(lpj) ?
                     1.0 / vj : lpj / (1.0 + lpj * vj);
 
-//                final DenseMatrix64F Vip = new DenseMatrix64F(dimTrait, dimTrait);
-//                final DenseMatrix64F Vjp = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Vip = matrix0;
-            final DenseMatrix64F Vjp = matrix1;
+            final DenseMatrix64F Vip = workspace.matrix0;
+            final DenseMatrix64F Vjp = workspace.matrix1;
 
-            CommonOps.add(Vi, vi, Vd, Vip);
-            CommonOps.add(Vj, vj, Vd, Vjp);
+            final DenseMatrix64F Pip = workspace.matrix2;
+            final DenseMatrix64F Pjp = workspace.matrix3;
 
-            if (TIMING) {
-                endTime("peel2");
-                startTime("peel2a");
-            }
-
-//                final DenseMatrix64F Pip = new DenseMatrix64F(dimTrait, dimTrait);
-//                final DenseMatrix64F Pjp = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pip = matrix2;
-            final DenseMatrix64F Pjp = matrix3;
-
-            InversionResult ci = safeInvert(Vip, Pip, true);
-            InversionResult cj = safeInvert(Vjp, Pjp, true);
+            InversionResult ci = increaseVariance(Vi, vi, Vip, Pip, workspace);
+            InversionResult cj = increaseVariance(Vj, vj, Vjp, Pjp, workspace);
 
             if (TIMING) {
-                endTime("peel2a");
+                endTime("peel2");
                 startTime("peel3");
             }
 
@@ -317,14 +596,12 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             // A. Partial precision and variance (for later use) using one matrix inversion
             final double lpk = lpip + lpjp;
 
-//                final DenseMatrix64F Pk = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pk = matrix4;
+            final DenseMatrix64F Pk = workspace.matrix4;
 
             CommonOps.add(Pip, Pjp, Pk);
 
-//                final DenseMatrix64F Vk = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Vk = matrix5;
-            InversionResult ck = safeInvert(Pk, Vk, true);
+            final DenseMatrix64F Vk = workspace.matrix5;
+            InversionResult ck = safeInvert(Pk, Vk, true, workspace.solver);
 
             // B. Partial mean
 //                for (int g = 0; g < dimTrait; ++g) {
@@ -336,20 +613,26 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
                 startTime("peel4");
             }
 
-//                final double[] tmp = new double[dimTrait];
-            final double[] tmp = vector0;
+            final double[] pip = Pip.getData();
+            final double[] pjp = Pjp.getData();
+            final double[] pk = Pk.getData();
+            final double[] vk = Vk.getData();
+
+            final double[] tmp = workspace.vector0;
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 double sum = 0.0;
                 for (int h = 0; h < dimTrait; ++h) {
-                    sum += Pip.unsafe_get(g, h) * partials[ibo + h];
-                    sum += Pjp.unsafe_get(g, h) * partials[jbo + h];
+                    sum += pip[gOffset + h] * partials[ibo + h];
+                    sum += pjp[gOffset + h] * partials[jbo + h];
                 }
                 tmp[g] = sum;
             }
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 double sum = 0.0;
                 for (int h = 0; h < dimTrait; ++h) {
-                    sum += Vk.unsafe_get(g, h) * tmp[h];
+                    sum += vk[gOffset + h] * tmp[h];
                 }
                 partials[kbo + g] = sum;
             }
@@ -371,8 +654,8 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
 
             if (DEBUG) {
                 System.err.println("\ttrait: " + trait);
-                System.err.println("Pi: " + Pi);
-                System.err.println("Pj: " + Pj);
+                System.err.println("Vi: " + Vi);
+                System.err.println("Vj: " + Vj);
                 System.err.println("Pk: " + Pk);
                 System.err.print("\t\tmean i:");
                 for (int e = 0; e < dimTrait; ++e) {
@@ -418,6 +701,7 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
 
                 // vector-matrix-vector TODO in parallel
                 for (int g = 0; g < dimTrait; ++g) {
+                    final int gOffset = g * dimTrait;
                     final double ig = partials[ibo + g];
                     final double jg = partials[jbo + g];
                     final double kg = partials[kbo + g];
@@ -427,23 +711,15 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
                         final double jh = partials[jbo + h];
                         final double kh = partials[kbo + h];
 
-                        SSi += ig * Pip.unsafe_get(g, h) * ih;
-                        SSj += jg * Pjp.unsafe_get(g, h) * jh;
-                        SSk += kg * Pk .unsafe_get(g, h) * kh;
+                        SSi += ig * pip[gOffset + h] * ih;
+                        SSj += jg * pjp[gOffset + h] * jh;
+                        SSk += kg * pk[gOffset + h] * kh;
                     }
                 }
 
-//                    final DenseMatrix64F Vt = new DenseMatrix64F(dimTrait, dimTrait);
-                final DenseMatrix64F Vt = matrix6;
-                CommonOps.add(Vip, Vjp, Vt);
-
-                if (DEBUG) {
-                    System.err.println("Vt: " + Vt);
-                }
-
                 int dimensionChange = ci.getEffectiveDimension() + cj.getEffectiveDimension()
                         - ck.getEffectiveDimension();
-                
+
                 remainder += -dimensionChange * LOG_SQRT_2_PI - 0.5 *
 //                            (Math.log(CommonOps.det(Vip)) + Math.log(CommonOps.det(Vjp)) - Math.log(CommonOps.det(Vk)))
                         (Math.log(ci.getDeterminant()) + Math.log(cj.getDeterminant()) + Math.log(ck.getDeterminant()))
@@ -465,42 +741,6 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
                     endTime("remain");
                 }
 
-                if (incrementOuterProducts) {
-
-                    assert (false);
-
-                    final DenseMatrix64F Pt = new DenseMatrix64F(dimTrait, dimTrait);
-                    InversionResult ct = safeInvert(Vt, Pt, false);
-
-                    int opo = dimTrait * dimTrait * trait;
-                    int opd = precisionOffset;
-
-                    for (int g = 0; g < dimTrait; ++g) {
-                        final double ig = partials[ibo + g];
-                        final double jg = partials[jbo + g];
-
-                        for (int h = 0; h < dimTrait; ++h) {
-                            final double ih = partials[ibo + h];
-                            final double jh = partials[jbo + h];
-
-                            outerProducts[opo] += (ig - jg) * (ih - jh)
-//                                        * Pt.unsafe_get(g, h)
-//                                        * Pk.unsafe_get(g, h)
-
-//                                        / diffusions[opd];
-                                    // * pip * pjp / (pip + pjp);
-                                    * lpip * lpjp / (lpip + lpjp);
-                            ++opo;
-                            ++opd;
-                        }
-                    }
-
-                    if (DEBUG) {
-                        System.err.println("Outer-products:" + wrap(outerProducts, dimTrait * dimTrait * trait, dimTrait, dimTrait));
-                    }
-
-                    degreesOfFreedom[trait] += 1; // incremenent degrees-of-freedom
-                }
             } // End if remainder
 
             // Accumulate remainder up tree and store
@@ -548,45 +788,47 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
             System.err.println("Prior buffer index is " + priorBufferIndex);
         }
 
+        final Workspace workspace = getWorkspace();
+
         int rootOffset = dimPartial * rootBufferIndex;
         int priorOffset = dimPartial * priorBufferIndex;
 
-        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
+        final DenseMatrix64F Vd = getDiffusionVariance();
 
         // TODO For each trait in parallel
         for (int trait = 0; trait < numTraits; ++trait) {
 
-            final DenseMatrix64F Proot = wrap(partials, rootOffset + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Pprior = wrap(partials, priorOffset + dimTrait, dimTrait, dimTrait);
-
-            final DenseMatrix64F Vroot = wrap(partials, rootOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Vprior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Vroot = load(partials, rootOffset + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix0);
+            final DenseMatrix64F Vprior = load(partials, priorOffset + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix1);
 
             // TODO Block below is for the conjugate prior ONLY
             {
-                final DenseMatrix64F Vtmp = new DenseMatrix64F(dimTrait, dimTrait);
+                final DenseMatrix64F Vtmp = workspace.matrix0;
                 CommonOps.mult(Vd, Vprior, Vtmp);
                 Vprior.set(Vtmp);
             }
 
-            final DenseMatrix64F Vtotal = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F Vtotal = workspace.matrix1;
             CommonOps.add(Vroot, Vprior, Vtotal);
 
-            final DenseMatrix64F Ptotal = new DenseMatrix64F(dimTrait, dimTrait);
-            CommonOps.invert(Vtotal, Ptotal);  // TODO Can return determinant at same time to avoid extra QR decomp
+            final DenseMatrix64F Ptotal = workspace.matrix2;
+            final double detVtotal = invertAndGetDeterminant(Vtotal, Ptotal, workspace.solver);
+
+            final double[] ptotal = Ptotal.getData();
 
             double SS = 0;
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 final double gDifference = partials[rootOffset + g] - partials[priorOffset + g];
 
                 for (int h = 0; h < dimTrait; ++h) {
                     final double hDifference = partials[rootOffset + h] - partials[priorOffset + h];
 
-                    SS += gDifference * Ptotal.unsafe_get(g, h) * hDifference;
+                    SS += gDifference * ptotal[gOffset + h] * hDifference;
                 }
             }
 
-            final double logLike = -dimTrait * LOG_SQRT_2_PI - 0.5 * Math.log(CommonOps.det(Vtotal)) - 0.5 * SS;
+            final double logLike = -dimTrait * LOG_SQRT_2_PI - 0.5 * Math.log(detVtotal) - 0.5 * SS;
 
             final double remainder = remainders[rootBufferIndex * numTraits + trait];
             logLikelihoods[trait] = logLike + remainder;
@@ -623,12 +865,9 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
                     System.err.print(" " + partials[rootOffset + g]);
                 }
                 System.err.println("");
-                System.err.println("P  root: " + Proot);
                 System.err.println("V  root: " + Vroot);
-                System.err.println("P prior: " + Pprior);
                 System.err.println("V prior: " + Vprior);
                 System.err.println("P total: " + Ptotal);
-                System.err.println("V total: " + Vtotal);
                 System.err.println("\t" + logLike + " " + (logLike + remainder));
                 if (incrementOuterProducts) {
                     System.err.println("Outer-products:" + wrap(outerProducts, dimTrait * dimTrait * trait, dimTrait, dimTrait));
@@ -645,4 +884,20 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
     }
 
     double[] inverseDiffusions;
+
+    // the diffusion precisions and their inverses and determinants, shared by all the branches
+    private DenseMatrix64F[] diffusionPrecisions;
+    private DenseMatrix64F[] diffusionVariances;
+    private double[] diffusionPrecisionDeterminants;
+
+    private final ExecutorService pool;
+    private final List<PeelingTask> peelingTasks;
+
+    // the last level at which each buffer was written and read while ordering the operations
+    private final int[] bufferWritten;
+    private final int[] bufferRead;
+
+    private int[] operationLevels;
+    private int[] operationOrder;
+    private int[] levelStarts;
 }
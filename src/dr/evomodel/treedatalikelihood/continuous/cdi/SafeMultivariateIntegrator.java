@@ -18,7 +18,12 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
     public SafeMultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int bufferCount,
                                       int diffusionCount) {
-        super(precisionType, numTraits, dimTrait, bufferCount, diffusionCount);
+        this(precisionType, numTraits, dimTrait, bufferCount, diffusionCount, 1);
+    }
+
+    public SafeMultivariateIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int bufferCount,
+                                      int diffusionCount, int threadCount) {
+        super(precisionType, numTraits, dimTrait, bufferCount, diffusionCount, threadCount);
 
 //        assert precisionType == PrecisionType.FULL;
 //
@@ -226,6 +231,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             startTime("total");
         }
 
+        final Workspace workspace = getWorkspace();
+
         // Determine buffer offsets
         int kbo = dimPartial * kBuffer;
         int ibo = dimPartial * iBuffer;
@@ -239,8 +246,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         final double vi = branchLengths[imo];
         final double vj = branchLengths[jmo];
 
-        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
-        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, dimTrait, dimTrait);
+        final DenseMatrix64F Vd = getDiffusionVariance();
+        final DenseMatrix64F Pd = getDiffusionPrecision();
 
         if (DEBUG) {
             System.err.println("variance diffusion: " + Vd);
@@ -267,8 +274,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             final double lpi = partials[ibo + dimTrait + 2 * dimTrait * dimTrait];
             final double lpj = partials[jbo + dimTrait + 2 * dimTrait * dimTrait];
 
-            final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Pi = load(partials, ibo + dimTrait, workspace.nodeMatrix0);
+            final DenseMatrix64F Pj = load(partials, jbo + dimTrait, workspace.nodeMatrix1);
 
             if (TIMING) {
                 endTime("peel1");
@@ -284,8 +291,8 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             InversionResult ci;
             InversionResult cj;
 
-            final DenseMatrix64F Pip = matrix2;
-            final DenseMatrix64F Pjp = matrix3;
+            final DenseMatrix64F Pip = workspace.matrix2;
+            final DenseMatrix64F Pjp = workspace.matrix3;
 
 //            boolean useVariance = anyDiagonalInfinities(Pi) || anyDiagonalInfinities(Pj);
             final boolean useVariancei = anyDiagonalInfinities(Pi);
@@ -293,17 +300,16 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
             if (useVariancei) {
 
-                final DenseMatrix64F Vip = matrix0;
-                final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
-                CommonOps.add(Vi, vi, Vd, Vip);
-                ci = safeInvert(Vip, Pip, true);
+                final DenseMatrix64F Vip = workspace.matrix0;
+                final DenseMatrix64F Vi = load(partials, ibo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix2);
+                ci = increaseVariance(Vi, vi, Vip, Pip, workspace);
 
             } else {
 
-                final DenseMatrix64F PiPlusPd = matrix0;
+                final DenseMatrix64F PiPlusPd = workspace.matrix0;
                 CommonOps.add(Pi, 1.0 / vi, Pd, PiPlusPd);
-                final DenseMatrix64F PiPlusPdInv = new DenseMatrix64F(dimTrait, dimTrait);
-                safeInvert(PiPlusPd, PiPlusPdInv, false);
+                final DenseMatrix64F PiPlusPdInv = workspace.matrix5;
+                safeInvert(PiPlusPd, PiPlusPdInv, false, workspace.solver);
                 CommonOps.mult(PiPlusPdInv, Pi, Pip);
                 CommonOps.mult(Pi, Pip, PiPlusPdInv);
                 CommonOps.add(Pi, -1, PiPlusPdInv, Pip);
@@ -312,17 +318,16 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
             if (useVariancej) {
 
-                final DenseMatrix64F Vjp = matrix1;
-                final DenseMatrix64F Vj = wrap(partials, jbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
-                CommonOps.add(Vj, vj, Vd, Vjp);
-                cj = safeInvert(Vjp, Pjp, true);
+                final DenseMatrix64F Vjp = workspace.matrix1;
+                final DenseMatrix64F Vj = load(partials, jbo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix3);
+                cj = increaseVariance(Vj, vj, Vjp, Pjp, workspace);
 
             } else {
 
-                final DenseMatrix64F PjPlusPd = matrix1;
+                final DenseMatrix64F PjPlusPd = workspace.matrix1;
                 CommonOps.add(Pj, 1.0 / vj, Pd, PjPlusPd);
-                final DenseMatrix64F PjPlusPdInv = new DenseMatrix64F(dimTrait, dimTrait);
-                safeInvert(PjPlusPd, PjPlusPdInv, false);
+                final DenseMatrix64F PjPlusPdInv = workspace.matrix6;
+                safeInvert(PjPlusPd, PjPlusPdInv, false, workspace.solver);
                 CommonOps.mult(PjPlusPdInv, Pj, Pjp);
                 CommonOps.mult(Pj, Pjp, PjPlusPdInv);
                 CommonOps.add(Pj, -1, PjPlusPdInv, Pjp);
@@ -386,7 +391,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             final double lpk = lpip + lpjp;
 
 //                final DenseMatrix64F Pk = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pk = matrix4;
+            final DenseMatrix64F Pk = workspace.matrix4;
             CommonOps.add(Pip, Pjp, Pk);
 
 //                final DenseMatrix64F Vk = new DenseMatrix64F(dimTrait, dimTrait);
@@ -409,15 +414,20 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                 startTime("peel4");
             }
 
-//                final double[] tmp = new double[dimTrait];
-            final double[] tmp = vector0;
+            final double[] pip = Pip.getData();
+            final double[] pjp = Pjp.getData();
+            final double[] pk = Pk.getData();
+
+            final DenseMatrix64F tmp = workspace.column0;
+            final double[] tmpData = tmp.getData();
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 double sum = 0.0;
                 for (int h = 0; h < dimTrait; ++h) {
-                    sum += Pip.unsafe_get(g, h) * partials[ibo + h];
-                    sum += Pjp.unsafe_get(g, h) * partials[jbo + h];
+                    sum += pip[gOffset + h] * partials[ibo + h];
+                    sum += pjp[gOffset + h] * partials[jbo + h];
                 }
-                tmp[g] = sum;
+                tmpData[g] = sum;
             }
 
 //            for (int g = 0; g < dimTrait; ++g) {
@@ -428,13 +438,9 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 //                partials[kbo + g] = sum;
 //            }
 
-            final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
-            final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
-
-//            System.err.println(kPartials);
-//            System.err.println(ck.getDeterminant());
-
-            InversionResult ck = safeSolve(Pk, wrapTmp, kPartials, true);
+            final DenseMatrix64F kMean = workspace.column1;
+            InversionResult ck = safeSolve(Pk, tmp, kMean, true);
+            System.arraycopy(kMean.getData(), 0, partials, kbo, dimTrait);
 
 //            System.err.println(kPartials);
 //            System.err.println(ck.getDeterminant());
@@ -509,6 +515,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
                 // vector-matrix-vector TODO in parallel
                 for (int g = 0; g < dimTrait; ++g) {
+                    final int gOffset = g * dimTrait;
                     final double ig = partials[ibo + g];
                     final double jg = partials[jbo + g];
                     final double kg = partials[kbo + g];
@@ -518,9 +525,9 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
                         final double jh = partials[jbo + h];
                         final double kh = partials[kbo + h];
 
-                        SSi += ig * Pip.unsafe_get(g, h) * ih;
-                        SSj += jg * Pjp.unsafe_get(g, h) * jh;
-                        SSk += kg * Pk .unsafe_get(g, h) * kh;
+                        SSi += ig * pip[gOffset + h] * ih;
+                        SSj += jg * pjp[gOffset + h] * jh;
+                        SSk += kg * pk[gOffset + h] * kh;
                     }
                 }
 
@@ -629,17 +636,19 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             System.err.println("Prior buffer index is " + priorBufferIndex);
         }
 
+        final Workspace workspace = getWorkspace();
+
         int rootOffset = dimPartial * rootBufferIndex;
         int priorOffset = dimPartial * priorBufferIndex;
 
-        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, dimTrait, dimTrait);
+        final DenseMatrix64F Pd = getDiffusionPrecision();
 //        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
 
         // TODO For each trait in parallel
         for (int trait = 0; trait < numTraits; ++trait) {
 
-            final DenseMatrix64F Proot = wrap(partials, rootOffset + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Pprior = wrap(partials, priorOffset + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Proot = load(partials, rootOffset + dimTrait, workspace.nodeMatrix0);
+            final DenseMatrix64F Pprior = load(partials, priorOffset + dimTrait, workspace.nodeMatrix1);
 
 //            final DenseMatrix64F Vroot = wrap(partials, rootOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
 //            final DenseMatrix64F Vprior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
@@ -650,33 +659,35 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 //                CommonOps.mult(Vd, Vprior, Vtmp);
 //                Vprior.set(Vtmp);
 
-                final DenseMatrix64F Ptmp = new DenseMatrix64F(dimTrait, dimTrait);
+                final DenseMatrix64F Ptmp = workspace.matrix0;
                 CommonOps.mult(Pd, Pprior, Ptmp);
                 Pprior.set(Ptmp); // TODO What does this do?
             }
 
-            final DenseMatrix64F Vtotal = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F Vtotal = workspace.matrix1;
 //            CommonOps.add(Vroot, Vprior, Vtotal);
 
-            final DenseMatrix64F Ptotal = new DenseMatrix64F(dimTrait, dimTrait);
-            CommonOps.invert(Vtotal, Ptotal);  // TODO Can return determinant at same time to avoid extra QR decomp
+            final DenseMatrix64F Ptotal = workspace.matrix2;
 
-            final DenseMatrix64F tmp1 = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F tmp2 = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F tmp1 = workspace.matrix3;
+            final DenseMatrix64F tmp2 = workspace.matrix4;
             CommonOps.add(Proot, Pprior, Ptotal);
-            CommonOps.invert(Ptotal, Vtotal);
+            invertAndGetDeterminant(Ptotal, Vtotal, workspace.solver);
             CommonOps.mult(Vtotal, Proot, tmp1);
             CommonOps.mult(Proot, tmp1, tmp2);
             CommonOps.add(Proot, -1.0, tmp2, Ptotal);
 
+            final double[] ptotal = Ptotal.getData();
+
             double SS = 0;
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 final double gDifference = partials[rootOffset + g] - partials[priorOffset + g];
 
                 for (int h = 0; h < dimTrait; ++h) {
                     final double hDifference = partials[rootOffset + h] - partials[priorOffset + h];
 
-                    SS += gDifference * Ptotal.unsafe_get(g, h) * hDifference;
+                    SS += gDifference * ptotal[gOffset + h] * hDifference;
                 }
             }
 
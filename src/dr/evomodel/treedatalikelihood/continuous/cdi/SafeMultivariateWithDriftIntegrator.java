@@ -18,7 +18,12 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
     public SafeMultivariateWithDriftIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int bufferCount,
                                                int diffusionCount) {
-        super(precisionType, numTraits, dimTrait, bufferCount, diffusionCount);
+        this(precisionType, numTraits, dimTrait, bufferCount, diffusionCount, 1);
+    }
+
+    public SafeMultivariateWithDriftIntegrator(PrecisionType precisionType, int numTraits, int dimTrait, int bufferCount,
+                                               int diffusionCount, int threadCount) {
+        super(precisionType, numTraits, dimTrait, bufferCount, diffusionCount, threadCount);
 
         allocateStorage();
 
@@ -45,36 +50,11 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
     private static final boolean TIMING = false;
 
-    private double[] vector1;
-    private double[] vector2;
-
     private void allocateStorage() {
 
         displacements = new double[dimTrait * bufferCount];
         precisions = new double[dimTrait * dimTrait * bufferCount];
         variances = new double[dimTrait * dimTrait * bufferCount];
-        vector1 = new double[dimTrait];
-        vector2 = new double[dimTrait];
-    }
-
-    @Override
-    public void setDiffusionPrecision(int precisionIndex, final double[] matrix, double logDeterminant) {
-        super.setDiffusionPrecision(precisionIndex, matrix, logDeterminant);
-
-        assert (diffusions != null);
-        assert (inverseDiffusions != null);
-
-        final int offset = dimTrait * dimTrait * precisionIndex;
-        DenseMatrix64F precision = wrap(diffusions, offset, dimTrait, dimTrait);
-        DenseMatrix64F variance = new DenseMatrix64F(dimTrait, dimTrait);
-        CommonOps.invert(precision, variance);
-        unwrap(variance, inverseDiffusions, offset);
-
-        if (DEBUG) {
-            System.err.println("At precision index: " + precisionIndex);
-            System.err.println("precision: " + precision);
-            System.err.println("variance : " + variance);
-        }
     }
 
     public void updateBrownianDiffusionMatrices(int precisionIndex, final int[] probabilityIndices,
@@ -184,6 +164,8 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
             startTime("total");
         }
 
+        final Workspace workspace = getWorkspace();
+
         // Determine buffer offsets
         int kbo = dimPartial * kBuffer;
         int ibo = dimPartial * iBuffer;
@@ -199,23 +181,14 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 //        final double vi = variances[imo];
 //        final double vj = variances[jmo];
 
-        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
-//        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, dimTrait, dimTrait);
-
-        final DenseMatrix64F Vdi = wrap(variances, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Vdj = wrap(variances, jmo, dimTrait, dimTrait);
-
-        final DenseMatrix64F Pdi = wrap(precisions, imo, dimTrait, dimTrait); // TODO Only if needed
-        final DenseMatrix64F Pdj = wrap(precisions, jmo, dimTrait, dimTrait); // TODO Only if needed
-
         // TODO End fix
 
         if (DEBUG) {
-            System.err.println("variance diffusion: " + Vd);
+            System.err.println("variance diffusion: " + getDiffusionVariance());
 //            System.err.println("\tvi: " + vi + " vj: " + vj);
             System.err.println("precisionOffset = " + precisionOffset);
-            System.err.println("\tVdi: " + Vdi);
-            System.err.println("\tVdj: " + Vdj);
+            System.err.println("\tVdi: " + wrap(variances, imo, dimTrait, dimTrait));
+            System.err.println("\tVdj: " + wrap(variances, jmo, dimTrait, dimTrait));
         }
 
         // For each trait // TODO in parallel
@@ -237,8 +210,8 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 //            final double lpi = partials[ibo + dimTrait + 2 * dimTrait * dimTrait];
 //            final double lpj = partials[jbo + dimTrait + 2 * dimTrait * dimTrait];
 
-            final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Pi = load(partials, ibo + dimTrait, workspace.nodeMatrix0);
+            final DenseMatrix64F Pj = load(partials, jbo + dimTrait, workspace.nodeMatrix1);
 
             if (TIMING) {
                 endTime("peel1");
@@ -254,8 +227,8 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
             InversionResult ci;
             InversionResult cj;
 
-            final DenseMatrix64F Pip = matrix2;
-            final DenseMatrix64F Pjp = matrix3;
+            final DenseMatrix64F Pip = workspace.matrix2;
+            final DenseMatrix64F Pjp = workspace.matrix3;
 
 //            boolean useVariance = anyDiagonalInfinities(Pi) || anyDiagonalInfinities(Pj);
             final boolean useVariancei = anyDiagonalInfinities(Pi);
@@ -263,19 +236,21 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
             if (useVariancei) {
 
-                final DenseMatrix64F Vip = matrix0;
-                final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+                final DenseMatrix64F Vip = workspace.matrix0;
+                final DenseMatrix64F Vi = load(partials, ibo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix2);
+                final DenseMatrix64F Vdi = load(variances, imo, workspace.matrix5);
 //                CommonOps.add(Vi, vi, Vd, Vip);  // TODO Fix
                 CommonOps.add(Vi, Vdi, Vip);
-                ci = safeInvert(Vip, Pip, true);
+                ci = safeInvert(Vip, Pip, true, workspace.solver);
 
             } else {
 
-                final DenseMatrix64F PiPlusPd = matrix0;
+                final DenseMatrix64F PiPlusPd = workspace.matrix0;
+                final DenseMatrix64F Pdi = load(precisions, imo, workspace.matrix5);
 //                CommonOps.add(Pi, 1.0 / vi, Pd, PiPlusPd); // TODO Fix
                 CommonOps.add(Pi, Pdi, PiPlusPd);
-                final DenseMatrix64F PiPlusPdInv = new DenseMatrix64F(dimTrait, dimTrait);
-                safeInvert(PiPlusPd, PiPlusPdInv, false);
+                final DenseMatrix64F PiPlusPdInv = workspace.matrix5;
+                safeInvert(PiPlusPd, PiPlusPdInv, false, workspace.solver);
                 CommonOps.mult(PiPlusPdInv, Pi, Pip);
                 CommonOps.mult(Pi, Pip, PiPlusPdInv);
                 CommonOps.add(Pi, -1, PiPlusPdInv, Pip);
@@ -284,19 +259,21 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
             if (useVariancej) {
 
-                final DenseMatrix64F Vjp = matrix1;
-                final DenseMatrix64F Vj = wrap(partials, jbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+                final DenseMatrix64F Vjp = workspace.matrix1;
+                final DenseMatrix64F Vj = load(partials, jbo + dimTrait + dimTrait * dimTrait, workspace.nodeMatrix3);
+                final DenseMatrix64F Vdj = load(variances, jmo, workspace.matrix6);
 //                CommonOps.add(Vj, vj, Vd, Vjp); // TODO Fix
                 CommonOps.add(Vj, Vdj, Vjp);
-                cj = safeInvert(Vjp, Pjp, true);
+                cj = safeInvert(Vjp, Pjp, true, workspace.solver);
 
             } else {
 
-                final DenseMatrix64F PjPlusPd = matrix1;
+                final DenseMatrix64F PjPlusPd = workspace.matrix1;
+                final DenseMatrix64F Pdj = load(precisions, jmo, workspace.matrix6);
 //                CommonOps.add(Pj, 1.0 / vj, Pd, PjPlusPd); // TODO Fix
                 CommonOps.add(Pj, Pdj, PjPlusPd);
-                final DenseMatrix64F PjPlusPdInv = new DenseMatrix64F(dimTrait, dimTrait);
-                safeInvert(PjPlusPd, PjPlusPdInv, false);
+                final DenseMatrix64F PjPlusPdInv = workspace.matrix6;
+                safeInvert(PjPlusPd, PjPlusPdInv, false, workspace.solver);
                 CommonOps.mult(PjPlusPdInv, Pj, Pjp);
                 CommonOps.mult(Pj, Pjp, PjPlusPdInv);
                 CommonOps.add(Pj, -1, PjPlusPdInv, Pjp);
@@ -314,7 +291,7 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 //            final double lpk = lpip + lpjp;
 
 //                final DenseMatrix64F Pk = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F Pk = matrix4;
+            final DenseMatrix64F Pk = workspace.matrix4;
             CommonOps.add(Pip, Pjp, Pk);
 
 //                final DenseMatrix64F Vk = new DenseMatrix64F(dimTrait, dimTrait);
@@ -337,8 +314,8 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
                 startTime("peel4");
             }
 
-            final double[] displacementi = vector1;
-            final double[] displacementj = vector2;
+            final double[] displacementi = workspace.vector1;
+            final double[] displacementj = workspace.vector2;
 
             final int ido = dimTrait * iMatrix;
             final int jdo = dimTrait * jMatrix;
@@ -349,14 +326,20 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
             }
 
 //                final double[] tmp = new double[dimTrait];
-            final double[] tmp = vector0;
+            final double[] pip = Pip.getData();
+            final double[] pjp = Pjp.getData();
+            final double[] pk = Pk.getData();
+
+            final DenseMatrix64F tmp = workspace.column0;
+            final double[] tmpData = tmp.getData();
             for (int g = 0; g < dimTrait; ++g) {
+                final int gOffset = g * dimTrait;
                 double sum = 0.0;
                 for (int h = 0; h < dimTrait; ++h) {
-                    sum += Pip.unsafe_get(g, h) * displacementi[h];
-                    sum += Pjp.unsafe_get(g, h) * displacementj[h];
+                    sum += pip[gOffset + h] * displacementi[h];
+                    sum += pjp[gOffset + h] * displacementj[h];
                 }
-                tmp[g] = sum;
+                tmpData[g] = sum;
             }
 
 //            for (int g = 0; g < dimTrait; ++g) {
@@ -367,13 +350,9 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 //                partials[kbo + g] = sum;
 //            }
 
-            final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
-            final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
-
-//            System.err.println(kPartials);
-//            System.err.println(ck.getDeterminant());
-
-            InversionResult ck = safeSolve(Pk, wrapTmp, kPartials, true);
+            final DenseMatrix64F kMean = workspace.column1;
+            InversionResult ck = safeSolve(Pk, tmp, kMean, true);
+            System.arraycopy(kMean.getData(), 0, partials, kbo, dimTrait);
 
 //            System.err.println(kPartials);
 //            System.err.println(ck.getDeterminant());
@@ -456,6 +435,7 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
 
                 // vector-matrix-vector TODO in parallel
                 for (int g = 0; g < dimTrait; ++g) {
+                    final int gOffset = g * dimTrait;
 //                    final double ig = partials[ibo + g];
 //                    final double jg = partials[jbo + g];
                     final double ig = displacementi[g];
@@ -469,9 +449,9 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
                         final double jh = displacementj[h];
                         final double kh = partials[kbo + h];
 
-                        SSi += ig * Pip.unsafe_get(g, h) * ih;
-                        SSj += jg * Pjp.unsafe_get(g, h) * jh;
-                        SSk += kg * Pk .unsafe_get(g, h) * kh;
+                        SSi += ig * pip[gOffset + h] * ih;
+                        SSj += jg * pjp[gOffset + h] * jh;
+                        SSk += kg * pk[gOffset + h] * kh;
                     }
                 }
 
@@ -9,10 +9,16 @@ import dr.evomodel.treedatalikelihood.continuous.ContinuousDataLikelihoodDelegat
 import dr.evomodel.treedatalikelihood.continuous.ContinuousRateTransformation;
 import dr.evomodel.treedatalikelihood.continuous.ContinuousTraitPartialsProvider;
 import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
 import dr.math.matrixAlgebra.WrappedVector;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
 
 import java.util.List;
 
+import static dr.math.matrixAlgebra.missingData.MissingOps.unwrap;
+import static dr.math.matrixAlgebra.missingData.MissingOps.wrap;
+
 /**
  * @author Marc A. Suchard
  */
@@ -148,6 +154,11 @@ public class TipFullConditionalDistributionDelegate extends ProcessSimulationDel
 
         // Copy from prior to root pre-order buffer
         cdi.getPostOrderPartial(rootProcessDelegate.getPriorBufferIndex(), partialRootBuffer); // No double-buffering
+
+        if (likelihoodDelegate.getPrecisionType() == PrecisionType.FULL) {
+            scaleByDiffusion(partialRootBuffer);
+        }
+
         cdi.setPreOrderPartial(likelihoodDelegate.getActiveNodeIndex(rootIndex), partialRootBuffer); // With double-buffering
 
         if (DEBUG) {
@@ -156,6 +167,53 @@ public class TipFullConditionalDistributionDelegate extends ProcessSimulationDel
         }
     }
 
+    @Override
+    public void simulate(final int[] operations, final int operationCount,
+                         final int rootNodeNumber) {
+
+        setupStatistics();
+
+        simulateRoot(rootNodeNumber);
+
+        // Hand the whole pre-order traversal to the integrator, which may update independent nodes in parallel
+        cdi.updatePreOrderPartials(operations, operationCount);
+
+        if (DEBUG) {
+            System.err.println("END OF PRE-ORDER");
+        }
+    }
+
+    /**
+     * The root likelihood scales the variance of the conjugate root prior by the diffusion variance, so the
+     * pre-order partial of the root must be scaled the same way.
+     */
+    private void scaleByDiffusion(final double[] partial) {
+
+        final DenseMatrix64F Pd = new DenseMatrix64F(diffusionModel.getPrecisionmatrix());
+        final DenseMatrix64F Vd = new DenseMatrix64F(dimTrait, dimTrait);
+        CommonOps.invert(Pd, Vd);
+
+        final DenseMatrix64F tmp = new DenseMatrix64F(dimTrait, dimTrait);
+
+        int offset = 0;
+        for (int trait = 0; trait < numTraits; ++trait) {
+
+            final int precisionOffset = offset + dimTrait;
+            final int varianceOffset = precisionOffset + dimTrait * dimTrait;
+
+            if (!Double.isInfinite(partial[precisionOffset])) { // A fixed root is not scaled
+
+                CommonOps.mult(Pd, wrap(partial, precisionOffset, dimTrait, dimTrait), tmp);
+                unwrap(tmp, partial, precisionOffset);
+
+                CommonOps.mult(Vd, wrap(partial, varianceOffset, dimTrait, dimTrait), tmp);
+                unwrap(tmp, partial, varianceOffset);
+            }
+
+            offset += dimPartial;
+        }
+    }
+
 //    @Override
 //    protected void simulateNode(BranchNodeOperation operation, double branchNormalization) {
 //        throw new RuntimeException("Not implemented");
@@ -2,6 +2,8 @@ package dr.evomodel.treedatalikelihood.preorder;
 
 import dr.evolution.tree.MutableTreeModel;
 import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeTrait;
 import dr.evomodel.continuous.MultivariateDiffusionModel;
 import dr.evomodel.treedatalikelihood.continuous.ConjugateRootTraitPrior;
 import dr.evomodel.treedatalikelihood.continuous.ContinuousDataLikelihoodDelegate;
@@ -9,6 +11,8 @@ import dr.evomodel.treedatalikelihood.continuous.ContinuousRateTransformation;
 import dr.evomodel.treedatalikelihood.continuous.ContinuousTraitDataModel;
 import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
 import dr.inference.model.MatrixParameterInterface;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
 
 /**
  * @author Marc A. Suchard
@@ -23,50 +27,202 @@ public class TipGradientViaFullConditionalDelegate extends TipFullConditionalDis
                                                  ContinuousDataLikelihoodDelegate likelihoodDelegate) {
         
         super(name, tree, diffusionModel, dataModel, rootPrior, rateTransformation, likelihoodDelegate);
+
+        this.preOrderBuffer = new double[dimPartial * numTraits];
+        this.diffusionPrecision = new double[dimTrait * dimTrait];
+        this.observed = new int[dimTrait];
     }
 
     public static String getName(String name) {
         return "grad." + name;
     }
 
+    public static String getTipGradientName(String name) {
+        return "tip." + getName(name);
+    }
+
     public String getTraitName(String name) {
         return getName(name);
     }
 
+    @Override
+    protected void constructTraits(Helper treeTraitHelper) {
+
+        super.constructTraits(treeTraitHelper);
+
+        TreeTrait.DA tipGradient = new TreeTrait.DA() {
+
+            public String getTraitName() {
+                return getTipGradientName(name);
+            }
+
+            public Intent getIntent() {
+                return Intent.WHOLE_TREE;
+            }
+
+            public double[] getTrait(Tree t, NodeRef node) {
+
+                assert t == tree;
+                return getGradientForAllTips();
+            }
+        };
+
+        treeTraitHelper.addTrait(tipGradient);
+    }
+
     @Override
     protected double[] getTraitForNode(NodeRef node) {
 
-        if (likelihoodDelegate.getPrecisionType() != PrecisionType.SCALAR) {
+        assert simulationProcess != null;
+        assert node != null;
+
+        simulationProcess.cacheSimulatedTraits(node);
+
+        final double[] gradient = new double[dimNode];
+        computeGradient(node.getNumber(), gradient, 0);
+
+        return gradient;
+    }
+
+    /**
+     * Gradients for all tips in taxon order, from a single post-order and pre-order traversal
+     */
+    private double[] getGradientForAllTips() {
+
+        assert simulationProcess != null;
+
+        simulationProcess.cacheSimulatedTraits(null);
+
+        final int tipCount = tree.getExternalNodeCount();
+        final double[] gradient = new double[dimNode * tipCount];
+
+        for (int taxon = 0; taxon < tipCount; ++taxon) {
+            computeGradient(tree.getExternalNode(taxon).getNumber(), gradient, taxon * dimNode);
+        }
+
+        return gradient;
+    }
+
+    /**
+     * The gradient of the log density with respect to the value at a tip is P (m - y), where m and P are
+     * the mean and precision of its full conditional distribution and y is its post-order (observed) mean.
+     */
+    private void computeGradient(final int nodeNumber, final double[] gradient, int gradientOffset) {
+
+        final PrecisionType precisionType = likelihoodDelegate.getPrecisionType();
+
+        if (precisionType != PrecisionType.SCALAR && precisionType != PrecisionType.FULL) {
             throw new RuntimeException("Tip gradients are not implemented for '" +
-                    likelihoodDelegate.getPrecisionType().toString() + "' likelihoods");
+                    precisionType.toString() + "' likelihoods");
         }
 
-        final double[] fullConditionalPartial = super.getTraitForNode(node);
+        final int nodeBuffer = likelihoodDelegate.getActiveNodeIndex(nodeNumber);
+        cdi.getPreOrderPartial(nodeBuffer, preOrderBuffer);
+        cdi.getPostOrderPartial(nodeBuffer, partialNodeBuffer);
 
-        final double[] postOrderPartial = new double[dimPartial * numTraits];
-        cdi.getPostOrderPartial(likelihoodDelegate.getActiveNodeIndex(node.getNumber()), postOrderPartial);
+        if (precisionType == PrecisionType.SCALAR) {
+            final MatrixParameterInterface precision = diffusionModel.getPrecisionParameter();
+            for (int i = 0; i < dimTrait * dimTrait; ++i) {
+                diffusionPrecision[i] = precision.getParameterValue(i);
+            }
+        }
+
+        int partialOffset = 0;
+        for (int trait = 0; trait < numTraits; ++trait) {
+
+            if (precisionType == PrecisionType.SCALAR) {
+
+                final double scale = preOrderBuffer[partialOffset + dimTrait];
+
+                for (int i = 0; i < dimTrait; ++i) {
+
+                    double sum = 0.0;
+                    for (int j = 0; j < dimTrait; ++j) {
+                        sum += (preOrderBuffer[partialOffset + j] - partialNodeBuffer[partialOffset + j]) * scale *
+                                diffusionPrecision[i * dimTrait + j];
+                    }
+
+                    gradient[gradientOffset + i] = sum;
+                }
 
-        final MatrixParameterInterface precision = diffusionModel.getPrecisionParameter();
+            } else if (isFullyObserved(partialOffset)) {
 
-        final double[] gradient = new double[dimTrait * numTraits];
+                final int precisionOffset = partialOffset + dimTrait;
+
+                for (int i = 0; i < dimTrait; ++i) {
+
+                    double sum = 0.0;
+                    for (int j = 0; j < dimTrait; ++j) {
+                        sum += preOrderBuffer[precisionOffset + i * dimTrait + j] *
+                                (preOrderBuffer[partialOffset + j] - partialNodeBuffer[partialOffset + j]);
+                    }
+
+                    gradient[gradientOffset + i] = sum;
+                }
+
+            } else {
+                computeGradientWithMissing(partialOffset, gradient, gradientOffset);
+            }
+
+            partialOffset += dimPartial;
+            gradientOffset += dimTrait;
+        }
+    }
 
-        if (numTraits > 1) {
-            throw new RuntimeException("Not yet implemented");
+    private boolean isFullyObserved(final int partialOffset) {
+        for (int i = 0; i < dimTrait; ++i) {
+            if (!Double.isInfinite(partialNodeBuffer[partialOffset + dimTrait + i * dimTrait + i])) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    /**
+     * Only the observed values enter the likelihood, with a gradient of (V_oo)^{-1} (m_o - y_o); the
+     * gradient with respect to a missing value is zero.
+     */
+    private void computeGradientWithMissing(final int partialOffset, final double[] gradient,
+                                            final int gradientOffset) {
 
-        final double scale = fullConditionalPartial[dimTrait];
+        final int varianceOffset = partialOffset + dimTrait + dimTrait * dimTrait;
 
+        int observedCount = 0;
         for (int i = 0; i < dimTrait; ++i) {
+            if (Double.isInfinite(partialNodeBuffer[partialOffset + dimTrait + i * dimTrait + i])) {
+                observed[observedCount] = i;
+                ++observedCount;
+            }
+            gradient[gradientOffset + i] = 0.0;
+        }
+
+        if (observedCount == 0) {
+            return;
+        }
+
+        final DenseMatrix64F variance = new DenseMatrix64F(observedCount, observedCount);
+        for (int i = 0; i < observedCount; ++i) {
+            for (int j = 0; j < observedCount; ++j) {
+                variance.unsafe_set(i, j, preOrderBuffer[varianceOffset + observed[i] * dimTrait + observed[j]]);
+            }
+        }
+
+        final DenseMatrix64F precision = new DenseMatrix64F(observedCount, observedCount);
+        CommonOps.invert(variance, precision);
+
+        for (int i = 0; i < observedCount; ++i) {
 
             double sum = 0.0;
-            for (int j = 0; j < dimTrait; ++j) {
-                sum += (fullConditionalPartial[j] - postOrderPartial[j]) * scale *
-                        precision.getParameterValue(i * dimTrait + j);
+            for (int j = 0; j < observedCount; ++j) {
+                sum += precision.unsafe_get(i, j) *
+                        (preOrderBuffer[partialOffset + observed[j]] - partialNodeBuffer[partialOffset + observed[j]]);
             }
 
-            gradient[i] = sum;
+            gradient[gradientOffset + observed[i]] = sum;
         }
-
-        return gradient;
     }
+
+    private final double[] preOrderBuffer;
+    private final double[] diffusionPrecision;
+    private final int[] observed;
 }
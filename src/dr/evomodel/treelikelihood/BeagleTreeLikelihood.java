@@ -57,6 +57,7 @@ import dr.evomodel.branchratemodel.DefaultBranchRateModel;
 import dr.evomodel.branchratemodel.StrictClockBranchRates;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.evomodel.tree.TreeModel;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.ThreadAwareLikelihood;
@@ -108,7 +109,10 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
     // Which scheme to use if choice not specified (or 'default' is selected):
     private static final PartialsRescalingScheme DEFAULT_RESCALING_SCHEME = PartialsRescalingScheme.DYNAMIC;
 
-    private static int instanceCount = 0;
+    // the instances created so far in this analysis, used to hand out the resources in turn
+    private static int getInstanceCount() {
+        return AnalysisContext.getCurrent().getInstanceCount(BeagleTreeLikelihood.class);
+    }
     private static List<Integer> resourceOrder = null;
     private static List<Integer> preferredOrder = null;
     private static List<Integer> requiredOrder = null;
@@ -211,7 +215,7 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 
             int extraBufferCount = -1; // default
             if (extraBufferOrder.size() > 0) {
-                extraBufferCount = extraBufferOrder.get(instanceCount % extraBufferOrder.size());
+                extraBufferCount = extraBufferOrder.get(getInstanceCount() % extraBufferOrder.size());
             }
             substitutionModelDelegate = new SubstitutionModelDelegate(treeModel, branchModel, extraBufferCount);
 
@@ -225,23 +229,23 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
 
             if (scalingOrder.size() > 0) {
                 this.rescalingScheme = PartialsRescalingScheme.parseFromString(
-                        scalingOrder.get(instanceCount % scalingOrder.size()));
+                        scalingOrder.get(getInstanceCount() % scalingOrder.size()));
             }
 
             if (resourceOrder.size() > 0) {
                 // added the zero on the end so that a CPU is selected if requested resource fails
-                resourceList = new int[]{resourceOrder.get(instanceCount % resourceOrder.size()), 0};
+                resourceList = new int[]{resourceOrder.get(getInstanceCount() % resourceOrder.size()), 0};
                 if (resourceList[0] > 0) {
                     preferenceFlags |= BeagleFlag.PROCESSOR_GPU.getMask(); // Add preference weight against CPU
                 }
             }
 
             if (preferredOrder.size() > 0) {
-                preferenceFlags = preferredOrder.get(instanceCount % preferredOrder.size());
+                preferenceFlags = preferredOrder.get(getInstanceCount() % preferredOrder.size());
             }
 
             if (requiredOrder.size() > 0) {
-                requirementFlags = requiredOrder.get(instanceCount % requiredOrder.size());
+                requirementFlags = requiredOrder.get(getInstanceCount() % requiredOrder.size());
             }
 
             // Define default behaviour here
@@ -397,7 +401,7 @@ public class BeagleTreeLikelihood extends AbstractSinglePartitionTreeLikelihood
             }
             // end auto resource selection
 
-            instanceCount++;
+            AnalysisContext.getCurrent().incrementInstanceCount(BeagleTreeLikelihood.class);
 
             beagle = BeagleFactory.loadBeagleInstance(
                     tipCount,
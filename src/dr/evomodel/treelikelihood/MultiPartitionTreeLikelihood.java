@@ -43,6 +43,7 @@ import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.branchratemodel.DefaultBranchRateModel;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.ThreadAwareLikelihood;
@@ -77,7 +78,10 @@ public class MultiPartitionTreeLikelihood extends AbstractTreeLikelihood impleme
     // Which scheme to use if choice not specified (or 'default' is selected):
     private static final PartialsRescalingScheme DEFAULT_RESCALING_SCHEME = PartialsRescalingScheme.DYNAMIC;
 
-    private static int instanceCount = 0;
+    // the instances created so far in this analysis, used to hand out the resources in turn
+    private static int getInstanceCount() {
+        return AnalysisContext.getCurrent().getInstanceCount(MultiPartitionTreeLikelihood.class);
+    }
     private static List<Integer> resourceOrder = null;
     private static List<Integer> preferredOrder = null;
     private static List<Integer> requiredOrder = null;
@@ -189,7 +193,7 @@ public class MultiPartitionTreeLikelihood extends AbstractTreeLikelihood impleme
 
             int extraBufferCount = -1; // default
             if (extraBufferOrder.size() > 0) {
-                extraBufferCount = extraBufferOrder.get(instanceCount % extraBufferOrder.size());
+                extraBufferCount = extraBufferOrder.get(getInstanceCount() % extraBufferOrder.size());
             }
 
             substitutionModelDelegates = new SubstitutionModelDelegate[partitionCount];
@@ -205,23 +209,23 @@ public class MultiPartitionTreeLikelihood extends AbstractTreeLikelihood impleme
 
             if (scalingOrder.size() > 0) {
                 this.rescalingScheme = PartialsRescalingScheme.parseFromString(
-                        scalingOrder.get(instanceCount % scalingOrder.size()));
+                        scalingOrder.get(getInstanceCount() % scalingOrder.size()));
             }
 
             if (resourceOrder.size() > 0) {
                 // added the zero on the end so that a CPU is selected if requested resource fails
-                resourceList = new int[]{resourceOrder.get(instanceCount % resourceOrder.size()), 0};
+                resourceList = new int[]{resourceOrder.get(getInstanceCount() % resourceOrder.size()), 0};
                 if (resourceList[0] > 0) {
                     preferenceFlags |= BeagleFlag.PROCESSOR_GPU.getMask(); // Add preference weight against CPU
                 }
             }
 
             if (preferredOrder.size() > 0) {
-                preferenceFlags = preferredOrder.get(instanceCount % preferredOrder.size());
+                preferenceFlags = preferredOrder.get(getInstanceCount() % preferredOrder.size());
             }
 
             if (requiredOrder.size() > 0) {
-                requirementFlags = requiredOrder.get(instanceCount % requiredOrder.size());
+                requirementFlags = requiredOrder.get(getInstanceCount() % requiredOrder.size());
             }
 
             // Define default behaviour here
@@ -317,7 +321,7 @@ public class MultiPartitionTreeLikelihood extends AbstractTreeLikelihood impleme
                 preferenceFlags &= ~BeagleFlag.VECTOR_SSE.getMask();
             }
 
-            instanceCount++;
+            AnalysisContext.getCurrent().incrementInstanceCount(MultiPartitionTreeLikelihood.class);
 
             beagle = BeagleFactory.loadBeagleInstance(
                     tipCount,
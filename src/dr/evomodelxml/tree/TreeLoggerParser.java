@@ -354,6 +354,7 @@ public class TreeLoggerParser extends LoggerParser {
         if (title != null) {
             logger.setTitle(title);
         }
+        logger.setAppending(xo.hasAttribute(FILE_NAME) && isAppendingLogs());
 
         return logger;
     }
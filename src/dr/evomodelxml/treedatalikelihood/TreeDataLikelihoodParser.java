@@ -35,10 +35,12 @@ import dr.evomodel.siteratemodel.GammaSiteRateModel;
 import dr.evomodel.siteratemodel.SiteRateModel;
 import dr.evomodel.substmodel.FrequencyModel;
 import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.TransitionProbabilityEngine;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.MultiPartitionDataLikelihoodDelegate;
 import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
 import dr.evomodel.treelikelihood.PartialsRescalingScheme;
@@ -66,6 +68,7 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
     public static final String INSTANCE_COUNT = "instanceCount";
     public static final String SCALING_SCHEME = "scalingScheme";
     public static final String DELAY_SCALING = "delayScaling";
+    public static final String TRANSITION_MATRICES = "transitionMatrices";
 
     public static final String PARTITION = "partition";
 
@@ -81,7 +84,8 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                                                   TipStatesModel tipStatesModel,
                                                   boolean useAmbiguities,
                                                   PartialsRescalingScheme scalingScheme,
-                                                  boolean delayRescalingUntilUnderflow) throws XMLParseException {
+                                                  boolean delayRescalingUntilUnderflow,
+                                                  List<TransitionProbabilityEngine.Type> transitionProbabilityTypes) throws XMLParseException {
 
         if (tipStatesModel != null) {
             throw new XMLParseException("Tip State Error models are not supported yet with TreeDataLikelihood");
@@ -100,7 +104,15 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
         boolean useBeagle3MultiPartition = false;
 
-        if (patternLists.size() > 1) {
+        // the multipartition delegate only uses the eigen decompositions
+        boolean useEigenOnly = true;
+        for (TransitionProbabilityEngine.Type type : transitionProbabilityTypes) {
+            if (type != TransitionProbabilityEngine.Type.EIGEN) {
+                useEigenOnly = false;
+            }
+        }
+
+        if (patternLists.size() > 1 && useEigenOnly) {
             // will currently recommend true if using GPU, CUDA or OpenCL.
             useBeagle3MultiPartition = MultiPartitionDataLikelihoodDelegate.IS_MULTI_PARTITION_RECOMMENDED();
     
@@ -166,16 +178,48 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
             System.setProperty(BEAGLE_THREAD_COUNT, Integer.toString(threadCount / patternLists.size()));
         }
 
+        // without a native BEAGLE library, BEAGLE would fall back to its own (slow) Java implementation
+        boolean useJavaDelegate = useJava || !JavaDataLikelihoodDelegate.IS_NATIVE_BEAGLE_AVAILABLE();
+
+        // the Java delegate splits each partition's patterns into blocks over this many threads
+        int javaThreadCount = 1;
+        if (beagleThreadCount > 0) {
+            javaThreadCount = beagleThreadCount;
+        } else if (threadCount > 0) {
+            javaThreadCount = Math.max(1, threadCount / patternLists.size());
+        }
+
         for (int i = 0; i < patternLists.size(); i++) {
 
-            DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
-                    treeModel,
-                    patternLists.get(i),
-                    branchModels.get(i),
-                    siteRateModels.get(i),
-                    useAmbiguities,
-                    scalingScheme,
-                    delayRescalingUntilUnderflow);
+            DataLikelihoodDelegate dataLikelihoodDelegate = null;
+
+            if (useJavaDelegate) {
+                try {
+                    dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                            treeModel,
+                            patternLists.get(i),
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            scalingScheme,
+                            javaThreadCount,
+                            transitionProbabilityTypes.get(i));
+                } catch (DataLikelihoodDelegate.DelegateTypeException dte) {
+                    // branch model not supported by the Java delegate so use BEAGLE
+                }
+            }
+
+            if (dataLikelihoodDelegate == null) {
+                dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+                        treeModel,
+                        patternLists.get(i),
+                        branchModels.get(i),
+                        siteRateModels.get(i),
+                        useAmbiguities,
+                        scalingScheme,
+                        delayRescalingUntilUnderflow,
+                        transitionProbabilityTypes.get(i));
+            }
 
             treeDataLikelihoods.add(
                     new TreeDataLikelihood(
@@ -211,6 +255,7 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
         List<PatternList> patternLists = new ArrayList<PatternList>();
         List<SiteRateModel> siteRateModels = new ArrayList<SiteRateModel>();
         List<BranchModel> branchModels = new ArrayList<BranchModel>();
+        List<TransitionProbabilityEngine.Type> transitionProbabilityTypes = new ArrayList<TransitionProbabilityEngine.Type>();
 
         boolean hasSinglePartition = false;
 
@@ -236,6 +281,7 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                 branchModel = new HomogeneousBranchModel(substitutionModel, rootFreqModel);
             }
             branchModels.add(branchModel);
+            transitionProbabilityTypes.add(parseTransitionProbabilityType(xo, xo, branchModel));
         }
 
         int k = 0;
@@ -267,6 +313,7 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                     branchModel = new HomogeneousBranchModel(substitutionModel, rootFreqModel);
                 }
                 branchModels.add(branchModel);
+                transitionProbabilityTypes.add(parseTransitionProbabilityType(xo, cxo, branchModel));
 
                 BranchRateModel branchRateModel = (BranchRateModel) cxo.getChild(BranchRateModel.class);
                 if (branchRateModel != null) {
@@ -315,7 +362,30 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                 null,
                 useAmbiguities,
                 scalingScheme,
-                delayScaling);
+                delayScaling,
+                transitionProbabilityTypes);
+    }
+
+    /**
+     * @return how the transition matrices of a partition are calculated (from the attribute of
+     * the partition element or, if it has none, of the treeDataLikelihood)
+     */
+    private TransitionProbabilityEngine.Type parseTransitionProbabilityType(XMLObject xo, XMLObject cxo, BranchModel branchModel) throws XMLParseException {
+        TransitionProbabilityEngine.Type type = TransitionProbabilityEngine.Type.EIGEN;
+        XMLObject source = cxo.hasAttribute(TRANSITION_MATRICES) ? cxo : xo;
+        if (source.hasAttribute(TRANSITION_MATRICES)) {
+            type = TransitionProbabilityEngine.Type.parseFromString(source.getStringAttribute(TRANSITION_MATRICES));
+            if (type == null) {
+                throw new XMLParseException("Unknown way of calculating transition matrices '" + source.getStringAttribute(TRANSITION_MATRICES) +
+                        "' in TreeDataLikelihood object '" + xo.getId() + "' (should be 'eigen', 'closedForm' or 'pade')");
+            }
+            try {
+                type.createEngine(branchModel.getRootSubstitutionModel());
+            } catch (IllegalArgumentException iae) {
+                throw new XMLParseException(iae.getMessage() + " in TreeDataLikelihood object '" + xo.getId() + "'");
+            }
+        }
+        return type;
     }
 
     //************************************************************************
@@ -333,6 +403,7 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
     public static final XMLSyntaxRule[] rules = {
             AttributeRule.newBooleanRule(USE_AMBIGUITIES, true),
             AttributeRule.newStringRule(SCALING_SCHEME,true),
+            AttributeRule.newStringRule(TRANSITION_MATRICES, true),
 
             // really it should be this set of elements or the PARTITION elements
             new OrRule(new AndRule(new XMLSyntaxRule[]{
@@ -342,6 +413,7 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
                     new ElementRule(BranchModel.class, true)})
                     ,
                     new ElementRule(PARTITION, new XMLSyntaxRule[] {
+                            AttributeRule.newStringRule(TRANSITION_MATRICES, true),
                             new ElementRule(PatternList.class),
                             new ElementRule(SiteRateModel.class),
                             new ElementRule(FrequencyModel.class, true),
@@ -0,0 +1,122 @@
+/*
+ * AsynchronousLogWriter.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A single background thread that runs the formatting and writing for all the loggers in the order
+ * it was requested. The queue is bounded so if the writing falls behind the chain waits for it
+ * rather than holding an unlimited number of log lines in memory. All the loggers share the one
+ * thread so lines from loggers that swap formatters (as in MCMCMC) still arrive in order.
+ */
+public class AsynchronousLogWriter {
+
+    public static final int QUEUE_CAPACITY = 1024;
+
+    private static AsynchronousLogWriter instance = null;
+
+    public static synchronized AsynchronousLogWriter getInstance() {
+        if (instance == null) {
+            instance = new AsynchronousLogWriter();
+        }
+        return instance;
+    }
+
+    private AsynchronousLogWriter() {
+        thread = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    Runnable task;
+                    try {
+                        task = queue.take();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        // keep going so that anyone waiting for a flush is released
+                        if (failure == null) {
+                            failure = t;
+                        }
+                    }
+                }
+            }
+        }, "log writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a task to run on the writer thread, waiting for space if the queue is full.
+     */
+    public void submit(Runnable task) {
+        checkFailure();
+        if (Thread.currentThread() == thread) {
+            // already on the writer thread so don't wait for ourselves
+            task.run();
+            return;
+        }
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to write the log");
+        }
+    }
+
+    /**
+     * Waits until every task queued before this call has run.
+     */
+    public void flush() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        submit(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the log to be written");
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Error writing log: " + failure.getMessage(), failure);
+        }
+    }
+
+    private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile Throwable failure = null;
+}
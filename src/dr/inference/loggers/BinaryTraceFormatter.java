@@ -0,0 +1,269 @@
+/*
+ * BinaryTraceFormatter.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import dr.inference.trace.NumberUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class that writes a log as a columnar binary trace file which can be read by
+ * {@link dr.inference.trace.BinaryTraceList}. The rows are collected into chunks and each chunk
+ * is written as the state numbers followed by one block per column so a reader can pick out
+ * single columns without reading the rest. Numeric columns are stored as doubles and any other
+ * column as integer codes into a table of labels. The file is only ever appended to so a file
+ * for a run that is still going (or that was killed) can be read up to its last complete chunk.
+ *
+ * File layout (big-endian as written by DataOutputStream):
+ * <pre>
+ * header:  MAGIC, VERSION, heading count, headings (UTF), column count, labels (UTF)
+ * chunk:   CHUNK_MAGIC, byte length of the rest of the chunk, row count,
+ *          states (long[row count]), byte length of each column block (int[column count]),
+ *          column blocks
+ * column:  type, then either values (double[row count]) for REAL and INTEGER columns,
+ *          or the number of new labels, the new labels (UTF) and codes (int[row count])
+ *          for CATEGORICAL columns
+ * </pre>
+ * A column has the INTEGER type in a chunk if all the values in that chunk were written
+ * without a decimal point.
+ */
+public class BinaryTraceFormatter implements LogFormatter {
+
+    public static final int MAGIC = 0x42545246; // "BTRF"
+    public static final int VERSION = 1;
+    public static final int CHUNK_MAGIC = 0x43484e4b; // "CHNK"
+
+    public static final byte REAL = 0;
+    public static final byte INTEGER = 1;
+    public static final byte CATEGORICAL = 2;
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    public BinaryTraceFormatter(OutputStream stream) {
+        this(stream, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BinaryTraceFormatter(OutputStream stream, int chunkSize) {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.chunkSize = chunkSize;
+    }
+
+    public void startLogging(String title) {
+        // DO NOTHING
+    }
+
+    public void logHeading(String heading) {
+        if (heading != null && columnCount < 0) {
+            for (String line : heading.split("[\r\n]")) {
+                headings.add(line);
+            }
+        }
+    }
+
+    public void logLine(String line) {
+        // free text lines have no place in the columns
+    }
+
+    public void logLabels(String[] labels) {
+        if (columnCount >= 0) {
+            throw new IllegalArgumentException("The column labels have already been written");
+        }
+
+        // the first label is for the state
+        columnCount = labels.length - 1;
+
+        states = new long[chunkSize];
+        values = new double[columnCount][chunkSize];
+        codes = new int[columnCount][];
+        isInteger = new boolean[columnCount];
+        categories = new ArrayList<Map<String, Integer>>();
+        newLabels = new ArrayList<List<String>>();
+        for (int i = 0; i < columnCount; i++) {
+            categories.add(null);
+            newLabels.add(null);
+        }
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(headings.size());
+            for (String heading : headings) {
+                out.writeUTF(heading);
+            }
+            out.writeInt(columnCount);
+            for (int i = 1; i < labels.length; i++) {
+                out.writeUTF(labels[i]);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write binary trace file: " + e.getMessage(), e);
+        }
+    }
+
+    public void logValues(String[] values) {
+        if (columnCount < 0) {
+            throw new IllegalArgumentException("The column labels must be written before any values");
+        }
+
+        if (rowCount == 0) {
+            for (int i = 0; i < columnCount; i++) {
+                isInteger[i] = true;
+            }
+        }
+
+        states[rowCount] = (long) Double.parseDouble(values[0]);
+
+        // any values past the labelled columns (such as the performance report) are ignored
+        for (int i = 0; i < columnCount; i++) {
+            String value = values[i + 1];
+            if (codes[i] == null && NumberUtils.isNumber(value)) {
+                this.values[i][rowCount] = Double.parseDouble(value);
+                if (isInteger[i] && NumberUtils.hasDecimalPoint(value)) {
+                    isInteger[i] = false;
+                }
+            } else {
+                addCategory(i, value);
+            }
+        }
+
+        rowCount++;
+        if (rowCount == chunkSize) {
+            writeChunk();
+        }
+    }
+
+    public void stopLogging() {
+        if (columnCount >= 0 && rowCount > 0) {
+            writeChunk();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to close binary trace file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores a categorical value. Once a column has had a value that is not a number it is
+     * categorical from then on and any numbers already in the current chunk become labels.
+     */
+    private void addCategory(int column, String value) {
+        if (codes[column] == null) {
+            codes[column] = new int[chunkSize];
+            categories.set(column, new HashMap<String, Integer>());
+            newLabels.set(column, new ArrayList<String>());
+            for (int j = 0; j < rowCount; j++) {
+                codes[column][j] = getCategoryCode(column, NumberUtils.toLabel(values[column][j]));
+            }
+        }
+        codes[column][rowCount] = getCategoryCode(column, value);
+    }
+
+    private int getCategoryCode(int column, String value) {
+        Map<String, Integer> map = categories.get(column);
+        Integer code = map.get(value);
+        if (code == null) {
+            code = map.size();
+            map.put(value, code);
+            newLabels.get(column).add(value);
+        }
+        return code;
+    }
+
+    private void writeChunk() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream chunk = new DataOutputStream(bytes);
+
+            chunk.writeInt(rowCount);
+            for (int j = 0; j < rowCount; j++) {
+                chunk.writeLong(states[j]);
+            }
+
+            byte[][] blocks = new byte[columnCount][];
+            for (int i = 0; i < columnCount; i++) {
+                blocks[i] = getColumnBlock(i);
+                chunk.writeInt(blocks[i].length);
+            }
+            for (byte[] block : blocks) {
+                chunk.write(block);
+            }
+            chunk.flush();
+
+            out.writeInt(CHUNK_MAGIC);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write binary trace file: " + e.getMessage(), e);
+        }
+
+        rowCount = 0;
+    }
+
+    private byte[] getColumnBlock(int column) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream block = new DataOutputStream(bytes);
+
+        if (codes[column] != null) {
+            block.writeByte(CATEGORICAL);
+            List<String> labels = newLabels.get(column);
+            block.writeInt(labels.size());
+            for (String label : labels) {
+                block.writeUTF(label);
+            }
+            labels.clear();
+            for (int j = 0; j < rowCount; j++) {
+                block.writeInt(codes[column][j]);
+            }
+        } else {
+            block.writeByte(isInteger[column] ? INTEGER : REAL);
+            for (int j = 0; j < rowCount; j++) {
+                block.writeDouble(values[column][j]);
+            }
+        }
+        block.flush();
+        return bytes.toByteArray();
+    }
+
+    private final DataOutputStream out;
+    private final int chunkSize;
+
+    private final List<String> headings = new ArrayList<String>();
+    private int columnCount = -1;
+
+    private int rowCount = 0;
+    private long[] states;
+    private double[][] values;
+    private int[][] codes;
+    private boolean[] isInteger;
+    private List<Map<String, Integer>> categories;
+    private List<List<String>> newLabels;
+}
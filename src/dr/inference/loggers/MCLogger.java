@@ -45,6 +45,11 @@ import java.util.Set;
  */
 public class MCLogger implements Logger {
 
+    /**
+     * If this system property is true then the logs are formatted and written on a background thread
+     */
+    public static final String ASYNCHRONOUS_LOGGING = "log.asynchronous";
+
     /**
      * Output performance stats in this log
      */
@@ -111,6 +116,18 @@ public class MCLogger implements Logger {
         return title;
     }
 
+    /**
+     * @param appending true if this logger continues an existing log so its title and column labels are not
+     *                  written again
+     */
+    public void setAppending(boolean appending) {
+        this.appending = appending;
+    }
+
+    public boolean isAppending() {
+        return appending;
+    }
+
     public long getLogEvery() {
         return logEvery;
     }
@@ -168,34 +185,109 @@ public class MCLogger implements Logger {
         return columns.get(index).getFormatted();
     }
 
-    protected void logHeading(String heading) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logHeading(heading);
+    /**
+     * Runs the task on the background writer if logging is asynchronous, otherwise straight away.
+     * Tasks take the current list of formatters when they are created as it may be swapped later.
+     */
+    private void write(Runnable task) {
+        if (writer != null) {
+            writer.submit(task);
+        } else {
+            task.run();
         }
     }
 
-    protected void logLine(String line) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logLine(line);
-        }
+    protected void logHeading(final String heading) {
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (LogFormatter formatter : formatters) {
+                    formatter.logHeading(heading);
+                }
+            }
+        });
     }
 
-    protected void logLabels(String[] labels) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logLabels(labels);
-        }
+    protected void logLine(final String line) {
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (LogFormatter formatter : formatters) {
+                    formatter.logLine(line);
+                }
+            }
+        });
     }
 
-    protected void logValues(String[] values) {
-        for (LogFormatter formatter : formatters) {
-            formatter.logValues(values);
-        }
+    protected void logLabels(final String[] labels) {
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (LogFormatter formatter : formatters) {
+                    formatter.logLabels(labels);
+                }
+            }
+        });
+    }
+
+    protected void logValues(final String[] values) {
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (LogFormatter formatter : formatters) {
+                    formatter.logValues(values);
+                }
+            }
+        });
+    }
+
+    /**
+     * Logs the values once the numbers taken at the time of logging have been formatted
+     */
+    private void logValues(final String[] values, final double[] numbers) {
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (int i = 0; i < numbers.length; i++) {
+                    if (deferFormatting[i]) {
+                        values[i + 1] = ((NumberColumn) getColumn(i)).getFormatted(numbers[i]);
+                    }
+                }
+                for (LogFormatter formatter : formatters) {
+                    formatter.logValues(values);
+                }
+            }
+        });
+    }
+
+    /**
+     * The formatting of a column can be done later if it is a number column that is formatted
+     * in the standard way from its double value.
+     */
+    private static boolean canDeferFormatting(LogColumn column) {
+        return column instanceof NumberColumn && ((NumberColumn) column).isFormattedFromValue();
     }
 
     public void startLogging() {
 
-        for (LogFormatter formatter : formatters) {
-            formatter.startLogging(title);
+        if (writer != null) {
+            deferFormatting = new boolean[getColumnCount()];
+            for (int i = 0; i < deferFormatting.length; i++) {
+                deferFormatting[i] = canDeferFormatting(getColumn(i));
+            }
+        }
+
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (LogFormatter formatter : formatters) {
+                    formatter.startLogging(title);
+                }
+            }
+        });
+
+        if (appending) {
+            return;
         }
 
         if (title != null) {
@@ -245,8 +337,18 @@ public class MCLogger implements Logger {
 
             values[0] = Long.toString(state);
 
+            // if logging in the background then just take the numbers now and format them later
+            double[] numbers = null;
+            if (deferFormatting != null) {
+                numbers = new double[columnCount];
+            }
+
             for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
+                if (numbers != null && deferFormatting[i]) {
+                    numbers[i] = ((NumberColumn) getColumn(i)).getDoubleValue();
+                } else {
+                    values[i + 1] = getColumnFormatted(i);
+                }
             }
 
             if (performanceReport) {
@@ -275,7 +377,11 @@ public class MCLogger implements Logger {
                 }
             }
 
-            logValues(values);
+            if (numbers != null) {
+                logValues(values, numbers);
+            } else {
+                logValues(values);
+            }
         }
 
         if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
@@ -286,13 +392,25 @@ public class MCLogger implements Logger {
 
     public void stopLogging() {
 
-        for (LogFormatter formatter : formatters) {
-            formatter.stopLogging();
+        final List<LogFormatter> formatters = this.formatters;
+        write(new Runnable() {
+            public void run() {
+                for (LogFormatter formatter : formatters) {
+                    formatter.stopLogging();
+                }
+            }
+        });
+
+        if (writer != null) {
+            // wait until everything has been written
+            writer.flush();
         }
     }
 
     private String title = null;
 
+    private boolean appending = false;
+
     private Set<String> keywords = new HashSet<String>();
 
     private List<LogColumn> columns = new ArrayList<LogColumn>();
@@ -315,4 +433,10 @@ public class MCLogger implements Logger {
 
     private final NumberFormat formatter = NumberFormat.getNumberInstance();
 
+    private final AsynchronousLogWriter writer = Boolean.getBoolean(ASYNCHRONOUS_LOGGING) ?
+            AsynchronousLogWriter.getInstance() : null;
+
+    // the columns that are formatted by the writer, null if logging synchronously
+    private boolean[] deferFormatting = null;
+
 }
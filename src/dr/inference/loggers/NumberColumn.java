@@ -159,6 +159,31 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 		return pattern;
 	}
 
+	/**
+	 * Returns true if this column is formatted only from its double value (by formatValue) so
+	 * a logger can take the value now and format it on another thread. Columns that format
+	 * their values in some other way must leave this false.
+	 */
+	public boolean isFormattedFromValue() {
+		return false;
+	}
+
+	/**
+	 * Formats a value previously taken with getDoubleValue as getFormatted would have done,
+	 * so the formatting can be left to another thread.
+	 */
+	public String getFormatted(double value) {
+		StringBuffer buffer = new StringBuffer(formatValue(value));
+
+		if (getMinimumWidth() > 0) {
+			while (buffer.length() < getMinimumWidth()) {
+				buffer.append(' ');
+			}
+		}
+
+		return buffer.toString();
+	}
+
 	/**
 	 * Returns the current value as a double.
 	 */
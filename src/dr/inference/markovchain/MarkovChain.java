@@ -26,6 +26,7 @@
 package dr.inference.markovchain;
 
 import dr.evomodel.continuous.GibbsIndependentCoalescentOperator;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.CompoundLikelihood;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
@@ -50,7 +51,6 @@ public final class MarkovChain implements Serializable {
     private static final long serialVersionUID = 181L;
 
     private final static boolean DEBUG = false;
-    private final static boolean PROFILE = true;
 
     public static final double EVALUATION_TEST_THRESHOLD = 1e-1;
 
@@ -71,6 +71,7 @@ public final class MarkovChain implements Serializable {
 
     private double evaluationTestThreshold = EVALUATION_TEST_THRESHOLD;
 
+    private final MarkovChainMetrics metrics;
 
     public MarkovChain(Likelihood likelihood,
                        OperatorSchedule schedule, Acceptor acceptor,
@@ -88,15 +89,18 @@ public final class MarkovChain implements Serializable {
         this.minOperatorCountForFullEvaluation = minOperatorCountForFullEvaluation;
         this.evaluationTestThreshold = evaluationTestThreshold;
 
-        Likelihood.CONNECTED_LIKELIHOOD_SET.add(likelihood);
-        Likelihood.CONNECTED_LIKELIHOOD_SET.addAll(likelihood.getLikelihoodSet());
+        AnalysisContext context = AnalysisContext.getCurrent();
+        context.getConnectedLikelihoodSet().add(likelihood);
+        context.getConnectedLikelihoodSet().addAll(likelihood.getLikelihoodSet());
 
-        for (Likelihood l : Likelihood.FULL_LIKELIHOOD_SET) {
-            if (!Likelihood.CONNECTED_LIKELIHOOD_SET.contains(l)) {
+        for (Likelihood l : context.getFullLikelihoodSet()) {
+            if (!context.getConnectedLikelihoodSet().contains(l)) {
                 System.err.println("WARNING: Likelihood component, " + l.getId() + ", created but not used in the MCMC");
             }
         }
 
+        metrics = new MarkovChainMetrics(schedule, likelihood);
+
         currentScore = evaluate(likelihood);
     }
 
@@ -194,14 +198,18 @@ public final class MarkovChain implements Serializable {
                         ((CompoundLikelihood) likelihood).getDiagnosis() : "";
             }
 
-            // assert Profiler.startProfile("Store");
+            metrics.setState(currentState);
+            long operatingTime = metrics.getOperatingTime(op);
+            long startTime = System.nanoTime();
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
-            // assert Profiler.stopProfile("Store");
+            long time = System.nanoTime();
+            metrics.record(op, MarkovChainMetrics.STORE, time - startTime);
+            startTime = time;
 
             boolean operatorSucceeded = true;
             double hastingsRatio = 1.0;
@@ -209,14 +217,7 @@ public final class MarkovChain implements Serializable {
 
             logr[0] = -Double.MAX_VALUE;
 
-            long elaspedTime = 0;
-            if (PROFILE) {
-                elaspedTime = System.currentTimeMillis();
-            }
-
             // The new model is proposed
-            // assert Profiler.startProfile("Operate");
-
                 if (DEBUG) {
                     System.out.println("\n>> Iteration: " + currentState);
                     System.out.println("\n&& Operator: " + mcmcOperator.getOperatorName());
@@ -228,7 +229,10 @@ public final class MarkovChain implements Serializable {
                 hastingsRatio = mcmcOperator.operate();
             }
 
-            // assert Profiler.stopProfile("Operate");
+            time = System.nanoTime();
+            metrics.record(op, MarkovChainMetrics.PROPOSAL, time - startTime);
+            startTime = time;
+
             if (hastingsRatio == Double.NEGATIVE_INFINITY) {
                 // Should the evaluation be short-cutted?
                 // Previously this was set to false if OperatorFailedException was thrown.
@@ -236,42 +240,20 @@ public final class MarkovChain implements Serializable {
                 operatorSucceeded = false;
             }
 
-            if (PROFILE) {
-                long duration = System.currentTimeMillis() - elaspedTime;
-                if (DEBUG) {
-                    System.out.println("Time: " + duration);
-                }
-                mcmcOperator.addEvaluationTime(duration);
-            }
-
             double score = Double.NaN;
             double deviation = Double.NaN;
 
             //    System.err.print("" + currentState + ": ");
             if (operatorSucceeded) {
 
-                // The new model is proposed
-                // assert Profiler.startProfile("Evaluate");
-
                 if (DEBUG) {
                     System.out.println("** Evaluate");
                 }
 
-                long elapsedTime = 0;
-                if (PROFILE) {
-                    elapsedTime = System.currentTimeMillis();
-                }
-
                 // The new model is evaluated
                 score = evaluate(likelihood);
 
-                if (PROFILE) {
-                    long duration = System.currentTimeMillis() - elapsedTime;
-                    if (DEBUG) {
-                        System.out.println("Time: " + duration);
-                    }
-                    mcmcOperator.addEvaluationTime(duration);
-                }
+                metrics.record(op, MarkovChainMetrics.EVALUATION, System.nanoTime() - startTime);
 
                 String diagnosticOperator = "";
                 if (usingFullEvaluation) {
@@ -377,7 +359,11 @@ public final class MarkovChain implements Serializable {
                 }
 
                 mcmcOperator.accept(deviation);
+
+                startTime = System.nanoTime();
                 currentModel.acceptModelState();
+                metrics.record(op, MarkovChainMetrics.ACCEPT, System.nanoTime() - startTime);
+
                 currentScore = score;
 
             } else {
@@ -388,9 +374,9 @@ public final class MarkovChain implements Serializable {
 
                 mcmcOperator.reject();
 
-                // assert Profiler.startProfile("Restore");
-
+                startTime = System.nanoTime();
                 currentModel.restoreModelState();
+                metrics.record(op, MarkovChainMetrics.RESTORE, System.nanoTime() - startTime);
 
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
@@ -418,8 +404,10 @@ public final class MarkovChain implements Serializable {
                     }
                 }
             }
-            // assert Profiler.stopProfile("Restore");
 
+            // the operator analysis reports the proposal and evaluation time in whole milliseconds
+            mcmcOperator.addEvaluationTime(
+                    (metrics.getOperatingTime(op) / 1000000) - (operatingTime / 1000000));
 
             if (useAdaptation && !disableAdaptation && mcmcOperator instanceof AdaptableMCMCOperator) {
                 adaptAcceptanceProbability((AdaptableMCMCOperator) mcmcOperator, logr[0]);
@@ -459,6 +447,10 @@ public final class MarkovChain implements Serializable {
         // Profiler.report();
     }
 
+    public MarkovChainMetrics getMetrics() {
+        return metrics;
+    }
+
     public Likelihood getLikelihood() {
         return likelihood;
     }
@@ -0,0 +1,305 @@
+/*
+ * MarkovChainMetrics.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.inference.markovchain;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.operators.OperatorSchedule;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Wall-clock timings of a MarkovChain, broken down by operator into the time spent storing the
+ * model, making the proposal, evaluating the likelihood and accepting or restoring the model,
+ * and by component of the likelihood (using the timers in CompoundLikelihood). The chain records
+ * the times as it goes with System.nanoTime() so the cost is a few calls per step. The metrics
+ * can be read through JMX (e.g., with jconsole) while a chain is running and written periodically
+ * to a tab-delimited file with one line per operator phase or likelihood component:
+ * <pre>
+ * state    type          name    phase         count    time
+ * </pre>
+ * where time is the total in milliseconds so far. The values read through JMX while the chain is
+ * running are not synchronized with it so may be a step behind.
+ */
+public class MarkovChainMetrics implements MarkovChainMetricsMBean {
+
+    public static final int STORE = 0;
+    public static final int PROPOSAL = 1;
+    public static final int EVALUATION = 2;
+    public static final int ACCEPT = 3;
+    public static final int RESTORE = 4;
+
+    public static final String[] PHASE_NAMES = {"store", "proposal", "evaluation", "accept", "restore"};
+
+    public static final String DOMAIN = "dr.inference";
+
+    private static final AtomicInteger chainCount = new AtomicInteger(0);
+
+    public MarkovChainMetrics(OperatorSchedule schedule, Likelihood likelihood) {
+        this.schedule = schedule;
+
+        int operatorCount = schedule.getOperatorCount();
+        times = new long[operatorCount][PHASE_NAMES.length];
+        counts = new long[operatorCount][PHASE_NAMES.length];
+
+        if (likelihood instanceof CompoundLikelihood) {
+            addComponents((CompoundLikelihood) likelihood, "");
+        }
+    }
+
+    /**
+     * Finds the components of a compound likelihood, and those of any compound likelihoods in it,
+     * that have their evaluation timed.
+     */
+    private void addComponents(CompoundLikelihood compound, String prefix) {
+        if (compound.getEvaluationTimes() == null) {
+            return;
+        }
+        for (int i = 0; i < compound.getLikelihoodCount(); i++) {
+            Likelihood likelihood = compound.getLikelihood(i);
+            String name = prefix + (likelihood.getId() != null ? likelihood.getId() : likelihood.prettyName());
+            compounds.add(compound);
+            componentIndices.add(i);
+            componentNames.add(name);
+            if (likelihood instanceof CompoundLikelihood) {
+                addComponents((CompoundLikelihood) likelihood, name + "/");
+            }
+        }
+    }
+
+    /**
+     * Called by the chain at the start of each step.
+     */
+    void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * Adds the time for one phase of the step with the given operator.
+     */
+    void record(int operator, int phase, long nanos) {
+        times[operator][phase] += nanos;
+        counts[operator][phase]++;
+    }
+
+    /**
+     * @return the total time in nanoseconds for the proposals and evaluations of the given operator
+     */
+    long getOperatingTime(int operator) {
+        return times[operator][PROPOSAL] + times[operator][EVALUATION];
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public String[] getOperatorNames() {
+        String[] names = new String[times.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = schedule.getOperator(i).getOperatorName();
+        }
+        return names;
+    }
+
+    public long[] getOperatorCounts() {
+        // every step starts by storing the model
+        long[] operatorCounts = new long[times.length];
+        for (int i = 0; i < operatorCounts.length; i++) {
+            operatorCounts[i] = counts[i][STORE];
+        }
+        return operatorCounts;
+    }
+
+    public double[] getStoreTimes() {
+        return getPhaseTimes(STORE);
+    }
+
+    public double[] getProposalTimes() {
+        return getPhaseTimes(PROPOSAL);
+    }
+
+    public double[] getEvaluationTimes() {
+        return getPhaseTimes(EVALUATION);
+    }
+
+    public double[] getAcceptTimes() {
+        return getPhaseTimes(ACCEPT);
+    }
+
+    public double[] getRestoreTimes() {
+        return getPhaseTimes(RESTORE);
+    }
+
+    private double[] getPhaseTimes(int phase) {
+        double[] phaseTimes = new double[times.length];
+        for (int i = 0; i < phaseTimes.length; i++) {
+            phaseTimes[i] = toMillis(times[i][phase]);
+        }
+        return phaseTimes;
+    }
+
+    public String[] getLikelihoodNames() {
+        return componentNames.toArray(new String[componentNames.size()]);
+    }
+
+    public long[] getLikelihoodEvaluationCounts() {
+        long[] componentCounts = new long[compounds.size()];
+        for (int i = 0; i < componentCounts.length; i++) {
+            componentCounts[i] = compounds.get(i).getEvaluationCounts()[componentIndices.get(i)];
+        }
+        return componentCounts;
+    }
+
+    public double[] getLikelihoodEvaluationTimes() {
+        double[] componentTimes = new double[compounds.size()];
+        for (int i = 0; i < componentTimes.length; i++) {
+            componentTimes[i] = toMillis(compounds.get(i).getEvaluationTimes()[componentIndices.get(i)]);
+        }
+        return componentTimes;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        String[] operatorNames = getOperatorNames();
+        for (int i = 0; i < operatorNames.length; i++) {
+            for (int j = 0; j < PHASE_NAMES.length; j++) {
+                appendLine(report, "operator", operatorNames[i], PHASE_NAMES[j], counts[i][j], toMillis(times[i][j]));
+            }
+        }
+
+        String[] likelihoodNames = getLikelihoodNames();
+        long[] likelihoodCounts = getLikelihoodEvaluationCounts();
+        double[] likelihoodTimes = getLikelihoodEvaluationTimes();
+        for (int i = 0; i < likelihoodNames.length; i++) {
+            appendLine(report, "likelihood", likelihoodNames[i], PHASE_NAMES[EVALUATION], likelihoodCounts[i], likelihoodTimes[i]);
+        }
+
+        return report.toString();
+    }
+
+    private void appendLine(StringBuilder report, String type, String name, String phase, long count, double time) {
+        report.append(state).append("\t").append(type).append("\t").append(name).append("\t")
+                .append(phase).append("\t").append(count).append("\t").append(time).append("\n");
+    }
+
+    public void reset() {
+        for (int i = 0; i < times.length; i++) {
+            for (int j = 0; j < PHASE_NAMES.length; j++) {
+                times[i][j] = 0;
+                counts[i][j] = 0;
+            }
+        }
+        for (CompoundLikelihood compound : compounds) {
+            compound.resetEvaluationTimes();
+        }
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server. A failure is only logged as the
+     * chain can run without them.
+     *
+     * @param name the name of the analysis which is used in the object name
+     */
+    public void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(DOMAIN + ":type=MarkovChainMetrics,name=" +
+                    ObjectName.quote(name == null ? "mcmc" : name) + ",chain=" + chainCount.getAndIncrement());
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            Logger.getLogger("dr.inference").warning("Unable to register the chain metrics with JMX: " + e.getMessage());
+            objectName = null;
+        }
+    }
+
+    public void unregister() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // it has gone already
+            }
+            objectName = null;
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Creates a listener that writes the metrics to a stream every given number of states
+     * and at the end of the chain.
+     */
+    public MarkovChainListener createDumpListener(final PrintStream out, final long dumpEvery) {
+        out.println("state\ttype\tname\tphase\tcount\ttime");
+        return new MarkovChainListener() {
+            public void bestState(long state, MarkovChain markovChain, Model bestModel) {
+            }
+
+            public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+                if (state > 0 && state % dumpEvery == 0) {
+                    out.print(getReport());
+                    out.flush();
+                }
+            }
+
+            public void finished(long chainLength, MarkovChain markovChain) {
+                state = chainLength;
+                out.print(getReport());
+                out.flush();
+            }
+        };
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1.0E6;
+    }
+
+    private final OperatorSchedule schedule;
+
+    private final long[][] times;
+    private final long[][] counts;
+
+    // the compound likelihood and index of each component
+    private final List<CompoundLikelihood> compounds = new ArrayList<CompoundLikelihood>();
+    private final List<Integer> componentIndices = new ArrayList<Integer>();
+    private final List<String> componentNames = new ArrayList<String>();
+
+    private long state = 0;
+    private ObjectName objectName = null;
+}
@@ -0,0 +1,72 @@
+/*
+ * MarkovChainMetricsMBean.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package dr.inference.markovchain;
+
+/**
+ * The JMX management interface of {@link MarkovChainMetrics}. All times are the totals in
+ * milliseconds since the start of the chain (or the last reset).
+ */
+public interface MarkovChainMetricsMBean {
+
+    /**
+     * @return the state the chain has reached
+     */
+    long getState();
+
+    String[] getOperatorNames();
+
+    /**
+     * @return the number of times each operator has been chosen
+     */
+    long[] getOperatorCounts();
+
+    double[] getStoreTimes();
+
+    double[] getProposalTimes();
+
+    double[] getEvaluationTimes();
+
+    double[] getAcceptTimes();
+
+    double[] getRestoreTimes();
+
+    /**
+     * @return the names of the components of the (compound) likelihood being sampled
+     */
+    String[] getLikelihoodNames();
+
+    long[] getLikelihoodEvaluationCounts();
+
+    double[] getLikelihoodEvaluationTimes();
+
+    /**
+     * @return all the metrics as tab-delimited text as written by the periodic dump
+     */
+    String getReport();
+
+    void reset();
+}
@@ -32,6 +32,7 @@ import dr.inference.loggers.Loggable;
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.markovchain.MarkovChainMetrics;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.operators.*;
@@ -161,7 +162,10 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 if (initialStateLoader != null) {
                     double[] savedLnL = new double[1];
 
-                    initialStateLoader.loadState(mc, savedLnL);
+                    long savedState = initialStateLoader.loadState(mc, savedLnL);
+                    if (continueFromLoadedState) {
+                        loadedState = savedState;
+                    }
 
                     mc.setCurrentLength(loadedState);
 
@@ -171,8 +175,27 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
+            currentState = loadedState;
+            this.loadedState = loadedState;
+
             mc.addMarkovChainListener(chainListener);
 
+            MarkovChainMetrics metrics = mc.getMetrics();
+            metrics.register(getId());
+
+            PrintStream metricsStream = null;
+            MarkovChainListener metricsListener = null;
+            if (metricsFile != null) {
+                try {
+                    metricsStream = new PrintStream(new FileOutputStream(metricsFile));
+                    metricsListener = metrics.createDumpListener(metricsStream, metricsEvery);
+                    mc.addMarkovChainListener(metricsListener);
+                } catch (IOException e) {
+                    java.util.logging.Logger.getLogger("dr.inference").warning(
+                            "Unable to write the chain metrics to " + metricsFile + ": " + e.getMessage());
+                }
+            }
+
             long chainLength = getChainLength();
 
             //this also potentially gets the new adapationDelay of a possibly increased chain length
@@ -187,14 +210,25 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 for (int i = 0; i < schedule.getOperatorCount(); i++) {
                     schedule.getOperator(i).reset();
                 }
+            } else {
+                chainLength -= loadedState;
             }
 
-            mc.runChain(chainLength, false);
+            // the chain may have been asked to stop while adaptation was delayed
+            if (!stopping) {
+                mc.runChain(chainLength, false);
+            }
 
             mc.terminateChain();
 
             mc.removeMarkovChainListener(chainListener);
 
+            if (metricsListener != null) {
+                mc.removeMarkovChainListener(metricsListener);
+                metricsStream.close();
+            }
+            metrics.unregister();
+
         }
         timer.stop();
     }
@@ -241,7 +275,8 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
 
             currentState = state;
 
-            if (loggers != null) {
+            // a continued chain's first state was logged by the chain that saved it
+            if (loggers != null && (state == 0 || state > loadedState)) {
                 for (Logger logger : loggers) {
                     logger.log(state);
                 }
@@ -259,11 +294,16 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
          */
         @Override
         public void finished(long chainLength, MarkovChain markovChain) {
+            // a chain that was stopped has already logged the state it stopped at
+            final boolean logged = chainLength == currentState && chainLength > 0;
+
             currentState = chainLength;
 
             if (loggers != null) {
                 for (Logger logger : loggers) {
-                    logger.log(currentState);
+                    if (!logged) {
+                        logger.log(currentState);
+                    }
                     logger.stopLogging();
                 }
             }
@@ -357,6 +397,15 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         this.spawnable = spawnable;
     }
 
+    /**
+     * @param continueFromLoadedState if true a chain started from a loaded state carries on from the state number
+     *                                that was saved with it, running only the rest of the chain length and none of
+     *                                the adaptation delay that has passed. Otherwise it counts from 0 again.
+     */
+    public void setContinueFromLoadedState(boolean continueFromLoadedState) {
+        this.continueFromLoadedState = continueFromLoadedState;
+    }
+
 
     //PRIVATE METHODS *****************************************
     protected long getAdaptationDelay() {
@@ -387,6 +436,15 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         this.operatorAnalysisFile = operatorAnalysisFile;
     }
 
+    /**
+     * @param metricsFile  a file to write the timings of the operators and likelihoods to
+     * @param metricsEvery the number of states between writes
+     */
+    public void setMetricsFile(File metricsFile, long metricsEvery) {
+        this.metricsFile = metricsFile;
+        this.metricsEvery = metricsEvery;
+    }
+
     public String getId() {
         return id;
     }
@@ -402,8 +460,12 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     protected boolean stopping = false;
     protected boolean showOperatorAnalysis = true;
     protected File operatorAnalysisFile = null;
+    protected File metricsFile = null;
+    protected long metricsEvery = 0;
     protected final dr.util.Timer timer = new dr.util.Timer();
     protected long currentState = 0;
+    protected boolean continueFromLoadedState = false;
+    protected long loadedState = 0;
     //private int stepsPerReport = 1000;
     protected final NumberFormatter formatter = new NumberFormatter(8);
 
@@ -40,14 +40,28 @@ import dr.inference.operators.MCMCOperator;
 import dr.inference.operators.OperatorAnalysisPrinter;
 import dr.inference.operators.OperatorSchedule;
 import dr.math.MathUtils;
+import dr.math.MersenneTwisterFast;
 import dr.util.NumberFormatter;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
  *
+ * The chains are run on a fixed pool of worker threads, one per chain, for swapChainsEvery states
+ * at a time. When all of them reach a cyclic barrier the last one to arrive attempts a swap of
+ * temperatures between a random pair of chains that are neighbours in the temperature ladder (and
+ * optionally, during burn-in, adapts the ladder) before they all continue.
+ *
  * @author Andrew Rambaut
  * @version $Id: ParallelMCMC.java,v 1.12 2005/01/10 10:56:59 rambaut Exp $
  */
@@ -98,6 +112,23 @@ public class MCMCMC implements Runnable {
             acceptor.setTemperature(mcmcmcOptions.getChainTemperatures()[i]);
         }
 
+        // order the chains from cold to hottest (the temperatures are inverse temperatures)
+        double[] temperatures = mcmcmcOptions.getChainTemperatures();
+        chainAtRank = new int[chains.length];
+        for (int i = 0; i < chains.length; i++) {
+            int rank = i;
+            while (rank > 0 && temperatures[chainAtRank[rank - 1]] < temperatures[i]) {
+                chainAtRank[rank] = chainAtRank[rank - 1];
+                rank--;
+            }
+            chainAtRank[rank] = i;
+        }
+
+        swapAttemptCounts = new long[chains.length];
+        swapAcceptCounts = new long[chains.length];
+
+        // each chain draws from its own random number stream on its worker thread and the swaps use the next one
+        random = MathUtils.getRandomStream(chains.length);
     }
 
     public void run() {
@@ -118,7 +149,7 @@ public class MCMCMC implements Runnable {
 //        }
 
         MCLogger[] coldChainLoggers = mcLoggers[coldChain];
-        List<LogFormatter>[] logFormatters = new List[coldChainLoggers.length];
+        final List<LogFormatter>[] logFormatters = new List[coldChainLoggers.length];
 
         for (int i = 0; i < coldChainLoggers.length; i++) {
             // Start the logging for the cold chain
@@ -139,89 +170,155 @@ public class MCMCMC implements Runnable {
 
         chains[coldChain].addMarkovChainListener(chainListener);
 
-        MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
-            threads[i].start();
+            chains[i].getMetrics().register("mc3 chain " + (i + 1));
         }
 
-        while (chains[coldChain].getCurrentLength() < getChainLength()) {
+        final long chainLength = getChainLength();
+        final long swapChainsEvery = mcmcmcOptions.getSwapChainsEvery();
 
-            // wait for all the threads to complete their alloted chain length
-            boolean allDone;
-            do {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    //
+        final CyclicBarrier barrier = new CyclicBarrier(chains.length, new Runnable() {
+            // run by the last chain to reach the barrier while the others wait
+            public void run() {
+                if (aborted || stopRequested || chains[coldChain].getCurrentLength() >= chainLength) {
+                    isFinished = true;
+                } else {
+                    swapRound(logFormatters);
                 }
+            }
+        });
 
-                allDone = true;
-                for (int i = 0; i < chains.length; i++) {
-                    if (!threads[i].isChainDone()) {
-                        allDone = false;
+        List<Callable<Object>> chainCallers = new ArrayList<Callable<Object>>();
+        for (int i = 0; i < chains.length; i++) {
+            final MarkovChain chain = chains[i];
+            final int streamIndex = i;
+            chainCallers.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    MathUtils.setThreadRandomStream(MathUtils.getRandomStream(streamIndex));
+                    boolean completed = false;
+                    try {
+                        while (!isFinished) {
+                            long length = Math.min(swapChainsEvery, chainLength - chain.getCurrentLength());
+                            if (length > 0) {
+                                chain.runChain(length, false);
+                            }
+                            barrier.await();
+                        }
+                        completed = true;
+                    } finally {
+                        if (!completed) {
+                            // Whatever this chain threw, arrive at the barrier once more so that the others,
+                            // which may not have reached it yet, stop there rather than wait for this one
+                            // forever. If the barrier is already broken they have been released.
+                            aborted = true;
+                            if (!barrier.isBroken()) {
+                                try {
+                                    barrier.await();
+                                } catch (Exception e) {
+                                    // the original failure is the one to report
+                                }
+                            }
+                        }
+                        MathUtils.setThreadRandomStream(null);
                     }
+                    return null;
                 }
-            } while (!allDone);
+            });
+        }
 
-            if (chains[coldChain].getCurrentLength() < getChainLength()) {
-                int oldColdChain = coldChain;
+        runOnPool(chainCallers);
 
-                // attempt to swap two chains' temperatures
-                coldChain = swapChainTemperatures();
+        for (MarkovChain chain : chains) {
+            chain.getMetrics().unregister();
+        }
 
-                // if the cold chain was involved in a swap then we need to change the
-                // listener that does the logging and the destinations for the coldChainLoggers.
-                if (coldChain != oldColdChain) {
+        finish();
 
-                    chains[oldColdChain].removeMarkovChainListener(chainListener);
+        timer.stop();
+    }
 
-                    // Set the new cold chain's loggers with the formatters (destinations) of
-                    // the original cold chain
-                    for (int i = 0; i < mcLoggers[coldChain].length; i++) {
-                        mcLoggers[coldChain][i].setFormatters(logFormatters[i]);
-                    }
+    /**
+     * The cold chain is always the coldest chain in the ladder. If the cold chain was involved in a
+     * swap then we need to change the listener that does the logging and the destinations for the
+     * coldChainLoggers.
+     */
+    private void swapRound(List<LogFormatter>[] logFormatters) {
+        int oldColdChain = coldChain;
 
-                    // Set the old cold chain to have null log formatters...
-                    for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
-                        mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
-                    }
+        // attempt to swap two chains' temperatures
+        coldChain = swapChainTemperatures();
 
-                    chains[coldChain].addMarkovChainListener(chainListener);
+        if (coldChain != oldColdChain) {
 
-                }
+            chains[oldColdChain].removeMarkovChainListener(chainListener);
 
-                for (int i = 0; i < chains.length; i++) {
-                    threads[i].continueChain();
-                }
+            // Set the new cold chain's loggers with the formatters (destinations) of
+            // the original cold chain
+            for (int i = 0; i < mcLoggers[coldChain].length; i++) {
+                mcLoggers[coldChain][i].setFormatters(logFormatters[i]);
             }
 
-        }
-
-        finish();
+            // Set the old cold chain to have null log formatters...
+            for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
+                mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
+            }
 
-        timer.stop();
+            chains[coldChain].addMarkovChainListener(chainListener);
+        }
     }
 
-    private void runChains(long length, boolean disableCoerce) {
+    private void runChains(final long length, final boolean disableCoerce) {
 
-        Thread[] threads = new Thread[chains.length];
+        List<Callable<Object>> chainCallers = new ArrayList<Callable<Object>>();
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], length, length, false);
-            threads[i].start();
+            final MarkovChain chain = chains[i];
+            final int streamIndex = i;
+            chainCallers.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    MathUtils.setThreadRandomStream(MathUtils.getRandomStream(streamIndex));
+                    try {
+                        chain.runChain(length, disableCoerce);
+                    } finally {
+                        MathUtils.setThreadRandomStream(null);
+                    }
+                    return null;
+                }
+            });
         }
 
-        // wait for all threads collected to die
-        for (int i = 0; i < chains.length; i++) {
-            // wait doggedly for thread to die
-            while (threads[i].isAlive()) {
+        runOnPool(chainCallers);
+    }
+
+    /**
+     * Runs one task per chain on a fixed pool and waits for them all to finish
+     */
+    private void runOnPool(List<Callable<Object>> chainCallers) {
+        ExecutorService pool = Executors.newFixedThreadPool(chains.length);
+        Throwable failure = null;
+        try {
+            List<Future<Object>> results = pool.invokeAll(chainCallers);
+            for (Future<Object> result : results) {
                 try {
-                    threads[i].join();
-                } catch (InterruptedException ie) {
-                    // DO NOTHING
+                    result.get();
+                } catch (ExecutionException e) {
+                    // report the chain that failed rather than those that were released from the barrier
+                    if (failure == null || failure instanceof BrokenBarrierException) {
+                        failure = e.getCause();
+                    }
                 }
             }
+        } catch (InterruptedException e) {
+            failure = e;
+        } finally {
+            pool.shutdown();
+        }
 
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
         }
     }
 
@@ -244,11 +341,10 @@ public class MCMCMC implements Runnable {
 
         int newColdChain = coldChain;
 
-        int index1 = MathUtils.nextInt(chains.length);
-        int index2 = MathUtils.nextInt(chains.length);
-        while (index1 == index2) {
-            index2 = MathUtils.nextInt(chains.length);
-        }
+        // only propose swaps between neighbouring temperatures
+        int rank = random.nextInt(chains.length - 1);
+        int index1 = chainAtRank[rank];
+        int index2 = chainAtRank[rank + 1];
 
         double score1 = chains[index1].getCurrentScore();
         MCMCCriterion acceptor1 = ((MCMCCriterion) chains[index1].getAcceptor());
@@ -258,9 +354,13 @@ public class MCMCMC implements Runnable {
         double temperature2 = acceptor2.getTemperature();
 
         double logRatio = ((score2 - score1) * temperature1) + ((score1 - score2) * temperature2);
-        boolean swap = (Math.log(MathUtils.nextDouble()) < logRatio);
+        boolean swap = (Math.log(random.nextDouble()) < logRatio);
+
+        swapAttemptCounts[rank]++;
 
         if (swap) {
+            swapAcceptCounts[rank]++;
+
             if(DEBUG){
                 System.out.println("Swapping chain "+index1+" and chain "+index2);
             }
@@ -268,6 +368,9 @@ public class MCMCMC implements Runnable {
             acceptor1.setTemperature(temperature2);
             acceptor2.setTemperature(temperature1);
 
+            chainAtRank[rank] = index2;
+            chainAtRank[rank + 1] = index1;
+
             OperatorSchedule schedule1 = schedules[index1];
             OperatorSchedule schedule2 = schedules[index2];
 
@@ -301,9 +404,46 @@ public class MCMCMC implements Runnable {
             }
         }
 
+        // adapt after the swap so the pair's temperatures are exchanged before any of the ladder is moved
+        if (mcmcmcOptions.adaptTemperatures() && chains[coldChain].getCurrentLength() < getTemperatureAdaptationLength()) {
+            adaptTemperatures(rank, swap);
+        }
+
         return newColdChain;
     }
 
+    /**
+     * Adapts the gap between the temperatures (1 / inverse temperature) of a neighbouring pair
+     * towards a target swap acceptance rate with a diminishing step size. The cold chain
+     * always keeps a temperature of 1.
+     */
+    private void adaptTemperatures(int rank, boolean accepted) {
+        adaptationCount++;
+        double stepSize = Math.pow(adaptationCount, -ADAPTATION_EXPONENT);
+
+        MCMCCriterion colder = (MCMCCriterion) chains[chainAtRank[rank]].getAcceptor();
+        MCMCCriterion hotter = (MCMCCriterion) chains[chainAtRank[rank + 1]].getAcceptor();
+
+        double logGap = Math.log(1.0 / hotter.getTemperature() - 1.0 / colder.getTemperature());
+        double newGap = Math.exp(logGap + stepSize * ((accepted ? 1.0 : 0.0) - TARGET_SWAP_RATE));
+        double shift = newGap - (1.0 / hotter.getTemperature() - 1.0 / colder.getTemperature());
+
+        // move all the hotter chains by the same amount so the other gaps are unchanged
+        for (int r = rank + 1; r < chains.length; r++) {
+            MCMCCriterion acceptor = (MCMCCriterion) chains[chainAtRank[r]].getAcceptor();
+            acceptor.setTemperature(1.0 / (1.0 / acceptor.getTemperature() + shift));
+        }
+    }
+
+    /**
+     * The temperatures are only adapted during the adaptation delay or, if there is none, the first tenth
+     * of the chain (the usual burn-in) so the ladder is fixed for the samples that are kept.
+     */
+    private long getTemperatureAdaptationLength() {
+        long adaptationDelay = mcmcOptions.getAdaptationDelay();
+        return adaptationDelay > 0 ? adaptationDelay : getChainLength() / 10;
+    }
+
     private void resetChains() {
 
         for (MarkovChain chain : chains) {
@@ -327,6 +467,18 @@ public class MCMCMC implements Runnable {
         System.out.println();
         System.out.println("Time taken: " + timer.toString());
 
+        System.out.println();
+        System.out.println("Temperature swaps between neighbouring chains");
+        for (int r = 0; r < chains.length - 1; r++) {
+            double temperature1 = ((MCMCCriterion) chains[chainAtRank[r]].getAcceptor()).getTemperature();
+            double temperature2 = ((MCMCCriterion) chains[chainAtRank[r + 1]].getAcceptor()).getTemperature();
+            System.out.println(
+                    formatter.formatToFieldWidth(formatter.format(temperature1) + " <-> " + formatter.format(temperature2), 30) +
+                            formatter.formatToFieldWidth("", 8) +
+                            formatter.formatToFieldWidth(swapAttemptCounts[r] > 0 ?
+                                    formatter.format((double) swapAcceptCounts[r] / swapAttemptCounts[r]) : "-", 11));
+        }
+
         if (showOperatorAnalysis) {
             System.out.println();
             System.out.println("Operator analysis");
@@ -438,6 +590,7 @@ public class MCMCMC implements Runnable {
      * Requests that the MCMC chain stop prematurely.
      */
     public void pleaseStop() {
+        stopRequested = true;
         for (MarkovChain chain : chains) {
             chain.pleaseStop();
         }
@@ -460,5 +613,20 @@ public class MCMCMC implements Runnable {
     private final MCLogger[][] mcLoggers;
     private final OperatorSchedule[] schedules;
     private int coldChain;
+
+    private static final double TARGET_SWAP_RATE = 0.234;
+    private static final double ADAPTATION_EXPONENT = 0.6;
+
+    // the chain at each position in the temperature ladder from cold to hottest
+    private final int[] chainAtRank;
+    private final long[] swapAttemptCounts;
+    private final long[] swapAcceptCounts;
+    private long adaptationCount = 0;
+
+    private final MersenneTwisterFast random;
+
+    private volatile boolean stopRequested = false;
+    private volatile boolean isFinished = false;
+    private volatile boolean aborted = false;
 }
 
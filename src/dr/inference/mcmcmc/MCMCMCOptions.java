@@ -39,8 +39,17 @@ package dr.inference.mcmcmc;
 public class MCMCMCOptions {
 
     public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery) {
+        this(temperatures, swapChainsEvery, false);
+    }
+
+    /**
+     * @param adaptTemperatures if true then the gaps between neighbouring temperatures are adapted
+     *                          during the run towards a common swap acceptance rate
+     */
+    public MCMCMCOptions(final double[] temperatures, final int swapChainsEvery, final boolean adaptTemperatures) {
         this.temperatures = temperatures;
         this.swapChainsEvery = swapChainsEvery;
+        this.adaptTemperatures = adaptTemperatures;
     }
 
 
@@ -52,6 +61,11 @@ public class MCMCMCOptions {
         return swapChainsEvery;
     }
 
+    public boolean adaptTemperatures() {
+        return adaptTemperatures;
+    }
+
     private final double[] temperatures;
     private final int swapChainsEvery;
+    private final boolean adaptTemperatures;
 }
@@ -54,7 +54,7 @@ public abstract class AbstractModel implements Model, ModelListener, VariableLis
      * list then it does nothing.
      */
     public void addModel(Model model) {
-        Model.CONNECTED_MODEL_SET.add(model);
+        AnalysisContext.getCurrent().getConnectedModelSet().add(model);
 
         if (!models.contains(model)) {
             models.add(model);
@@ -77,7 +77,7 @@ public abstract class AbstractModel implements Model, ModelListener, VariableLis
 
     public final void addVariable(Variable variable) {
         if (variable instanceof Parameter) {
-            Parameter.CONNECTED_PARAMETER_SET.add((Parameter)variable);
+            AnalysisContext.getCurrent().getConnectedParameterSet().add((Parameter)variable);
         }
 
         if (!variables.contains(variable)) {
@@ -0,0 +1,268 @@
+/*
+ * AnalysisContext.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.model;
+
+import dr.math.MersenneTwisterFast;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The state that belongs to a single analysis rather than to the JVM: the sets of models,
+ * likelihoods and parameters created and connected, the random number generator (and its
+ * independent streams), the counts of BEAGLE instances used to pick resources and the thread
+ * pools the likelihoods evaluate on, and the directory it writes its files to. Several
+ * analyses, each with its own context, can then be run in one JVM at the same time.
+ *
+ * A context is bound to a thread and is inherited by the threads started from it, so the
+ * code of an analysis finds its context with getCurrent(). A thread with no context bound
+ * uses a default context which holds the shared random number generator. The XMLParser binds
+ * a context to the thread that parses (and runs) each file.
+ */
+public class AnalysisContext {
+
+    private static final AnalysisContext DEFAULT_CONTEXT = new AnalysisContext(MersenneTwisterFast.DEFAULT_INSTANCE);
+
+    private static final InheritableThreadLocal<AnalysisContext> currentContext = new InheritableThreadLocal<AnalysisContext>();
+
+    /**
+     * @return the context bound to the current thread or the default context if there is none
+     */
+    public static AnalysisContext getCurrent() {
+        AnalysisContext context = currentContext.get();
+        return (context != null ? context : DEFAULT_CONTEXT);
+    }
+
+    /**
+     * Binds a context to the current thread (and any threads it starts afterwards).
+     *
+     * @param context the context or null to go back to the default context
+     */
+    public static void setCurrent(AnalysisContext context) {
+        if (context == null || context == DEFAULT_CONTEXT) {
+            currentContext.remove();
+        } else {
+            currentContext.set(context);
+        }
+    }
+
+    public static AnalysisContext getDefault() {
+        return DEFAULT_CONTEXT;
+    }
+
+    /**
+     * A context with a random number generator of its own, started from the given seed.
+     */
+    public AnalysisContext(long seed) {
+        this(new MersenneTwisterFast());
+        random.setSeed(seed);
+    }
+
+    /**
+     * A context that draws its random numbers from the given generator. Sharing the generator
+     * of the current context means a single analysis gets the same numbers it would without a
+     * context of its own.
+     */
+    public AnalysisContext(MersenneTwisterFast random) {
+        this.random = random;
+    }
+
+    // **************************************************************
+    // Registries
+    // **************************************************************
+
+    /**
+     * @return all the models parsed in this analysis
+     */
+    public Set<Model> getFullModelSet() {
+        return fullModelSet;
+    }
+
+    /**
+     * @return the models which have been added as a sub-model of another model
+     */
+    public Set<Model> getConnectedModelSet() {
+        return connectedModelSet;
+    }
+
+    /**
+     * @return all the likelihoods parsed in this analysis
+     */
+    public Set<Likelihood> getFullLikelihoodSet() {
+        return fullLikelihoodSet;
+    }
+
+    /**
+     * @return the likelihoods which are part of the posterior of a Markov chain
+     */
+    public Set<Likelihood> getConnectedLikelihoodSet() {
+        return connectedLikelihoodSet;
+    }
+
+    /**
+     * @return all the parameters created in this analysis
+     */
+    public Set<Parameter> getFullParameterSet() {
+        return fullParameterSet;
+    }
+
+    /**
+     * @return the parameters which are variables of a model, in the order they were added
+     */
+    public Set<Parameter> getConnectedParameterSet() {
+        return connectedParameterSet;
+    }
+
+    /**
+     * @return the number of instances of the given class counted so far (used to hand out
+     * resources such as BEAGLE devices in turn)
+     */
+    public int getInstanceCount(Class<?> instanceClass) {
+        synchronized (instanceCounts) {
+            Integer count = instanceCounts.get(instanceClass);
+            return (count != null ? count : 0);
+        }
+    }
+
+    public void incrementInstanceCount(Class<?> instanceClass) {
+        synchronized (instanceCounts) {
+            instanceCounts.put(instanceClass, getInstanceCount(instanceClass) + 1);
+        }
+    }
+
+    /**
+     * @return the directory that file names without an absolute path are resolved in, or null
+     * for the "user.dir" directory
+     */
+    public File getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    public void setWorkingDirectory(File workingDirectory) {
+        this.workingDirectory = workingDirectory;
+    }
+
+    // **************************************************************
+    // Random numbers
+    // **************************************************************
+
+    /**
+     * @return the random number generator of this analysis (MathUtils draws from it)
+     */
+    public MersenneTwisterFast getRandom() {
+        return random;
+    }
+
+    /**
+     * @return the independent random number streams of this analysis, indexed by stream number
+     */
+    public List<MersenneTwisterFast> getRandomStreams() {
+        return randomStreams;
+    }
+
+    // **************************************************************
+    // Thread pools
+    // **************************************************************
+
+    /**
+     * @return a thread pool with a fixed number of threads which is shut down with the context
+     */
+    public ExecutorService newFixedThreadPool(int threadCount) {
+        return addThreadPool(Executors.newFixedThreadPool(threadCount, threadFactory));
+    }
+
+    /**
+     * @return a thread pool which creates threads as needed and is shut down with the context
+     */
+    public ExecutorService newCachedThreadPool() {
+        return addThreadPool(Executors.newCachedThreadPool(threadFactory));
+    }
+
+    /**
+     * @return a thread pool with a thread for each processor, shared by the short tasks of the analysis (such as
+     * compressing the alignments as they are parsed) so each doesn't start threads of its own. It is shut down with
+     * the context.
+     */
+    public ExecutorService getSharedThreadPool() {
+        synchronized (threadPools) {
+            if (sharedThreadPool == null) {
+                sharedThreadPool = newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            }
+            return sharedThreadPool;
+        }
+    }
+
+    /**
+     * Shuts down the thread pools created by this context. The analysis should have finished.
+     */
+    public void close() {
+        synchronized (threadPools) {
+            for (ExecutorService pool : threadPools) {
+                pool.shutdownNow();
+            }
+            threadPools.clear();
+            sharedThreadPool = null;
+        }
+    }
+
+    private ExecutorService addThreadPool(ExecutorService pool) {
+        synchronized (threadPools) {
+            threadPools.add(pool);
+        }
+        return pool;
+    }
+
+    private final Set<Model> fullModelSet = new HashSet<Model>();
+    private final Set<Model> connectedModelSet = new HashSet<Model>();
+    private final Set<Likelihood> fullLikelihoodSet = new HashSet<Likelihood>();
+    private final Set<Likelihood> connectedLikelihoodSet = new HashSet<Likelihood>();
+    private final Set<Parameter> fullParameterSet = new LinkedHashSet<Parameter>();
+    private final Set<Parameter> connectedParameterSet = new LinkedHashSet<Parameter>();
+
+    private final Map<Class<?>, Integer> instanceCounts = new HashMap<Class<?>, Integer>();
+
+    private final MersenneTwisterFast random;
+    private final List<MersenneTwisterFast> randomStreams = new ArrayList<MersenneTwisterFast>();
+
+    private File workingDirectory = null;
+
+    private final List<ExecutorService> threadPools = new ArrayList<ExecutorService>();
+    private ExecutorService sharedThreadPool = null;
+
+    // daemon threads so an analysis that is never closed doesn't keep the JVM alive
+    private final ThreadFactory threadFactory = new ThreadFactory() {
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "analysis-" + threadNumber++);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private int threadNumber = 0;
+    };
+}
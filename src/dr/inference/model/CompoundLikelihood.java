@@ -67,10 +67,10 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
         }
 
         if (threadCount > 0) {
-            pool = Executors.newFixedThreadPool(threadCount);
+            pool = AnalysisContext.getCurrent().newFixedThreadPool(threadCount);
         } else if (threadCount < 0) {
             // create a cached thread pool which should create one thread per likelihood...
-            pool = Executors.newCachedThreadPool();
+            pool = AnalysisContext.getCurrent().newCachedThreadPool();
         } else {
             // don't use a threadpool (i.e., compute serially)
             pool = null;
@@ -127,6 +127,8 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
         	
             if (!likelihoods.contains(likelihood)) {
 
+                // the evaluation timers are indexed by the position in the list of likelihoods
+                final int position = likelihoods.size();
                 likelihoods.add(likelihood);
                 if (likelihood.getModel() != null) {
                     compoundModel.addModel(likelihood.getModel());
@@ -135,14 +137,20 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
                 if (likelihood.evaluateEarly()) {
                 	
                     earlyLikelihoods.add(likelihood);
+                    earlyIndices.add(position);
                     
                 } else {
                 	
                     // late likelihood list is used to evaluate them if the thread pool is not being used...
                     lateLikelihoods.add(likelihood);
+                    lateIndices.add(position);
 
                     if (addToPool) {
-                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index));
+                        LikelihoodCaller caller = new LikelihoodCaller(likelihood, position);
+                        if (!(likelihood instanceof Likelihood.Abstract) && likelihood.getModel() != null) {
+                            likelihood.getModel().addModelListener(caller);
+                        }
+                        likelihoodCallers.add(caller);
                     }
                 }
 
@@ -176,7 +184,7 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
     }
 
     public List<Callable<Double>> getLikelihoodCallers() {
-        return likelihoodCallers;
+        return Collections.<Callable<Double>>unmodifiableList(likelihoodCallers);
     }
 
     // **************************************************************
@@ -192,7 +200,7 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyIndices);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
@@ -200,22 +208,9 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
 
         if (pool == null) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateIndices);
         } else {
-
-            try {
-                List<Future<Double>> results = pool.invokeAll(likelihoodCallers);
-
-                for (Future<Double> result : results) {
-                    double logL = result.get();
-                    logLikelihood += logL;
-                }
-
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
-            }
+            logLikelihood += evaluateLikelihoodCallers();
         }
 
 //        if( DEBUG > 0 ) {
@@ -230,12 +225,13 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, ArrayList<Integer> indices) {
         double logLikelihood = 0.0;
-        int i = 0;
-        for (Likelihood likelihood : likelihoods) {
+        for (int k = 0; k < likelihoods.size(); k++) {
+            final Likelihood likelihood = likelihoods.get(k);
             if (EVALUATION_TIMERS) {
                 // this code is only compiled if EVALUATION_TIMERS is true
+                final int i = indices.get(k);
                 long time = System.nanoTime();
                 double l = likelihood.getLogLikelihood();
                 evaluationTimes[i] += System.nanoTime() - time;
@@ -245,8 +241,6 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
                     return Double.NEGATIVE_INFINITY;
 
                 logLikelihood += l;
-
-                i++;
             } else {
                 final double l = likelihood.getLogLikelihood();
                 // if the likelihood is zero then short cut the rest of the likelihoods
@@ -261,10 +255,61 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
         return logLikelihood;
     }
 
+    /**
+     * Evaluates the late likelihoods using the thread pool. Only the likelihoods that need
+     * recalculating are handed to the pool, the longest (by their measured cost) first so the
+     * pool isn't left waiting on one long calculation at the end. The cheapest is calculated
+     * on this thread while the others run and those that are already known just return their
+     * cached values here.
+     */
+    private double evaluateLikelihoodCallers() {
+        double logLikelihood = 0.0;
+
+        dirtyCallers.clear();
+        for (LikelihoodCaller caller : likelihoodCallers) {
+            if (caller.isDirty()) {
+                dirtyCallers.add(caller);
+            } else {
+                logLikelihood += caller.evaluate(false);
+            }
+        }
+
+        if (dirtyCallers.isEmpty()) {
+            return logLikelihood;
+        }
+
+        Collections.sort(dirtyCallers, COST_ORDER);
+
+        final int last = dirtyCallers.size() - 1;
+        List<Future<Double>> results = new ArrayList<Future<Double>>(last);
+        for (int k = 0; k < last; k++) {
+            results.add(pool.submit(dirtyCallers.get(k)));
+        }
+
+        logLikelihood += dirtyCallers.get(last).evaluate(true);
+
+        try {
+            for (Future<Double> result : results) {
+                double logL = result.get();
+                logLikelihood += logL;
+            }
+
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+
+        return logLikelihood;
+    }
+
     public void makeDirty() {
         for( Likelihood likelihood : likelihoods ) {
             likelihood.makeDirty();
         }
+        for (LikelihoodCaller caller : likelihoodCallers) {
+            caller.dirty = true;
+        }
     }
 
     public boolean evaluateEarly() {
@@ -412,6 +457,10 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
             return getLogLikelihood();
         }
 
+        public boolean isFormattedFromValue() {
+            return true;
+        }
+
         @Override
         public void addKeyword(String keyword) {
             throw new UnsupportedOperationException("Can't add keywords here");
@@ -510,10 +559,19 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
 
     private final ArrayList<Likelihood> earlyLikelihoods = new ArrayList<Likelihood>();
     private final ArrayList<Likelihood> lateLikelihoods = new ArrayList<Likelihood>();
+    private final ArrayList<Integer> earlyIndices = new ArrayList<Integer>();
+    private final ArrayList<Integer> lateIndices = new ArrayList<Integer>();
 
-    private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
+    private final List<LikelihoodCaller> likelihoodCallers = new ArrayList<LikelihoodCaller>();
+    private final List<LikelihoodCaller> dirtyCallers = new ArrayList<LikelihoodCaller>();
 
-    class LikelihoodCaller implements Callable<Double> {
+    /**
+     * Calls a likelihood on a thread of the pool. Unless the likelihood is a Likelihood.Abstract,
+     * which knows whether it needs recalculating, the caller listens to the likelihood's model
+     * to find out whether it has changed since the last evaluation. A likelihood without a
+     * model is always evaluated as if it had changed.
+     */
+    class LikelihoodCaller implements Callable<Double>, ModelListener {
 
         public LikelihoodCaller(Likelihood likelihood, int index) {
             this.likelihood = likelihood;
@@ -524,20 +582,64 @@ public class CompoundLikelihood implements Likelihood, Reportable, Keywordable {
             if (DEBUG_PARALLEL_EVALUATION) {
                 System.err.print("Invoking thread #" + index + " for " + likelihood.getId() + ": ");
             }
+            return evaluate(true);
+        }
+
+        /**
+         * @return true if the likelihood may need to be recalculated
+         */
+        boolean isDirty() {
+            if (likelihood instanceof Likelihood.Abstract) {
+                return !((Likelihood.Abstract) likelihood).getLikelihoodKnown();
+            }
+            return dirty || likelihood.getModel() == null;
+        }
+
+        /**
+         * @param measure update the cost of the likelihood with the time this evaluation takes
+         */
+        double evaluate(boolean measure) {
+            dirty = false;
+
+            long time = System.nanoTime();
+            double logL = likelihood.getLogLikelihood();
+            time = System.nanoTime() - time;
+
             if (EVALUATION_TIMERS) {
-                long time = System.nanoTime();
-                double logL = likelihood.getLogLikelihood();
-                evaluationTimes[index] += System.nanoTime() - time;
+                evaluationTimes[index] += time;
                 evaluationCounts[index] ++;
-                return logL;
             }
-            return likelihood.getLogLikelihood();
+            if (measure) {
+                cost = (cost == 0.0 ? time : cost + COST_SMOOTHING * (time - cost));
+            }
+            return logL;
+        }
+
+        public void modelChangedEvent(Model model, Object object, int index) {
+            dirty = true;
+        }
+
+        public void modelRestored(Model model) {
+            dirty = true;
         }
 
         private final Likelihood likelihood;
         private final int index;
+
+        // a moving average of the time (in ns) taken to recalculate the likelihood
+        private volatile double cost = 0.0;
+        private volatile boolean dirty = true;
     }
 
+    private static final double COST_SMOOTHING = 0.1;
+
+    // longest first
+    private static final Comparator<LikelihoodCaller> COST_ORDER = new Comparator<LikelihoodCaller>() {
+        public int compare(LikelihoodCaller caller1, LikelihoodCaller caller2) {
+            return Double.compare(caller2.cost, caller1.cost);
+        }
+    };
+
     public static final boolean DEBUG_PARALLEL_EVALUATION = false;
 
 }
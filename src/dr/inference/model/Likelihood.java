@@ -210,6 +210,10 @@ public interface Likelihood extends Loggable, Identifiable {
             public double getDoubleValue() {
                 return getLogLikelihood();
             }
+
+            public boolean isFormattedFromValue() {
+                return true;
+            }
         }
 
         // **************************************************************
@@ -233,9 +237,4 @@ public interface Likelihood extends Loggable, Identifiable {
         private boolean used = false;
     }
 
-
-    // set to store all created likelihoods
-    final static Set<Likelihood> FULL_LIKELIHOOD_SET = new HashSet<Likelihood>();
-    final static Set<Likelihood> CONNECTED_LIKELIHOOD_SET = new HashSet<Likelihood>();
-
 }
@@ -168,10 +168,5 @@ public interface Model extends Identifiable, Serializable {
         private ArrayList<ModelListener> restoreListeners = null;
     }
 
-
-    // set to store all created models
-    final static Set<Model> FULL_MODEL_SET = new HashSet<Model>();
-	final static Set<Model> CONNECTED_MODEL_SET = new HashSet<Model>();
-
 }
 
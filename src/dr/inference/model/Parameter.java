@@ -167,21 +167,18 @@ public interface Parameter extends Statistic, Variable<Double> {
 
     boolean isImmutable();
 
-    Set<Parameter> FULL_PARAMETER_SET = new LinkedHashSet<Parameter>();
-    Set<Parameter> CONNECTED_PARAMETER_SET = new LinkedHashSet<Parameter>();
-
     /**
      * Abstract base class for parameters
      */
     abstract class Abstract extends Statistic.Abstract implements Parameter, Reportable {
 
         protected Abstract() {
-            FULL_PARAMETER_SET.add(this);
+            AnalysisContext.getCurrent().getFullParameterSet().add(this);
         }
 
         protected Abstract(final String name) {
             super(name);
-            FULL_PARAMETER_SET.add(this);
+            AnalysisContext.getCurrent().getFullParameterSet().add(this);
         }
 
         // **************************************************************
@@ -152,6 +152,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(dim).doubleValue();
             }
+
+            public boolean isFormattedFromValue() {
+                return true;
+            }
         }
 
         /**
@@ -321,6 +325,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(dim);
             }
+
+            public boolean isFormattedFromValue() {
+                return true;
+            }
         }
 
         String id;
@@ -466,6 +474,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(i)[j];
             }
+
+            public boolean isFormattedFromValue() {
+                return true;
+            }
         }
 
         String id;
@@ -635,6 +647,10 @@ public interface Variable<V> extends Identifiable {
             public double getDoubleValue() {
                 return getValue(dim);
             }
+
+            public boolean isFormattedFromValue() {
+                return true;
+            }
         }
 
         String id;
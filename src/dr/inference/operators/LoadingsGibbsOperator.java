@@ -28,6 +28,7 @@ package dr.inference.operators;
 import dr.inference.distribution.DistributionLikelihood;
 import dr.inference.distribution.IndependentNormalDistributionModel;
 import dr.inference.distribution.LatentFactorModelInterface;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.LatentFactorModel;
 import dr.inference.model.MatrixParameterInterface;
 import dr.inference.model.Parameter;
@@ -41,7 +42,6 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Created with IntelliJ IDEA.
@@ -160,7 +160,7 @@ public class LoadingsGibbsOperator extends SimpleMCMCOperator implements PathDep
             int threads = numThreads;
 
 //                    Integer.parseInt(System.getProperty("thread.count"));
-            pool = Executors.newFixedThreadPool(threads);
+            pool = AnalysisContext.getCurrent().newFixedThreadPool(threads);
         }
         else{
             pool = null;
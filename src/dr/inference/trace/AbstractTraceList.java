@@ -41,6 +41,11 @@ public abstract class AbstractTraceList extends FilteredTraceList {
         return getCorrelationStatistics(index);
     }
 
+    /**
+     * Sets the number of states to discard and clears the statistics calculated with the previous burn-in.
+     */
+    public abstract void setBurnIn(long burnin);
+
     public TraceCorrelation getCorrelationStatistics(int index) {
         Trace trace = getTrace(index);
         if (trace != null)
@@ -82,6 +82,13 @@ public class ArrayTraceList extends AbstractTraceList {
         return burnin;
     }
 
+    public void setBurnIn(long burnin) {
+        this.burnin = burnin;
+        for (Trace trace : traces) {
+            trace.setTraceStatistics(null);
+        }
+    }
+
     /**
      * @return the number of states in the traces (after burnin removed)
      */
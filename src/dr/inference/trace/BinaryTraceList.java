@@ -0,0 +1,387 @@
+/*
+ * BinaryTraceList.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+import dr.inference.loggers.BinaryTraceFormatter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of traces from a single chain read from a columnar binary trace file written by
+ * {@link BinaryTraceFormatter}. Loading only reads the labels and the state numbers; the values
+ * of a trace are read from the memory mapped file the first time that trace is asked for so
+ * analysing a few columns of a large log never reads the others.
+ */
+public class BinaryTraceList extends AbstractTraceList {
+
+    public BinaryTraceList(String name, File file) {
+        this.name = name;
+        this.file = file;
+    }
+
+    /**
+     * @param file the file to check
+     * @return true if the file starts with the binary trace file header
+     */
+    public static boolean isBinaryTraceFile(File file) {
+        if (!file.isFile() || file.length() < 4) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                return in.readInt() == BinaryTraceFormatter.MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the name of this traceset
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the path of this traceset
+     */
+    public String getFullName() {
+        return file.getPath();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the last state in the chain
+     */
+    public long getMaxState() {
+        return lastState;
+    }
+
+    public boolean isIncomplete() {
+        return false;
+    }
+
+    /**
+     * @return the number of states excluding the burnin
+     */
+    public int getStateCount() {
+        // This is done as two integer divisions to ensure the same rounding for
+        // the burnin...
+        return (int) (((lastState - firstState) / stepSize) - (getBurnIn() / stepSize) + 1);
+    }
+
+    /**
+     * @return the number of states in the burnin
+     */
+    public int getBurninStateCount() {
+        return (int) (getBurnIn() / stepSize);
+    }
+
+    /**
+     * @return the size of the step between states
+     */
+    public long getStepSize() {
+        return stepSize;
+    }
+
+    public long getBurnIn() {
+        return burnIn;
+    }
+
+    public void setBurnIn(long burnin) {
+        this.burnIn = burnin;
+        for (Trace trace : traces) {
+            if (trace != null) {
+                trace.setTraceStatistics(null);
+            }
+        }
+    }
+
+    /**
+     * @return the number of traces in this traceset
+     */
+    public int getTraceCount() {
+        return labels.length;
+    }
+
+    /**
+     * @return the index of the trace with the given name
+     */
+    public int getTraceIndex(String name) {
+        for (int i = 0; i < labels.length; i++) {
+            if (name.equals(labels[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the name of the trace with the given index
+     */
+    public String getTraceName(int index) {
+        return labels[index];
+    }
+
+    /**
+     * @param index requested trace index
+     * @return the trace for a given index, which is read from the file if it hasn't been already
+     */
+    public Trace getTrace(int index) {
+        if (traces[index] == null) {
+            try {
+                traces[index] = readTrace(index);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to read trace " + labels[index] + " from " +
+                        file.getName() + ": " + e.getMessage(), e);
+            }
+        }
+        return traces[index];
+    }
+
+    public List<Double> getValues(int index, int fromIndex, int toIndex) {
+        return getTrace(index).getValues(fromIndex, toIndex, super.filtered);
+    }
+
+    public List<Double> getValues(int index) {
+        return this.getValues(index, getBurninStateCount(), getTrace(index).getValueCount());
+    }
+
+    public List<Double> getBurninValues(int index) {
+        return this.getValues(index, 0, getBurninStateCount());
+    }
+
+    /**
+     * Reads the labels and the state numbers of every complete chunk. An incomplete chunk at
+     * the end of the file (from a run that is still going or was stopped) is ignored.
+     *
+     * @throws TraceException if the file is not a binary trace file or the states are inconsistent
+     * @throws IOException
+     */
+    public void loadTraces() throws TraceException, IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < 8 || raf.readInt() != BinaryTraceFormatter.MAGIC) {
+                throw new TraceException("File " + file.getName() + " is not a binary trace file");
+            }
+            int version = raf.readInt();
+            if (version != BinaryTraceFormatter.VERSION) {
+                throw new TraceException("Unsupported binary trace file version: " + version);
+            }
+
+            int headingCount = raf.readInt();
+            for (int i = 0; i < headingCount; i++) {
+                raf.readUTF();
+            }
+
+            labels = new String[raf.readInt()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = raf.readUTF();
+            }
+            traces = new Trace[labels.length];
+
+            FileChannel channel = raf.getChannel();
+            long position = raf.getFilePointer();
+            long length = raf.length();
+
+            while (position + 8 <= length) {
+                raf.seek(position);
+                if (raf.readInt() != BinaryTraceFormatter.CHUNK_MAGIC) {
+                    throw new TraceException("Corrupt chunk in binary trace file at byte " + position);
+                }
+                int chunkLength = raf.readInt();
+                long start = position + 8;
+                if (start + chunkLength > length) {
+                    break;
+                }
+
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, chunkLength);
+                int rowCount = buffer.getInt();
+
+                Chunk chunk = new Chunk();
+                chunk.rowCount = rowCount;
+                chunk.blockStarts = new long[labels.length];
+                chunk.blockLengths = new int[labels.length];
+
+                for (int j = 0; j < rowCount; j++) {
+                    addState(buffer.getLong());
+                }
+
+                long blockStart = start + 4 + 8L * rowCount + 4L * labels.length;
+                for (int i = 0; i < labels.length; i++) {
+                    chunk.blockStarts[i] = blockStart;
+                    chunk.blockLengths[i] = buffer.getInt();
+                    blockStart += chunk.blockLengths[i];
+                }
+                chunks.add(chunk);
+
+                position = start + chunkLength;
+            }
+        } finally {
+            raf.close();
+        }
+
+        if (stateCount == 0) {
+            throw new TraceException("Incorrect file format, no sample is found !");
+        }
+
+        burnIn = lastState / 10;
+
+        if (stepSize < 0 && lastState > 0) {
+            stepSize = lastState;
+        }
+    }
+
+    private void addState(long state) throws TraceException {
+        if (stateCount == 0) {
+            // MrBayes puts 1 as the first state, BEAST puts 0
+            if (state == 1) state = 0;
+            firstState = state;
+        } else if (stateCount == 1) {
+            secondState = state;
+        } else if (stateCount == 2) {
+            // as for LogFileTraces, the step is taken between the second and third states
+            stepSize = state - secondState;
+        } else if (state - lastState != stepSize) {
+            throw new TraceException("State " + state + " is not consistent with previous spacing");
+        }
+        lastState = state;
+        stateCount++;
+    }
+
+    /**
+     * Reads one column from each of the chunks. The trace is INTEGER if every value was written
+     * without a decimal point and there are few enough unique values, CATEGORICAL if any of the
+     * values was not a number and REAL otherwise.
+     */
+    private Trace readTrace(int index) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+
+            List<ByteBuffer> blocks = new ArrayList<ByteBuffer>();
+            boolean isCategorical = false;
+            boolean isInteger = true;
+            for (Chunk chunk : chunks) {
+                ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY,
+                        chunk.blockStarts[index], chunk.blockLengths[index]);
+                byte type = block.get(0);
+                if (type == BinaryTraceFormatter.CATEGORICAL) {
+                    isCategorical = true;
+                } else if (type == BinaryTraceFormatter.REAL) {
+                    isInteger = false;
+                }
+                blocks.add(block);
+            }
+
+            Trace trace;
+            if (isCategorical) {
+                trace = new Trace(labels[index], TraceType.CATEGORICAL);
+                List<String> categories = new ArrayList<String>();
+
+                for (int k = 0; k < blocks.size(); k++) {
+                    ByteBuffer block = blocks.get(k);
+                    int rowCount = chunks.get(k).rowCount;
+                    byte type = block.get();
+
+                    if (type == BinaryTraceFormatter.CATEGORICAL) {
+                        byte[] bytes = new byte[block.remaining()];
+                        block.get(bytes);
+                        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+                        int newLabelCount = in.readInt();
+                        for (int i = 0; i < newLabelCount; i++) {
+                            categories.add(in.readUTF());
+                        }
+                        for (int j = 0; j < rowCount; j++) {
+                            trace.add(categories.get(in.readInt()));
+                        }
+                    } else {
+                        // the column only became categorical later so the numbers become labels
+                        DoubleBuffer values = block.asDoubleBuffer();
+                        for (int j = 0; j < rowCount; j++) {
+                            trace.add(NumberUtils.toLabel(values.get(j)));
+                        }
+                    }
+                }
+            } else {
+                trace = new Trace(labels[index], isInteger ? TraceType.INTEGER : TraceType.REAL);
+
+                for (int k = 0; k < blocks.size(); k++) {
+                    ByteBuffer block = blocks.get(k);
+                    block.position(1);
+                    DoubleBuffer values = block.slice().asDoubleBuffer();
+                    int rowCount = chunks.get(k).rowCount;
+                    for (int j = 0; j < rowCount; j++) {
+                        trace.add(values.get(j));
+                    }
+                }
+
+                if (isInteger && trace.getUniqueValueCount() > MAX_UNIQUE_VALUE) {
+                    trace.setTraceType(TraceType.REAL);
+                }
+            }
+            return trace;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static class Chunk {
+        int rowCount;
+        // the position and length of each column in the file
+        long[] blockStarts;
+        int[] blockLengths;
+    }
+
+    private static final int MAX_UNIQUE_VALUE = 200;
+
+    protected final File file;
+    protected final String name;
+
+    private String[] labels = new String[0];
+    private Trace[] traces = new Trace[0];
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+    private int stateCount = 0;
+    private long burnIn = -1;
+    private long firstState = -1;
+    private long secondState = -1;
+    private long lastState = -1;
+    private long stepSize = -1;
+}
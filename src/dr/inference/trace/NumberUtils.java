@@ -29,6 +29,20 @@ public class NumberUtils {
         return str.contains(".");
     }
 
+    /**
+     * <p>Formats a number that is becoming a category label so that a whole number reads as it
+     * would in a log (<code>1</code> rather than <code>1.0</code>).</p>
+     *
+     * @param value the number
+     * @return the label
+     */
+    public static String toLabel(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
     /**
      * <p>Checks whether the String a valid Java number.</p>
      * <p>
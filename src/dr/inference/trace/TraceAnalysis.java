@@ -43,11 +43,9 @@ public class TraceAnalysis {
      * @throws java.io.IOException if general error reading file
      * @throws TraceException      if trace file in wrong format or corrupted
      */
-    public static LogFileTraces analyzeLogFile(String fileName, long burnin) throws java.io.IOException, TraceException {
+    public static TraceList analyzeLogFile(String fileName, long burnin) throws java.io.IOException, TraceException {
 
-        File file = new File(fileName);
-        LogFileTraces traces = new LogFileTraces(fileName, file);
-        traces.loadTraces();
+        AbstractTraceList traces = loadTraces(fileName);
         traces.setBurnIn(burnin);
 
         for (int i = 0; i < traces.getTraceCount(); i++) {
@@ -73,13 +71,10 @@ public class TraceAnalysis {
 //        formatter.setPadding(true);
 //        formatter.setFieldWidth(fieldWidth);
 
-        File file = new File(fileName);
-
-        LogFileTraces traces = new LogFileTraces(fileName, file);
+        AbstractTraceList traces = loadTraces(fileName);
 //        if (traces == null) {
 //            throw new TraceException("Trace file is empty.");
 //        }
-        traces.loadTraces();
 
 //        traces.addTrace("R0", traces.getTraceIndex("bdss.psi"));
 
@@ -177,10 +172,7 @@ public class TraceAnalysis {
     }
 
     public static void reportTrace(String fileName, long inBurnin, String traceName) throws IOException, TraceException {
-        File file = new File(fileName);
-
-        LogFileTraces traces = new LogFileTraces(fileName, file);
-        traces.loadTraces();
+        AbstractTraceList traces = loadTraces(fileName);
         long burnin = inBurnin;
         if (burnin == -1) {
             burnin = traces.getMaxState() / 10;
@@ -323,6 +315,29 @@ public class TraceAnalysis {
         return traces;
     }
 
+    /**
+     * Loads a log file which can be either tab delimited or a binary trace file. The traces in a
+     * binary trace file are only read as they are analysed.
+     *
+     * @param fileName the name of the log file
+     * @return the trace list
+     * @throws java.io.IOException if general error reading file
+     * @throws TraceException      if trace file in wrong format or corrupted
+     */
+    public static AbstractTraceList loadTraces(String fileName) throws java.io.IOException, TraceException {
+        File file = new File(fileName);
+
+        if (BinaryTraceList.isBinaryTraceFile(file)) {
+            BinaryTraceList traces = new BinaryTraceList(fileName, file);
+            traces.loadTraces();
+            return traces;
+        }
+
+        LogFileTraces traces = new LogFileTraces(fileName, file);
+        traces.loadTraces();
+        return traces;
+    }
+
     public static String formattedNumber(double value) {
         DecimalFormat formatter = new DecimalFormat("0.####E0");
         DecimalFormat formatter2 = new DecimalFormat("####0.####");
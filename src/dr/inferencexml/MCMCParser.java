@@ -29,6 +29,7 @@ import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.CompoundLikelihood;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
@@ -38,6 +39,7 @@ import dr.inference.smc.SMC;
 import dr.inference.smc.SMCOptions;
 import dr.inference.state.Factory;
 import dr.inference.state.StateLoaderSaver;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
 import java.io.File;
@@ -126,19 +128,19 @@ public class MCMCParser extends AbstractXMLObjectParser {
         if (Boolean.valueOf(System.getProperty("show_warnings", "false"))) {
 
             // check that all models, parameters and likelihoods are being used
-            for (Likelihood l : Likelihood.FULL_LIKELIHOOD_SET) {
+            for (Likelihood l : AnalysisContext.getCurrent().getFullLikelihoodSet()) {
                 if (!l.isUsed()) {
                     java.util.logging.Logger.getLogger("dr.inference").warning("Likelihood, " + l.getId() +
                             ", of class " + l.getClass().getName() + " is not being handled by the MCMC.");
                 }
             }
-            for (Model m : Model.FULL_MODEL_SET) {
+            for (Model m : AnalysisContext.getCurrent().getFullModelSet()) {
                 if (!m.isUsed()) {
                     java.util.logging.Logger.getLogger("dr.inference").warning("Model, " + m.getId() +
                             ", of class " + m.getClass().getName() + " is not being handled by the MCMC.");
                 }
             }
-            for (Parameter p : Parameter.FULL_PARAMETER_SET) {
+            for (Parameter p : AnalysisContext.getCurrent().getFullParameterSet()) {
                 if (!p.isUsed()) {
                     java.util.logging.Logger.getLogger("dr.inference").warning("Parameter, " + p.getId() +
                             ", of class " + p.getClass().getName() + " is not being handled by the MCMC.");
@@ -160,6 +162,17 @@ public class MCMCParser extends AbstractXMLObjectParser {
             mcmc.setOperatorAnalysisFile(XMLParser.getLogFile(xo, OPERATOR_ANALYSIS));
         }
 
+        long metricsEvery = xo.getAttribute(METRICS_EVERY, Math.max(chainLength / 100, 1));
+        if (System.getProperty("mcmc.metrics.every") != null) {
+            metricsEvery = Long.parseLong(System.getProperty("mcmc.metrics.every"));
+        }
+        if (xo.hasAttribute(METRICS_LOG)) {
+            mcmc.setMetricsFile(XMLParser.getLogFile(xo, METRICS_LOG), metricsEvery);
+        } else if (System.getProperty("mcmc.metrics.file") != null) {
+            mcmc.setMetricsFile(FileHelpers.getFile(System.getProperty("mcmc.metrics.file"),
+                    System.getProperty("file.name.prefix")), metricsEvery);
+        }
+
 
         Logger[] loggerArray = new Logger[loggers.size()];
         loggers.toArray(loggerArray);
@@ -293,6 +306,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(SPAWN, true),
             AttributeRule.newStringRule(NAME, true),
             AttributeRule.newStringRule(OPERATOR_ANALYSIS, true),
+            AttributeRule.newStringRule(METRICS_LOG, true),
+            AttributeRule.newLongIntegerRule(METRICS_EVERY, true),
             new ElementRule(OperatorSchedule.class),
             new ElementRule(Likelihood.class),
             new ElementRule(Logger.class, 1, Integer.MAX_VALUE),
@@ -314,6 +329,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
     public static final String TEMPERATURE = "temperature";
     public static final String SPAWN = "spawn";
     public static final String OPERATOR_ANALYSIS = "operatorAnalysis";
+    public static final String METRICS_LOG = "metricsLog";
+    public static final String METRICS_EVERY = "metricsEvery";
 
 
 }
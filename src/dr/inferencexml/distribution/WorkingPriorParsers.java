@@ -81,7 +81,7 @@ public class WorkingPriorParsers {
                 String parent = file.getParent();
 
                 if (!file.isAbsolute()) {
-                    parent = System.getProperty("user.dir");
+                    parent = FileHelpers.getWorkingDirectory();
                 }
                 file = new File(parent, fileName);
                 fileName = file.getAbsolutePath();
@@ -232,7 +232,7 @@ public class WorkingPriorParsers {
                 String parent = file.getParent();
 
                 if (!file.isAbsolute()) {
-                    parent = System.getProperty("user.dir");
+                    parent = FileHelpers.getWorkingDirectory();
                 }
                 file = new File(parent, fileName);
                 fileName = file.getAbsolutePath();
@@ -390,7 +390,7 @@ public class WorkingPriorParsers {
                 String parent = file.getParent();
 
                 if (!file.isAbsolute()) {
-                    parent = System.getProperty("user.dir");
+                    parent = FileHelpers.getWorkingDirectory();
                 }
                 file = new File(parent, fileName);
                 fileName = file.getAbsolutePath();
@@ -577,7 +577,7 @@ public class WorkingPriorParsers {
                 String parent = file.getParent();
 
                 if (!file.isAbsolute()) {
-                    parent = System.getProperty("user.dir");
+                    parent = FileHelpers.getWorkingDirectory();
                 }
                 file = new File(parent, fileName);
                 fileName = file.getAbsolutePath();
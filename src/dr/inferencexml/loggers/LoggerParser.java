@@ -35,6 +35,8 @@ import dr.util.Property;
 import dr.xml.*;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.PrintWriter;
 import java.util.Date;
 
@@ -56,6 +58,14 @@ public class LoggerParser extends AbstractXMLObjectParser {
     public static final String PRETTY = "pretty";
     public static final String LOG_EVERY = "logEvery";
     public static final String ALLOW_OVERWRITE_LOG = "overwrite";
+    public static final String BINARY_FILE_NAME = "binaryFileName";
+
+    // write a binary trace file alongside every log file
+    public static final String BINARY_TRACE_LOGGING = "log.binary";
+    public static final String BINARY_TRACE_SUFFIX = ".btrace";
+
+    // continue the existing log files rather than starting new ones
+    public static final String APPEND_LOGS = "log.append";
 
     public static final String COLUMNS = "columns";
     public static final String COLUMN = "column";
@@ -89,6 +99,21 @@ public class LoggerParser extends AbstractXMLObjectParser {
 
         // added a performance measurement delay to avoid the full evaluation period.
         final MCLogger logger = new MCLogger(formatter, logEvery, performanceReport, 10000);
+        logger.setAppending(xo.hasAttribute(FILE_NAME) && isAppendingLogs());
+
+        final File binaryFile = getBinaryTraceFile(xo);
+        if (binaryFile != null && isAppendingLogs()) {
+            // the categories and chunks of a binary trace can't be carried on in a new run
+            java.util.logging.Logger.getLogger("dr.inference").warning("The binary trace file " + binaryFile.getName() +
+                    " is not continued with the log file.");
+        } else if (binaryFile != null) {
+            try {
+                logger.addFormatter(new BinaryTraceFormatter(new FileOutputStream(binaryFile)));
+            } catch (FileNotFoundException fnfe) {
+                throw new XMLParseException("File '" + binaryFile.getAbsolutePath() +
+                        "' can not be opened for " + getParserName() + " element.");
+            }
+        }
 
         String title = null;
         if (xo.hasAttribute(TITLE)) {
@@ -146,6 +171,46 @@ public class LoggerParser extends AbstractXMLObjectParser {
         return XMLParser.getFilePrintWriter(xo, parserName);
     }
 
+    /**
+     * @return true if log files are being continued, in which case they are appended to and their headers are not
+     * written again.
+     */
+    public static boolean isAppendingLogs() {
+        return Boolean.parseBoolean(System.getProperty(APPEND_LOGS, "false"));
+    }
+
+    /**
+     * @return the file to write a binary trace to, either given explicitly or named after the
+     * log file if binary traces have been asked for on the command line, or null if there is none.
+     */
+    private static File getBinaryTraceFile(XMLObject xo) throws XMLParseException {
+        if (xo.hasAttribute(BINARY_FILE_NAME)) {
+            return XMLParser.getLogFile(xo, BINARY_FILE_NAME);
+        }
+
+        if (xo.hasAttribute(FILE_NAME) && Boolean.parseBoolean(System.getProperty(BINARY_TRACE_LOGGING, "false"))) {
+            File logFile = XMLParser.getFileHandle(xo, FILE_NAME);
+            String name = logFile.getName();
+            if (name.endsWith(".log")) {
+                name = name.substring(0, name.length() - 4);
+            }
+            File binaryFile = new File(logFile.getParentFile(), name + BINARY_TRACE_SUFFIX);
+
+            boolean allowOverwrite = Boolean.parseBoolean(System.getProperty("log.allow.overwrite", "false"));
+            if (xo.hasAttribute(ALLOW_OVERWRITE_LOG)) {
+                allowOverwrite = xo.getBooleanAttribute(ALLOW_OVERWRITE_LOG);
+            }
+            if (binaryFile.exists() && !allowOverwrite) {
+                throw new XMLParseException("\nThe binary trace file " + binaryFile.getName() +
+                        " already exists in the working directory." +
+                        "\nTo allow it to be overwritten, use the '-overwrite' command line option.");
+            }
+            return binaryFile;
+        }
+
+        return null;
+    }
+
     //************************************************************************
     // AbstractXMLObjectParser implementation
     //************************************************************************
@@ -160,6 +225,8 @@ public class LoggerParser extends AbstractXMLObjectParser {
             new StringAttributeRule(FILE_NAME,
                     "The name of the file to send log output to. " +
                             "If no file name is specified then log is sent to standard output", true),
+            new StringAttributeRule(BINARY_FILE_NAME,
+                    "The name of a file to also write the log to as a columnar binary trace", true),
             new StringAttributeRule(TITLE,
                     "The title of the log", true),
             new StringAttributeRule(HEADER,
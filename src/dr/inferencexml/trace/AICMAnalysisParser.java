@@ -29,6 +29,7 @@ import dr.inference.trace.LogFileTraces;
 import dr.inference.trace.MarginalLikelihoodAnalysis;
 import dr.inference.trace.TraceException;
 import dr.util.Attribute;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
 import java.io.File;
@@ -60,7 +61,7 @@ public class AICMAnalysisParser extends AbstractXMLObjectParser {
             String name = file.getName();
             String parent = file.getParent();
             if (!file.isAbsolute()) {
-                parent = System.getProperty("user.dir");
+                parent = FileHelpers.getWorkingDirectory();
             }
             file = new File(parent, name);
             fileName = file.getAbsolutePath();
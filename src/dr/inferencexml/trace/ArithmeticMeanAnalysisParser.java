@@ -33,6 +33,7 @@ import dr.inference.trace.LogFileTraces;
 import dr.inference.trace.MarginalLikelihoodAnalysis;
 import dr.inference.trace.TraceException;
 import dr.util.Attribute;
+import dr.util.FileHelpers;
 import dr.xml.AbstractXMLObjectParser;
 import dr.xml.AttributeRule;
 import dr.xml.ElementRule;
@@ -68,7 +69,7 @@ public class ArithmeticMeanAnalysisParser extends AbstractXMLObjectParser {
             String name = file.getName();
             String parent = file.getParent();
             if (!file.isAbsolute()) {
-                parent = System.getProperty("user.dir");
+                parent = FileHelpers.getWorkingDirectory();
             }
             file = new File(parent, name);
             fileName = file.getAbsolutePath();
@@ -29,6 +29,7 @@ import dr.inference.trace.LogFileTraces;
 import dr.inference.trace.MarginalLikelihoodAnalysis;
 import dr.inference.trace.TraceException;
 import dr.util.Attribute;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
 import java.io.File;
@@ -62,7 +63,7 @@ public class MarginalLikelihoodAnalysisParser extends AbstractXMLObjectParser {
             String parent = file.getParent();
 
             if (!file.isAbsolute()) {
-                parent = System.getProperty("user.dir");
+                parent = FileHelpers.getWorkingDirectory();
             }
 
             file = new File(parent, name);
@@ -27,6 +27,7 @@ package dr.inferencexml.trace;
 
 import dr.inference.trace.*;
 import dr.util.Attribute;
+import dr.util.FileHelpers;
 import dr.util.NumberFormatter;
 import dr.xml.*;
 
@@ -63,7 +64,7 @@ public class TraceAnalysisParser extends AbstractXMLObjectParser {
             String parent = file.getParent();
 
             if (!file.isAbsolute()) {
-                parent = System.getProperty("user.dir");
+                parent = FileHelpers.getWorkingDirectory();
             }
 
             file = new File(parent + File.separator, name);
@@ -27,7 +27,10 @@ package dr.math;
 
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
 
+import dr.inference.model.AnalysisContext;
 import dr.util.NumberFormatter;
 
 /**
@@ -44,15 +47,12 @@ public class MathUtils {
 	}
 
 	/**
-	 * A random number generator that is initialized with the clock when this
-	 * class is loaded into the JVM. Use this for all random numbers.
-	 * Note: This method or getting random numbers in not thread-safe. Since
-	 * MersenneTwisterFast is currently (as of 9/01) not synchronized using
-	 * this function may cause concurrency issues. Use the static get methods of the
-	 * MersenneTwisterFast class for access to a single instance of the class, that
-	 * has synchronization.
+	 * The random number stream bound to the current thread, if any. Threads without a stream
+	 * (the default) share the generator of their analysis (see AnalysisContext) which, unless
+	 * the analysis has been given a seed of its own, is MersenneTwisterFast.DEFAULT_INSTANCE,
+	 * initialized with the clock when that class is loaded into the JVM.
 	 */
-	private static final MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
+	private static final ThreadLocal<MersenneTwisterFast> threadStream = new ThreadLocal<MersenneTwisterFast>();
 
 	// Chooses one category if a cumulative probability distribution is given
 	public static int randomChoice(double[] cf) {
@@ -174,6 +174,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long getSeed() {
+		final MersenneTwisterFast random = getDefaultGenerator();
 		synchronized (random) {
 			return random.getSeed();
 		}
@@ -183,17 +184,125 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void setSeed(long seed) {
+		final MersenneTwisterFast random = getDefaultGenerator();
 		synchronized (random) {
 			random.setSeed(seed);
 		}
+		// any streams will be recreated from the new seed
+		final List<MersenneTwisterFast> streams = getStreams();
+		synchronized (streams) {
+			streams.clear();
+		}
+	}
+
+	// ===================== Independent random number streams ===========
+
+	/**
+	 * Returns the stream with the given index, creating it if necessary. The seed of a new
+	 * stream is derived from the seed of the default instance and the index so that the same
+	 * seed always gives the same set of streams regardless of the order they are created in.
+	 * The streams should be obtained after the seed has been set.
+	 */
+	public static MersenneTwisterFast getRandomStream(int index) {
+		final List<MersenneTwisterFast> streams = getStreams();
+		synchronized (streams) {
+			while (streams.size() <= index) {
+				streams.add(null);
+			}
+			MersenneTwisterFast stream = streams.get(index);
+			if (stream == null) {
+				stream = new MersenneTwisterFast();
+				stream.setSeed(getStreamSeed(getSeed(), index));
+				streams.set(index, stream);
+			}
+			return stream;
+		}
+	}
+
+	/**
+	 * Binds a stream to the current thread so that all the static methods in this class called
+	 * from that thread draw from it rather than contending for the shared instance.
+	 *
+	 * @param stream the stream or null to go back to using the shared instance
+	 */
+	public static void setThreadRandomStream(MersenneTwisterFast stream) {
+		if (stream == null) {
+			threadStream.remove();
+		} else {
+			threadStream.set(stream);
+		}
+	}
+
+	/**
+	 * @return the number of streams that have been created
+	 */
+	public static int getRandomStreamCount() {
+		final List<MersenneTwisterFast> streams = getStreams();
+		synchronized (streams) {
+			return streams.size();
+		}
+	}
+
+	/**
+	 * @return the state of the stream with the given index or null if it hasn't been created
+	 */
+	public static int[] getRandomStreamState(int index) {
+		final List<MersenneTwisterFast> streams = getStreams();
+		synchronized (streams) {
+			MersenneTwisterFast stream = (index < streams.size() ? streams.get(index) : null);
+			if (stream == null) {
+				return null;
+			}
+			synchronized (stream) {
+				return stream.getRandomState();
+			}
+		}
+	}
+
+	/**
+	 * Sets the state of the stream with the given index, creating it if necessary.
+	 */
+	public static void setRandomStreamState(int index, int[] rngState) {
+		MersenneTwisterFast stream = getRandomStream(index);
+		synchronized (stream) {
+			stream.setRandomState(rngState);
+		}
+	}
+
+	private static MersenneTwisterFast getGenerator() {
+		MersenneTwisterFast stream = threadStream.get();
+		return (stream != null ? stream : getDefaultGenerator());
+	}
+
+	private static MersenneTwisterFast getDefaultGenerator() {
+		return AnalysisContext.getCurrent().getRandom();
+	}
+
+	private static List<MersenneTwisterFast> getStreams() {
+		return AnalysisContext.getCurrent().getRandomStreams();
+	}
+
+	/**
+	 * Mixes the seed and the stream index (the SplitMix64 finaliser) so that neighbouring
+	 * streams don't get correlated initial states. MersenneTwisterFast only uses the lower
+	 * 32 bits of its seed and they must not be zero.
+	 */
+	private static long getStreamSeed(long seed, int index) {
+		long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		int streamSeed = (int) (z ^ (z >>> 32));
+		return (streamSeed != 0 ? streamSeed : index + 1);
 	}
 
 	/**
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static byte nextByte() {
-		synchronized (random) {
-			return random.nextByte();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextByte();
 		}
 	}
 
@@ -201,8 +310,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static boolean nextBoolean() {
-		synchronized (random) {
-			return random.nextBoolean();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextBoolean();
 		}
 	}
 
@@ -210,8 +320,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void nextBytes(byte[] bs) {
-		synchronized (random) {
-			random.nextBytes(bs);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			rng.nextBytes(bs);
 		}
 	}
 
@@ -219,8 +330,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static char nextChar() {
-		synchronized (random) {
-			return random.nextChar();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextChar();
 		}
 	}
 
@@ -228,8 +340,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextGaussian() {
-		synchronized (random) {
-			return random.nextGaussian();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextGaussian();
 		}
 	}
 
@@ -237,8 +350,9 @@ public class MathUtils {
 	//Variance = alpha / (lambda*lambda)
 
 	public static double nextGamma(double alpha, double lambda) {
-		synchronized (random) {
-			return random.nextGamma(alpha, lambda);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextGamma(alpha, lambda);
 		}
 	}
 
@@ -258,8 +372,9 @@ public class MathUtils {
 	 * @return a pseudo random double precision floating point number in [01)
 	 */
 	public static double nextDouble() {
-		synchronized (random) {
-			return random.nextDouble();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextDouble();
 		}
 	}
 
@@ -274,8 +389,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextExponential(double lambda) {
-		synchronized (random) {
-			return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return -1.0 * Math.log(1 - rng.nextDouble()) / lambda;
 		}
 	}
 
@@ -283,9 +399,10 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextInverseGaussian(double mu, double lambda) {
-		synchronized (random) {
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
 			/* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
-			double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
+			double v = rng.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
 			double y = v * v;
 			double x = mu + (mu * mu * y) / (2 * lambda) - (mu / (2 * lambda)) * Math.sqrt(4 * mu * lambda * y + mu * mu * y * y);
 			double test = MathUtils.nextDouble();  // sample from a uniform distribution between 0 and 1
@@ -302,8 +419,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static float nextFloat() {
-		synchronized (random) {
-			return random.nextFloat();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextFloat();
 		}
 	}
 
@@ -311,8 +429,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long nextLong() {
-		synchronized (random) {
-			return random.nextLong();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextLong();
 		}
 	}
 
@@ -320,8 +439,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static short nextShort() {
-		synchronized (random) {
-			return random.nextShort();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextShort();
 		}
 	}
 
@@ -329,8 +449,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt() {
-		synchronized (random) {
-			return random.nextInt();
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextInt();
 		}
 	}
 
@@ -338,8 +459,9 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt(int n) {
-		synchronized (random) {
-			return random.nextInt(n);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.nextInt(n);
 		}
 	}
 
@@ -356,8 +478,9 @@ public class MathUtils {
 	 * Shuffles an array.
 	 */
 	public static void shuffle(int[] array) {
-		synchronized (random) {
-			random.shuffle(array);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			rng.shuffle(array);
 		}
 	}
 
@@ -365,8 +488,9 @@ public class MathUtils {
 	 * Shuffles an array. Shuffles numberOfShuffles times
 	 */
 	public static void shuffle(int[] array, int numberOfShuffles) {
-		synchronized (random) {
-			random.shuffle(array, numberOfShuffles);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			rng.shuffle(array, numberOfShuffles);
 		}
 	}
 
@@ -376,17 +500,19 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] shuffled(int l) {
-		synchronized (random) {
-			return random.shuffled(l);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.shuffled(l);
 		}
 	}
 
 
 	public static int[] sampleIndicesWithReplacement(int length) {
-		synchronized (random) {
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
 			int[] result = new int[length];
 			for (int i = 0; i < length; i++)
-				result[i] = random.nextInt(length);
+				result[i] = rng.nextInt(length);
 			return result;
 		}
 	}
@@ -395,8 +521,9 @@ public class MathUtils {
 	 * Permutes an array.
 	 */
 	public static void permute(int[] array) {
-		synchronized (random) {
-			random.permute(array);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			rng.permute(array);
 		}
 	}
 
@@ -406,8 +533,9 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] permuted(int l) {
-		synchronized (random) {
-			return random.permuted(l);
+		final MersenneTwisterFast rng = getGenerator();
+		synchronized (rng) {
+			return rng.permuted(l);
 		}
 	}
 
@@ -451,12 +579,14 @@ public class MathUtils {
 	}
 
 	public static int[] getRandomState() {
+		final MersenneTwisterFast random = getDefaultGenerator();
 		synchronized (random) {
 			return random.getRandomState();
 		}
 	}
 
 	public static void setRandomState(int[] rngState) {
+		final MersenneTwisterFast random = getDefaultGenerator();
 		synchronized (random) {
 			random.setRandomState(rngState);
 		}
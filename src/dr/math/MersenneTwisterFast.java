@@ -74,7 +74,7 @@ import java.io.Serializable;
  * <p/>
  * This is now package private - it should be accessed using the instance in Random
  */
-class MersenneTwisterFast implements Serializable {
+public class MersenneTwisterFast implements Serializable {
 	/**
 	 *
 	 */
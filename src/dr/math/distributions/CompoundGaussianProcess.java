@@ -26,6 +26,7 @@
 package dr.math.distributions;
 
 import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.CompoundLikelihood;
 import dr.inference.model.Likelihood;
 import dr.xml.Reportable;
@@ -63,7 +64,7 @@ public class CompoundGaussianProcess implements GaussianProcessRandomGenerator,
         if (USE_POOL) {
             callers = createTasks();
             threadCount = callers.size();
-            pool = Executors.newFixedThreadPool(threadCount);
+            pool = AnalysisContext.getCurrent().newFixedThreadPool(threadCount);
         } else {
             callers = null;
             threadCount = -1;
@@ -0,0 +1,290 @@
+/*
+ * SymmetricTridiagonalMatrix.java
+ *
+ * Copyright (c) 2002-2017 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math.matrixAlgebra;
+
+/**
+ * A symmetric tridiagonal matrix, such as the precision matrix of a first order Gaussian Markov
+ * random field, held as its diagonal and off-diagonal. It can be factored (A = U'U, where U is
+ * upper bidiagonal) and solved with in place: all the working space is allocated when the matrix
+ * is created, so the same matrix can be filled, factored and solved with on every move.
+ *
+ * The arithmetic is done in the same order as the LAPACK routines used by the MTJ band matrices
+ * (dpbtf2 for the Cholesky factor, dtbsv for the triangular solves, dptsv to solve without the
+ * factor) so the results are the same as those of SymmTridiagMatrix, BandCholesky and
+ * SPDTridiagMatrix.
+ */
+public class SymmetricTridiagonalMatrix {
+
+    /**
+     * Pivots of the Cholesky factor smaller than this are taken to be zero by getLogDeterminant().
+     */
+    public static final double PIVOT_TOLERANCE = 0.0000001;
+
+    public SymmetricTridiagonalMatrix(int dimension) {
+        this.dimension = dimension;
+
+        diagonal = new double[dimension];
+        offDiagonal = new double[Math.max(dimension - 1, 0)];
+
+        factorDiagonal = new double[dimension];
+        factorOffDiagonal = new double[Math.max(dimension - 1, 0)];
+
+        solveDiagonal = new double[dimension];
+        solveOffDiagonal = new double[Math.max(dimension - 1, 0)];
+        work = new double[dimension];
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the diagonal itself (changing it requires the matrix to be factored again)
+     */
+    public double[] getDiagonal() {
+        return diagonal;
+    }
+
+    /**
+     * @return the off-diagonal itself (changing it requires the matrix to be factored again)
+     */
+    public double[] getOffDiagonal() {
+        return offDiagonal;
+    }
+
+    public double get(int i, int j) {
+        if (i == j) {
+            return diagonal[i];
+        } else if (i == j + 1) {
+            return offDiagonal[j];
+        } else if (j == i + 1) {
+            return offDiagonal[i];
+        }
+        return 0.0;
+    }
+
+    /**
+     * Sets this matrix to a copy of another of the same dimension.
+     */
+    public void set(SymmetricTridiagonalMatrix matrix) {
+        set(matrix.diagonal, matrix.offDiagonal);
+    }
+
+    public void set(double[] diagonal, double[] offDiagonal) {
+        System.arraycopy(diagonal, 0, this.diagonal, 0, dimension);
+        System.arraycopy(offDiagonal, 0, this.offDiagonal, 0, dimension - 1);
+        factorKnown = false;
+    }
+
+    /**
+     * Sets this matrix to precision * ((1 - lambda) * I + lambda * W), the scaled precision of a
+     * GMRF with weights W given by their diagonal and off-diagonal.
+     */
+    public void setScaled(double[] diagonal, double[] offDiagonal, double precision, double lambda) {
+        for (int i = 0; i < dimension - 1; i++) {
+            this.diagonal[i] = precision * (1 - lambda + lambda * diagonal[i]);
+            this.offDiagonal[i] = offDiagonal[i] * precision * lambda;
+        }
+        this.diagonal[dimension - 1] = precision * (1 - lambda + lambda * diagonal[dimension - 1]);
+        factorKnown = false;
+    }
+
+    public void addToDiagonal(int i, double value) {
+        diagonal[i] += value;
+        factorKnown = false;
+    }
+
+    /**
+     * Calculates y = A x.
+     */
+    public void multiply(double[] x, double[] y) {
+        for (int i = 0; i < dimension; i++) {
+            y[i] = diagonal[i] * x[i];
+        }
+        for (int i = 0; i < dimension - 1; i++) {
+            y[i + 1] += offDiagonal[i] * x[i];
+        }
+        for (int i = 0; i < dimension - 1; i++) {
+            y[i] += offDiagonal[i] * x[i + 1];
+        }
+    }
+
+    /**
+     * @return x' A x
+     */
+    public double quadraticForm(double[] x) {
+        multiply(x, work);
+
+        double sum = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            sum += x[i] * work[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the Cholesky factor, A = U'U, keeping the matrix itself.
+     *
+     * @return false if the matrix is not positive definite
+     */
+    public boolean factor() {
+        logDeterminantKnown = false;
+
+        System.arraycopy(diagonal, 0, factorDiagonal, 0, dimension);
+        for (int j = 0; j < dimension; j++) {
+            double pivot = factorDiagonal[j];
+            if (pivot <= 0.0) {
+                factorKnown = false;
+                return false;
+            }
+            pivot = Math.sqrt(pivot);
+            factorDiagonal[j] = pivot;
+
+            if (j < dimension - 1) {
+                final double u = (1.0 / pivot) * offDiagonal[j];
+                factorOffDiagonal[j] = u;
+                factorDiagonal[j + 1] += u * -u;
+            }
+        }
+
+        factorKnown = true;
+        return true;
+    }
+
+    /**
+     * Solves U' x = b with the Cholesky factor (b and x may be the same array).
+     */
+    public void forwardSolve(double[] b, double[] x) {
+        checkFactor();
+
+        x[0] = b[0] / factorDiagonal[0];
+        for (int j = 1; j < dimension; j++) {
+            x[j] = (b[j] - factorOffDiagonal[j - 1] * x[j - 1]) / factorDiagonal[j];
+        }
+    }
+
+    /**
+     * Solves U x = b with the Cholesky factor (b and x may be the same array).
+     */
+    public void backSolve(double[] b, double[] x) {
+        checkFactor();
+
+        x[dimension - 1] = b[dimension - 1] / factorDiagonal[dimension - 1];
+        for (int j = dimension - 2; j >= 0; j--) {
+            x[j] = (b[j] - x[j + 1] * factorOffDiagonal[j]) / factorDiagonal[j];
+        }
+    }
+
+    /**
+     * Solves A x = b with the Cholesky factor (b and x may be the same array).
+     */
+    public void solveFactored(double[] b, double[] x) {
+        forwardSolve(b, work);
+        backSolve(work, x);
+    }
+
+    /**
+     * @return the log of the determinant, from the Cholesky factor, leaving out any pivots that
+     * are (nearly) zero so that a singular, intrinsic precision gets its generalized determinant.
+     */
+    public double getLogDeterminant() {
+        checkFactor();
+
+        if (!logDeterminantKnown) {
+            double logHalfDeterminant = 0.0;
+            for (int j = 0; j < dimension; j++) {
+                if (factorDiagonal[j] > PIVOT_TOLERANCE) {
+                    logHalfDeterminant += Math.log(factorDiagonal[j]);
+                }
+            }
+            logDeterminant = 2.0 * logHalfDeterminant;
+            logDeterminantKnown = true;
+        }
+        return logDeterminant;
+    }
+
+    /**
+     * Solves A x = b using an L D L' factorization (as LAPACK's dptsv), leaving the Cholesky
+     * factor as it is (b and x may be the same array).
+     *
+     * @return false if the matrix is not positive definite
+     */
+    public boolean solve(double[] b, double[] x) {
+        System.arraycopy(diagonal, 0, solveDiagonal, 0, dimension);
+        System.arraycopy(offDiagonal, 0, solveOffDiagonal, 0, dimension - 1);
+
+        for (int i = 0; i < dimension - 1; i++) {
+            if (solveDiagonal[i] <= 0.0) {
+                return false;
+            }
+            final double e = solveOffDiagonal[i];
+            solveOffDiagonal[i] = e / solveDiagonal[i];
+            solveDiagonal[i + 1] = solveDiagonal[i + 1] - solveOffDiagonal[i] * e;
+        }
+        if (solveDiagonal[dimension - 1] <= 0.0) {
+            return false;
+        }
+
+        if (dimension == 1) {
+            x[0] = (1.0 / solveDiagonal[0]) * b[0];
+            return true;
+        }
+
+        x[0] = b[0];
+        for (int i = 1; i < dimension; i++) {
+            x[i] = b[i] - x[i - 1] * solveOffDiagonal[i - 1];
+        }
+        x[dimension - 1] = x[dimension - 1] / solveDiagonal[dimension - 1];
+        for (int i = dimension - 2; i >= 0; i--) {
+            x[i] = x[i] / solveDiagonal[i] - x[i + 1] * solveOffDiagonal[i];
+        }
+        return true;
+    }
+
+    private void checkFactor() {
+        if (!factorKnown) {
+            throw new IllegalStateException("The matrix has not been factored");
+        }
+    }
+
+    private final int dimension;
+
+    private final double[] diagonal;
+    private final double[] offDiagonal;
+
+    // the upper bidiagonal Cholesky factor
+    private final double[] factorDiagonal;
+    private final double[] factorOffDiagonal;
+    private boolean factorKnown = false;
+
+    private double logDeterminant;
+    private boolean logDeterminantKnown = false;
+
+    // working space
+    private final double[] solveDiagonal;
+    private final double[] solveOffDiagonal;
+    private final double[] work;
+}
@@ -228,6 +228,35 @@ public class MissingOps {
         }
     }
 
+    /**
+     * As invertAndGetDeterminant(mat, result) but with a solver that is reused between calls, so large
+     * matrices are inverted without allocating a new LU decomposition each time.
+     */
+    public static double invertAndGetDeterminant(DenseMatrix64F mat, DenseMatrix64F result, LinearSolverLu_D64 solver) {
+
+        final int numCol = mat.getNumCols();
+        final int numRow = mat.getNumRows();
+        if (numCol != numRow) {
+            throw new IllegalArgumentException("Must be a square matrix.");
+        }
+
+        if (numCol <= 5) {
+            return invertAndGetDeterminant(mat, result);
+        }
+
+        if (solver.modifiesA()) {
+            mat = mat.copy();
+        }
+
+        if (!solver.setA(mat)) {
+            return Double.NaN;
+        }
+
+        solver.invert(result);
+
+        return solver.getDecomposition().computeDeterminant().real;
+    }
+
     public static InversionResult safeDeterminant(DenseMatrix64F source, boolean invert) {
         final int finiteCount = countFiniteNonZeroDiagonals(source);
 
@@ -326,18 +355,29 @@ public class MissingOps {
 
 
     public static InversionResult safeInvert(DenseMatrix64F source, DenseMatrix64F destination, boolean getDeterminant) {
+        return safeInvert(source, destination, getDeterminant, null);
+    }
+
+    /**
+     * As safeInvert(source, destination, getDeterminant) but fully observed matrices are inverted with
+     * the given solver (if not null), which is reused between calls.
+     */
+    public static InversionResult safeInvert(DenseMatrix64F source, DenseMatrix64F destination, boolean getDeterminant,
+                                             LinearSolverLu_D64 solver) {
 
         final int dim = source.getNumCols();
         final int finiteCount = countFiniteNonZeroDiagonals(source);
         double det = 0;
 
         if (finiteCount == dim) {
-            if (getDeterminant) {
+            if (solver != null && dim > 5) {
+                det = invertAndGetDeterminant(source, destination, solver);
+            } else if (getDeterminant) {
                 det = invertAndGetDeterminant(source, destination);
             } else {
                 CommonOps.invert(source, destination);
             }
-            return new InversionResult(FULLY_OBSERVED, dim, det);
+            return new InversionResult(FULLY_OBSERVED, dim, getDeterminant ? det : 0);
         } else {
             if (finiteCount == 0) {
                 Arrays.fill(destination.getData(), 0);
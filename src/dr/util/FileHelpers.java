@@ -25,6 +25,8 @@
 
 package dr.util;
 
+import dr.inference.model.AnalysisContext;
+
 import java.io.*;
 
 /**
@@ -58,8 +60,8 @@ public class FileHelpers {
      * <p/>
      * Keep A fully qualified (i.e. absolute path) as is. A name starting with a "./" is
      * relative to the master directory (set by FileHelpers.setMasterDir).
-     * Any other name is stripped of any directory
-     * component and placed in the "user.dir" directory.
+     * Any other name is placed in the working directory of the analysis (the "user.dir"
+     * directory unless one has been set).
      *
      * @param fileName an absolute or relative file name
      * @return a File object resolved from provided file name
@@ -84,7 +86,7 @@ public class FileHelpers {
             if (relative) {
                 p = masterDirectory.getAbsolutePath();
             } else {
-                p = System.getProperty("user.dir");
+                p = getWorkingDirectory();
             }
             if (parent != null && parent.length() > 0) {
                 parent = p + '/' + parent;
@@ -95,6 +97,14 @@ public class FileHelpers {
         return new File(parent, name);
     }
 
+    /**
+     * @return the working directory of the current analysis or, if it hasn't got one, the "user.dir" directory
+     */
+    public static String getWorkingDirectory() {
+        File workingDirectory = AnalysisContext.getCurrent().getWorkingDirectory();
+        return (workingDirectory != null ? workingDirectory.getAbsolutePath() : System.getProperty("user.dir"));
+    }
+
     public static File getFile(String fileName) {
         return getFile(fileName, null);
     }
@@ -41,7 +41,9 @@ public class MessageLogHandler extends StreamHandler {
 	}
 
 
-	public void publish(LogRecord record) {
+	// the message is flushed while still holding the lock so that messages logged by
+	// different threads are written out one at a time
+	public synchronized void publish(LogRecord record) {
 		super.publish(record);
 		flush();
 	}
@@ -25,6 +25,7 @@
 
 package dr.xml;
 
+import dr.inference.model.AnalysisContext;
 import dr.inference.model.Likelihood;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
@@ -105,6 +106,34 @@ public class XMLParser {
         return threads.iterator();
     }
 
+    /**
+     * Sets the context that the objects are created (and the analysis run) in. Parsers can share
+     * a context, as the chains of an MC3 analysis do, and a context with its own random number
+     * seed keeps an analysis independent of any others running in the same JVM.
+     */
+    public void setAnalysisContext(AnalysisContext analysisContext) {
+        this.analysisContext = analysisContext;
+    }
+
+    /**
+     * @return the context of the analysis. Unless one has been set, it is created for the first
+     * file parsed and shares the random number generator of the context current at the time.
+     */
+    public AnalysisContext getAnalysisContext() {
+        if (analysisContext == null) {
+            analysisContext = new AnalysisContext(AnalysisContext.getCurrent().getRandom());
+        }
+        return analysisContext;
+    }
+
+    /**
+     * Binds the context to this thread. It stays bound after parsing so the objects parsed can
+     * be used (and a chain run) from this thread afterwards.
+     */
+    private void bindAnalysisContext() {
+        AnalysisContext.setCurrent(getAnalysisContext());
+    }
+
     public void storeObject(String name, Object object) {
 
         XMLObject xo = new XMLObject(null, null /*, objectStore*/);
@@ -139,6 +168,7 @@ public class XMLParser {
 
         Element e = document.getDocumentElement();
         if (e.getTagName().equals("beast")) {
+            bindAnalysisContext();
 
             concurrent = false;
             return convert(e, target, null, false, true);
@@ -163,6 +193,7 @@ public class XMLParser {
 
         Element e = document.getDocumentElement();
         if (e.getTagName().equals("beast")) {
+            bindAnalysisContext();
             // If the 'version' is attribute is present then check it is not an more recent version...
             if (e.hasAttribute(VERSION)) {
                 String xmlVersion = e.getAttribute(VERSION);
@@ -333,11 +364,11 @@ public class XMLParser {
                 }
 
                 if (obj instanceof Likelihood) {
-                    Likelihood.FULL_LIKELIHOOD_SET.add((Likelihood) obj);
+                    analysisContext.getFullLikelihoodSet().add((Likelihood) obj);
                 } else if (obj instanceof Model) {
-                    Model.FULL_MODEL_SET.add((Model) obj);
+                    analysisContext.getFullModelSet().add((Model) obj);
                 } else if (obj instanceof Parameter) {
-                    Parameter.FULL_PARAMETER_SET.add((Parameter) obj);
+                    analysisContext.getFullParameterSet().add((Parameter) obj);
                 }
 
                 xo.setNativeObject(obj);
@@ -412,7 +443,7 @@ public class XMLParser {
      * @param xo
      * @return
      */
-    private static File getFileHandle(XMLObject xo, String attributeName) throws XMLParseException {
+    public static File getFileHandle(XMLObject xo, String attributeName) throws XMLParseException {
         String fileName = xo.getStringAttribute(attributeName);
 
         // Check to see if a filename prefix has been specified, check it doesn't contain directory
@@ -457,7 +488,7 @@ public class XMLParser {
             File logFile = getLogFile(xo, attributeName);
 
             try {
-                return new PrintWriter(new FileOutputStream(logFile));
+                return new PrintWriter(new FileOutputStream(logFile, LoggerParser.isAppendingLogs()));
             } catch (FileNotFoundException fnfe) {
                 throw new XMLParseException("File '" + logFile.getAbsolutePath() +
                         "' can not be opened for " + parserName + " element.");
@@ -480,7 +511,7 @@ public class XMLParser {
             allowOverwrite = Boolean.parseBoolean(System.getProperty("log.allow.overwrite", "false"));
         }
 
-        if (logFile.exists() && !allowOverwrite) {
+        if (logFile.exists() && !allowOverwrite && !LoggerParser.isAppendingLogs()) {
             throw new XMLParseException("\nThe log file " + logFile.getName() + " already exists in the working directory." +
                     "\nTo allow it to be overwritten, use the '-overwrite' command line option when running" +
                     "\nBEAST or select the option in the Run Options dialog box as appropriate.");
@@ -596,6 +627,7 @@ public class XMLParser {
     private final Map<String, XMLObjectParser> parserStore = new TreeMap<String, XMLObjectParser>(new ParserComparator());
     private final Map<String, XMLObject> objectStore = new LinkedHashMap<String, XMLObject>();
     private final Map<Pair<String, String>, List<Citation>> citationStore = new LinkedHashMap<Pair<String, String>, List<Citation>>();
+    private AnalysisContext analysisContext = null;
     private boolean concurrent = false;
     private XMLObject root = null;
 
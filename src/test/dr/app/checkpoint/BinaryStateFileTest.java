@@ -0,0 +1,98 @@
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.BinaryStateFile;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Checks that a binary state file with incremental saves reads back as the last complete save.
+ */
+
+public class BinaryStateFileTest extends TestCase {
+
+    public void testIncrementalSaves() throws Exception {
+        File file = File.createTempFile("state", ".bin");
+        file.deleteOnExit();
+
+        BinaryStateFile stateFile = new BinaryStateFile(3);
+
+        double[] rates = new double[1000];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = i;
+        }
+
+        for (long state = 0; state < 5; state++) {
+            rates[(int) state] = -1.0;
+            stateFile.write(file, createCheckpoint(state, rates));
+
+            BinaryStateFile.Checkpoint checkpoint = BinaryStateFile.read(file);
+            assertEquals(state, checkpoint.state);
+            assertEquals((double) -state, checkpoint.lnL);
+            assertEquals(2.0, checkpoint.parameterValues[0][0]);
+            assertNull(checkpoint.parameterValues[1]);
+            for (int i = 0; i < rates.length; i++) {
+                assertEquals(rates[i], checkpoint.parameterValues[2][i]);
+            }
+            assertEquals(state, checkpoint.acceptCounts[0]);
+            assertEquals(0.5, checkpoint.trees.get(0).nodeHeights[2]);
+            assertEquals("B", checkpoint.trees.get(0).taxaNames[1]);
+        }
+
+        long length = file.length();
+
+        // a save that was interrupted part way through should be ignored
+        rates[10] = -1.0;
+        stateFile.write(file, createCheckpoint(5, rates));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length + (file.length() - length) / 2);
+        raf.close();
+
+        BinaryStateFile.Checkpoint checkpoint = BinaryStateFile.read(file);
+        assertEquals(4, checkpoint.state);
+        assertEquals(10.0, checkpoint.parameterValues[2][10]);
+
+        // a record length that is never written is reported rather than allocated
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length);
+        raf.seek(length);
+        raf.writeInt(Integer.MAX_VALUE);
+        raf.writeLong(0);
+        raf.close();
+
+        try {
+            BinaryStateFile.read(file);
+            fail("a corrupt record length should not be read");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    private BinaryStateFile.Checkpoint createCheckpoint(long state, double[] rates) {
+        BinaryStateFile.Checkpoint checkpoint = new BinaryStateFile.Checkpoint();
+        checkpoint.rngState = new int[]{1, 2, 3};
+        checkpoint.state = state;
+        checkpoint.lnL = -state;
+
+        checkpoint.parameterNames = new String[]{"kappa", "fixed", "rates"};
+        checkpoint.parameterValues = new double[][]{{2.0}, null, rates.clone()};
+
+        checkpoint.operatorNames = new String[]{"scale(kappa)"};
+        checkpoint.acceptCounts = new long[]{state};
+        checkpoint.rejectCounts = new long[]{0};
+        checkpoint.adaptableParameters = new double[]{0.75};
+
+        BinaryStateFile.TreeState tree = new BinaryStateFile.TreeState();
+        tree.name = "treeModel";
+        tree.nodeHeights = new double[]{0.0, 0.0, 0.5};
+        tree.taxaNames = new String[]{"A", "B"};
+        tree.parents = new int[]{2, 2, -1};
+        tree.childOrder = new int[]{0, 1, -1};
+        tree.traitValues = new double[0][];
+        checkpoint.trees.add(tree);
+
+        return checkpoint;
+    }
+}
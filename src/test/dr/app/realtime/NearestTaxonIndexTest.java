@@ -0,0 +1,121 @@
+package test.dr.app.realtime;
+
+import dr.app.realtime.CheckPointUpdaterApp;
+import dr.app.realtime.NearestTaxonIndex;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class NearestTaxonIndexTest extends TestCase {
+
+    private static final int TAXON_COUNT = 300;
+    private static final int SITE_COUNT = 2000;
+    private static final int INDEXED_COUNT = 200;
+
+    public NearestTaxonIndexTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // a few clusters of closely related sequences with ambiguities and gaps
+        String[] ancestors = new String[5];
+        for (int i = 0; i < ancestors.length; i++) {
+            StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < SITE_COUNT; j++) {
+                sequence.append("ACGT".charAt(MathUtils.nextInt(4)));
+            }
+            ancestors[i] = sequence.toString();
+        }
+
+        alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            StringBuilder sequence = new StringBuilder(ancestors[MathUtils.nextInt(ancestors.length)]);
+            for (int j = 0; j < SITE_COUNT; j++) {
+                double u = MathUtils.nextDouble();
+                if (u < 0.02) {
+                    sequence.setCharAt(j, "ACGT".charAt(MathUtils.nextInt(4)));
+                } else if (u < 0.025) {
+                    sequence.setCharAt(j, "NR-".charAt(MathUtils.nextInt(3)));
+                }
+            }
+            alignment.addSequence(new Sequence(new Taxon("taxon" + i), sequence.toString()));
+        }
+
+        patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        indexedTaxa = new ArrayList<Taxon>();
+        for (int i = 0; i < INDEXED_COUNT; i++) {
+            indexedTaxa.add(patterns.getTaxon(i));
+        }
+    }
+
+    public void testJukesCantor() {
+        checkNearest(CheckPointUpdaterApp.UpdateChoice.JC69DISTANCE);
+    }
+
+    public void testSimple() {
+        checkNearest(CheckPointUpdaterApp.UpdateChoice.SIMPLE);
+    }
+
+    public void testReadWrite() throws Exception {
+        NearestTaxonIndex index = new NearestTaxonIndex(patterns, NearestTaxonIndex.Score.MISMATCHES);
+        for (Taxon taxon : indexedTaxa) {
+            index.add(taxon);
+        }
+
+        File file = File.createTempFile("nearest", NearestTaxonIndex.FILE_EXTENSION);
+        file.deleteOnExit();
+        index.write(file);
+
+        NearestTaxonIndex copy = NearestTaxonIndex.read(file, patterns, NearestTaxonIndex.Score.MISMATCHES);
+        assertEquals(index.getTaxa(), copy.getTaxa());
+
+        for (int i = INDEXED_COUNT; i < TAXON_COUNT; i++) {
+            Taxon taxon = patterns.getTaxon(i);
+            assertSame(index.getNearestTaxon(taxon), copy.getNearestTaxon(taxon));
+        }
+
+        try {
+            NearestTaxonIndex.read(file, patterns, NearestTaxonIndex.Score.PROPORTION);
+            fail("read an index built for a different score");
+        } catch (java.io.IOException ioe) {
+            // expected
+        }
+    }
+
+    private void checkNearest(CheckPointUpdaterApp.UpdateChoice choice) {
+
+        choice.setPatterns(patterns);
+
+        NearestTaxonIndex index = new NearestTaxonIndex(patterns, choice.getIndexScore());
+        ArrayList<Taxon> taxa = new ArrayList<Taxon>(indexedTaxa);
+        for (Taxon taxon : taxa) {
+            index.add(taxon);
+        }
+
+        // incrementally add the query taxa as the tree modifier does
+        for (int i = INDEXED_COUNT; i < TAXON_COUNT; i++) {
+            Taxon taxon = patterns.getTaxon(i);
+            assertSame(taxon.getId(), choice.getClosestTaxon(taxon, taxa), index.getNearestTaxon(taxon));
+            taxa.add(taxon);
+            index.add(taxon);
+        }
+        assertEquals(TAXON_COUNT, index.getTaxonCount());
+    }
+
+    private SimpleAlignment alignment;
+    private SitePatterns patterns;
+    private ArrayList<Taxon> indexedTaxa;
+}
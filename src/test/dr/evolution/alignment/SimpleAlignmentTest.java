@@ -0,0 +1,65 @@
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks the states read through the decoded state matrix of SimpleAlignment follow
+ * changes to the sequences.
+ */
+public class SimpleAlignmentTest extends TestCase {
+
+    public SimpleAlignmentTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        alignment.addSequence(new Sequence(new Taxon("taxon1"), "ACGTN-"));
+        alignment.addSequence(new Sequence(new Taxon("taxon2"), "ACGTRA"));
+        alignment.addSequence(new Sequence(new Taxon("taxon3"), "TTGCA"));
+    }
+
+    public void testStates() {
+        for (int i = 0; i < alignment.getSiteCount(); i++) {
+            int[] pattern = alignment.getSitePattern(i);
+            int[] buffer = alignment.getSitePattern(i, new int[alignment.getSequenceCount()]);
+            assertTrue(Arrays.equals(pattern, buffer));
+
+            for (int j = 0; j < alignment.getSequenceCount(); j++) {
+                Sequence sequence = alignment.getSequence(j);
+                int state = i < sequence.getLength() ?
+                        Nucleotides.INSTANCE.getState(sequence.getChar(i)) : Nucleotides.INSTANCE.getGapState();
+                assertEquals(state, pattern[j]);
+                assertEquals(state, alignment.getState(j, i));
+            }
+        }
+    }
+
+    public void testChanges() {
+        assertEquals(Nucleotides.INSTANCE.getState('G'), alignment.getState(0, 2));
+
+        alignment.setState(0, 2, Nucleotides.INSTANCE.getState('T'));
+        assertEquals(Nucleotides.INSTANCE.getState('T'), alignment.getState(0, 2));
+        assertEquals(Nucleotides.INSTANCE.getState('T'), alignment.getSitePattern(2)[0]);
+
+        // changes made to a sequence directly are seen too
+        alignment.getSequence(1).setSequenceString("GGGGGG");
+        assertEquals(Nucleotides.INSTANCE.getState('G'), alignment.getState(1, 0));
+        assertEquals(Nucleotides.INSTANCE.getState('G'), alignment.getSitePattern(4)[1]);
+
+        alignment.addSequence(new Sequence(new Taxon("taxon4"), "CCCCCC"));
+        assertEquals(4, alignment.getSitePattern(0).length);
+        assertEquals(Nucleotides.INSTANCE.getState('C'), alignment.getState(3, 5));
+    }
+
+    private SimpleAlignment alignment;
+}
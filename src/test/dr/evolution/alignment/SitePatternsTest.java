@@ -0,0 +1,184 @@
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.PatternIndex;
+import dr.evolution.alignment.Patterns;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks the hash indexed compression of site patterns against a comparison of every
+ * site with every pattern.
+ */
+public class SitePatternsTest extends TestCase {
+
+    private static final int TAXON_COUNT = 12;
+    private static final int SITE_COUNT = 10000;
+
+    public SitePatternsTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // few enough variable positions that many sites share a pattern, plus some gaps
+        alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            StringBuilder sequence = new StringBuilder();
+            for (int j = 0; j < SITE_COUNT; j++) {
+                if (i < 5) {
+                    sequence.append(MathUtils.nextDouble() < 0.01 ? '-' : "ACGT".charAt(MathUtils.nextInt(4)));
+                } else {
+                    sequence.append("ACGT".charAt(j % 4));
+                }
+            }
+            alignment.addSequence(new Sequence(new Taxon("taxon" + i), sequence.toString()));
+        }
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        System.clearProperty(SitePatterns.THREAD_COUNT);
+    }
+
+    public void testSequential() {
+        System.setProperty(SitePatterns.THREAD_COUNT, "1");
+        checkPatterns(new SitePatterns(alignment, null, 0, -1, 1, true));
+        checkPatterns(new SitePatterns(alignment, null, 3, SITE_COUNT - 10, 2, false));
+    }
+
+    public void testParallel() {
+        System.setProperty(SitePatterns.THREAD_COUNT, "4");
+        checkPatterns(new SitePatterns(alignment, null, 0, -1, 1, true));
+        checkPatterns(new SitePatterns(alignment, null, 3, SITE_COUNT - 10, 2, false));
+
+        // a thread count that isn't a number falls back to the processor count
+        System.setProperty(SitePatterns.THREAD_COUNT, "many");
+        checkPatterns(new SitePatterns(alignment, null, 0, -1, 1, true));
+    }
+
+    public void testPatterns() {
+        Patterns patterns = new Patterns(alignment);
+        SitePatterns sitePatterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        assertEquals(sitePatterns.getPatternCount(), patterns.getPatternCount());
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            assertTrue(Arrays.equals(sitePatterns.getPattern(i), patterns.getPattern(i)));
+            assertEquals(sitePatterns.getPatternWeight(i), patterns.getPatternWeight(i));
+        }
+
+        // removing the last of a pattern moves the last pattern into its place
+        int[] pattern = patterns.getPattern(0);
+        int count = patterns.getPatternCount();
+        for (int i = 0; i < sitePatterns.getPatternWeight(0); i++) {
+            patterns.removePattern(pattern);
+        }
+        assertEquals(count - 1, patterns.getPatternCount());
+        assertTrue(Arrays.equals(sitePatterns.getPattern(count - 1), patterns.getPattern(0)));
+
+        patterns.addPattern(pattern);
+        assertEquals(count, patterns.getPatternCount());
+        assertEquals(1.0, patterns.getPatternWeight(count - 1));
+    }
+
+    public void testPatternIndex() {
+        PatternIndex index = new PatternIndex();
+        int[][] patterns = new int[5000][];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = new int[]{MathUtils.nextInt(20), MathUtils.nextInt(20), MathUtils.nextInt(3)};
+        }
+
+        int[] indices = new int[patterns.length];
+        index.addAll(patterns, patterns.length, indices, null, 1);
+
+        PatternIndex parallelIndex = new PatternIndex();
+        int[] parallelIndices = new int[patterns.length];
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            parallelIndex.addAll(patterns, patterns.length, parallelIndices, executor, 3);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(Arrays.equals(indices, parallelIndices));
+        assertEquals(index.size(), parallelIndex.size());
+        for (int i = 0; i < patterns.length; i++) {
+            assertTrue(Arrays.equals(patterns[i], index.getPattern(indices[i])));
+            assertEquals(indices[i], index.indexOf(patterns[i]));
+        }
+
+        // removing a pattern moves the last one into its place
+        int size = index.size();
+        while (index.size() > size / 2) {
+            int removed = MathUtils.nextInt(index.size());
+            int[] pattern = index.getPattern(removed);
+            int[] last = index.getPattern(index.size() - 1);
+            index.remove(removed);
+            assertEquals(-1, index.indexOf(pattern));
+            if (pattern != last) {
+                assertEquals(removed, index.indexOf(last));
+            }
+        }
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(i, index.indexOf(index.getPattern(i)));
+        }
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.indexOf(patterns[0]));
+    }
+
+    /**
+     * compares the patterns with those found by comparing each site with all the patterns so far
+     */
+    private void checkPatterns(SitePatterns sitePatterns) {
+        int from = Math.max(sitePatterns.getFrom(), 0);
+        int to = sitePatterns.getTo() < 0 ? alignment.getSiteCount() - 1 : sitePatterns.getTo();
+        int every = sitePatterns.getEvery();
+
+        List<int[]> patterns = new ArrayList<int[]>();
+        List<Integer> weights = new ArrayList<Integer>();
+
+        int site = 0;
+        for (int i = from; i <= to; i += every) {
+            int[] pattern = alignment.getSitePattern(i);
+            int index = -1;
+            for (int j = 0; j < patterns.size() && index < 0; j++) {
+                if (Arrays.equals(patterns.get(j), pattern)) {
+                    index = j;
+                }
+            }
+            if (index < 0) {
+                index = patterns.size();
+                patterns.add(pattern);
+                weights.add(0);
+            }
+            weights.set(index, weights.get(index) + 1);
+
+            assertEquals(index, sitePatterns.getPatternIndex(site));
+            site++;
+        }
+
+        assertEquals(patterns.size(), sitePatterns.getPatternCount());
+        for (int i = 0; i < patterns.size(); i++) {
+            assertTrue(Arrays.equals(patterns.get(i), sitePatterns.getPattern(i)));
+            assertEquals((double) weights.get(i), sitePatterns.getPatternWeight(i));
+        }
+    }
+
+    private SimpleAlignment alignment;
+}
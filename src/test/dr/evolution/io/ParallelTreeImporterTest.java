@@ -0,0 +1,102 @@
+package test.dr.evolution.io;
+
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.ParallelTreeImporter;
+import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+public class ParallelTreeImporterTest extends TestCase {
+
+    private static final int TREE_COUNT = 50;
+
+    public ParallelTreeImporterTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        executor = ParallelTreeImporter.createExecutor(3);
+    }
+
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testTranslatedTrees() throws Exception {
+        StringBuilder nexus = new StringBuilder();
+        nexus.append("#NEXUS\n\n");
+        nexus.append("Begin taxa;\n\tDimensions ntax=4;\n\tTaxlabels\n\t\tA\n\t\tB\n\t\t'C;1'\n\t\tD\n\t\t;\nEnd;\n\n");
+        nexus.append("Begin trees;\n\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 'C;1',\n\t\t4 D\n\t\t;\n");
+        for (int i = 0; i < TREE_COUNT; i++) {
+            // a ';' in an annotation or a comment must not split the tree
+            nexus.append("tree STATE_").append(i * 1000).append(" [&lnP=-").append(i).append(".5,note=\"a;b\"] = [&R] ");
+            nexus.append("((1[&rate=").append(i).append("]:").append(0.1 + i).append(",2:0.2)[&set={1,2}]:0.3,");
+            nexus.append("[comment;] (3:0.4,4:0.5):0.6);\n");
+        }
+        nexus.append("End;\n");
+
+        checkTrees(nexus.toString(), false);
+        checkTrees(nexus.toString(), true);
+    }
+
+    public void testUntranslatedTrees() throws Exception {
+        StringBuilder nexus = new StringBuilder();
+        nexus.append("#NEXUS\nBegin trees;\n");
+        for (int i = 0; i < TREE_COUNT; i++) {
+            nexus.append("tree tree_").append(i).append(" = ((A:1,B:1):").append(i).append(",C:").append(i + 1).append(");\n");
+        }
+        nexus.append("End;\n");
+
+        checkTrees(nexus.toString(), false);
+    }
+
+    public void testNoTrees() throws Exception {
+        TreeImporter importer = new ParallelTreeImporter(new StringReader("#NEXUS\nBegin trees;\nEnd;\n"), false, executor);
+        assertFalse(importer.hasTree());
+        assertNull(importer.importNextTree());
+    }
+
+    private void checkTrees(String nexus, boolean ignoreMetaComments) throws Exception {
+        List<Tree> expected = readTrees(new NexusImporter(new StringReader(nexus), ignoreMetaComments));
+        List<Tree> trees = readTrees(new ParallelTreeImporter(new StringReader(nexus), ignoreMetaComments, executor, 4));
+
+        assertEquals(TREE_COUNT, expected.size());
+        assertEquals(expected.size(), trees.size());
+
+        for (int i = 0; i < trees.size(); i++) {
+            Tree tree = trees.get(i);
+            assertEquals(expected.get(i).getId(), tree.getId());
+            assertEquals(TreeUtils.newick(expected.get(i)), TreeUtils.newick(tree));
+            assertEquals(expected.get(i).getAttribute("lnP"), tree.getAttribute("lnP"));
+
+            // the trees share their taxa when, and only when, they do when read by NexusImporter
+            for (int j = 0; j < tree.getTaxonCount(); j++) {
+                assertEquals(isShared(expected, i, j), isShared(trees, i, j));
+            }
+        }
+    }
+
+    private static boolean isShared(List<Tree> trees, int tree, int taxon) {
+        Tree first = trees.get(0);
+        String id = trees.get(tree).getTaxonId(taxon);
+        return first.getTaxon(first.getTaxonIndex(id)) == trees.get(tree).getTaxon(taxon);
+    }
+
+    private static List<Tree> readTrees(TreeImporter importer) throws Exception {
+        List<Tree> trees = new ArrayList<Tree>();
+        while (importer.hasTree()) {
+            trees.add(importer.importNextTree());
+        }
+        return trees;
+    }
+
+    private ExecutorService executor;
+}
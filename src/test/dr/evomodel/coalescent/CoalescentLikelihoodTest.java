@@ -0,0 +1,142 @@
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.Coalescent;
+import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.coalescent.Intervals;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.*;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.MCMCOperator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+
+/**
+ * Checks the coalescent likelihood, which only recalculates the intervals changed by a move,
+ * against the likelihood calculated from scratch as the tree and demographic model change and
+ * are restored.
+ */
+public class CoalescentLikelihoodTest extends TestCase {
+
+    public CoalescentLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // serially sampled tips so the first event isn't always at zero
+        NewickImporter importer = new NewickImporter(
+                "((((A:1.0,B:1.2):1.0,C:2.0):1.0,(D:0.5,E:0.7):2.5):1.0,((F:1.5,G:1.5):1.0,(H:2.5,(I:0.3,J:0.1):1.8):0.4):2.0);");
+        treeModel = new TreeModel("treeModel", importer.importTree(null));
+
+        operators = new MCMCOperator[]{
+                new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0),
+                new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0),
+                new WilsonBalding(treeModel, 1.0),
+                new SubtreeSlideOperator(treeModel, 1.0, 0.5, true, false, false, false, AdaptationMode.ADAPTATION_OFF, 0.23)
+        };
+    }
+
+    public void testConstantPopulation() throws Exception {
+        Parameter popSize = new Parameter.Default(2.0);
+        checkLikelihood(new ConstantPopulationModel(popSize, Units.Type.YEARS), popSize);
+    }
+
+    public void testExponentialGrowth() throws Exception {
+        Parameter popSize = new Parameter.Default(2.0);
+        Parameter growthRate = new Parameter.Default(0.3);
+        checkLikelihood(new ExponentialGrowthModel(popSize, growthRate, Units.Type.YEARS, true), popSize, growthRate);
+    }
+
+    public void testPiecewiseConstant() throws Exception {
+        Parameter popSizes = new Parameter.Default(new double[]{1.0, 2.0, 0.5});
+        checkLikelihood(new PiecewisePopulationModel("piecewise", popSizes, new double[]{1.0, 2.0}, false, Units.Type.YEARS),
+                popSizes);
+    }
+
+    private void checkLikelihood(DemographicModel demographicModel, Parameter... parameters) throws Exception {
+        CoalescentLikelihood likelihood = new CoalescentLikelihood(treeModel, null, new ArrayList<TaxonList>(), demographicModel);
+
+        for (int i = 0; i < 500; i++) {
+            treeModel.storeModelState();
+            likelihood.storeModelState();
+            demographicModel.storeModelState();
+
+            double before = likelihood.getLogLikelihood();
+            assertEquals(getExpectedLogLikelihood(demographicModel), before, 1E-10);
+
+            if (i % 5 == 0) {
+                Parameter parameter = parameters[MathUtils.nextInt(parameters.length)];
+                int dimension = MathUtils.nextInt(parameter.getDimension());
+                parameter.setParameterValue(dimension, parameter.getParameterValue(dimension) * Math.exp(MathUtils.nextGaussian() * 0.1));
+            } else {
+                moveNodeHeight();
+                MCMCOperator operator = operators[MathUtils.nextInt(operators.length)];
+                try {
+                    operator.operate();
+                } catch (RuntimeException e) {
+                    // the move wasn't possible
+                }
+                operator.reject();
+            }
+
+            assertEquals(getExpectedLogLikelihood(demographicModel), likelihood.getLogLikelihood(), 1E-10);
+
+            if (MathUtils.nextBoolean()) {
+                treeModel.restoreModelState();
+                likelihood.restoreModelState();
+                demographicModel.restoreModelState();
+
+                assertEquals(before, likelihood.getLogLikelihood(), 1E-10);
+            } else {
+                treeModel.acceptModelState();
+                likelihood.acceptModelState();
+                demographicModel.acceptModelState();
+            }
+        }
+    }
+
+    /**
+     * Moves the height of a random internal node between its children and its parent
+     */
+    private void moveNodeHeight() {
+        NodeRef node = treeModel.getInternalNode(MathUtils.nextInt(treeModel.getInternalNodeCount()));
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        double upper = treeModel.isRoot(node) ? lower + 5.0 : treeModel.getNodeHeight(treeModel.getParent(node));
+        treeModel.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    /**
+     * @return the likelihood with the intervals collected and sorted from scratch
+     */
+    private double getExpectedLogLikelihood(DemographicModel demographicModel) {
+        Intervals intervals = new Intervals(treeModel.getNodeCount());
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            NodeRef node = treeModel.getNode(i);
+            if (treeModel.isExternal(node)) {
+                intervals.addSampleEvent(treeModel.getNodeHeight(node));
+            } else {
+                intervals.addCoalescentEvent(treeModel.getNodeHeight(node));
+            }
+        }
+
+        DemographicFunction demographicFunction = demographicModel.getDemographicFunction();
+        return Coalescent.calculateLogLikelihood(intervals, demographicFunction, demographicFunction.getThreshold());
+    }
+
+    private TreeModel treeModel;
+    private MCMCOperator[] operators;
+}
@@ -0,0 +1,95 @@
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.*;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * Checks that substitution models sharing an EigenDecompositionCache get exactly the transition
+ * probabilities they would by decomposing their rate matrices themselves.
+ */
+public class EigenDecompositionCacheTest extends TestCase {
+
+    public EigenDecompositionCacheTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        cache = EigenDecompositionCache.getInstance(new DefaultEigenSystem(4));
+        cache.clear();
+    }
+
+    public void testSharedAcrossModels() {
+        GeneralSubstitutionModel first = createModel(RATES);
+        GeneralSubstitutionModel second = createModel(RATES);
+
+        EigenDecomposition decomposition = first.getEigenDecomposition();
+        assertSame(decomposition, second.getEigenDecomposition());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testRevisitedRates() {
+        GeneralSubstitutionModel model = createModel(RATES);
+        Parameter rates = (Parameter) model.getVariable(0);
+
+        double[] expected = new double[16];
+        model.getTransitionProbabilities(0.3, expected);
+
+        model.storeModelState();
+        rates.setParameterValue(1, 3.0);
+        double[] changed = new double[16];
+        model.getTransitionProbabilities(0.3, changed);
+        model.restoreModelState();
+
+        // the proposal was rejected and then proposed again
+        model.storeModelState();
+        rates.setParameterValue(1, 3.0);
+        double[] probabilities = new double[16];
+        model.getTransitionProbabilities(0.3, probabilities);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(changed[i], probabilities[i], 0.0);
+        }
+
+        rates.setParameterValue(1, RATES[1]);
+        model.getTransitionProbabilities(0.3, probabilities);
+        assertEquals(2, cache.getHitCount());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], probabilities[i], 0.0);
+        }
+    }
+
+    public void testSameAsUncached() {
+        double[] expected = new double[16];
+        System.setProperty(EigenDecompositionCache.CACHE_SIZE_PROPERTY, "0");
+        try {
+            createModel(RATES).getTransitionProbabilities(0.7, expected);
+        } finally {
+            System.clearProperty(EigenDecompositionCache.CACHE_SIZE_PROPERTY);
+        }
+        assertEquals(0, cache.getMissCount());
+
+        double[] probabilities = new double[16];
+        createModel(RATES).getTransitionProbabilities(0.7, probabilities);
+        createModel(RATES).getTransitionProbabilities(0.7, probabilities);
+        assertEquals(1, cache.getHitCount());
+        for (int i = 0; i < 16; i++) {
+            assertEquals(expected[i], probabilities[i], 0.0);
+        }
+    }
+
+    private GeneralSubstitutionModel createModel(double[] rates) {
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE, new double[]{0.1, 0.2, 0.3, 0.4});
+        return new GeneralSubstitutionModel("gtr", Nucleotides.INSTANCE, frequencies,
+                new Parameter.Default(rates), -1);
+    }
+
+    private static final double[] RATES = new double[]{0.5, 2.0, 0.8, 1.2, 4.0, 1.0};
+
+    private EigenDecompositionCache cache;
+}
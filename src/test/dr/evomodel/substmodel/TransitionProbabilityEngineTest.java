@@ -0,0 +1,109 @@
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.*;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.substmodel.nucleotide.TN93;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks the closed form and Pade transition probabilities against those from the eigen
+ * decompositions of the substitution models.
+ */
+public class TransitionProbabilityEngineTest extends TestCase {
+
+    public TransitionProbabilityEngineTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+    }
+
+    public void testClosedFormHKY() {
+        HKY hky = new HKY(new Parameter.Default(4.5), getFrequencyModel(Nucleotides.INSTANCE));
+        checkEngine(hky, TransitionProbabilityEngine.Type.CLOSED_FORM, 1E-14);
+    }
+
+    public void testClosedFormTN93() {
+        TN93 tn93 = new TN93(new Parameter.Default(6.0), new Parameter.Default(1.5), getFrequencyModel(Nucleotides.INSTANCE));
+        checkEngine(tn93, TransitionProbabilityEngine.Type.CLOSED_FORM, 1E-14);
+    }
+
+    public void testClosedFormUnsupported() {
+        try {
+            TransitionProbabilityEngine.Type.CLOSED_FORM.createEngine(getGeneralModel(Nucleotides.INSTANCE.getStateCount()));
+            fail("closed form transition probabilities should only be available for HKY and TN93");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    public void testPadeHKY() {
+        HKY hky = new HKY(new Parameter.Default(4.5), getFrequencyModel(Nucleotides.INSTANCE));
+        checkEngine(hky, TransitionProbabilityEngine.Type.PADE, 1E-12);
+    }
+
+    public void testPadeAminoAcid() {
+        checkEngine(getGeneralModel(AminoAcids.INSTANCE.getStateCount()), TransitionProbabilityEngine.Type.PADE, 1E-11);
+    }
+
+    public void testPadeNonReversible() {
+        double[] rates = new double[12];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = 0.2 + 2.0 * MathUtils.nextDouble();
+        }
+        ComplexSubstitutionModel model = new ComplexSubstitutionModel("complex", Nucleotides.INSTANCE,
+                getFrequencyModel(Nucleotides.INSTANCE), new Parameter.Default(rates));
+        checkEngine(model, TransitionProbabilityEngine.Type.PADE, 1E-12);
+    }
+
+    private void checkEngine(SubstitutionModel model, TransitionProbabilityEngine.Type type, double tolerance) {
+        final int stateCount = model.getDataType().getStateCount();
+        final int size = stateCount * stateCount;
+
+        TransitionProbabilityEngine engine = type.createEngine(model);
+
+        double[] matrices = new double[DISTANCES.length * size];
+        engine.getTransitionProbabilities(DISTANCES, DISTANCES.length, matrices);
+
+        double[] expected = new double[size];
+        for (int d = 0; d < DISTANCES.length; d++) {
+            model.getTransitionProbabilities(DISTANCES[d], expected);
+            for (int i = 0; i < size; i++) {
+                assertEquals("distance " + DISTANCES[d], expected[i], matrices[d * size + i], tolerance);
+            }
+        }
+    }
+
+    private FrequencyModel getFrequencyModel(dr.evolution.datatype.DataType dataType) {
+        final int stateCount = dataType.getStateCount();
+        double[] frequencies = new double[stateCount];
+        double sum = 0.0;
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 0.5 + MathUtils.nextDouble();
+            sum += frequencies[i];
+        }
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] /= sum;
+        }
+        return new FrequencyModel(dataType, frequencies);
+    }
+
+    private GeneralSubstitutionModel getGeneralModel(int stateCount) {
+        dr.evolution.datatype.DataType dataType = (stateCount == 4 ? Nucleotides.INSTANCE : AminoAcids.INSTANCE);
+        double[] rates = new double[stateCount * (stateCount - 1) / 2];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = 0.2 + 2.0 * MathUtils.nextDouble();
+        }
+        return new GeneralSubstitutionModel("general", dataType, getFrequencyModel(dataType),
+                new Parameter.Default(rates), -1);
+    }
+
+    private static final double[] DISTANCES = new double[]{0.0, 1E-6, 0.01, 0.1, 0.5, 1.0, 3.0, 10.0};
+}
@@ -0,0 +1,92 @@
+package test.dr.evomodel.tree;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.operators.MCMCOperator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks that restoring a TreeModel puts back the topology, root and node parameters
+ * changed by tree operators since the last store (and only since then).
+ */
+public class TreeModelStoreRestoreTest extends TestCase {
+
+    public TreeModelStoreRestoreTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        NewickImporter importer = new NewickImporter(
+                "((((A:1.0,B:1.0):1.0,C:2.0):1.0,(D:0.5,E:0.5):2.5):1.0,((F:1.5,G:1.5):1.0,H:2.5):2.0);");
+        treeModel = new TreeModel("treeModel", importer.importTree(null));
+
+        operators = new MCMCOperator[]{
+                new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0),
+                new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0),
+                new WilsonBalding(treeModel, 1.0)
+        };
+    }
+
+    public void testRestore() {
+        for (int i = 0; i < 200; i++) {
+            String before = getState();
+
+            treeModel.storeModelState();
+            doOperations(1 + (i % 3));
+            treeModel.restoreModelState();
+
+            assertEquals(before, getState());
+        }
+    }
+
+    public void testAccept() {
+        for (int i = 0; i < 200; i++) {
+            treeModel.storeModelState();
+            doOperations(1);
+            String accepted = getState();
+            treeModel.acceptModelState();
+
+            // only the changes since this store are undone
+            treeModel.storeModelState();
+            doOperations(2);
+            treeModel.restoreModelState();
+
+            assertEquals(accepted, getState());
+        }
+    }
+
+    private void doOperations(int count) {
+        for (int i = 0; i < count; i++) {
+            MCMCOperator operator = operators[MathUtils.nextInt(operators.length)];
+            operator.operate();
+            // only the operator's own counts, the tree is stored and restored here
+            operator.reject();
+        }
+    }
+
+    /**
+     * @return the tree with every node's links and the parameter holding its height
+     */
+    private String getState() {
+        StringBuilder state = new StringBuilder(TreeUtils.newick(treeModel));
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            NodeRef node = treeModel.getNode(i);
+            state.append(' ').append(i);
+            state.append(':').append(treeModel.isRoot(node) ? -1 : treeModel.getParent(node).getNumber());
+            state.append(':').append(System.identityHashCode(((TreeModel.Node) node).heightParameter));
+        }
+        return state.toString();
+    }
+
+    private TreeModel treeModel;
+    private MCMCOperator[] operators;
+}
@@ -0,0 +1,175 @@
+package test.dr.evomodel.treelikelihood;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.TransitionProbabilityEngine;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * Checks the pure Java data likelihood delegate against the values in LikelihoodTest.
+ */
+
+public class JavaDataLikelihoodDelegateTest extends TraceCorrelationAssert {
+
+    public JavaDataLikelihoodDelegateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+
+        treeModel = createPrimateTreeModel();
+    }
+
+    public void testLikelihoodJC69() throws Exception {
+        HKY hky = new HKY(1.0, new FrequencyModel(Nucleotides.INSTANCE, new double[]{0.25, 0.25, 0.25, 0.25}));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel");
+
+        assertEquals("treeLikelihoodJC69", -1992.20564,
+                createJavaLikelihood(hky, siteRateModel, PartialsRescalingScheme.NONE).getLogLikelihood(), 1E-5);
+    }
+
+    public void testLikelihoodHKY85GI() throws Exception {
+        HKY hky = new HKY(39.464538, new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies()));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel", 0.587649, 4, 0.486548);
+
+        assertEquals("treeLikelihoodHKY85GI", -1789.63923,
+                createJavaLikelihood(hky, siteRateModel, PartialsRescalingScheme.NONE).getLogLikelihood(), 1E-5);
+    }
+
+    public void testScalingAndChanges() throws Exception {
+        Parameter kappa = new Parameter.Default(2.0);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies()));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel", 0.5, 4);
+
+        TreeDataLikelihood unscaled = createJavaLikelihood(hky, siteRateModel, PartialsRescalingScheme.NONE);
+        TreeDataLikelihood scaled = createJavaLikelihood(hky, siteRateModel, PartialsRescalingScheme.ALWAYS);
+
+        assertEquals(unscaled.getLogLikelihood(), scaled.getLogLikelihood(), 1E-8);
+
+        // incremental updates should agree with a likelihood computed from scratch
+        kappa.setParameterValue(0, 10.0);
+        treeModel.setNodeHeight(treeModel.getInternalNode(0), treeModel.getNodeHeight(treeModel.getInternalNode(0)) * 0.9);
+
+        double expected = createJavaLikelihood(hky, siteRateModel, PartialsRescalingScheme.NONE).getLogLikelihood();
+
+        assertEquals(expected, unscaled.getLogLikelihood(), 1E-8);
+        assertEquals(expected, scaled.getLogLikelihood(), 1E-8);
+    }
+
+    public void testPatternBlocks() throws Exception {
+        Parameter kappa = new Parameter.Default(2.0);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies()));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel", 0.5, 4);
+
+        // use every site as a pattern so there are enough patterns to split into blocks
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true, false);
+
+        TreeDataLikelihood serial = new TreeDataLikelihood(
+                new JavaDataLikelihoodDelegate(treeModel, patterns, new HomogeneousBranchModel(hky),
+                        siteRateModel, false, PartialsRescalingScheme.ALWAYS, 1),
+                treeModel, new DefaultBranchRateModel());
+
+        TreeDataLikelihood blocked = new TreeDataLikelihood(
+                new JavaDataLikelihoodDelegate(treeModel, patterns, new HomogeneousBranchModel(hky),
+                        siteRateModel, false, PartialsRescalingScheme.ALWAYS, 4),
+                treeModel, new DefaultBranchRateModel());
+
+        assertEquals(serial.getLogLikelihood(), blocked.getLogLikelihood(), 1E-8);
+
+        kappa.setParameterValue(0, 10.0);
+        treeModel.setNodeHeight(treeModel.getInternalNode(0), treeModel.getNodeHeight(treeModel.getInternalNode(0)) * 0.9);
+
+        assertEquals(serial.getLogLikelihood(), blocked.getLogLikelihood(), 1E-8);
+    }
+
+    public void testTransitionProbabilityEngines() throws Exception {
+        Parameter kappa = new Parameter.Default(2.0);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies()));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel", 0.5, 4);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        TreeDataLikelihood eigen = createEngineLikelihood(hky, siteRateModel, patterns, TransitionProbabilityEngine.Type.EIGEN);
+        TreeDataLikelihood closedForm = createEngineLikelihood(hky, siteRateModel, patterns, TransitionProbabilityEngine.Type.CLOSED_FORM);
+        TreeDataLikelihood pade = createEngineLikelihood(hky, siteRateModel, patterns, TransitionProbabilityEngine.Type.PADE);
+
+        assertEquals(eigen.getLogLikelihood(), closedForm.getLogLikelihood(), 1E-8);
+        assertEquals(eigen.getLogLikelihood(), pade.getLogLikelihood(), 1E-8);
+
+        kappa.setParameterValue(0, 10.0);
+        treeModel.setNodeHeight(treeModel.getInternalNode(0), treeModel.getNodeHeight(treeModel.getInternalNode(0)) * 0.9);
+
+        assertEquals(eigen.getLogLikelihood(), closedForm.getLogLikelihood(), 1E-8);
+        assertEquals(eigen.getLogLikelihood(), pade.getLogLikelihood(), 1E-8);
+    }
+
+    public void testUncertainSites() throws Exception {
+        HKY hky = new HKY(2.0, new FrequencyModel(Nucleotides.INSTANCE, alignment.getStateFrequencies()));
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel", 0.5, 4);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true, false);
+
+        // the same sites given as probabilities, which must be used even when ambiguities are not asked for
+        UncertainSiteList uncertain = new UncertainSiteList(Nucleotides.INSTANCE, patterns);
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            double[][] pattern = new double[patterns.getTaxonCount()][Nucleotides.INSTANCE.getStateCount()];
+            for (int j = 0; j < pattern.length; j++) {
+                boolean[] stateSet = Nucleotides.INSTANCE.getStateSet(patterns.getPatternState(j, i));
+                for (int k = 0; k < stateSet.length; k++) {
+                    pattern[j][k] = stateSet[k] ? 1.0 : 0.0;
+                }
+            }
+            uncertain.addPattern(pattern);
+        }
+
+        TreeDataLikelihood ambiguous = new TreeDataLikelihood(
+                new JavaDataLikelihoodDelegate(treeModel, patterns, new HomogeneousBranchModel(hky),
+                        siteRateModel, true, PartialsRescalingScheme.NONE),
+                treeModel, new DefaultBranchRateModel());
+
+        TreeDataLikelihood probabilities = new TreeDataLikelihood(
+                new JavaDataLikelihoodDelegate(treeModel, uncertain, new HomogeneousBranchModel(hky),
+                        siteRateModel, false, PartialsRescalingScheme.NONE),
+                treeModel, new DefaultBranchRateModel());
+
+        assertEquals(ambiguous.getLogLikelihood(), probabilities.getLogLikelihood(), 1E-8);
+    }
+
+    private TreeDataLikelihood createEngineLikelihood(HKY hky, GammaSiteRateModel siteRateModel, SitePatterns patterns,
+                                                      TransitionProbabilityEngine.Type type)
+            throws DataLikelihoodDelegate.DelegateTypeException {
+
+        JavaDataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, false, PartialsRescalingScheme.NONE, 1, type);
+
+        return new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+    }
+
+    private TreeDataLikelihood createJavaLikelihood(HKY hky, GammaSiteRateModel siteRateModel,
+                                                    PartialsRescalingScheme rescalingScheme)
+            throws DataLikelihoodDelegate.DelegateTypeException {
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+        BranchModel branchModel = new HomogeneousBranchModel(hky);
+
+        JavaDataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns, branchModel,
+                siteRateModel, false, rescalingScheme);
+
+        return new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+    }
+}
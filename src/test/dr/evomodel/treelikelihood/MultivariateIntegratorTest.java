@@ -0,0 +1,240 @@
+package test.dr.evomodel.treelikelihood;
+
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.MultivariateIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateIntegrator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+/**
+ * Peels a balanced tree of multivariate traits with the full precision integrators, checking that the
+ * singular-safe integrator agrees with the plain one, that peeling subtrees in parallel gives the
+ * same likelihoods and pre-order partials as peeling them in order, and that the pre-order partials of
+ * a tip give the gradient with respect to its value.
+ */
+public class MultivariateIntegratorTest extends TestCase {
+
+    private static final int DIM_TRAIT = 7;
+    private static final int TIP_COUNT = 16;
+    private static final int NODE_COUNT = 2 * TIP_COUNT - 1;
+    private static final int PRIOR_BUFFER = NODE_COUNT;
+
+    public MultivariateIntegratorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        precision = new double[DIM_TRAIT * DIM_TRAIT];
+        double[] factor = new double[DIM_TRAIT * DIM_TRAIT];
+        for (int i = 0; i < factor.length; ++i) {
+            factor[i] = MathUtils.nextGaussian();
+        }
+        // precision = F F' + I
+        for (int i = 0; i < DIM_TRAIT; ++i) {
+            for (int j = 0; j < DIM_TRAIT; ++j) {
+                double sum = (i == j ? 1.0 : 0.0);
+                for (int k = 0; k < DIM_TRAIT; ++k) {
+                    sum += factor[i * DIM_TRAIT + k] * factor[j * DIM_TRAIT + k];
+                }
+                precision[i * DIM_TRAIT + j] = sum;
+            }
+        }
+
+        tips = new double[TIP_COUNT][DIM_TRAIT];
+        for (int i = 0; i < TIP_COUNT; ++i) {
+            for (int j = 0; j < DIM_TRAIT; ++j) {
+                tips[i][j] = MathUtils.nextGaussian();
+            }
+        }
+
+        branchLengths = new double[NODE_COUNT];
+        for (int i = 0; i < NODE_COUNT; ++i) {
+            branchLengths[i] = 0.1 + MathUtils.nextDouble();
+        }
+    }
+
+    public void testSafeIntegrator() {
+        double expected = calculateLogLikelihood(new MultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1), false);
+        double safe = calculateLogLikelihood(new SafeMultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1), false);
+
+        assertEquals(expected, safe, 1E-8);
+    }
+
+    public void testParallelPeeling() {
+        double serial = calculateLogLikelihood(new MultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1), false);
+        double parallel = calculateLogLikelihood(new MultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1, 4), false);
+
+        assertEquals(serial, parallel, 0.0);
+    }
+
+    public void testParallelPeelingWithMissingData() {
+        double serial = calculateLogLikelihood(new SafeMultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1), true);
+        double parallel = calculateLogLikelihood(new SafeMultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1, 4), true);
+
+        assertFalse(Double.isNaN(serial));
+        assertEquals(serial, parallel, 0.0);
+    }
+
+    public void testParallelPreOrder() {
+        ContinuousDiffusionIntegrator serial = new MultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1);
+        ContinuousDiffusionIntegrator parallel = new MultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1, 4);
+
+        calculateLogLikelihood(serial, false);
+        calculateLogLikelihood(parallel, false);
+        updatePreOrderPartials(serial);
+        updatePreOrderPartials(parallel);
+
+        final int dimPartial = DIM_TRAIT + PrecisionType.FULL.getMatrixLength(DIM_TRAIT);
+        double[] expected = new double[dimPartial];
+        double[] partial = new double[dimPartial];
+        for (int i = 0; i < NODE_COUNT; ++i) {
+            serial.getPreOrderPartial(i, expected);
+            parallel.getPreOrderPartial(i, partial);
+            for (int j = 0; j < dimPartial; ++j) {
+                assertEquals(expected[j], partial[j], 0.0);
+            }
+        }
+    }
+
+    /**
+     * The gradient of the log likelihood with respect to a tip value is P (m - y), where m and P are the
+     * pre-order mean and precision of the tip; compare it with central differences.
+     */
+    public void testTipGradient() {
+        ContinuousDiffusionIntegrator cdi = new MultivariateIntegrator(
+                PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1);
+
+        calculateLogLikelihood(cdi, false);
+        updatePreOrderPartials(cdi);
+
+        final int tip = 5;
+        final int dimPartial = DIM_TRAIT + PrecisionType.FULL.getMatrixLength(DIM_TRAIT);
+        double[] preOrder = new double[dimPartial];
+        cdi.getPreOrderPartial(tip, preOrder);
+
+        final double delta = 1E-5;
+        for (int i = 0; i < DIM_TRAIT; ++i) {
+            double gradient = 0.0;
+            for (int j = 0; j < DIM_TRAIT; ++j) {
+                gradient += preOrder[DIM_TRAIT + i * DIM_TRAIT + j] * (preOrder[j] - tips[tip][j]);
+            }
+
+            final double value = tips[tip][i];
+            tips[tip][i] = value + delta;
+            final double upper = calculateLogLikelihood(new MultivariateIntegrator(
+                    PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1), false);
+            tips[tip][i] = value - delta;
+            final double lower = calculateLogLikelihood(new MultivariateIntegrator(
+                    PrecisionType.FULL, 1, DIM_TRAIT, NODE_COUNT + 1, 1), false);
+            tips[tip][i] = value;
+
+            assertEquals((upper - lower) / (2 * delta), gradient, 1E-5 * Math.max(1.0, Math.abs(gradient)));
+        }
+    }
+
+    /**
+     * Starts the root from the prior, with its variance scaled by the diffusion variance as in the root
+     * likelihood, and visits the internal nodes from the root down, updating both children of each.
+     */
+    private void updatePreOrderPartials(ContinuousDiffusionIntegrator cdi) {
+        final int dimPartial = DIM_TRAIT + PrecisionType.FULL.getMatrixLength(DIM_TRAIT);
+
+        DenseMatrix64F variance = new DenseMatrix64F(DIM_TRAIT, DIM_TRAIT);
+        CommonOps.invert(new DenseMatrix64F(DIM_TRAIT, DIM_TRAIT, true, precision), variance);
+
+        double[] prior = new double[dimPartial];
+        for (int i = 0; i < DIM_TRAIT * DIM_TRAIT; ++i) {
+            prior[DIM_TRAIT + i] = 0.5 * precision[i];
+            prior[DIM_TRAIT + DIM_TRAIT * DIM_TRAIT + i] = 2.0 * variance.get(i);
+        }
+        prior[DIM_TRAIT + 2 * DIM_TRAIT * DIM_TRAIT] = 0.5;
+        cdi.setPreOrderPartial(NODE_COUNT - 1, prior);
+
+        int[] operations = new int[2 * (NODE_COUNT - TIP_COUNT) * ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE];
+        int offset = 0;
+        for (int node = NODE_COUNT - 1; node >= TIP_COUNT; --node) {
+            final int child = 2 * (node - TIP_COUNT);
+            for (int c = 0; c < 2; ++c) {
+                operations[offset] = node;
+                operations[offset + 1] = child + c;
+                operations[offset + 2] = child + c;
+                operations[offset + 3] = child + 1 - c;
+                operations[offset + 4] = child + 1 - c;
+                offset += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+            }
+        }
+        cdi.updatePreOrderPartials(operations, 2 * (NODE_COUNT - TIP_COUNT));
+    }
+
+    /**
+     * The tips are nodes 0 to TIP_COUNT - 1 and each internal node joins the next two unjoined nodes.
+     */
+    private double calculateLogLikelihood(ContinuousDiffusionIntegrator cdi, boolean missing) {
+        final int dimPartial = DIM_TRAIT + PrecisionType.FULL.getMatrixLength(DIM_TRAIT);
+
+        for (int i = 0; i < TIP_COUNT; ++i) {
+            double[] partial = new double[dimPartial];
+            System.arraycopy(tips[i], 0, partial, 0, DIM_TRAIT);
+            for (int j = 0; j < DIM_TRAIT; ++j) {
+                final boolean isMissing = missing && (i % 3 == 0) && (j == i % DIM_TRAIT);
+                PrecisionType.FULL.fillPrecisionInPartials(partial, 0, j,
+                        PrecisionType.getObservedPrecisionValue(isMissing), DIM_TRAIT);
+            }
+            cdi.setPostOrderPartial(i, partial);
+        }
+
+        // a conjugate root prior with a pseudo-observation count of 0.5
+        double[] prior = new double[dimPartial];
+        for (int j = 0; j < DIM_TRAIT; ++j) {
+            prior[DIM_TRAIT + j * DIM_TRAIT + j] = 0.5;
+            prior[DIM_TRAIT + DIM_TRAIT * DIM_TRAIT + j * DIM_TRAIT + j] = 2.0;
+        }
+        prior[DIM_TRAIT + 2 * DIM_TRAIT * DIM_TRAIT] = 0.5;
+        cdi.setPostOrderPartial(PRIOR_BUFFER, prior);
+
+        cdi.setDiffusionPrecision(0, precision, 0.0);
+
+        int[] matrixIndices = new int[NODE_COUNT];
+        for (int i = 0; i < NODE_COUNT; ++i) {
+            matrixIndices[i] = i;
+        }
+        cdi.updateBrownianDiffusionMatrices(0, matrixIndices, branchLengths, null, NODE_COUNT);
+
+        int[] operations = new int[(NODE_COUNT - TIP_COUNT) * ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE];
+        int offset = 0;
+        int child = 0;
+        for (int node = TIP_COUNT; node < NODE_COUNT; ++node) {
+            operations[offset] = node;
+            operations[offset + 1] = child;
+            operations[offset + 2] = child;
+            operations[offset + 3] = child + 1;
+            operations[offset + 4] = child + 1;
+            child += 2;
+            offset += ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+        }
+        cdi.updatePostOrderPartials(operations, NODE_COUNT - TIP_COUNT, false);
+
+        double[] logLikelihoods = new double[1];
+        cdi.calculateRootLogLikelihood(NODE_COUNT - 1, PRIOR_BUFFER, logLikelihoods, false);
+        return logLikelihoods[0];
+    }
+
+    private double[] precision;
+    private double[][] tips;
+    private double[] branchLengths;
+}
@@ -0,0 +1,135 @@
+package test.dr.inference.mcmcmc;
+
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.loggers.ArrayLogFormatter;
+import dr.inference.loggers.MCLogger;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.mcmcmc.MCMCMC;
+import dr.inference.mcmcmc.MCMCMCOptions;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.DefaultModel;
+import dr.inference.model.DummyLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptationMode;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.math.MathUtils;
+import dr.math.distributions.NormalDistribution;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks that a failure in one of the chains stops the whole run rather than leaving the
+ * others waiting to swap.
+ */
+
+public class MCMCMCTest extends TestCase {
+
+    private static final long CHAIN_LENGTH = 100000;
+    private static final int SWAP_EVERY = 100;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(666);
+    }
+
+    public void testRun() {
+        MCMCMC mc3 = new MCMCMC(new MCMC[]{createChain(-1), createChain(-1), createChain(-1)},
+                new MCMCMCOptions(new double[]{1.0, 0.5, 0.25}, SWAP_EVERY));
+        runWithTimeout(mc3);
+    }
+
+    public void testChainThrowsError() {
+        // the failing chain is a heated one so that the cold chain is not the one that stops
+        MCMCMC mc3 = new MCMCMC(new MCMC[]{createChain(-1), createChain(-1), createChain(2500)},
+                new MCMCMCOptions(new double[]{1.0, 0.5, 0.25}, SWAP_EVERY));
+        try {
+            runWithTimeout(mc3);
+            fail("the run should stop with the chain's error");
+        } catch (AssertionError e) {
+            assertEquals(FAILURE, e.getMessage());
+        }
+    }
+
+    private static void runWithTimeout(MCMCMC mc3) {
+        final Throwable[] failure = new Throwable[1];
+        final MCMCMC runner = mc3;
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    runner.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(60000);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        assertFalse("the chains did not finish", thread.isAlive());
+
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+    }
+
+    /**
+     * A chain sampling a standard normal that, if failAfter is not negative, throws an
+     * AssertionError once its failing operator has been used that many times.
+     */
+    private static MCMC createChain(final int failAfter) {
+        Parameter x = new Parameter.Default("x", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+        DistributionLikelihood prior = new DistributionLikelihood(new NormalDistribution(0.0, 1.0));
+        prior.addData(x);
+        // the dummy likelihood puts x in a model so that rejected moves are restored
+        CompoundLikelihood likelihood = new CompoundLikelihood(Arrays.<Likelihood>asList(
+                prior, new DummyLikelihood(new DefaultModel(x))));
+        likelihood.setId("posterior");
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        MCMCOperator operator = new RandomWalkOperator(x, 1.0, RandomWalkOperator.BoundaryCondition.reflecting, 1.0,
+                AdaptationMode.ADAPTATION_OFF);
+        schedule.addOperator(operator);
+
+        // every chain has the same operators so that their tuning can be swapped with the temperatures
+        MCMCOperator failing = new SimpleMCMCOperator() {
+            public String getOperatorName() {
+                return "failing";
+            }
+
+            public double doOperation() {
+                if (failAfter >= 0 && ++count > failAfter) {
+                    throw new AssertionError(FAILURE);
+                }
+                return 0.0;
+            }
+
+            private int count = 0;
+        };
+        failing.setWeight(1.0);
+        schedule.addOperator(failing);
+
+        MCLogger logger = new MCLogger(new ArrayLogFormatter(false), 1000, false);
+        logger.add(likelihood);
+        logger.add(x);
+
+        MCMC mcmc = new MCMC("mcmc");
+        mcmc.init(new MCMCOptions(CHAIN_LENGTH), likelihood, schedule, new MCLogger[]{logger});
+        return mcmc;
+    }
+
+    private static final String FAILURE = "a chain failed";
+}
@@ -0,0 +1,91 @@
+package test.dr.inference.model;
+
+import dr.inference.model.AnalysisContext;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks analyses running at the same time in their own contexts don't share random numbers
+ * or registries.
+ */
+public class AnalysisContextTest extends TestCase {
+
+    public AnalysisContextTest(String name) {
+        super(name);
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        AnalysisContext.setCurrent(null);
+    }
+
+    public void testRandomNumbers() throws Exception {
+        // the numbers an analysis draws on its own
+        AnalysisContext.setCurrent(new AnalysisContext(666));
+        double[] expected = new double[10000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = MathUtils.nextDouble();
+        }
+        AnalysisContext.setCurrent(null);
+
+        // and with others drawing at the same time
+        Analysis[] analyses = new Analysis[4];
+        for (int i = 0; i < analyses.length; i++) {
+            analyses[i] = new Analysis(new AnalysisContext(666), expected.length);
+            analyses[i].start();
+        }
+        for (Analysis analysis : analyses) {
+            analysis.join();
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], analysis.draws[i]);
+            }
+        }
+    }
+
+    public void testRegistries() throws Exception {
+        AnalysisContext context1 = new AnalysisContext(1);
+        AnalysisContext context2 = new AnalysisContext(2);
+
+        AnalysisContext.setCurrent(context1);
+        Parameter parameter1 = new Parameter.Default(1.0);
+        AnalysisContext.setCurrent(context2);
+        Parameter parameter2 = new Parameter.Default(2.0);
+
+        assertTrue(context1.getFullParameterSet().contains(parameter1));
+        assertFalse(context1.getFullParameterSet().contains(parameter2));
+        assertTrue(context2.getFullParameterSet().contains(parameter2));
+        assertFalse(context2.getFullParameterSet().contains(parameter1));
+
+        // threads started by an analysis belong to it
+        final Parameter[] created = new Parameter[1];
+        Thread thread = new Thread() {
+            public void run() {
+                created[0] = new Parameter.Default(3.0);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertTrue(context2.getFullParameterSet().contains(created[0]));
+
+        AnalysisContext.setCurrent(null);
+        assertSame(AnalysisContext.getDefault(), AnalysisContext.getCurrent());
+    }
+
+    private static class Analysis extends Thread {
+        Analysis(AnalysisContext context, int count) {
+            this.context = context;
+            this.draws = new double[count];
+        }
+
+        public void run() {
+            AnalysisContext.setCurrent(context);
+            for (int i = 0; i < draws.length; i++) {
+                draws[i] = MathUtils.nextDouble();
+            }
+        }
+
+        private final AnalysisContext context;
+        private final double[] draws;
+    }
+}
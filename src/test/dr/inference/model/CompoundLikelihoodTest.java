@@ -0,0 +1,122 @@
+package test.dr.inference.model;
+
+import dr.inference.model.*;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks a threaded CompoundLikelihood only hands the likelihoods that have changed to its
+ * thread pool and evaluates the others on the calling thread.
+ */
+public class CompoundLikelihoodTest extends TestCase {
+
+    public CompoundLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        List<Likelihood> list = new ArrayList<Likelihood>();
+        for (int i = 0; i < 6; i++) {
+            TestLikelihood likelihood = new TestLikelihood(i);
+            likelihoods.add(likelihood);
+            list.add(likelihood);
+        }
+        compoundLikelihood = new CompoundLikelihood(3, list);
+    }
+
+    public void testDirtyDispatch() {
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood(), 1E-10);
+        for (TestLikelihood likelihood : likelihoods) {
+            assertEquals(1, likelihood.calculationCount);
+        }
+
+        // nothing has changed so nothing is recalculated or sent to the pool
+        compoundLikelihood.getLogLikelihood();
+        for (TestLikelihood likelihood : likelihoods) {
+            assertEquals(1, likelihood.calculationCount);
+            assertSame(Thread.currentThread(), likelihood.thread);
+        }
+
+        likelihoods.get(2).parameter.setParameterValue(0, 10.0);
+        likelihoods.get(4).parameter.setParameterValue(0, 20.0);
+
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood(), 1E-10);
+        for (int i = 0; i < likelihoods.size(); i++) {
+            assertEquals(i == 2 || i == 4 ? 2 : 1, likelihoods.get(i).calculationCount);
+        }
+
+        compoundLikelihood.makeDirty();
+        assertEquals(getExpectedLogLikelihood(), compoundLikelihood.getLogLikelihood(), 1E-10);
+        for (int i = 0; i < likelihoods.size(); i++) {
+            assertEquals(i == 2 || i == 4 ? 3 : 2, likelihoods.get(i).calculationCount);
+        }
+    }
+
+    private double getExpectedLogLikelihood() {
+        double logL = 0.0;
+        for (TestLikelihood likelihood : likelihoods) {
+            logL -= likelihood.parameter.getParameterValue(0);
+        }
+        return logL;
+    }
+
+    /**
+     * A likelihood that caches its value and counts how often it is calculated
+     */
+    private static class TestLikelihood extends AbstractModelLikelihood {
+
+        TestLikelihood(int index) {
+            super("test" + index);
+            parameter = new Parameter.Default(index + 1.0);
+            addVariable(parameter);
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            thread = Thread.currentThread();
+            if (!likelihoodKnown) {
+                logLikelihood = -parameter.getParameterValue(0);
+                likelihoodKnown = true;
+                calculationCount++;
+            }
+            return logLikelihood;
+        }
+
+        public void makeDirty() {
+            likelihoodKnown = false;
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            likelihoodKnown = false;
+        }
+
+        protected void storeState() {
+        }
+
+        protected void restoreState() {
+            likelihoodKnown = false;
+        }
+
+        protected void acceptState() {
+        }
+
+        private final Parameter parameter;
+        private volatile Thread thread;
+        private volatile int calculationCount = 0;
+        private boolean likelihoodKnown = false;
+        private double logLikelihood;
+    }
+
+    private final List<TestLikelihood> likelihoods = new ArrayList<TestLikelihood>();
+    private CompoundLikelihood compoundLikelihood;
+}
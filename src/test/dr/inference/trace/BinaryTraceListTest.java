@@ -0,0 +1,77 @@
+package test.dr.inference.trace;
+
+import dr.inference.loggers.BinaryTraceFormatter;
+import dr.inference.trace.BinaryTraceList;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceType;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Checks that a binary trace file reads back with the same values and types as were logged.
+ */
+
+public class BinaryTraceListTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        File file = File.createTempFile("trace", ".btrace");
+        file.deleteOnExit();
+
+        // a small chunk size so the traces are spread over several chunks
+        BinaryTraceFormatter formatter = new BinaryTraceFormatter(new FileOutputStream(file), 7);
+        formatter.logHeading("a test log");
+        formatter.logLabels(new String[]{"state", "real", "count", "model"});
+        for (int i = 0; i <= 100; i++) {
+            formatter.logValues(new String[]{
+                    Integer.toString(i * 10), Double.toString(i * 0.5 + 0.25), Integer.toString(i % 3),
+                    i < 50 ? "1" : (i % 2 == 0 ? "HKY" : "GTR")
+            });
+        }
+        formatter.stopLogging();
+
+        assertTrue(BinaryTraceList.isBinaryTraceFile(file));
+
+        BinaryTraceList traces = new BinaryTraceList(file.getName(), file);
+        traces.loadTraces();
+
+        assertEquals(3, traces.getTraceCount());
+        assertEquals(1000, traces.getMaxState());
+        assertEquals(10, traces.getStepSize());
+        assertEquals(100, traces.getBurnIn());
+        assertEquals(91, traces.getStateCount());
+
+        Trace real = traces.getTrace(traces.getTraceIndex("real"));
+        assertEquals(TraceType.REAL, real.getTraceType());
+        assertEquals(101, real.getValueCount());
+        assertEquals(37 * 0.5 + 0.25, real.getValue(37));
+
+        Trace count = traces.getTrace(1);
+        assertEquals(TraceType.INTEGER, count.getTraceType());
+        assertEquals(2.0, count.getValue(98));
+
+        Trace model = traces.getTrace(2);
+        assertEquals(TraceType.CATEGORICAL, model.getTraceType());
+        // the numbers logged before the column became categorical read as they were logged
+        assertEquals("1", model.getCategoryLabel(0));
+        assertEquals("1", model.getCategoryLabel(49));
+        assertEquals("GTR", model.getCategoryLabel(51));
+        assertEquals("HKY", model.getCategoryLabel(100));
+
+        traces.setBurnIn(500);
+        assertEquals(51, traces.getValues(0).size());
+        assertEquals(50 * 0.5 + 0.25, traces.getValues(0).get(0));
+
+        // a chunk that was only partly written is ignored
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 10);
+        raf.close();
+
+        traces = new BinaryTraceList(file.getName(), file);
+        traces.loadTraces();
+        assertEquals(970, traces.getMaxState());
+        assertEquals(98, traces.getTrace(0).getValueCount());
+    }
+}
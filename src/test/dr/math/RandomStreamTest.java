@@ -0,0 +1,51 @@
+package test.dr.math;
+
+import dr.math.MathUtils;
+import dr.math.MersenneTwisterFast;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the independent random number streams in MathUtils are reproducible given the seed.
+ */
+
+public class RandomStreamTest extends TestCase {
+
+    public void testStreamsReproducible() {
+        MathUtils.setSeed(666);
+        double a = MathUtils.getRandomStream(0).nextDouble();
+        double b = MathUtils.getRandomStream(3).nextDouble();
+
+        // creating the streams in a different order should give the same sequences
+        MathUtils.setSeed(666);
+        assertEquals(b, MathUtils.getRandomStream(3).nextDouble());
+        assertEquals(a, MathUtils.getRandomStream(0).nextDouble());
+
+        assertTrue(a != b);
+    }
+
+    public void testThreadStream() throws Exception {
+        MathUtils.setSeed(666);
+        final MersenneTwisterFast stream = MathUtils.getRandomStream(1);
+        final int[] state = stream.getRandomState();
+        final double[] draws = new double[2];
+
+        Thread thread = new Thread() {
+            public void run() {
+                MathUtils.setThreadRandomStream(stream);
+                draws[0] = MathUtils.nextDouble();
+                MathUtils.setThreadRandomStream(null);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        // the thread should have drawn from its stream rather than the shared generator
+        stream.setRandomState(state);
+        draws[1] = stream.nextDouble();
+        assertEquals(draws[1], draws[0]);
+
+        // and the state of the stream can be restored as it is by the checkpointer
+        MathUtils.setRandomStreamState(1, state);
+        assertEquals(draws[1], MathUtils.getRandomStream(1).nextDouble());
+    }
+}
@@ -0,0 +1,135 @@
+package test.dr.math;
+
+import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalMatrix;
+import junit.framework.TestCase;
+import no.uib.cipr.matrix.*;
+
+/**
+ * Checks the factorization and solves of SymmetricTridiagonalMatrix against the MTJ band matrices
+ * the GMRF block update operators used before (the results should be exactly the same).
+ */
+public class SymmetricTridiagonalMatrixTest extends TestCase {
+
+    public SymmetricTridiagonalMatrixTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // the scaled weights of a GMRF plus a positive diagonal, as in the block update
+        double[] diagonal = new double[DIMENSION];
+        double[] offDiagonal = new double[DIMENSION - 1];
+        for (int i = 0; i < DIMENSION - 1; i++) {
+            offDiagonal[i] = -1.0 / (0.1 + MathUtils.nextDouble());
+        }
+        for (int i = 0; i < DIMENSION; i++) {
+            diagonal[i] = (i > 0 ? -offDiagonal[i - 1] : 0.0) + (i < DIMENSION - 1 ? -offDiagonal[i] : 0.0) +
+                    MathUtils.nextDouble();
+        }
+
+        mtjMatrix = new SymmTridiagMatrix(diagonal, offDiagonal);
+        matrix = new SymmetricTridiagonalMatrix(DIMENSION);
+        matrix.set(diagonal, offDiagonal);
+
+        b = new double[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            b[i] = MathUtils.nextGaussian();
+        }
+    }
+
+    public void testMultiply() {
+        DenseVector y = new DenseVector(DIMENSION);
+        mtjMatrix.mult(new DenseVector(b), y);
+
+        double[] x = new double[DIMENSION];
+        matrix.multiply(b, x);
+
+        for (int i = 0; i < DIMENSION; i++) {
+            assertEquals(y.get(i), x[i], 0.0);
+        }
+        assertEquals(new DenseVector(b).dot(y), matrix.quadraticForm(b), 0.0);
+    }
+
+    public void testScaled() {
+        double precision = 2.5;
+        double lambda = 0.7;
+
+        SymmTridiagMatrix scaled = mtjMatrix.copy();
+        for (int i = 0; i < DIMENSION - 1; i++) {
+            scaled.set(i, i, precision * (1 - lambda + lambda * scaled.get(i, i)));
+            scaled.set(i + 1, i, scaled.get(i + 1, i) * precision * lambda);
+        }
+        scaled.set(DIMENSION - 1, DIMENSION - 1, precision * (1 - lambda + lambda * scaled.get(DIMENSION - 1, DIMENSION - 1)));
+
+        SymmetricTridiagonalMatrix other = new SymmetricTridiagonalMatrix(DIMENSION);
+        other.setScaled(matrix.getDiagonal(), matrix.getOffDiagonal(), precision, lambda);
+
+        for (int i = 0; i < DIMENSION; i++) {
+            for (int j = 0; j < DIMENSION; j++) {
+                assertEquals(scaled.get(i, j), other.get(i, j), 0.0);
+            }
+        }
+    }
+
+    public void testCholesky() {
+        BandCholesky cholesky = new BandCholesky(DIMENSION, 1, true);
+        cholesky.factor(new UpperSPDBandMatrix(mtjMatrix, 1));
+        UpperTriangBandMatrix upper = cholesky.getU();
+
+        assertTrue(matrix.factor());
+
+        // U' U x = b
+        DenseVector temp = new DenseVector(DIMENSION);
+        DenseVector expected = new DenseVector(DIMENSION);
+        upper.transSolve(new DenseVector(b), temp);
+        upper.solve(temp, expected);
+
+        double[] x = new double[DIMENSION];
+        matrix.solveFactored(b, x);
+        for (int i = 0; i < DIMENSION; i++) {
+            assertEquals(expected.get(i), x[i], 0.0);
+        }
+
+        // U x = b
+        upper.solve(new DenseVector(b), expected);
+        matrix.backSolve(b, x);
+        for (int i = 0; i < DIMENSION; i++) {
+            assertEquals(expected.get(i), x[i], 0.0);
+        }
+
+        double logHalfDeterminant = 0.0;
+        for (int i = 0; i < DIMENSION; i++) {
+            logHalfDeterminant += Math.log(upper.get(i, i));
+        }
+        assertEquals(logHalfDeterminant, 0.5 * matrix.getLogDeterminant(), 0.0);
+    }
+
+    public void testSolve() {
+        DenseVector expected = new DenseVector(DIMENSION);
+        new SPDTridiagMatrix(mtjMatrix, true).solve(new DenseVector(b), expected);
+
+        double[] x = new double[DIMENSION];
+        assertTrue(matrix.solve(b, x));
+        for (int i = 0; i < DIMENSION; i++) {
+            assertEquals(expected.get(i), x[i], 0.0);
+        }
+    }
+
+    public void testNotPositiveDefinite() {
+        SymmetricTridiagonalMatrix other = new SymmetricTridiagonalMatrix(2);
+        other.set(new double[]{1.0, 1.0}, new double[]{2.0});
+
+        assertFalse(other.factor());
+        assertFalse(other.solve(new double[]{1.0, 1.0}, new double[2]));
+    }
+
+    private static final int DIMENSION = 50;
+
+    private SymmTridiagMatrix mtjMatrix;
+    private SymmetricTridiagonalMatrix matrix;
+    private double[] b;
+}